@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.ChunkedStreamSinkChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+import org.xnio.Pool;
+
+/**
+ * Benchmarks writing a response body through {@link ChunkedStreamSinkChannel}, including the
+ * final chunk written on shutdown.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkedStreamSinkChannelBenchmark {
+
+    /**
+     * The size of each write
+     */
+    @Param({"16", "1024", "16384"})
+    private int chunkSize;
+
+    /**
+     * The number of writes that make up a response
+     */
+    @Param({"1", "8"})
+    private int writes;
+
+    private Pool<ByteBuffer> pool;
+    private DiscardingStreamSinkChannel sink;
+    private ByteBuffer data;
+
+    @Setup
+    public void setup() {
+        pool = new ByteBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, 8192, 8192 * 64);
+        sink = new DiscardingStreamSinkChannel();
+        data = ByteBuffer.allocateDirect(chunkSize);
+        while (data.hasRemaining()) {
+            data.put((byte) 'a');
+        }
+    }
+
+    @Benchmark
+    public long writeChunked() throws IOException {
+        sink.reset();
+        final ChunkedStreamSinkChannel channel = new ChunkedStreamSinkChannel(sink, false, false, null, pool);
+        for (int i = 0; i < writes; ++i) {
+            data.clear();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+        channel.shutdownWrites();
+        while (!channel.flush()) {
+            //the discarding channel accepts everything, so this should not loop
+        }
+        return sink.getWritten();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.xnio.ChannelListener;
+import org.xnio.Option;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+
+/**
+ * A sink channel that accepts and throws away everything written to it, so benchmarks measure
+ * the cost of the channel stack above it rather than the cost of a socket.
+ * <p/>
+ * The number of bytes written is tracked so that benchmarks have something to return to the
+ * JMH blackhole.
+ */
+public class DiscardingStreamSinkChannel implements StreamSinkChannel {
+
+    private final ChannelListener.SimpleSetter<DiscardingStreamSinkChannel> writeSetter = new ChannelListener.SimpleSetter<DiscardingStreamSinkChannel>();
+    private final ChannelListener.SimpleSetter<DiscardingStreamSinkChannel> closeSetter = new ChannelListener.SimpleSetter<DiscardingStreamSinkChannel>();
+
+    private long written;
+    private boolean open = true;
+
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Resets the channel so it can be reused for the next benchmark invocation
+     */
+    public void reset() {
+        written = 0;
+        open = true;
+    }
+
+    @Override
+    public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+        written += count;
+        return count;
+    }
+
+    @Override
+    public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+        throughBuffer.clear().limit(0);
+        return 0;
+    }
+
+    @Override
+    public ChannelListener.Setter<? extends StreamSinkChannel> getWriteSetter() {
+        return writeSetter;
+    }
+
+    @Override
+    public ChannelListener.Setter<? extends StreamSinkChannel> getCloseSetter() {
+        return closeSetter;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        final int remaining = src.remaining();
+        src.position(src.limit());
+        written += remaining;
+        return remaining;
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public void suspendWrites() {
+    }
+
+    @Override
+    public void resumeWrites() {
+    }
+
+    @Override
+    public boolean isWriteResumed() {
+        return false;
+    }
+
+    @Override
+    public void wakeupWrites() {
+    }
+
+    @Override
+    public void shutdownWrites() throws IOException {
+        open = false;
+    }
+
+    @Override
+    public void awaitWritable() throws IOException {
+    }
+
+    @Override
+    public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
+    }
+
+    @Override
+    public XnioExecutor getWriteThread() {
+        return null;
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+    }
+
+    @Override
+    public XnioWorker getWorker() {
+        return null;
+    }
+
+    @Override
+    public boolean supportsOption(final Option<?> option) {
+        return false;
+    }
+
+    @Override
+    public <T> T getOption(final Option<T> option) throws IOException {
+        return null;
+    }
+
+    @Override
+    public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException, IOException {
+        return null;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for {@link HeaderMap}, using the set of headers a typical browser request carries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderMapBenchmark {
+
+    private static final HttpString[] NAMES = {
+            Headers.HOST,
+            Headers.USER_AGENT,
+            Headers.ACCEPT,
+            Headers.ACCEPT_LANGUAGE,
+            Headers.ACCEPT_ENCODING,
+            Headers.CONNECTION,
+            Headers.COOKIE,
+            Headers.CACHE_CONTROL,
+            new HttpString("X-Forwarded-For"),
+            new HttpString("X-Request-Id")
+    };
+
+    private static final String[] VALUES = {
+            "www.example.com",
+            "Mozilla/5.0 (X11; Linux x86_64; rv:17.0) Gecko/20100101 Firefox/17.0",
+            "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8",
+            "en-US,en;q=0.5",
+            "gzip, deflate",
+            "keep-alive",
+            "JSESSIONID=8w8xN3o3EEmMJrbeEuOUBl7k; theme=dark",
+            "max-age=0",
+            "10.0.0.1",
+            "8c0d3e0c-0bd4-4b0c-8e0b-2f4cc2d3d3ad"
+    };
+
+    private HeaderMap populated;
+    private HttpString lookupDifferentInstance;
+
+    @Setup
+    public void setup() {
+        populated = new HeaderMap();
+        for (int i = 0; i < NAMES.length; ++i) {
+            populated.add(NAMES[i], VALUES[i]);
+        }
+        lookupDifferentInstance = new HttpString("user-agent");
+    }
+
+    @Benchmark
+    public HeaderMap populate() {
+        final HeaderMap map = new HeaderMap();
+        for (int i = 0; i < NAMES.length; ++i) {
+            map.add(NAMES[i], VALUES[i]);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public String getFirst() {
+        return populated.getFirst(Headers.COOKIE);
+    }
+
+    @Benchmark
+    public String getFirstDifferentInstance() {
+        return populated.getFirst(lookupDifferentInstance);
+    }
+
+    @Benchmark
+    public String getFirstMissing() {
+        return populated.getFirst(Headers.AUTHORIZATION);
+    }
+
+    @Benchmark
+    public void iterate(final Blackhole blackhole) {
+        for (HttpString name : populated) {
+            blackhole.consume(populated.get(name));
+        }
+    }
+
+    @Benchmark
+    public HeaderMap putRemove() {
+        populated.put(Headers.CONTENT_LENGTH, "100");
+        populated.remove(Headers.CONTENT_LENGTH);
+        return populated;
+    }
+}
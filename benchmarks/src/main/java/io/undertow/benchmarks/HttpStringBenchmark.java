@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link HttpString} hashing, case insensitive equality and construction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpStringBenchmark {
+
+    private HttpString known;
+    private HttpString sameCase;
+    private HttpString differentCase;
+    private HttpString different;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        known = Headers.CONTENT_TYPE;
+        sameCase = new HttpString("Content-Type");
+        differentCase = new HttpString("content-type");
+        different = new HttpString("Content-Length");
+        bytes = "X-Some-Custom-Header".getBytes();
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return sameCase.hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsIdentical() {
+        return known.equals(known);
+    }
+
+    @Benchmark
+    public boolean equalsSameCase() {
+        return known.equals(sameCase);
+    }
+
+    @Benchmark
+    public boolean equalsDifferentCase() {
+        return known.equals(differentCase);
+    }
+
+    @Benchmark
+    public boolean equalsDifferent() {
+        return known.equals(different);
+    }
+
+    @Benchmark
+    public int compareToDifferentCase() {
+        return known.compareTo(differentCase);
+    }
+
+    @Benchmark
+    public HttpString fromBytes() {
+        return new HttpString(bytes);
+    }
+
+    @Benchmark
+    public HttpString tryFromString() {
+        return HttpString.tryFromString("Content-Type");
+    }
+
+    @Benchmark
+    public String toStringOf() {
+        return new HttpString(bytes).toString();
+    }
+}
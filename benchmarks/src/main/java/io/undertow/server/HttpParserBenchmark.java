@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the generated {@link HttpParser}.
+ * <p/>
+ * This lives in the {@code io.undertow.server} package as the exchange constructor is package private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpParserBenchmark {
+
+    private static final String SIMPLE_REQUEST = "GET /index.html HTTP/1.1\r\n" +
+            "Host: www.example.com\r\n" +
+            "\r\n";
+
+    private static final String BROWSER_REQUEST = "GET /shop/products/list.html?category=books&page=2&sort=price HTTP/1.1\r\n" +
+            "Host: www.example.com\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:17.0) Gecko/20100101 Firefox/17.0\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+            "Accept-Language: en-US,en;q=0.5\r\n" +
+            "Accept-Encoding: gzip, deflate\r\n" +
+            "Connection: keep-alive\r\n" +
+            "Referer: http://www.example.com/shop/index.html\r\n" +
+            "Cookie: JSESSIONID=8w8xN3o3EEmMJrbeEuOUBl7k; theme=dark\r\n" +
+            "Cache-Control: max-age=0\r\n" +
+            "X-Request-Id: 8c0d3e0c-0bd4-4b0c-8e0b-2f4cc2d3d3ad\r\n" +
+            "\r\n";
+
+    private ByteBuffer simpleRequest;
+    private ByteBuffer browserRequest;
+
+    @Setup
+    public void setup() {
+        simpleRequest = toBuffer(SIMPLE_REQUEST);
+        browserRequest = toBuffer(BROWSER_REQUEST);
+    }
+
+    private static ByteBuffer toBuffer(final String request) {
+        final byte[] bytes = request.getBytes();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Benchmark
+    public HttpServerExchange parseSimpleRequest() {
+        return parse(simpleRequest);
+    }
+
+    @Benchmark
+    public HttpServerExchange parseBrowserRequest() {
+        return parse(browserRequest);
+    }
+
+    /**
+     * Parses the request in two halves, to measure the cost of resuming the parser when a request
+     * is split over multiple reads.
+     */
+    @Benchmark
+    public HttpServerExchange parseBrowserRequestSplit() {
+        final ByteBuffer buffer = browserRequest;
+        buffer.clear();
+        final int half = buffer.remaining() / 2;
+        final ParseState state = new ParseState();
+        final HttpServerExchange exchange = new HttpServerExchange(null, null, null, null, null);
+        buffer.limit(half);
+        HttpParser.INSTANCE.handle(buffer, half, state, exchange);
+        buffer.limit(buffer.capacity());
+        HttpParser.INSTANCE.handle(buffer, buffer.remaining(), state, exchange);
+        return exchange;
+    }
+
+    private static HttpServerExchange parse(final ByteBuffer buffer) {
+        buffer.clear();
+        final ParseState state = new ParseState();
+        final HttpServerExchange exchange = new HttpServerExchange(null, null, null, null, null);
+        HttpParser.INSTANCE.handle(buffer, buffer.remaining(), state, exchange);
+        return exchange;
+    }
+}
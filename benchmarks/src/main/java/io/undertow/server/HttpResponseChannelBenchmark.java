@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.benchmarks.DiscardingStreamSinkChannel;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Protocols;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+import org.xnio.Pool;
+
+/**
+ * Benchmarks serialization of the status line and response headers by {@link HttpResponseChannel}.
+ * <p/>
+ * This lives in the {@code io.undertow.server} package as the channel is package private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpResponseChannelBenchmark {
+
+    private Pool<ByteBuffer> pool;
+    private DiscardingStreamSinkChannel sink;
+    private HttpServerExchange noHeaders;
+    private HttpServerExchange typicalHeaders;
+    private ByteBuffer body;
+
+    @Setup
+    public void setup() {
+        pool = new ByteBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, 8192, 8192 * 64);
+        sink = new DiscardingStreamSinkChannel();
+
+        noHeaders = new HttpServerExchange(null, null, null, null, null);
+        noHeaders.setProtocol(Protocols.HTTP_1_1);
+
+        typicalHeaders = new HttpServerExchange(null, null, null, null, null);
+        typicalHeaders.setProtocol(Protocols.HTTP_1_1);
+        typicalHeaders.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/html; charset=UTF-8");
+        typicalHeaders.getResponseHeaders().put(Headers.CONTENT_LENGTH, "1024");
+        typicalHeaders.getResponseHeaders().put(Headers.SERVER, "Undertow");
+        typicalHeaders.getResponseHeaders().put(Headers.DATE, "Tue, 15 Nov 1994 08:12:31 GMT");
+        typicalHeaders.getResponseHeaders().put(Headers.CACHE_CONTROL, "no-cache");
+        typicalHeaders.getResponseHeaders().add(Headers.SET_COOKIE, "JSESSIONID=8w8xN3o3EEmMJrbeEuOUBl7k; path=/");
+        typicalHeaders.getResponseHeaders().add(Headers.SET_COOKIE, "theme=dark; path=/");
+        typicalHeaders.getResponseHeaders().put(new HttpString("X-Request-Id"), "8c0d3e0c-0bd4-4b0c-8e0b-2f4cc2d3d3ad");
+
+        body = ByteBuffer.allocateDirect(1024);
+    }
+
+    @Benchmark
+    public long writeNoHeaders() throws IOException {
+        return writeResponse(noHeaders, false);
+    }
+
+    @Benchmark
+    public long writeTypicalHeaders() throws IOException {
+        return writeResponse(typicalHeaders, false);
+    }
+
+    /**
+     * Writes the headers along with a body, which exercises the gathering write path
+     */
+    @Benchmark
+    public long writeTypicalHeadersWithBody() throws IOException {
+        return writeResponse(typicalHeaders, true);
+    }
+
+    private long writeResponse(final HttpServerExchange exchange, final boolean withBody) throws IOException {
+        sink.reset();
+        final HttpResponseChannel channel = new HttpResponseChannel(sink, pool, exchange, false);
+        if (withBody) {
+            body.clear();
+            channel.write(body);
+        } else {
+            channel.flush();
+        }
+        return sink.getWritten();
+    }
+}
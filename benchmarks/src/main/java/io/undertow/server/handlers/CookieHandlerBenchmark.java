@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for parsing the request Cookie header.
+ * <p/>
+ * This lives in the {@code io.undertow.server.handlers} package as the parse method is package private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CookieHandlerBenchmark {
+
+    private static final String SINGLE_COOKIE = "JSESSIONID=8w8xN3o3EEmMJrbeEuOUBl7k";
+
+    private static final String MULTIPLE_COOKIES = "JSESSIONID=8w8xN3o3EEmMJrbeEuOUBl7k; theme=dark; " +
+            "tracking=\"a3f9c1e2\"; lang=en-US; $Path=/; $Domain=example.com";
+
+    @Benchmark
+    public Map<String, Cookie> parseSingleCookie() {
+        final Map<String, Cookie> cookies = new HashMap<String, Cookie>();
+        CookieHandler.parseCookie(SINGLE_COOKIE, cookies);
+        return cookies;
+    }
+
+    @Benchmark
+    public Map<String, Cookie> parseMultipleCookies() {
+        final Map<String, Cookie> cookies = new HashMap<String, Cookie>();
+        CookieHandler.parseCookie(MULTIPLE_COOKIES, cookies);
+        return cookies;
+    }
+}
@@ -129,4 +129,44 @@ public interface UndertowLogger extends BasicLogger {
     @Message(id = 5021, value = "Verification of authentication tokens for user '%s' has failed using mechanism '%s'.")
     void authenticationFailed(final String userName, final String mechanism);
 
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 5022, value = "Failed to watch %s for changes, cached files may be served after they have changed")
+    void failedToWatchForChanges(File file, @Cause Throwable cause);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 5023, value = "Failed to passivate session %s, the session has been discarded")
+    void failedToPassivateSession(String sessionId, @Cause Throwable cause);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 5024, value = "Failed to activate session %s")
+    void failedToActivateSession(String sessionId, @Cause Throwable cause);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 5025, value = "Failed to remove expired sessions from session store %s")
+    void failedToPurgeSessionStore(File file, @Cause Throwable cause);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 5026, value = "Failed to write back session attribute %s, changes made to it by the request have been lost")
+    void failedToWriteBackSessionAttribute(String name, @Cause Throwable cause);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 5027, value = "Failed to write access log entries")
+    void errorWritingAccessLog(@Cause IOException cause);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 5028, value = "Exchange completion listener %s threw an exception")
+    void exceptionInCompletionListener(Object listener, @Cause Throwable cause);
+
+    @LogMessage(level = Logger.Level.DEBUG)
+    @Message(id = 5029, value = "Failed to proxy request to %s")
+    void proxyRequestFailed(String target, @Cause Throwable cause);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 5030, value = "Proxy backend %s failed its health check and has been marked as unavailable")
+    void proxyBackendUnavailable(String backend);
+
+    @LogMessage(level = Logger.Level.INFO)
+    @Message(id = 5031, value = "Proxy backend %s passed its health check and is available again")
+    void proxyBackendAvailable(String backend);
+
 }
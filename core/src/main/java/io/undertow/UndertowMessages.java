@@ -18,9 +18,11 @@
 
 package io.undertow;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
 
+import io.undertow.util.CollidingHeadersException;
 import org.jboss.logging.annotations.Cause;
 import org.jboss.logging.annotations.Message;
 import org.jboss.logging.annotations.MessageBundle;
@@ -107,4 +109,61 @@ public interface UndertowMessages {
     @Message(id = 26, value = "Invalid header received.")
     IllegalArgumentException invalidHeader();
 
+    @Message(id = 27, value = "Invalid compression level %s, the level must be between -1 and 9")
+    IllegalArgumentException invalidCompressionLevel(int level);
+
+    @Message(id = 28, value = "Watching files for changes requires Java 7 or later")
+    IllegalStateException fileWatchingNotSupported();
+
+    @Message(id = 29, value = "Session store %s has been closed")
+    IllegalStateException sessionStoreClosed(File file);
+
+    @Message(id = 30, value = "Session attribute %s could not be serialized")
+    IllegalArgumentException sessionAttributeNotSerializable(String name, @Cause Throwable cause);
+
+    @Message(id = 31, value = "Session attribute %s could not be deserialized")
+    IllegalStateException sessionAttributeNotDeserializable(String name, @Cause Throwable cause);
+
+    @Message(id = 32, value = "No off heap memory left to store session attributes")
+    IllegalStateException sessionAttributeStorageExhausted();
+
+    @Message(id = 33, value = "Invalid access log pattern %s at position %s")
+    IllegalArgumentException invalidAccessLogPattern(String pattern, int position);
+
+    @Message(id = 34, value = "Exchange is already complete")
+    IllegalStateException exchangeAlreadyComplete();
+
+    @Message(id = 35, value = "Connection closed")
+    IOException connectionClosed();
+
+    @Message(id = 36, value = "The request has already been started")
+    IllegalStateException requestAlreadyStarted();
+
+    @Message(id = 37, value = "Malformed HTTP response")
+    IOException malformedResponse();
+
+    @Message(id = 38, value = "Response header was larger than %s bytes")
+    IOException responseHeaderTooLarge(int maxSize);
+
+    @Message(id = 39, value = "Connection upgrades are not supported by this client")
+    IOException upgradeNotSupported();
+
+    @Message(id = 40, value = "The connection attempt was cancelled")
+    IOException connectCancelled();
+
+    @Message(id = 41, value = "The client has been closed")
+    IOException clientClosed();
+
+    @Message(id = 42, value = "Invalid request URI %s, only absolute http URIs are supported")
+    IllegalArgumentException invalidClientRequestUri(String uri);
+
+    @Message(id = 43, value = "Invalid path template %s")
+    IllegalArgumentException invalidPathTemplate(String template);
+
+    @Message(id = 44, value = "Invalid concurrency limits, initial %s, minimum %s, maximum %s. The initial limit must be between the minimum and the maximum")
+    IllegalArgumentException invalidConcurrencyLimits(int initialLimit, int minLimit, int maxLimit);
+
+    @Message(id = 45, value = "Too many headers with colliding hashes")
+    CollidingHeadersException tooManyCollidingHeaders();
+
 }
@@ -50,6 +50,14 @@ public class UndertowOptions {
      */
     public static Option<Integer> MAX_REQUESTS_PER_CONNECTION = Option.simple(UndertowOptions.class, "MAX_REQUESTS_PER_CONNECTION", Integer.class);
 
+    /**
+     * If the server should add a {@code Date} header to responses that do not already have one. The date is
+     * cached and recomputed at most once a second, so this is cheap. The header is added to the response
+     * headers when the response is committed, so it is visible to anything that inspects them afterwards.
+     * Defaults to false.
+     */
+    public static final Option<Boolean> ALWAYS_SET_DATE = Option.simple(UndertowOptions.class, "ALWAYS_SET_DATE", Boolean.class);
+
     private UndertowOptions() {
 
     }
@@ -24,8 +24,13 @@ package io.undertow.client;
 
 import java.io.Closeable;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
 import org.xnio.IoFuture;
 import org.xnio.OptionMap;
+import org.xnio.Pool;
 import org.xnio.XnioWorker;
 import io.undertow.util.Methods;
 
@@ -39,6 +44,24 @@ public abstract class HttpClient implements Closeable {
         this.worker = worker;
     }
 
+    /**
+     * Creates a client that performs all IO on the IO threads of the given worker, and keeps a pool of persistent
+     * connections for every destination.
+     *
+     * @param worker     the worker
+     * @param bufferPool the pool that buffers for reading responses and writing request headers are taken from,
+     *                   this is normally shared with the server
+     * @param options    the client options, see {@link HttpClientOptions}
+     * @return the client
+     */
+    public static HttpClient create(final XnioWorker worker, final Pool<ByteBuffer> bufferPool, final OptionMap options) {
+        return new HttpClientImpl(worker, bufferPool, options);
+    }
+
+    public static HttpClient create(final XnioWorker worker, final OptionMap options) {
+        return create(worker, new ByteBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, 8192, 8192 * 64), options);
+    }
+
     public XnioWorker getWorker() {
         return worker;
     }
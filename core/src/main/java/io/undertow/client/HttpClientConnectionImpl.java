@@ -0,0 +1,421 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package io.undertow.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import io.undertow.UndertowMessages;
+import io.undertow.UndertowOptions;
+import io.undertow.util.ChunkedStreamSourceChannel;
+import io.undertow.util.CollidingHeadersException;
+import io.undertow.util.ConcreteIoFuture;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.Protocols;
+import org.xnio.ChannelListener;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Pool;
+import org.xnio.Pooled;
+import org.xnio.channels.ConnectedStreamChannel;
+import org.xnio.channels.EmptyStreamSourceChannel;
+import org.xnio.channels.FixedLengthStreamSourceChannel;
+import org.xnio.channels.PushBackStreamChannel;
+import org.xnio.channels.StreamSourceChannel;
+
+/**
+ * A HTTP/1.1 client connection.
+ * <p/>
+ * Requests are written in the order they are sent, and a new request can only be sent once the previous request
+ * has been completely written. If pipelining is enabled using {@link HttpClientOptions#MAX_PIPELINED_REQUESTS}
+ * further requests can be sent before the responses to the earlier ones have been read, otherwise a new request
+ * can only be sent once the previous response body has been read.
+ * <p/>
+ * Responses are read by a listener on the read thread of the connection, the response future of a request is
+ * completed as soon as the response headers have been parsed.
+ */
+final class HttpClientConnectionImpl extends HttpClientConnection {
+
+    private final ConnectedStreamChannel channel;
+    private final PushBackStreamChannel readChannel;
+    private final HttpClientImpl.ConnectionPool pool;
+    private final Pool<ByteBuffer> bufferPool;
+    private final int maxPipelinedRequests;
+    private final int maxHeaderSize;
+    private final String hostHeader;
+
+    private final ResponseReadListener readListener = new ResponseReadListener();
+
+    /**
+     * Requests that have been sent but whose response has not been completely read, guarded by this
+     */
+    private final Deque<HttpClientRequestImpl> pending = new ArrayDeque<HttpClientRequestImpl>();
+    private HttpClientRequestImpl lastRequest;
+    private boolean persistent = true;
+    private boolean pooled;
+
+    HttpClientConnectionImpl(final ConnectedStreamChannel channel, final HttpClientImpl client, final HttpClientImpl.ConnectionPool pool, final OptionMap options) {
+        super(client);
+        this.channel = channel;
+        this.pool = pool;
+        this.bufferPool = client.getBufferPool();
+        this.maxPipelinedRequests = Math.max(1, options.get(HttpClientOptions.MAX_PIPELINED_REQUESTS, HttpClientOptions.DEFAULT_MAX_PIPELINED_REQUESTS));
+        this.maxHeaderSize = options.get(UndertowOptions.MAX_HEADER_SIZE, UndertowOptions.DEFAULT_MAX_HEADER_SIZE);
+        this.hostHeader = hostHeader(channel.getPeerAddress());
+        this.readChannel = new PushBackStreamChannel(channel);
+        channel.getCloseSetter().set(new ChannelListener<ConnectedStreamChannel>() {
+            @Override
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                connectionClosed(UndertowMessages.MESSAGES.connectionClosed());
+            }
+        });
+        //reads are always resumed while the connection is idle, so that it is closed if the server closes it
+        readChannel.getReadSetter().set(readListener);
+        readChannel.resumeReads();
+    }
+
+    ConnectedStreamChannel getChannel() {
+        return channel;
+    }
+
+    Pool<ByteBuffer> getBufferPool() {
+        return bufferPool;
+    }
+
+    String getHostHeader() {
+        return hostHeader;
+    }
+
+    public SocketAddress getPeerAddress() {
+        return channel.getPeerAddress();
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public HttpClientRequest sendRequest(final String method, final URI target) {
+        return sendRequest(new HttpString(method), target);
+    }
+
+    HttpClientRequestImpl sendRequest(final HttpString method, final URI target) {
+        final HttpClientRequestImpl request;
+        synchronized (this) {
+            if (!persistent || !channel.isOpen() || pending.size() >= maxPipelinedRequests || lastRequest != null && !lastRequest.isComplete()) {
+                return null;
+            }
+            request = new HttpClientRequestImpl(this, method, target);
+            pending.add(request);
+            lastRequest = request;
+        }
+        return request;
+    }
+
+    @Override
+    public IoFuture<ConnectedStreamChannel> upgradeToWebSocket(final String service, final OptionMap optionMap) {
+        final ConcreteIoFuture<ConnectedStreamChannel> result = new ConcreteIoFuture<ConnectedStreamChannel>();
+        result.setException(UndertowMessages.MESSAGES.upgradeNotSupported());
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Called when a request has been completely written
+     */
+    void requestComplete(final HttpClientRequestImpl request) {
+        final String connection = request.getRequestHeaders().getFirst(Headers.CONNECTION);
+        if (connection != null && Headers.CLOSE.toString().equalsIgnoreCase(connection)) {
+            synchronized (this) {
+                persistent = false;
+            }
+        }
+        checkAvailable();
+    }
+
+    /**
+     * Called when the response to a request has been completely read
+     */
+    private void responseDone(final HttpClientRequestImpl request) {
+        final boolean close;
+        final boolean more;
+        synchronized (this) {
+            pending.remove(request);
+            close = !persistent && pending.isEmpty();
+            more = !pending.isEmpty();
+        }
+        if (close) {
+            IoUtils.safeClose(this);
+            return;
+        }
+        readChannel.getReadSetter().set(readListener);
+        if (more) {
+            //the next response may already have been pushed back
+            readChannel.wakeupReads();
+        } else {
+            readChannel.resumeReads();
+        }
+        checkAvailable();
+    }
+
+    /**
+     * Returns the connection to the pool if it can accept another request.
+     */
+    private void checkAvailable() {
+        if (pool == null) {
+            return;
+        }
+        synchronized (this) {
+            if (pooled || !persistent || !channel.isOpen() || pending.size() >= maxPipelinedRequests || lastRequest != null && !lastRequest.isComplete()) {
+                return;
+            }
+            pooled = true;
+        }
+        if (!pool.offer(this)) {
+            final boolean idle;
+            synchronized (this) {
+                pooled = false;
+                idle = pending.isEmpty();
+            }
+            if (idle) {
+                IoUtils.safeClose(this);
+            }
+        }
+    }
+
+    /**
+     * Called when the connection has been taken from the pool
+     */
+    synchronized void acquired() {
+        pooled = false;
+    }
+
+    private void connectionClosed(final IOException reason) {
+        final List<HttpClientRequestImpl> failed;
+        synchronized (this) {
+            persistent = false;
+            failed = new ArrayList<HttpClientRequestImpl>(pending);
+            pending.clear();
+        }
+        for (HttpClientRequestImpl request : failed) {
+            request.getResponseFuture().setException(reason);
+        }
+        if (pool != null) {
+            pool.remove(this);
+        }
+    }
+
+    private void failed(final IOException reason) {
+        connectionClosed(reason);
+        IoUtils.safeClose(channel);
+    }
+
+    private void headersComplete(final HttpClientRequestImpl request, final HttpClientResponseImpl response) {
+        final int code = response.getResponseCode();
+        if (code >= 100 && code < 200 && code != 101) {
+            //an interim response, the final response follows
+            readListener.handleEvent(readChannel);
+            return;
+        }
+        final HeaderMap headers = response.getResponseHeaders();
+        boolean keepAlive = isKeepAlive(response);
+        final StreamSourceChannel body;
+        final String transferEncoding = headers.getLast(Headers.TRANSFER_ENCODING);
+        final long contentLength = contentLength(response);
+        if (code == 101) {
+            //the connection now belongs to whoever reads the body
+            keepAlive = false;
+            body = readChannel;
+        } else if (request.getMethod().equals(Methods.HEAD) || code == 204 || code == 304 || transferEncoding == null && contentLength == 0) {
+            body = null;
+        } else if (transferEncoding != null) {
+            if (Headers.CHUNKED.toString().equalsIgnoreCase(transferEncoding)) {
+                body = new ChunkedStreamSourceChannel(readChannel, new ChannelListener<ChunkedStreamSourceChannel>() {
+                    @Override
+                    public void handleEvent(final ChunkedStreamSourceChannel channel) {
+                        if (channel.isFinished()) {
+                            responseDone(request);
+                        } else if (!channel.isOpen()) {
+                            //the body was closed before the last chunk was read
+                            IoUtils.safeClose(HttpClientConnectionImpl.this);
+                        }
+                    }
+                }, bufferPool, false, Long.MAX_VALUE);
+            } else {
+                keepAlive = false;
+                body = readChannel;
+            }
+        } else if (contentLength > 0) {
+            body = new FixedLengthStreamSourceChannel(readChannel, contentLength, false, new ChannelListener<FixedLengthStreamSourceChannel>() {
+                @Override
+                public void handleEvent(final FixedLengthStreamSourceChannel channel) {
+                    if (channel.getRemaining() > 0) {
+                        IoUtils.safeClose(HttpClientConnectionImpl.this);
+                    } else {
+                        responseDone(request);
+                    }
+                }
+            }, null);
+        } else {
+            //the body is delimited by the end of the connection
+            keepAlive = false;
+            body = readChannel;
+        }
+        if (!keepAlive) {
+            synchronized (this) {
+                persistent = false;
+            }
+        }
+        if (body == null) {
+            response.setBody(new EmptyStreamSourceChannel(channel.getWorker(), channel.getReadThread()));
+            request.getResponseFuture().setResult(response);
+            responseDone(request);
+        } else {
+            //the body listener is set up by whoever reads the body
+            readChannel.suspendReads();
+            response.setBody(body);
+            request.getResponseFuture().setResult(response);
+        }
+    }
+
+    private static boolean isKeepAlive(final HttpClientResponseImpl response) {
+        final String connection = response.getResponseHeaders().getFirst(Headers.CONNECTION);
+        if (Protocols.HTTP_1_1.equals(response.getProtocol())) {
+            return connection == null || !Headers.CLOSE.toString().equalsIgnoreCase(connection);
+        }
+        return connection != null && Headers.KEEP_ALIVE.toString().equalsIgnoreCase(connection);
+    }
+
+    private static long contentLength(final HttpClientResponseImpl response) {
+        try {
+            return response.getContentLength();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static String hostHeader(final SocketAddress address) {
+        if (!(address instanceof InetSocketAddress)) {
+            return null;
+        }
+        final InetSocketAddress inetAddress = (InetSocketAddress) address;
+        final String host = inetAddress.isUnresolved() ? inetAddress.getHostName() : inetAddress.getAddress().getHostAddress();
+        if (host.indexOf(':') != -1) {
+            return "[" + host + "]:" + inetAddress.getPort();
+        }
+        return host + ":" + inetAddress.getPort();
+    }
+
+    /**
+     * Reads and parses the response headers of the request at the head of the queue
+     */
+    private final class ResponseReadListener implements ChannelListener<PushBackStreamChannel> {
+
+        private final ResponseParseState state = new ResponseParseState();
+        private HttpClientResponseImpl response;
+
+        @Override
+        public void handleEvent(final PushBackStreamChannel channel) {
+            final HttpClientRequestImpl request;
+            synchronized (HttpClientConnectionImpl.this) {
+                request = pending.peek();
+            }
+            final Pooled<ByteBuffer> pooled = bufferPool.allocate();
+            final ByteBuffer buffer = pooled.getResource();
+            boolean free = true;
+            try {
+                for (;;) {
+                    buffer.clear();
+                    final int res;
+                    try {
+                        res = channel.read(buffer);
+                    } catch (IOException e) {
+                        failed(e);
+                        return;
+                    }
+                    if (res == 0) {
+                        return;
+                    }
+                    if (res == -1) {
+                        failed(UndertowMessages.MESSAGES.connectionClosed());
+                        return;
+                    }
+                    buffer.flip();
+                    if (request == null) {
+                        //data that was not asked for
+                        failed(UndertowMessages.MESSAGES.malformedResponse());
+                        return;
+                    }
+                    if (response == null) {
+                        response = new HttpClientResponseImpl(request);
+                    }
+                    final int remaining;
+                    try {
+                        remaining = HttpResponseParser.INSTANCE.handle(buffer, res, state, response);
+                    } catch (IOException e) {
+                        failed(e);
+                        return;
+                    } catch (CollidingHeadersException e) {
+                        failed(new IOException(e));
+                        return;
+                    }
+                    if (remaining > 0) {
+                        free = false;
+                        channel.unget(pooled);
+                    }
+                    state.read += res - remaining;
+                    if (state.read > maxHeaderSize) {
+                        failed(UndertowMessages.MESSAGES.responseHeaderTooLarge(maxHeaderSize));
+                        return;
+                    }
+                    if (state.isComplete()) {
+                        final HttpClientResponseImpl response = this.response;
+                        this.response = null;
+                        state.reset();
+                        headersComplete(request, response);
+                        return;
+                    }
+                }
+            } finally {
+                if (free) {
+                    pooled.free();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package io.undertow.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import io.undertow.UndertowMessages;
+import io.undertow.util.ConcreteIoFuture;
+import io.undertow.util.HttpString;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Pool;
+import org.xnio.XnioWorker;
+import org.xnio.channels.ConnectedStreamChannel;
+
+/**
+ * The default {@link HttpClient}, which keeps a pool of persistent connections for every destination that requests
+ * are sent to.
+ */
+final class HttpClientImpl extends HttpClient {
+
+    private final Pool<ByteBuffer> bufferPool;
+    private final OptionMap options;
+    private final ConcurrentMap<String, ConnectionPool> pools = new ConcurrentHashMap<String, ConnectionPool>();
+    private volatile boolean closed;
+
+    HttpClientImpl(final XnioWorker worker, final Pool<ByteBuffer> bufferPool, final OptionMap options) {
+        super(worker);
+        this.bufferPool = bufferPool;
+        this.options = options;
+    }
+
+    Pool<ByteBuffer> getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    public IoFuture<HttpClientConnection> connect(final SocketAddress destination, final OptionMap optionMap) {
+        final OptionMap connectionOptions = OptionMap.builder().addAll(options).addAll(optionMap).getMap();
+        final ConcreteIoFuture<HttpClientConnection> result = new ConcreteIoFuture<HttpClientConnection>();
+        getWorker().connectStream(destination, null, connectionOptions).addNotifier(new IoFuture.HandlingNotifier<ConnectedStreamChannel, Object>() {
+            @Override
+            public void handleDone(final ConnectedStreamChannel channel, final Object attachment) {
+                result.setResult(new HttpClientConnectionImpl(channel, HttpClientImpl.this, null, connectionOptions));
+            }
+
+            @Override
+            public void handleFailed(final IOException exception, final Object attachment) {
+                result.setException(exception);
+            }
+
+            @Override
+            public void handleCancelled(final Object attachment) {
+                result.setException(UndertowMessages.MESSAGES.connectCancelled());
+            }
+        }, null);
+        return result;
+    }
+
+    @Override
+    public IoFuture<HttpClientRequest> sendRequest(final String method, final String requestUri, final OptionMap optionMap) {
+        final URI uri = URI.create(requestUri);
+        if (uri.getHost() == null || !"http".equalsIgnoreCase(uri.getScheme())) {
+            throw UndertowMessages.MESSAGES.invalidClientRequestUri(requestUri);
+        }
+        final ConcreteIoFuture<HttpClientRequest> result = new ConcreteIoFuture<HttpClientRequest>();
+        if (closed) {
+            result.setException(UndertowMessages.MESSAGES.clientClosed());
+            return result;
+        }
+        final HttpString httpMethod = new HttpString(method);
+        final ConnectionPool pool = getPool(uri.getHost(), uri.getPort() == -1 ? 80 : uri.getPort());
+        HttpClientConnectionImpl connection;
+        while ((connection = pool.poll()) != null) {
+            final HttpClientRequestImpl request = connection.sendRequest(httpMethod, uri);
+            if (request != null) {
+                result.setResult(request);
+                return result;
+            }
+        }
+        final OptionMap connectionOptions = OptionMap.builder().addAll(options).addAll(optionMap).getMap();
+        final InetSocketAddress destination = pool.getDestination();
+        if (destination != null) {
+            connect(pool, destination, httpMethod, uri, connectionOptions, result);
+        } else {
+            //resolving the host blocks, so it must not be done by the calling thread, which may be an IO thread
+            getWorker().execute(new Runnable() {
+                @Override
+                public void run() {
+                    final InetSocketAddress destination = pool.resolve();
+                    if (destination == null) {
+                        result.setException(new UnknownHostException(pool.getHost()));
+                    } else {
+                        connect(pool, destination, httpMethod, uri, connectionOptions, result);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    private void connect(final ConnectionPool pool, final InetSocketAddress destination, final HttpString httpMethod, final URI uri, final OptionMap connectionOptions, final ConcreteIoFuture<HttpClientRequest> result) {
+        getWorker().connectStream(destination, null, connectionOptions).addNotifier(new IoFuture.HandlingNotifier<ConnectedStreamChannel, Object>() {
+            @Override
+            public void handleDone(final ConnectedStreamChannel channel, final Object attachment) {
+                final HttpClientConnectionImpl connection = new HttpClientConnectionImpl(channel, HttpClientImpl.this, pool, connectionOptions);
+                result.setResult(connection.sendRequest(httpMethod, uri));
+            }
+
+            @Override
+            public void handleFailed(final IOException exception, final Object attachment) {
+                //the host may have moved, so it is looked up again for the next request
+                pool.invalidate(destination);
+                result.setException(exception);
+            }
+
+            @Override
+            public void handleCancelled(final Object attachment) {
+                result.setException(UndertowMessages.MESSAGES.connectCancelled());
+            }
+        }, null);
+    }
+
+    private ConnectionPool getPool(final String host, final int port) {
+        final String key = host + ":" + port;
+        ConnectionPool pool = pools.get(key);
+        if (pool == null) {
+            final int maxConnections = options.get(HttpClientOptions.MAX_POOLED_CONNECTIONS, HttpClientOptions.DEFAULT_MAX_POOLED_CONNECTIONS);
+            final ConnectionPool existing = pools.putIfAbsent(key, pool = new ConnectionPool(host, port, maxConnections));
+            if (existing != null) {
+                pool = existing;
+            } else if (closed) {
+                pool.close();
+            }
+        }
+        return pool;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (ConnectionPool pool : pools.values()) {
+            pool.close();
+        }
+    }
+
+    /**
+     * The connections to a single destination that can accept another request. The address of the destination is
+     * resolved when the first connection is made, and again after a connection attempt to it has failed.
+     */
+    static final class ConnectionPool {
+
+        private final String host;
+        private final int port;
+        private final int maxConnections;
+        private final Queue<HttpClientConnectionImpl> available = new ConcurrentLinkedQueue<HttpClientConnectionImpl>();
+
+        @SuppressWarnings("unused")
+        private volatile int size;
+        private volatile boolean closed;
+        private volatile InetSocketAddress destination;
+
+        private static final AtomicIntegerFieldUpdater<ConnectionPool> sizeUpdater = AtomicIntegerFieldUpdater.newUpdater(ConnectionPool.class, "size");
+        private static final AtomicReferenceFieldUpdater<ConnectionPool, InetSocketAddress> destinationUpdater = AtomicReferenceFieldUpdater.newUpdater(ConnectionPool.class, InetSocketAddress.class, "destination");
+
+        ConnectionPool(final String host, final int port, final int maxConnections) {
+            this.host = host;
+            this.port = port;
+            this.maxConnections = maxConnections;
+        }
+
+        String getHost() {
+            return host;
+        }
+
+        /**
+         * @return the resolved address of the destination, or <code>null</code> if it has to be resolved
+         */
+        InetSocketAddress getDestination() {
+            return destination;
+        }
+
+        /**
+         * Resolves the address of the destination. This blocks, and must not be called from an IO thread.
+         *
+         * @return the address, or <code>null</code> if the host could not be resolved
+         */
+        InetSocketAddress resolve() {
+            final InetSocketAddress address = new InetSocketAddress(host, port);
+            if (address.isUnresolved()) {
+                return null;
+            }
+            destination = address;
+            return address;
+        }
+
+        /**
+         * Discards the resolved address after a connection attempt to it has failed
+         */
+        void invalidate(final InetSocketAddress address) {
+            destinationUpdater.compareAndSet(this, address, null);
+        }
+
+        /**
+         * @return <code>true</code> if the connection was added to the pool
+         */
+        boolean offer(final HttpClientConnectionImpl connection) {
+            if (closed) {
+                return false;
+            }
+            if (sizeUpdater.incrementAndGet(this) > maxConnections) {
+                sizeUpdater.decrementAndGet(this);
+                return false;
+            }
+            available.add(connection);
+            if (closed) {
+                remove(connection);
+                return false;
+            }
+            return true;
+        }
+
+        HttpClientConnectionImpl poll() {
+            HttpClientConnectionImpl connection;
+            while ((connection = available.poll()) != null) {
+                sizeUpdater.decrementAndGet(this);
+                connection.acquired();
+                if (connection.isOpen()) {
+                    return connection;
+                }
+            }
+            return null;
+        }
+
+        void remove(final HttpClientConnectionImpl connection) {
+            if (available.remove(connection)) {
+                sizeUpdater.decrementAndGet(this);
+            }
+        }
+
+        void close() {
+            closed = true;
+            HttpClientConnectionImpl connection;
+            while ((connection = poll()) != null) {
+                IoUtils.safeClose(connection);
+            }
+        }
+    }
+}
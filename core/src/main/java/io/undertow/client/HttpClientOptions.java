@@ -0,0 +1,52 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package io.undertow.client;
+
+import org.xnio.Option;
+
+/**
+ * Options for the {@link HttpClient}. The maximum size of a response header is set with
+ * {@link io.undertow.UndertowOptions#MAX_HEADER_SIZE}.
+ */
+public final class HttpClientOptions {
+
+    /**
+     * The maximum number of requests that can be sent on a connection before the response to the first one has
+     * been read. Defaults to 1, which disables pipelining.
+     */
+    public static final Option<Integer> MAX_PIPELINED_REQUESTS = Option.simple(HttpClientOptions.class, "MAX_PIPELINED_REQUESTS", Integer.class);
+
+    public static final int DEFAULT_MAX_PIPELINED_REQUESTS = 1;
+
+    /**
+     * The maximum number of connections to a single destination that {@link HttpClient#sendRequest} keeps open for
+     * reuse. Connections beyond this are closed once their requests are complete. Defaults to 8.
+     */
+    public static final Option<Integer> MAX_POOLED_CONNECTIONS = Option.simple(HttpClientOptions.class, "MAX_POOLED_CONNECTIONS", Integer.class);
+
+    public static final int DEFAULT_MAX_POOLED_CONNECTIONS = 8;
+
+    private HttpClientOptions() {
+
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package io.undertow.client;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import io.undertow.UndertowMessages;
+import io.undertow.util.ChunkedStreamSinkChannel;
+import io.undertow.util.ConcreteIoFuture;
+import io.undertow.util.FixedLengthStreamSinkChannel;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.Protocols;
+import org.xnio.ChannelExceptionHandler;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.Pooled;
+import org.xnio.channels.StreamSinkChannel;
+
+/**
+ * A request sent on a {@link HttpClientConnectionImpl}.
+ * <p/>
+ * The request line and headers are written when the request body channel is created. If the response is requested
+ * without the body having been written then a request without a body is sent.
+ */
+final class HttpClientRequestImpl extends HttpClientRequest {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] HEADER_SEPARATOR = {':', ' '};
+
+    private final HttpClientConnectionImpl connection;
+    private final HttpString method;
+    private final URI target;
+    private final ConcreteIoFuture<HttpClientResponse> response = new ConcreteIoFuture<HttpClientResponse>();
+
+    private static final int FLAG_HEADER_WRITTEN = 1;
+    private static final int FLAG_BODY_WRITTEN = 1 << 1;
+    private static final int MASK_COMPLETE = FLAG_HEADER_WRITTEN | FLAG_BODY_WRITTEN;
+
+    private volatile boolean started;
+
+    @SuppressWarnings("unused")
+    private volatile int writeState;
+
+    private static final AtomicIntegerFieldUpdater<HttpClientRequestImpl> writeStateUpdater = AtomicIntegerFieldUpdater.newUpdater(HttpClientRequestImpl.class, "writeState");
+
+    HttpClientRequestImpl(final HttpClientConnectionImpl connection, final HttpString method, final URI target) {
+        super(connection);
+        this.connection = connection;
+        this.method = method;
+        this.target = target;
+        final String host = target.getHost();
+        if (host != null) {
+            getRequestHeaders().put(Headers.HOST, target.getPort() == -1 ? host : host + ":" + target.getPort());
+        } else if (connection.getHostHeader() != null) {
+            getRequestHeaders().put(Headers.HOST, connection.getHostHeader());
+        }
+    }
+
+    HttpString getMethod() {
+        return method;
+    }
+
+    /**
+     * @return <code>true</code> if the request has been completely written
+     */
+    boolean isComplete() {
+        return writeState == MASK_COMPLETE;
+    }
+
+    /**
+     * Called once the request line and headers have been written to the connection
+     */
+    void headerWritten() {
+        written(FLAG_HEADER_WRITTEN);
+    }
+
+    /**
+     * The transfer coding channel may finish before the header has been flushed, so the request is only complete
+     * once both have been written.
+     */
+    private void written(final int flag) {
+        int oldVal, newVal;
+        do {
+            oldVal = writeState;
+            newVal = oldVal | flag;
+            if (oldVal == newVal) {
+                return;
+            }
+        } while (!writeStateUpdater.compareAndSet(this, oldVal, newVal));
+        if (newVal == MASK_COMPLETE) {
+            connection.requestComplete(this);
+        }
+    }
+
+    ConcreteIoFuture<HttpClientResponse> getResponseFuture() {
+        return response;
+    }
+
+    /**
+     * Starts the request, and returns a channel for the request body.
+     *
+     * @param contentLength The length of the body, or -1 to send it using chunked encoding
+     * @return The channel that the body is written to, which must be shut down and flushed once the body has
+     *         been written
+     */
+    @Override
+    public StreamSinkChannel writeRequestBody(final long contentLength) throws IOException {
+        if (started) {
+            throw UndertowMessages.MESSAGES.requestAlreadyStarted();
+        }
+        started = true;
+        final HeaderMap headers = getRequestHeaders();
+        if (contentLength < 0) {
+            headers.remove(Headers.CONTENT_LENGTH);
+            headers.put(Headers.TRANSFER_ENCODING, Headers.CHUNKED.toString());
+        } else if (contentLength > 0 || !headers.contains(Headers.CONTENT_LENGTH) && isBodyExpected()) {
+            headers.put(Headers.CONTENT_LENGTH, Long.toString(contentLength));
+        }
+
+        final Pooled<ByteBuffer> pooled = connection.getBufferPool().allocate();
+        ByteBuffer header = pooled.getResource();
+        Pooled<ByteBuffer> pooledHeader = pooled;
+        for (;;) {
+            try {
+                header.clear();
+                writeHeader(header);
+                break;
+            } catch (BufferOverflowException e) {
+                //large request headers are rare, so they are just written from a heap buffer
+                header = ByteBuffer.allocate(header.capacity() * 2);
+                if (pooledHeader != null) {
+                    pooledHeader.free();
+                    pooledHeader = null;
+                }
+            }
+        }
+        header.flip();
+
+        final HttpRequestChannel channel = new HttpRequestChannel(this, connection.getChannel(), header, pooledHeader);
+        final ChannelListener<StreamSinkChannel> finishListener = new ChannelListener<StreamSinkChannel>() {
+            @Override
+            public void handleEvent(final StreamSinkChannel channel) {
+                written(FLAG_BODY_WRITTEN);
+            }
+        };
+        if (contentLength < 0) {
+            return new ChunkedStreamSinkChannel(channel, false, false, finishListener, connection.getBufferPool());
+        }
+        return new FixedLengthStreamSinkChannel(channel, contentLength, false, false, finishListener, null);
+    }
+
+    /**
+     * Returns the response. If the request has not been started this sends the request without a body.
+     */
+    @Override
+    public IoFuture<HttpClientResponse> getResponse() {
+        if (!started) {
+            try {
+                final StreamSinkChannel channel = writeRequestBody(0);
+                channel.shutdownWrites();
+                if (!channel.flush()) {
+                    channel.getWriteSetter().set(ChannelListeners.<StreamSinkChannel>flushingChannelListener(null, new FailingExceptionHandler()));
+                    channel.resumeWrites();
+                }
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+        return response;
+    }
+
+    void failed(final IOException e) {
+        response.setException(e);
+        IoUtils.safeClose(connection);
+    }
+
+    private boolean isBodyExpected() {
+        return method.equals(Methods.POST) || method.equals(Methods.PUT);
+    }
+
+    private void writeHeader(final ByteBuffer buffer) {
+        method.appendTo(buffer);
+        buffer.put((byte) ' ');
+        final String path = target.getRawPath();
+        if (path == null || path.isEmpty()) {
+            buffer.put((byte) '/');
+        } else {
+            putString(buffer, path);
+        }
+        final String query = target.getRawQuery();
+        if (query != null) {
+            buffer.put((byte) '?');
+            putString(buffer, query);
+        }
+        buffer.put((byte) ' ');
+        Protocols.HTTP_1_1.appendTo(buffer);
+        buffer.put(CRLF);
+        final HeaderMap headers = getRequestHeaders();
+        for (int cursor = headers.fastIterate(); cursor != -1; cursor = headers.fiNext(cursor)) {
+            final HttpString name = headers.fiName(cursor);
+            final String value = headers.fiValue(cursor);
+            if (value != null) {
+                writeHeader(buffer, name, value);
+            } else {
+                for (String v : headers.get(name)) {
+                    writeHeader(buffer, name, v);
+                }
+            }
+        }
+        buffer.put(CRLF);
+    }
+
+    private static void writeHeader(final ByteBuffer buffer, final HttpString name, final String value) {
+        name.appendTo(buffer);
+        buffer.put(HEADER_SEPARATOR);
+        putString(buffer, value);
+        buffer.put(CRLF);
+    }
+
+    private static void putString(final ByteBuffer buffer, final String string) {
+        final int length = string.length();
+        for (int i = 0; i < length; ++i) {
+            final char c = string.charAt(i);
+            buffer.put(c > 0xFF ? (byte) '?' : (byte) c);
+        }
+    }
+
+    private final class FailingExceptionHandler implements ChannelExceptionHandler<StreamSinkChannel> {
+        @Override
+        public void handleException(final StreamSinkChannel channel, final IOException exception) {
+            failed(exception);
+        }
+    }
+}
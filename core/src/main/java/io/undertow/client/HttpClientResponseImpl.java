@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package io.undertow.client;
+
+import java.io.IOException;
+
+import io.undertow.UndertowMessages;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.xnio.channels.StreamSourceChannel;
+
+/**
+ * A response read by a {@link HttpClientConnectionImpl}.
+ */
+final class HttpClientResponseImpl extends HttpClientResponse {
+
+    private final HttpClientRequestImpl request;
+    private HttpString protocol;
+    private int responseCode;
+    private String reasonPhrase;
+    private volatile StreamSourceChannel body;
+
+    HttpClientResponseImpl(final HttpClientRequestImpl request) {
+        this.request = request;
+    }
+
+    HttpClientRequestImpl getRequest() {
+        return request;
+    }
+
+    public HttpString getProtocol() {
+        return protocol;
+    }
+
+    void setProtocol(final HttpString protocol) {
+        this.protocol = protocol;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    void setResponseCode(final int responseCode) {
+        this.responseCode = responseCode;
+    }
+
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    void setReasonPhrase(final String reasonPhrase) {
+        this.reasonPhrase = reasonPhrase;
+    }
+
+    @Override
+    public long getContentLength() throws IOException {
+        final String contentLength = getResponseHeaders().getFirst(Headers.CONTENT_LENGTH);
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            throw UndertowMessages.MESSAGES.malformedResponse();
+        }
+    }
+
+    /**
+     * Returns the response body. The body must be read to the end, or closed, before the connection can be used
+     * for another request; closing it before the end of the body closes the connection.
+     *
+     * @return The response body, or {@code null} if it has already been returned
+     */
+    @Override
+    public StreamSourceChannel readReplyBody() throws IOException {
+        final StreamSourceChannel body = this.body;
+        this.body = null;
+        return body;
+    }
+
+    void setBody(final StreamSourceChannel body) {
+        this.body = body;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package io.undertow.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
+import org.xnio.Option;
+import org.xnio.Pooled;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+
+/**
+ * Channel that writes the request line and headers before the request body. The header is written together
+ * with the first write of the body where possible, so a small request is sent with a single write.
+ * <p/>
+ * Shutting down writes does not shut down the underlying connection, as it is used for the following requests.
+ * The transfer coding channel that wraps this channel is responsible for delimiting the body.
+ */
+final class HttpRequestChannel implements StreamSinkChannel {
+
+    private final HttpClientRequestImpl request;
+    private final StreamSinkChannel delegate;
+    private final ChannelListener.SimpleSetter<HttpRequestChannel> writeSetter = new ChannelListener.SimpleSetter<HttpRequestChannel>();
+    private final ChannelListener.SimpleSetter<HttpRequestChannel> closeSetter = new ChannelListener.SimpleSetter<HttpRequestChannel>();
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+
+    /**
+     * The request header, which is null once it has been written
+     */
+    private ByteBuffer header;
+    private Pooled<ByteBuffer> pooledHeader;
+
+    HttpRequestChannel(final HttpClientRequestImpl request, final StreamSinkChannel delegate, final ByteBuffer header, final Pooled<ByteBuffer> pooledHeader) {
+        this.request = request;
+        this.delegate = delegate;
+        this.header = header;
+        this.pooledHeader = pooledHeader;
+        delegate.getWriteSetter().set(ChannelListeners.delegatingChannelListener(this, writeSetter));
+    }
+
+    /**
+     * Writes as much of the request header as possible.
+     *
+     * @return <code>true</code> if the header has been completely written
+     */
+    private boolean writeHeader() throws IOException {
+        final ByteBuffer header = this.header;
+        if (header == null) {
+            return true;
+        }
+        while (header.hasRemaining()) {
+            if (delegate.write(header) == 0) {
+                return false;
+            }
+        }
+        releaseHeader();
+        request.headerWritten();
+        return true;
+    }
+
+    private void releaseHeader() {
+        header = null;
+        if (pooledHeader != null) {
+            pooledHeader.free();
+            pooledHeader = null;
+        }
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        final ByteBuffer header = this.header;
+        if (header == null) {
+            return delegate.write(src);
+        }
+        final int start = src.remaining();
+        final ByteBuffer[] gather = this.gather;
+        gather[0] = header;
+        gather[1] = src;
+        try {
+            delegate.write(gather, 0, 2);
+        } finally {
+            gather[0] = null;
+            gather[1] = null;
+        }
+        if (!header.hasRemaining()) {
+            releaseHeader();
+            request.headerWritten();
+        }
+        return start - src.remaining();
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        if (!writeHeader()) {
+            return 0;
+        }
+        return delegate.write(srcs, offset, length);
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+        if (!writeHeader()) {
+            return 0;
+        }
+        return delegate.transferFrom(src, position, count);
+    }
+
+    @Override
+    public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+        if (!writeHeader()) {
+            throughBuffer.clear();
+            throughBuffer.flip();
+            return 0;
+        }
+        return delegate.transferFrom(source, count, throughBuffer);
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        return writeHeader() && delegate.flush();
+    }
+
+    @Override
+    public void shutdownWrites() throws IOException {
+        //the connection stays open for the next request
+    }
+
+    @Override
+    public ChannelListener.Setter<? extends StreamSinkChannel> getWriteSetter() {
+        return writeSetter;
+    }
+
+    @Override
+    public ChannelListener.Setter<? extends StreamSinkChannel> getCloseSetter() {
+        return closeSetter;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    /**
+     * Closes the underlying connection.
+     */
+    @Override
+    public void close() throws IOException {
+        releaseHeader();
+        try {
+            IoUtils.safeClose(delegate);
+        } finally {
+            ChannelListeners.invokeChannelListener(this, closeSetter.get());
+        }
+    }
+
+    @Override
+    public void suspendWrites() {
+        delegate.suspendWrites();
+    }
+
+    @Override
+    public void resumeWrites() {
+        delegate.resumeWrites();
+    }
+
+    @Override
+    public boolean isWriteResumed() {
+        return delegate.isWriteResumed();
+    }
+
+    @Override
+    public void wakeupWrites() {
+        delegate.wakeupWrites();
+    }
+
+    @Override
+    public void awaitWritable() throws IOException {
+        delegate.awaitWritable();
+    }
+
+    @Override
+    public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
+        delegate.awaitWritable(time, timeUnit);
+    }
+
+    @Override
+    public XnioExecutor getWriteThread() {
+        return delegate.getWriteThread();
+    }
+
+    @Override
+    public XnioWorker getWorker() {
+        return delegate.getWorker();
+    }
+
+    @Override
+    public boolean supportsOption(final Option<?> option) {
+        return delegate.supportsOption(option);
+    }
+
+    @Override
+    public <T> T getOption(final Option<T> option) throws IOException {
+        return delegate.getOption(option);
+    }
+
+    @Override
+    public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException, IOException {
+        return delegate.setOption(option, value);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package io.undertow.client;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.undertow.UndertowMessages;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Protocols;
+
+/**
+ * Parser for HTTP response headers. This is the client side counterpart of {@link io.undertow.server.HttpParser},
+ * and works the same way: it is a resumable state machine that consumes as much of a buffer as it needs, and
+ * header values are copied into a single byte array and added to the headers lazily.
+ * <p/>
+ * The header names and protocols of {@link Headers} and {@link Protocols} are matched byte by byte against the
+ * input, so that for common headers the interned {@link HttpString} is used and no name is allocated.
+ */
+final class HttpResponseParser {
+
+    static final HttpResponseParser INSTANCE = new HttpResponseParser();
+
+    private static final int MIN_HEADER_BUFFER_SIZE = 64;
+    private static final int MAX_INITIAL_HEADER_BUFFER_SIZE = 1024;
+
+    /**
+     * The known header names, indexed by their length
+     */
+    private static final HttpString[][] KNOWN_HEADERS = knownHeaders();
+    private static final HttpString[] PROTOCOLS = {Protocols.HTTP_1_1, Protocols.HTTP_1_0, Protocols.HTTP_0_9};
+
+    private HttpResponseParser() {
+    }
+
+    /**
+     * Parses as much of the response header as is available.
+     *
+     * @param buffer    The buffer
+     * @param remaining The number of bytes remaining in the buffer
+     * @param state     The current parse state
+     * @param response  The response the status line and headers are added to
+     * @return The number of bytes remaining in the buffer, which will only be more than zero if the response
+     *         header is complete
+     * @throws IOException If the response is malformed
+     */
+    int handle(final ByteBuffer buffer, int remaining, final ResponseParseState state, final HttpClientResponseImpl response) throws IOException {
+        if (state.headerBytes == null) {
+            state.headerBytes = new byte[Math.min(Math.max(remaining, MIN_HEADER_BUFFER_SIZE), MAX_INITIAL_HEADER_BUFFER_SIZE)];
+        }
+        while (remaining > 0) {
+            final byte next = buffer.get();
+            --remaining;
+            switch (state.state) {
+                case ResponseParseState.VERSION: {
+                    if (next == ' ' || next == '\t') {
+                        if (state.tokenStarted) {
+                            response.setProtocol(lookup(state.nameBytes, state.nameLength, PROTOCOLS));
+                            state.nameLength = 0;
+                            state.tokenStarted = false;
+                            state.state = ResponseParseState.STATUS_CODE;
+                        }
+                    } else if (next == '\r' || next == '\n') {
+                        //line breaks before the status line are left over from the previous response
+                        if (state.tokenStarted) {
+                            throw UndertowMessages.MESSAGES.malformedResponse();
+                        }
+                    } else {
+                        appendName(state, next);
+                        state.tokenStarted = true;
+                    }
+                    break;
+                }
+                case ResponseParseState.STATUS_CODE: {
+                    if (next >= '0' && next <= '9') {
+                        state.statusCode = state.statusCode * 10 + (next - '0');
+                        state.tokenStarted = true;
+                    } else if (next == ' ' || next == '\t') {
+                        if (state.tokenStarted) {
+                            statusCodeDone(state, response);
+                            state.state = ResponseParseState.REASON_PHRASE;
+                        }
+                    } else if (next == '\n' && state.tokenStarted) {
+                        statusCodeDone(state, response);
+                        response.setReasonPhrase("");
+                        state.state = ResponseParseState.HEADER_START;
+                    } else if (next != '\r' || !state.tokenStarted) {
+                        throw UndertowMessages.MESSAGES.malformedResponse();
+                    }
+                    break;
+                }
+                case ResponseParseState.REASON_PHRASE: {
+                    if (next == '\n') {
+                        final StringBuilder builder = state.stringBuilder;
+                        int length = builder.length();
+                        while (length > 0 && builder.charAt(length - 1) == '\r') {
+                            --length;
+                        }
+                        builder.setLength(length);
+                        response.setReasonPhrase(builder.toString());
+                        builder.setLength(0);
+                        state.state = ResponseParseState.HEADER_START;
+                    } else {
+                        state.stringBuilder.append((char) (next & 0xFF));
+                    }
+                    break;
+                }
+                case ResponseParseState.HEADER_START: {
+                    if (next == '\n') {
+                        state.state = ResponseParseState.PARSE_COMPLETE;
+                        return remaining;
+                    } else if (next != '\r') {
+                        appendName(state, next);
+                        state.state = ResponseParseState.HEADER_NAME;
+                    }
+                    break;
+                }
+                case ResponseParseState.HEADER_NAME: {
+                    if (next == ':') {
+                        state.nextHeader = lookup(state.nameBytes, state.nameLength, KNOWN_HEADERS[Math.min(state.nameLength, KNOWN_HEADERS.length - 1)]);
+                        state.nameLength = 0;
+                        state.tokenStarted = false;
+                        state.headerValueStart = state.headerBytesLength;
+                        state.state = ResponseParseState.HEADER_VALUE;
+                    } else if (next == '\r' || next == '\n') {
+                        //a header line without a colon
+                        throw UndertowMessages.MESSAGES.malformedResponse();
+                    } else {
+                        appendName(state, next);
+                    }
+                    break;
+                }
+                case ResponseParseState.HEADER_VALUE: {
+                    if (next == '\n') {
+                        state.state = ResponseParseState.HEADER_VALUE_END;
+                    } else if (next == ' ' || next == '\t') {
+                        if (state.tokenStarted) {
+                            appendValue(state, next);
+                        }
+                    } else if (next != '\r') {
+                        appendValue(state, next);
+                        state.tokenStarted = true;
+                    }
+                    break;
+                }
+                case ResponseParseState.HEADER_VALUE_END: {
+                    if (next == ' ' || next == '\t') {
+                        //a continuation line, which is folded into a single space
+                        if (state.tokenStarted) {
+                            appendValue(state, (byte) ' ');
+                        }
+                        state.state = ResponseParseState.HEADER_VALUE;
+                        break;
+                    }
+                    int end = state.headerBytesLength;
+                    while (end > state.headerValueStart && (state.headerBytes[end - 1] == ' ' || state.headerBytes[end - 1] == '\t')) {
+                        --end;
+                    }
+                    response.getResponseHeaders().addLazy(state.nextHeader, state.headerBytes, state.headerValueStart, end - state.headerValueStart);
+                    state.headerBytesLength = end;
+                    state.nextHeader = null;
+                    state.tokenStarted = false;
+                    if (next == '\n') {
+                        state.state = ResponseParseState.PARSE_COMPLETE;
+                        return remaining;
+                    } else if (next == '\r') {
+                        state.state = ResponseParseState.HEADER_START;
+                    } else {
+                        appendName(state, next);
+                        state.state = ResponseParseState.HEADER_NAME;
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+        return remaining;
+    }
+
+    private static void statusCodeDone(final ResponseParseState state, final HttpClientResponseImpl response) throws IOException {
+        if (state.statusCode < 100 || state.statusCode > 999) {
+            throw UndertowMessages.MESSAGES.malformedResponse();
+        }
+        response.setResponseCode(state.statusCode);
+        state.tokenStarted = false;
+    }
+
+    private static void appendName(final ResponseParseState state, final byte next) {
+        if (state.nameLength == state.nameBytes.length) {
+            state.nameBytes = Arrays.copyOf(state.nameBytes, state.nameBytes.length * 2);
+        }
+        state.nameBytes[state.nameLength++] = next;
+    }
+
+    private static void appendValue(final ResponseParseState state, final byte next) {
+        if (state.headerBytesLength == state.headerBytes.length) {
+            state.headerBytes = Arrays.copyOf(state.headerBytes, state.headerBytes.length * 2);
+        }
+        state.headerBytes[state.headerBytesLength++] = next;
+    }
+
+    /**
+     * Returns the candidate that matches the given bytes, ignoring case, or a new string if none match.
+     */
+    private static HttpString lookup(final byte[] bytes, final int length, final HttpString[] candidates) {
+        if (candidates != null) {
+            for (HttpString candidate : candidates) {
+                if (candidate.length() == length && matches(bytes, candidate)) {
+                    return candidate;
+                }
+            }
+        }
+        return new HttpString(bytes, 0, length);
+    }
+
+    private static boolean matches(final byte[] bytes, final HttpString candidate) {
+        for (int i = 0; i < bytes.length && i < candidate.length(); ++i) {
+            if (lower(bytes[i]) != lower(candidate.byteAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int lower(final byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    private static HttpString[][] knownHeaders() {
+        final List<HttpString> headers = new ArrayList<HttpString>();
+        int maxLength = 0;
+        for (Field field : Headers.class.getDeclaredFields()) {
+            if (field.getType().equals(HttpString.class) && Modifier.isStatic(field.getModifiers())) {
+                try {
+                    final HttpString header = (HttpString) field.get(null);
+                    headers.add(header);
+                    maxLength = Math.max(maxLength, header.length());
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        final HttpString[][] result = new HttpString[maxLength + 2][];
+        for (HttpString header : headers) {
+            final HttpString[] existing = result[header.length()];
+            if (existing == null) {
+                result[header.length()] = new HttpString[]{header};
+            } else {
+                final HttpString[] grown = Arrays.copyOf(existing, existing.length + 1);
+                grown[existing.length] = header;
+                result[header.length()] = grown;
+            }
+        }
+        return result;
+    }
+}
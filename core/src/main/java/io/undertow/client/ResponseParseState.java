@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package io.undertow.client;
+
+import io.undertow.util.HttpString;
+
+/**
+ * The current state of the response parser. One instance is used for all responses read from a connection,
+ * and is reset once a response has been parsed.
+ */
+final class ResponseParseState {
+
+    static final int VERSION = 0;
+    static final int STATUS_CODE = 1;
+    static final int REASON_PHRASE = 2;
+    static final int HEADER_START = 3;
+    static final int HEADER_NAME = 4;
+    static final int HEADER_VALUE = 5;
+    static final int HEADER_VALUE_END = 6;
+    static final int PARSE_COMPLETE = 7;
+
+    /**
+     * The current state
+     */
+    int state;
+
+    /**
+     * Set once the first non whitespace byte of the current token has been seen
+     */
+    boolean tokenStarted;
+
+    int statusCode;
+
+    /**
+     * Buffer that the protocol and header names are copied into, reused for every token
+     */
+    byte[] nameBytes = new byte[32];
+    int nameLength;
+
+    final StringBuilder stringBuilder = new StringBuilder();
+
+    HttpString nextHeader;
+
+    /**
+     * The buffer that header values are copied into. The response headers refer to ranges of this buffer,
+     * so a new one is allocated for every response.
+     */
+    byte[] headerBytes;
+    int headerBytesLength;
+    int headerValueStart;
+
+    /**
+     * The number of bytes of the current response header that have been read
+     */
+    int read;
+
+    boolean isComplete() {
+        return state == PARSE_COMPLETE;
+    }
+
+    void reset() {
+        state = VERSION;
+        tokenStarted = false;
+        statusCode = 0;
+        nameLength = 0;
+        stringBuilder.setLength(0);
+        nextHeader = null;
+        headerBytes = null;
+        headerBytesLength = 0;
+        headerValueStart = 0;
+        read = 0;
+    }
+}
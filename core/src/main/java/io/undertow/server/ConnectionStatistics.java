@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Connection counts for a {@link HttpOpenListener}.
+ */
+public final class ConnectionStatistics implements ConnectionStatisticsMXBean {
+
+    private static final AtomicLongFieldUpdater<ConnectionStatistics> openedUpdater = AtomicLongFieldUpdater.newUpdater(ConnectionStatistics.class, "opened");
+    private static final AtomicLongFieldUpdater<ConnectionStatistics> closedUpdater = AtomicLongFieldUpdater.newUpdater(ConnectionStatistics.class, "closed");
+    private static final AtomicLongFieldUpdater<ConnectionStatistics> maxOpenUpdater = AtomicLongFieldUpdater.newUpdater(ConnectionStatistics.class, "maxOpen");
+
+    private volatile long opened;
+    private volatile long closed;
+    private volatile long maxOpen;
+
+    void connectionOpened() {
+        final long open = openedUpdater.incrementAndGet(this) - closed;
+        long max = maxOpen;
+        while (open > max) {
+            if (maxOpenUpdater.compareAndSet(this, max, open)) {
+                break;
+            }
+            max = maxOpen;
+        }
+    }
+
+    void connectionClosed() {
+        closedUpdater.incrementAndGet(this);
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return opened;
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return closed;
+    }
+
+    @Override
+    public long getOpenConnections() {
+        final long closed = this.closed;
+        return opened - closed;
+    }
+
+    @Override
+    public long getMaxOpenConnections() {
+        return maxOpen;
+    }
+}
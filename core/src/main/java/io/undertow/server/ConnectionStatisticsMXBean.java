@@ -0,0 +1,46 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server;
+
+/**
+ * Management interface for the connection statistics of a listener.
+ */
+public interface ConnectionStatisticsMXBean {
+
+    /**
+     * @return The number of connections that have been opened
+     */
+    long getConnectionsOpened();
+
+    /**
+     * @return The number of connections that have been closed
+     */
+    long getConnectionsClosed();
+
+    /**
+     * @return The number of connections that are currently open
+     */
+    long getOpenConnections();
+
+    /**
+     * @return The highest number of connections that have been open at the same time
+     */
+    long getMaxOpenConnections();
+
+}
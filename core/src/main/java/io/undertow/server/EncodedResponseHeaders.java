@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Protocols;
+import io.undertow.util.StatusCodes;
+
+/**
+ * Pre-encoded bytes for the parts of a response header block that do not change between responses,
+ * so that {@link HttpResponseChannel} can copy them into the buffer with a single {@code put}
+ * rather than encoding them a character at a time.
+ * <p/>
+ * Status lines are cached for every known status code for HTTP/1.0 and HTTP/1.1, and the header name
+ * plus the {@code ': '} delimiter is cached for every header defined in {@link Headers}. Both tables are
+ * built when the class is initialized and are never modified afterwards, so they can be read without
+ * any synchronization.
+ */
+final class EncodedResponseHeaders {
+
+    private static final int MIN_CODE = 100;
+    private static final int MAX_CODE = 599;
+
+    private static final byte[][] HTTP_1_0_STATUS_LINES = statusLines(Protocols.HTTP_1_0);
+    private static final byte[][] HTTP_1_1_STATUS_LINES = statusLines(Protocols.HTTP_1_1);
+
+    private static final Map<HttpString, byte[]> HEADER_PREFIXES;
+    private static final Map<HttpString, HttpString> HEADER_NAMES;
+
+    static {
+        final Map<HttpString, byte[]> prefixes = new HashMap<HttpString, byte[]>();
+        final Map<HttpString, HttpString> names = new HashMap<HttpString, HttpString>();
+        for (final Field field : Headers.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == HttpString.class) {
+                try {
+                    final HttpString name = (HttpString) field.get(null);
+                    prefixes.put(name, headerPrefix(name));
+                    names.put(name, name);
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        HEADER_PREFIXES = prefixes;
+        HEADER_NAMES = names;
+    }
+
+    private EncodedResponseHeaders() {
+    }
+
+    /**
+     * Returns the complete status line, including the trailing CRLF.
+     *
+     * @param protocol The response protocol
+     * @param code     The response code
+     * @return The encoded status line, or {@code null} if it is not cached
+     */
+    static byte[] getStatusLine(final HttpString protocol, final int code) {
+        if (code < MIN_CODE || code > MAX_CODE) {
+            return null;
+        }
+        if (protocol == Protocols.HTTP_1_1 || Protocols.HTTP_1_1.equals(protocol)) {
+            return HTTP_1_1_STATUS_LINES[code - MIN_CODE];
+        } else if (protocol == Protocols.HTTP_1_0 || Protocols.HTTP_1_0.equals(protocol)) {
+            return HTTP_1_0_STATUS_LINES[code - MIN_CODE];
+        }
+        return null;
+    }
+
+    /**
+     * Returns the header name followed by {@code ': '}.
+     *
+     * @param headerName The header name
+     * @return The encoded prefix, or {@code null} if the header is not one of the well known headers
+     */
+    static byte[] getHeaderPrefix(final HttpString headerName) {
+        return HEADER_PREFIXES.get(headerName);
+    }
+
+    /**
+     * Returns the name a header is written with. Well known headers are always written with the case used in
+     * {@link Headers}, whichever way they were added to the response, so that the header block is the same
+     * whether or not it is written with the pre-encoded prefixes.
+     *
+     * @param headerName The header name
+     * @return The canonical name if the header is one of the well known headers, otherwise {@code headerName}
+     */
+    static HttpString getHeaderName(final HttpString headerName) {
+        final HttpString name = HEADER_NAMES.get(headerName);
+        return name == null ? headerName : name;
+    }
+
+    private static byte[][] statusLines(final HttpString protocol) {
+        final byte[][] lines = new byte[MAX_CODE - MIN_CODE + 1][];
+        for (final StatusCodes statusCode : StatusCodes.values()) {
+            final int code = statusCode.getCode();
+            if (code >= MIN_CODE && code <= MAX_CODE) {
+                lines[code - MIN_CODE] = encode(protocol + " " + code + " " + statusCode.getReason() + "\r\n");
+            }
+        }
+        return lines;
+    }
+
+    private static byte[] headerPrefix(final HttpString headerName) {
+        final byte[] prefix = new byte[headerName.length() + 2];
+        headerName.copyTo(prefix, 0);
+        prefix[prefix.length - 2] = ':';
+        prefix[prefix.length - 1] = ' ';
+        return prefix;
+    }
+
+    private static byte[] encode(final String string) {
+        final byte[] bytes = new byte[string.length()];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) string.charAt(i);
+        }
+        return bytes;
+    }
+}
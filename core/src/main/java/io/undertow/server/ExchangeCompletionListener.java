@@ -0,0 +1,41 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server;
+
+/**
+ * A listener that is notified when an exchange is complete, which is when the completion handler passed to the
+ * root handler is invoked.
+ * <p/>
+ * Listeners are invoked in the order they were added, before the exchange is cleaned up and the next request on
+ * the connection is started. The response code and headers are final at this point, however the response may
+ * not have been completely written to the client yet. Listeners should not block, and a single instance can be
+ * shared by all exchanges, which avoids wrapping the completion handler for every request.
+ *
+ * @see HttpServerExchange#addExchangeCompletionListener(ExchangeCompletionListener)
+ */
+public interface ExchangeCompletionListener {
+
+    /**
+     * Called when the exchange is complete.
+     *
+     * @param exchange The exchange
+     */
+    void exchangeComplete(final HttpServerExchange exchange);
+
+}
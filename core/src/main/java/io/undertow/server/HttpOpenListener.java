@@ -19,6 +19,7 @@
 package io.undertow.server;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
 
 import io.undertow.UndertowLogger;
 import io.undertow.UndertowMessages;
@@ -42,6 +43,15 @@ public final class HttpOpenListener implements ChannelListener<ConnectedStreamCh
 
     private volatile OptionMap undertowOptions;
 
+    private final ConnectionStatistics statistics = new ConnectionStatistics();
+
+    private final ChannelListener<Channel> closeListener = new ChannelListener<Channel>() {
+        @Override
+        public void handleEvent(final Channel channel) {
+            statistics.connectionClosed();
+        }
+    };
+
     public HttpOpenListener(final Pool<ByteBuffer> pool) {
         this(pool, OptionMap.EMPTY);
     }
@@ -55,8 +65,9 @@ public final class HttpOpenListener implements ChannelListener<ConnectedStreamCh
         if (UndertowLogger.REQUEST_LOGGER.isTraceEnabled()) {
             UndertowLogger.REQUEST_LOGGER.tracef("Opened connection with %s", channel.getPeerAddress());
         }
+        statistics.connectionOpened();
         final PushBackStreamChannel pushBackStreamChannel = new PushBackStreamChannel(channel);
-        HttpServerConnection connection = new HttpServerConnection(channel, bufferPool, rootHandler, undertowOptions);
+        HttpServerConnection connection = new HttpServerConnection(channel, bufferPool, rootHandler, undertowOptions, closeListener);
         HttpReadListener readListener = new HttpReadListener(channel, pushBackStreamChannel, connection);
         pushBackStreamChannel.getReadSetter().set(readListener);
         readListener.handleEvent(pushBackStreamChannel);
@@ -70,6 +81,13 @@ public final class HttpOpenListener implements ChannelListener<ConnectedStreamCh
         this.rootHandler = rootHandler;
     }
 
+    /**
+     * @return The statistics for the connections opened by this listener
+     */
+    public ConnectionStatistics getStatistics() {
+        return statistics;
+    }
+
     public OptionMap getUndertowOptions() {
         return undertowOptions;
     }
@@ -20,6 +20,7 @@ package io.undertow.server;
 
 import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -319,8 +320,19 @@ public abstract class HttpParser {
     private static final int LINE_END = 3;
     private static final int AWAIT_DATA_END = 4;
 
+    /**
+     * Bounds for the initial size of the buffer that header values are copied into. The buffer is sized
+     * from the number of bytes that are available when the first header value is parsed, as this is
+     * normally the rest of the request headers.
+     */
+    private static final int MIN_HEADER_BUFFER_SIZE = 64;
+    private static final int MAX_INITIAL_HEADER_BUFFER_SIZE = 1024;
+
     /**
      * Parses a header value. This is called from the generated  bytecode.
+     * <p/>
+     * The value is copied into the header buffer of the parse state and added to the request headers
+     * as an offset into this buffer, so no objects are allocated per header value.
      *
      * @param buffer    The buffer
      * @param remaining The number of bytes remaining
@@ -330,14 +342,18 @@ public abstract class HttpParser {
      */
     @SuppressWarnings("unused")
     final int handleHeaderValue(ByteBuffer buffer, int remaining, ParseState state, HttpServerExchange builder) {
-        StringBuilder stringBuilder = state.stringBuilder;
-        if (stringBuilder == null) {
-            stringBuilder = new StringBuilder();
-            state.parseState = 0;
+        byte[] headerBytes = state.headerBytes;
+        if (headerBytes == null) {
+            state.headerBytes = headerBytes = new byte[Math.min(Math.max(remaining, MIN_HEADER_BUFFER_SIZE), MAX_INITIAL_HEADER_BUFFER_SIZE)];
         }
-
-
+        int length = state.headerBytesLength;
+        int valueStart = state.headerValueStart;
         int parseState = state.parseState;
+        if (valueStart < 0) {
+            valueStart = length;
+            parseState = NORMAL;
+        }
+
         while (remaining > 0) {
             final byte next = buffer.get();
             --remaining;
@@ -350,7 +366,10 @@ public abstract class HttpParser {
                     } else if (next == ' ' || next == '\t') {
                         parseState = WHITESPACE;
                     } else {
-                        stringBuilder.append((char) next);
+                        if (length == headerBytes.length) {
+                            headerBytes = Arrays.copyOf(headerBytes, headerBytes.length * 2);
+                        }
+                        headerBytes[length++] = next;
                     }
                     break;
                 }
@@ -361,10 +380,13 @@ public abstract class HttpParser {
                         parseState = LINE_END;
                     } else if (next == ' ' || next == '\t') {
                     } else {
-                        if (stringBuilder.length() > 0) {
-                            stringBuilder.append(' ');
+                        if (length + 2 > headerBytes.length) {
+                            headerBytes = Arrays.copyOf(headerBytes, headerBytes.length * 2);
+                        }
+                        if (length > valueStart) {
+                            headerBytes[length++] = ' ';
                         }
-                        stringBuilder.append((char) next);
+                        headerBytes[length++] = next;
                         parseState = NORMAL;
                     }
                     break;
@@ -379,19 +401,18 @@ public abstract class HttpParser {
                         parseState = WHITESPACE;
                     } else {
                         //we have a header
-                        HttpString nextStandardHeader = state.nextHeader;
-                        String headerValue = stringBuilder.toString();
-
                         //TODO: we need to decode this according to RFC-2047 if we have seen a =? symbol
-                        builder.getRequestHeaders().add(nextStandardHeader, headerValue);
+                        builder.getRequestHeaders().addLazy(state.nextHeader, headerBytes, valueStart, length - valueStart);
 
                         state.nextHeader = null;
-
                         state.leftOver = next;
-                        state.stringBuilder = null;
+                        state.headerBytes = headerBytes;
+                        state.headerBytesLength = length;
                         if (next == '\r') {
+                            valueStart = length;
                             parseState = AWAIT_DATA_END;
                         } else {
+                            state.headerValueStart = -1;
                             state.state = ParseState.HEADER;
                             state.parseState = 0;
                             return remaining;
@@ -400,6 +421,7 @@ public abstract class HttpParser {
                     break;
                 }
                 case AWAIT_DATA_END: {
+                    state.headerValueStart = -1;
                     state.state = ParseState.PARSE_COMPLETE;
                     return remaining;
                 }
@@ -407,7 +429,9 @@ public abstract class HttpParser {
         }
         //we only write to the state if we did not finish parsing
         state.parseState = parseState;
-        state.stringBuilder = stringBuilder;
+        state.headerBytes = headerBytes;
+        state.headerBytesLength = length;
+        state.headerValueStart = valueStart;
         return remaining;
     }
 
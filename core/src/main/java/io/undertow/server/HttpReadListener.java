@@ -25,6 +25,7 @@ import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import io.undertow.UndertowLogger;
 import io.undertow.UndertowOptions;
+import io.undertow.util.CollidingHeadersException;
 import io.undertow.util.GatedStreamSinkChannel;
 import io.undertow.util.WorkerDispatcher;
 import org.xnio.ChannelListener;
@@ -122,9 +123,19 @@ final class HttpReadListener implements ChannelListener<PushBackStreamChannel> {
                     }
                     return;
                 }
+                if (httpServerExchange.getRequestStartTime() == 0) {
+                    httpServerExchange.setRequestStartTime(System.nanoTime());
+                }
                 //TODO: we need to handle parse errors
                 buffer.flip();
-                int remaining = HttpParser.INSTANCE.handle(buffer, res, state, httpServerExchange);
+                final int remaining;
+                try {
+                    remaining = HttpParser.INSTANCE.handle(buffer, res, state, httpServerExchange);
+                } catch (CollidingHeadersException e) {
+                    UndertowLogger.REQUEST_LOGGER.debugf(e, "Closing connection from %s as its request headers were rejected", connection.getPeerAddress());
+                    IoUtils.safeClose(connection);
+                    return;
+                }
                 if (remaining > 0) {
                     free = false;
                     channel.unget(pooled);
@@ -144,11 +155,13 @@ final class HttpReadListener implements ChannelListener<PushBackStreamChannel> {
             channel.suspendReads();
 
             final HttpServerExchange httpServerExchange = this.httpServerExchange;
+            httpServerExchange.setHeadersParsedTime(System.nanoTime());
             httpServerExchange.putAttachment(UndertowOptions.ATTACHMENT_KEY, connection.getUndertowOptions());
             try {
                 httpServerExchange.setRequestScheme("http"); //todo: determine if this is https
                 state = null;
                 this.httpServerExchange = null;
+                httpServerExchange.setHandlerStartTime(System.nanoTime());
                 connection.getRootHandler().handleRequest(httpServerExchange, new CompletionHandler(httpServerExchange, startNextRequestAction));
 
             } catch (Throwable t) {
@@ -286,6 +299,7 @@ final class HttpReadListener implements ChannelListener<PushBackStreamChannel> {
                 return;
             }
             try {
+                httpServerExchange.exchangeComplete();
                 httpServerExchange.cleanup();
             } finally {
                 //mark this request as finished to allow the next request to run
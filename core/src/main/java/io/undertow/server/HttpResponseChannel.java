@@ -27,7 +27,9 @@ import java.util.Iterator;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
+import io.undertow.util.DateUtils;
 import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
 import io.undertow.util.StatusCodes;
 import org.jboss.logging.Logger;
 import org.xnio.ChannelListener;
@@ -65,6 +67,7 @@ final class HttpResponseChannel implements StreamSinkChannel {
     private int charIndex;
     private Pooled<ByteBuffer> pooledBuffer;
     private final HttpServerExchange exchange;
+    private final boolean alwaysSetDate;
 
     private final ChannelListener.SimpleSetter<HttpResponseChannel> writeSetter = new ChannelListener.SimpleSetter<HttpResponseChannel>();
     private final ChannelListener.SimpleSetter<HttpResponseChannel> closeSetter = new ChannelListener.SimpleSetter<HttpResponseChannel>();
@@ -82,16 +85,23 @@ final class HttpResponseChannel implements StreamSinkChannel {
     private static final int STATE_HDR_FINAL_CR = 8; // Final CR
     private static final int STATE_HDR_FINAL_LF = 9; // Final LF
     private static final int STATE_BUF_FLUSH = 10; // flush the buffer and go to writing body
+    private static final int STATE_HDR_WRITE = 11; // the complete header block is in the buffer, write it out
 
     private static final int MASK_STATE         = 0x0000000F;
     private static final int FLAG_ENTERED       = 0x00000010;
     private static final int FLAG_SHUTDOWN      = 0x00000020;
 
-    HttpResponseChannel(final StreamSinkChannel delegate, final Pool<ByteBuffer> pool, final HttpServerExchange exchange) {
+    HttpResponseChannel(final StreamSinkChannel delegate, final Pool<ByteBuffer> pool, final HttpServerExchange exchange, final boolean alwaysSetDate) {
         this.delegate = delegate;
         this.pool = pool;
         this.exchange = exchange;
-        delegate.getCloseSetter().set(ChannelListeners.delegatingChannelListener(this, closeSetter));
+        this.alwaysSetDate = alwaysSetDate;
+        final HttpServerConnection connection = exchange.getConnection();
+        if (connection != null && delegate == connection.getChannel()) {
+            connection.getChannelCloseSetter().set(ChannelListeners.delegatingChannelListener(this, closeSetter));
+        } else {
+            delegate.getCloseSetter().set(ChannelListeners.delegatingChannelListener(this, closeSetter));
+        }
         delegate.getWriteSetter().set(ChannelListeners.delegatingChannelListener(this, writeSetter));
     }
 
@@ -103,6 +113,64 @@ final class HttpResponseChannel implements StreamSinkChannel {
         return closeSetter;
     }
 
+    /**
+     * Writes the status line and all the headers into the buffer in one pass, if they fit. This is the
+     * common case, and avoids going through the header state machine one character at a time.
+     * <p/>
+     * If the header block does not fit nothing is written, and the caller falls back to the state machine.
+     *
+     * @param buffer     The buffer
+     * @param statusLine The encoded status line
+     * @return {@code true} if the complete header block, including the final CRLF, was written
+     */
+    private boolean writeHeaderBlock(final ByteBuffer buffer, final byte[] statusLine) {
+        final HeaderMap headers = exchange.getResponseHeaders();
+        int required = statusLine.length + 2;
+        for (int i = headers.fastIterate(); i != -1; i = headers.fiNext(i)) {
+            final int nameLength = headers.fiName(i).length() + 4;
+            final String value = headers.fiValue(i);
+            if (value != null) {
+                required += nameLength + value.length();
+            } else {
+                for (final String v : headers.get(headers.fiName(i))) {
+                    required += nameLength + v.length();
+                }
+            }
+        }
+        if (required > buffer.remaining()) {
+            return false;
+        }
+        buffer.put(statusLine);
+        for (int i = headers.fastIterate(); i != -1; i = headers.fiNext(i)) {
+            final HttpString headerName = headers.fiName(i);
+            final String value = headers.fiValue(i);
+            if (value != null) {
+                writeHeader(buffer, headerName, value);
+            } else {
+                for (final String v : headers.get(headerName)) {
+                    writeHeader(buffer, headerName, v);
+                }
+            }
+        }
+        buffer.put((byte) '\r').put((byte) '\n');
+        return true;
+    }
+
+    private static void writeHeader(final ByteBuffer buffer, final HttpString headerName, final String value) {
+        final byte[] prefix = EncodedResponseHeaders.getHeaderPrefix(headerName);
+        if (prefix != null) {
+            buffer.put(prefix);
+        } else {
+            headerName.appendTo(buffer);
+            buffer.put((byte) ':').put((byte) ' ');
+        }
+        final int length = value.length();
+        for (int i = 0; i < length; ++i) {
+            buffer.put((byte) value.charAt(i));
+        }
+        buffer.put((byte) '\r').put((byte) '\n');
+    }
+
     /**
      * Handles writing out the header data. It can also take a byte buffer of user
      * data, to enable both user data and headers to be written out in a single operation,
@@ -147,27 +215,42 @@ final class HttpResponseChannel implements StreamSinkChannel {
                 }
                 case STATE_START: {
                     log.trace("Starting response");
+                    exchange.setResponseCommitTime(System.nanoTime());
                     // we assume that our buffer has enough space for the initial response line plus one more CR+LF
                     assert buffer.remaining() >= 0x100;
-                    string = exchange.getProtocol().toString();
-                    length = string.length();
-                    for (charIndex = 0; charIndex < length; charIndex ++) {
-                        buffer.put((byte) string.charAt(charIndex));
-                    }
-                    buffer.put((byte) ' ');
                     int code = exchange.getResponseCode();
                     assert 999 >= code && code >= 100;
-                    buffer.put((byte) (code / 100 + '0'));
-                    buffer.put((byte) (code / 10 % 10 + '0'));
-                    buffer.put((byte) (code % 10 + '0'));
-                    buffer.put((byte) ' ');
-                    string = StatusCodes.getReason(code);
-                    length = string.length();
-                    for (charIndex = 0; charIndex < length; charIndex ++) {
-                        buffer.put((byte) string.charAt(charIndex));
-                    }
-                    buffer.put((byte) '\r').put((byte) '\n');
                     HeaderMap headers = exchange.getResponseHeaders();
+                    if (alwaysSetDate && !headers.contains(Headers.DATE)) {
+                        //the date string is cached, so this does not format a new date for every response
+                        headers.put(Headers.DATE, DateUtils.getCurrentDateTime());
+                    }
+                    final byte[] statusLine = EncodedResponseHeaders.getStatusLine(exchange.getProtocol(), code);
+                    if (statusLine != null) {
+                        if (writeHeaderBlock(buffer, statusLine)) {
+                            log.trace("Wrote complete header block");
+                            state = STATE_HDR_WRITE;
+                            break;
+                        }
+                        buffer.put(statusLine);
+                    } else {
+                        string = exchange.getProtocol().toString();
+                        length = string.length();
+                        for (charIndex = 0; charIndex < length; charIndex ++) {
+                            buffer.put((byte) string.charAt(charIndex));
+                        }
+                        buffer.put((byte) ' ');
+                        buffer.put((byte) (code / 100 + '0'));
+                        buffer.put((byte) (code / 10 % 10 + '0'));
+                        buffer.put((byte) (code % 10 + '0'));
+                        buffer.put((byte) ' ');
+                        string = StatusCodes.getReason(code);
+                        length = string.length();
+                        for (charIndex = 0; charIndex < length; charIndex ++) {
+                            buffer.put((byte) string.charAt(charIndex));
+                        }
+                        buffer.put((byte) '\r').put((byte) '\n');
+                    }
                     nameIterator = headers.iterator();
                     if (! nameIterator.hasNext()) {
                         log.trace("No response headers");
@@ -185,13 +268,17 @@ final class HttpResponseChannel implements StreamSinkChannel {
                         log.trace("Body");
                         return STATE_BODY;
                     }
-                    headerName = nameIterator.next();
+                    headerName = EncodedResponseHeaders.getHeaderName(nameIterator.next());
                     charIndex = 0;
                     // fall thru
                 }
                 case STATE_HDR_NAME: {
                     log.tracef("Processing header '%s'", headerName);
                     length = headerName.length();
+                    if (charIndex == 0 && buffer.remaining() >= length) {
+                        headerName.appendTo(buffer);
+                        charIndex = length;
+                    }
                     while (charIndex < length) {
                         if (buffer.hasRemaining()) {
                             buffer.put(headerName.byteAt(charIndex++));
@@ -311,7 +398,7 @@ final class HttpResponseChannel implements StreamSinkChannel {
                         }
                         buffer.put((byte) 10); // LF
                         if (nameIterator.hasNext()) {
-                            headerName = nameIterator.next();
+                            headerName = EncodedResponseHeaders.getHeaderName(nameIterator.next());
                             valueIterator = null;
                             state = STATE_HDR_NAME;
                             break;
@@ -392,7 +479,7 @@ final class HttpResponseChannel implements StreamSinkChannel {
                         state = STATE_HDR_NAME;
                         break;
                     } else if (nameIterator.hasNext()) {
-                        headerName = nameIterator.next();
+                        headerName = EncodedResponseHeaders.getHeaderName(nameIterator.next());
                         valueIterator = null;
                         state = STATE_HDR_NAME;
                         break;
@@ -427,6 +514,9 @@ final class HttpResponseChannel implements StreamSinkChannel {
                         buffer.clear();
                     }
                     buffer.put((byte) 10); // LF
+                    // fall thru
+                }
+                case STATE_HDR_WRITE: {
                     this.nameIterator = null;
                     this.valueIterator = null;
                     this.string = null;
@@ -41,24 +41,37 @@ import org.xnio.channels.ConnectedStreamChannel;
  */
 public final class HttpServerConnection extends AbstractAttachable implements ConnectedChannel {
     private final ConnectedStreamChannel channel;
-    private final ChannelListener.Setter<HttpServerConnection> closeSetter;
+    private final ChannelListener.SimpleSetter<HttpServerConnection> closeSetter = new ChannelListener.SimpleSetter<HttpServerConnection>();
+    private final ChannelListener.SimpleSetter<ConnectedStreamChannel> channelCloseSetter = new ChannelListener.SimpleSetter<ConnectedStreamChannel>();
     private final Pool<ByteBuffer> bufferPool;
     private final HttpHandler rootHandler;
     private final int maxConcurrentRequests;
     private final OptionMap undertowOptions;
+    private final boolean alwaysSetDate;
 
     @SuppressWarnings("unused")
     private volatile int runningRequestCount = 1;
 
     private static final AtomicIntegerFieldUpdater<HttpServerConnection> runningRequestCountUpdater = AtomicIntegerFieldUpdater.newUpdater(HttpServerConnection.class, "runningRequestCount");
 
-    HttpServerConnection(ConnectedStreamChannel channel, final Pool<ByteBuffer> bufferPool, final HttpHandler rootHandler, final OptionMap undertowOptions) {
+    /**
+     * @param closeListener a listener that is invoked when the connection is closed, regardless of the listeners
+     *                      set through {@link #getCloseSetter()}
+     */
+    HttpServerConnection(ConnectedStreamChannel channel, final Pool<ByteBuffer> bufferPool, final HttpHandler rootHandler, final OptionMap undertowOptions, final ChannelListener<? super HttpServerConnection> closeListener) {
         this.channel = channel;
         this.bufferPool = bufferPool;
         this.rootHandler = rootHandler;
         this.undertowOptions = undertowOptions;
         this.maxConcurrentRequests = undertowOptions.get(UndertowOptions.MAX_REQUESTS_PER_CONNECTION, 1);
-        closeSetter = ChannelListeners.getDelegatingSetter(channel.getCloseSetter(), this);
+        this.alwaysSetDate = undertowOptions.get(UndertowOptions.ALWAYS_SET_DATE, false);
+        channel.getCloseSetter().set(new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                ChannelListeners.invokeChannelListener(channel, channelCloseSetter.get());
+                ChannelListeners.invokeChannelListener(HttpServerConnection.this, closeListener);
+                ChannelListeners.invokeChannelListener(HttpServerConnection.this, closeSetter.get());
+            }
+        });
     }
 
     /**
@@ -92,6 +105,17 @@ public final class HttpServerConnection extends AbstractAttachable implements Co
         return closeSetter;
     }
 
+    /**
+     * The close listener of the underlying channel is owned by the connection, so that a channel that
+     * wraps it does not replace the listeners of the connection. Such channels must set their listener
+     * through this setter instead.
+     *
+     * @return the setter for the listener of the underlying channel
+     */
+    ChannelListener.Setter<ConnectedStreamChannel> getChannelCloseSetter() {
+        return channelCloseSetter;
+    }
+
     public XnioWorker getWorker() {
         return channel.getWorker();
     }
@@ -165,6 +189,13 @@ public final class HttpServerConnection extends AbstractAttachable implements Co
         return maxConcurrentRequests;
     }
 
+    /**
+     * @return true if a {@code Date} header should be added to responses that do not have one
+     */
+    public boolean isAlwaysSetDate() {
+        return alwaysSetDate;
+    }
+
     public OptionMap getUndertowOptions() {
         return undertowOptions;
     }
@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+import io.undertow.UndertowLogger;
 import io.undertow.UndertowMessages;
 import io.undertow.util.AbstractAttachable;
 import io.undertow.util.HeaderMap;
@@ -58,7 +59,10 @@ public final class HttpServerExchange extends AbstractAttachable {
     private static final Logger log = Logger.getLogger(HttpServerExchange.class);
 
     private final HttpServerConnection connection;
-    private final HeaderMap requestHeaders = new HeaderMap();
+    /**
+     * Sized so that the headers a typical browser sends fit without resizing
+     */
+    private final HeaderMap requestHeaders = new HeaderMap(16);
     private final HeaderMap responseHeaders = new HeaderMap();
 
     private final Map<String, Deque<String>> queryParameters = new HashMap<String, Deque<String>>(0);
@@ -105,6 +109,20 @@ public final class HttpServerExchange extends AbstractAttachable {
 
     private boolean complete = false;
 
+    /**
+     * The times at which the exchange reached each stage, as returned by {@link System#nanoTime()}, or 0 if the
+     * stage has not been reached. Each is written once by the thread driving the exchange through that stage.
+     */
+    private long requestStartTime;
+    private long headersParsedTime;
+    private long handlerStartTime;
+    private long responseCommitTime;
+    private long completionTime;
+
+    private static final ExchangeCompletionListener[] NO_COMPLETION_LISTENERS = new ExchangeCompletionListener[0];
+
+    private volatile ExchangeCompletionListener[] completionListeners = NO_COMPLETION_LISTENERS;
+
     private static final ChannelWrapper<StreamSourceChannel>[] NO_SOURCE_WRAPPERS = new ChannelWrapper[0];
     private static final ChannelWrapper<StreamSinkChannel>[] NO_SINK_WRAPPERS = new ChannelWrapper[0];
 
@@ -114,6 +132,8 @@ public final class HttpServerExchange extends AbstractAttachable {
     private static final AtomicReferenceFieldUpdater<HttpServerExchange, ChannelWrapper[]> requestWrappersUpdater = AtomicReferenceFieldUpdater.newUpdater(HttpServerExchange.class, ChannelWrapper[].class, "requestWrappers");
     private static final AtomicReferenceFieldUpdater<HttpServerExchange, ChannelWrapper[]> responseWrappersUpdater = AtomicReferenceFieldUpdater.newUpdater(HttpServerExchange.class, ChannelWrapper[].class, "responseWrappers");
 
+    private static final AtomicReferenceFieldUpdater<HttpServerExchange, ExchangeCompletionListener[]> completionListenersUpdater = AtomicReferenceFieldUpdater.newUpdater(HttpServerExchange.class, ExchangeCompletionListener[].class, "completionListeners");
+
     private static final AtomicIntegerFieldUpdater<HttpServerExchange> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(HttpServerExchange.class, "state");
 
     private static final int MASK_RESPONSE_CODE = intBitMask(0, 9);
@@ -129,7 +149,7 @@ public final class HttpServerExchange extends AbstractAttachable {
             //just for unit tests
             this.underlyingResponseChannel = null;
         } else {
-            this.underlyingResponseChannel = new HttpResponseChannel(responseChannel, connection.getBufferPool(), this);
+            this.underlyingResponseChannel = new HttpResponseChannel(responseChannel, connection.getBufferPool(), this, connection.isAlwaysSetDate());
         }
         this.requestTerminateAction = requestTerminateAction;
         this.responseTerminateAction = responseTerminateAction;
@@ -467,6 +487,98 @@ public final class HttpServerExchange extends AbstractAttachable {
         return complete;
     }
 
+    /**
+     * Adds a listener that will be notified when the exchange is complete.
+     *
+     * @param listener the listener
+     * @throws IllegalStateException if the exchange is already complete
+     */
+    public void addExchangeCompletionListener(final ExchangeCompletionListener listener) {
+        ExchangeCompletionListener[] oldVal;
+        ExchangeCompletionListener[] newVal;
+        int oldLen;
+        do {
+            oldVal = completionListeners;
+            if (oldVal == null) {
+                throw UndertowMessages.MESSAGES.exchangeAlreadyComplete();
+            }
+            oldLen = oldVal.length;
+            newVal = Arrays.copyOf(oldVal, oldLen + 1);
+            newVal[oldLen] = listener;
+        } while (!completionListenersUpdater.compareAndSet(this, oldVal, newVal));
+    }
+
+    /**
+     * Notifies the completion listeners, this is only done once.
+     */
+    void exchangeComplete() {
+        completionTime = System.nanoTime();
+        final ExchangeCompletionListener[] listeners = completionListenersUpdater.getAndSet(this, null);
+        if (listeners == null) {
+            return;
+        }
+        for (ExchangeCompletionListener listener : listeners) {
+            try {
+                listener.exchangeComplete(this);
+            } catch (Throwable t) {
+                UndertowLogger.REQUEST_LOGGER.exceptionInCompletionListener(listener, t);
+            }
+        }
+    }
+
+    /**
+     * @return the time the first byte of the request was read, as returned by {@link System#nanoTime()}
+     */
+    public long getRequestStartTime() {
+        return requestStartTime;
+    }
+
+    void setRequestStartTime(final long requestStartTime) {
+        this.requestStartTime = requestStartTime;
+    }
+
+    /**
+     * @return the time the request headers were fully parsed, as returned by {@link System#nanoTime()}
+     */
+    public long getHeadersParsedTime() {
+        return headersParsedTime;
+    }
+
+    void setHeadersParsedTime(final long headersParsedTime) {
+        this.headersParsedTime = headersParsedTime;
+    }
+
+    /**
+     * @return the time the root handler was invoked, as returned by {@link System#nanoTime()}
+     */
+    public long getHandlerStartTime() {
+        return handlerStartTime;
+    }
+
+    void setHandlerStartTime(final long handlerStartTime) {
+        this.handlerStartTime = handlerStartTime;
+    }
+
+    /**
+     * @return the time the response status line and headers started to be written, as returned by
+     *         {@link System#nanoTime()}, or 0 if the response has not been committed
+     */
+    public long getResponseCommitTime() {
+        return responseCommitTime;
+    }
+
+    void setResponseCommitTime(final long responseCommitTime) {
+        this.responseCommitTime = responseCommitTime;
+    }
+
+    /**
+     * @return the time the exchange completed, as returned by {@link System#nanoTime()}, or 0 if the exchange
+     *         is not complete
+     */
+    public long getCompletionTime() {
+        return completionTime;
+    }
+
     /**
      * Force the codec to treat the request as fully read.  Should only be invoked by handlers which downgrade
      * the socket or implement a transfer coding.
@@ -526,6 +638,11 @@ public final class HttpServerExchange extends AbstractAttachable {
             if (wrappers == null) {
                 return null;
             }
+            for (ChannelWrapper wrapper : wrappers) {
+                if (wrapper instanceof ResponseCommitListener) {
+                    ((ResponseCommitListener) wrapper).beforeCommit(exchange);
+                }
+            }
             StreamSinkChannel oldChannel = firstChannel;
             StreamSinkChannel channel = oldChannel;
             for (ChannelWrapper wrapper : wrappers) {
@@ -588,7 +705,8 @@ public final class HttpServerExchange extends AbstractAttachable {
     }
 
     /**
-     * Adds a {@link ChannelWrapper} to the response wrapper chain.
+     * Adds a {@link ChannelWrapper} to the response wrapper chain. If the wrapper also implements
+     * {@link ResponseCommitListener} it will be notified before any wrappers are applied.
      *
      * @param wrapper the wrapper
      */
@@ -30,6 +30,7 @@ import io.undertow.server.handlers.ResponseCodeHandler;
 import io.undertow.util.BrokenStreamSourceChannel;
 import io.undertow.util.ChunkedStreamSinkChannel;
 import io.undertow.util.ChunkedStreamSourceChannel;
+import io.undertow.util.FixedLengthStreamSinkChannel;
 import io.undertow.util.HeaderMap;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
@@ -41,7 +42,6 @@ import org.xnio.ChannelListeners;
 import org.xnio.IoUtils;
 import org.xnio.channels.ChannelFactory;
 import org.xnio.channels.EmptyStreamSourceChannel;
-import org.xnio.channels.FixedLengthStreamSinkChannel;
 import org.xnio.channels.FixedLengthStreamSourceChannel;
 import org.xnio.channels.PushBackStreamChannel;
 import org.xnio.channels.StreamSinkChannel;
@@ -180,7 +180,11 @@ public class HttpTransferEncodingHandler implements HttpHandler {
             exchange.getRequestChannel();
             final ChannelFactory<StreamSinkChannel> factory = exchange.getResponseChannelFactory();
             if (factory != null) {
-                exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, "0");
+                // HEAD and 304 responses describe an entity that is not sent, so a length that was set is kept
+                final boolean noEntity = exchange.getRequestMethod().equals(Methods.HEAD) || exchange.getResponseCode() == 304;
+                if (!noEntity || !exchange.getResponseHeaders().contains(Headers.CONTENT_LENGTH)) {
+                    exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, "0");
+                }
                 factory.create();
             }
             IoUtils.safeClose(requestStream);
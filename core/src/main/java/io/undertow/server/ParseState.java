@@ -96,10 +96,32 @@ public class ParseState {
 
     String nextQueryParam;
 
+    /**
+     * Buffer that header values are copied into as they are parsed. Values are handed to the
+     * {@link io.undertow.util.HeaderMap} as offsets into this buffer, and are only turned into a
+     * String if a handler actually reads them.
+     * <p/>
+     * The read buffer itself cannot be used for this, as it is returned to the pool (or pushed back
+     * into the channel as request body) as soon as parsing is complete, and a header may span
+     * several reads.
+     */
+    byte[] headerBytes;
+
+    /**
+     * The number of bytes in {@link #headerBytes} that are in use
+     */
+    int headerBytesLength;
+
+    /**
+     * The offset in {@link #headerBytes} of the header value that is currently being parsed, or -1
+     * if a header value is not being parsed.
+     */
+    int headerValueStart;
 
     public ParseState() {
         this.parseState = 0;
         this.pos = 0;
+        this.headerValueStart = -1;
     }
 
     public boolean isComplete() {
@@ -0,0 +1,41 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server;
+
+/**
+ * A callback that is invoked just before the response is committed, while the response headers can still
+ * be modified.
+ * <p/>
+ * Response {@link ChannelWrapper}s are applied in the order they were added, so a wrapper added by a handler
+ * near the start of the chain (such as the transfer coding wrapper added by {@link HttpTransferEncodingHandler})
+ * inspects the response headers before wrappers added later in the chain have had a chance to run. If a
+ * response wrapper also implements this interface then {@link #beforeCommit(HttpServerExchange)} is called
+ * before any of the wrappers are applied, which allows it to change headers that earlier wrappers depend on,
+ * for example removing the {@code Content-Length} header when the response is going to be compressed.
+ */
+public interface ResponseCommitListener {
+
+    /**
+     * Called before the response channel is created.
+     *
+     * @param exchange The exchange
+     */
+    void beforeCommit(final HttpServerExchange exchange);
+
+}
@@ -0,0 +1,212 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import io.undertow.UndertowMessages;
+
+/**
+ * A concurrency limit that adjusts itself based on the latency of requests, for use with
+ * {@link RequestLimitingHandler}.
+ * <p/>
+ * Latency is sampled over short windows. At the end of each window the average latency of the window is compared
+ * with a long term average of the latency, and the limit is scaled by the ratio between them:
+ * <pre>
+ * gradient = max(0.5, min(1, longTermLatency / windowLatency))
+ * newLimit = limit * gradient + sqrt(limit)
+ * </pre>
+ * While latency is stable the limit grows by the square root of the limit each window, which lets a small queue
+ * build up in the handler. Once latency starts to rise above its long term average the limit is cut, before the
+ * queue grows to the point where latency collapses. As the long term average follows the latency, the limit
+ * settles at a new level after a change in the cost of handling a request, rather than having to be tuned again.
+ * <p/>
+ * The limit is only raised if at least half of it was in use during the window, so a lightly loaded server does not
+ * end up with a limit that has never been tested.
+ * <p/>
+ * The long term latency is learnt from the first windows, so the initial limit should be one that the server can
+ * handle without requests queueing. The limit quickly grows from there if there is spare capacity.
+ */
+public final class AdaptiveConcurrencyLimit {
+
+    /**
+     * The default length of a sample window
+     */
+    public static final long DEFAULT_WINDOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * The default minimum number of requests in a sample window. Windows with fewer requests are extended.
+     */
+    public static final int DEFAULT_MIN_WINDOW_SAMPLES = 10;
+
+    /**
+     * The number of windows the long term latency is averaged over
+     */
+    private static final int LONG_TERM_WINDOWS = 600;
+
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private volatile long window = DEFAULT_WINDOW;
+    private volatile int minWindowSamples = DEFAULT_MIN_WINDOW_SAMPLES;
+
+    private volatile long windowStart;
+    private volatile long latencySum;
+    private volatile int samples;
+    private volatile int maxInFlight;
+
+    private static final AtomicLongFieldUpdater<AdaptiveConcurrencyLimit> windowStartUpdater = AtomicLongFieldUpdater.newUpdater(AdaptiveConcurrencyLimit.class, "windowStart");
+    private static final AtomicLongFieldUpdater<AdaptiveConcurrencyLimit> latencySumUpdater = AtomicLongFieldUpdater.newUpdater(AdaptiveConcurrencyLimit.class, "latencySum");
+    private static final AtomicIntegerFieldUpdater<AdaptiveConcurrencyLimit> samplesUpdater = AtomicIntegerFieldUpdater.newUpdater(AdaptiveConcurrencyLimit.class, "samples");
+    private static final AtomicIntegerFieldUpdater<AdaptiveConcurrencyLimit> maxInFlightUpdater = AtomicIntegerFieldUpdater.newUpdater(AdaptiveConcurrencyLimit.class, "maxInFlight");
+
+    /**
+     * Guarded by this
+     */
+    private double limit;
+    private double longTermLatency;
+    private volatile int currentLimit;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param initialLimit the limit to start from
+     * @param minLimit     the lowest the limit can go, which must be at least one
+     * @param maxLimit     the highest the limit can go
+     */
+    public AdaptiveConcurrencyLimit(final int initialLimit, final int minLimit, final int maxLimit) {
+        if (minLimit < 1) {
+            throw UndertowMessages.MESSAGES.maximumConcurrentRequestsMustBeLargerThanZero();
+        }
+        if (minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw UndertowMessages.MESSAGES.invalidConcurrencyLimits(initialLimit, minLimit, maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.currentLimit = initialLimit;
+        this.windowStart = System.nanoTime();
+    }
+
+    /**
+     * Records the latency of a request.
+     *
+     * @param start    the value of {@link System#nanoTime()} when the request was started
+     * @param end      the value of {@link System#nanoTime()} when the request completed
+     * @param inFlight the number of requests that were in progress, including this one
+     * @return the new limit if this sample ended a window and the limit has changed, otherwise -1
+     */
+    public int addSample(final long start, final long end, final int inFlight) {
+        latencySumUpdater.addAndGet(this, end - start);
+        final int samples = samplesUpdater.incrementAndGet(this);
+        int max;
+        while (inFlight > (max = maxInFlight)) {
+            if (maxInFlightUpdater.compareAndSet(this, max, inFlight)) {
+                break;
+            }
+        }
+        final long windowStart = this.windowStart;
+        if (end - windowStart < window || samples < minWindowSamples || !windowStartUpdater.compareAndSet(this, windowStart, end)) {
+            return -1;
+        }
+        //samples that arrive while the window is being reset are counted towards the next one
+        final long latencySum = latencySumUpdater.getAndSet(this, 0);
+        final int count = samplesUpdater.getAndSet(this, 0);
+        final int maxInFlight = maxInFlightUpdater.getAndSet(this, 0);
+        if (count == 0) {
+            return -1;
+        }
+        synchronized (this) {
+            return update(Math.max(1, (double) latencySum / count), maxInFlight);
+        }
+    }
+
+    private int update(final double latency, final int maxInFlight) {
+        if (longTermLatency == 0) {
+            longTermLatency = latency;
+        } else {
+            longTermLatency += (latency - longTermLatency) / LONG_TERM_WINDOWS;
+            if (longTermLatency / latency > 2) {
+                //latency has dropped well below the long term average, e.g. after a spike, so let it catch up
+                longTermLatency *= 0.95;
+            }
+        }
+        final double gradient = Math.max(0.5, Math.min(1.0, longTermLatency / latency));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        if (maxInFlight < limit / 2) {
+            newLimit = Math.min(newLimit, limit);
+        }
+        newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        final int rounded = (int) limit;
+        if (rounded == currentLimit) {
+            return -1;
+        }
+        currentLimit = rounded;
+        return rounded;
+    }
+
+    /**
+     * Get the current limit.
+     *
+     * @return the current limit
+     */
+    public int getLimit() {
+        return currentLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public long getWindow(final TimeUnit unit) {
+        return unit.convert(window, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set the length of the windows that latency is sampled over.
+     *
+     * @param window the length of a window
+     * @param unit   the unit of the length
+     */
+    public void setWindow(final long window, final TimeUnit unit) {
+        this.window = unit.toNanos(window);
+    }
+
+    public int getMinWindowSamples() {
+        return minWindowSamples;
+    }
+
+    /**
+     * Set the minimum number of requests in a window. A window is extended until it contains this many requests,
+     * so that the limit is not moved by a handful of slow requests.
+     *
+     * @param minWindowSamples the minimum number of requests
+     */
+    public void setMinWindowSamples(final int minWindowSamples) {
+        this.minWindowSamples = minWindowSamples;
+    }
+}
@@ -76,7 +76,7 @@ public class CookieHandler implements HttpHandler {
      * @param cookie        The cookie
      * @param parsedCookies The map of cookies
      */
-    private static void parseCookie(final String cookie, final Map<String, Cookie> parsedCookies) {
+    static void parseCookie(final String cookie, final Map<String, Cookie> parsedCookies) {
         int state = 0;
         String name = null;
         int start = 0;
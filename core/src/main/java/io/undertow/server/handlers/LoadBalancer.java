@@ -0,0 +1,641 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.server.handlers;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import io.undertow.UndertowLogger;
+import io.undertow.client.HttpClient;
+import io.undertow.client.HttpClientRequest;
+import io.undertow.client.HttpClientResponse;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.session.SessionCookieConfig;
+import io.undertow.util.CopyOnWriteMap;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.XnioExecutor;
+
+/**
+ * Selects the backend a {@link ProxyHandler} forwards a request to.
+ * <p/>
+ * If the session cookie of the request has a route suffix, as appended to session ID's by
+ * {@link io.undertow.server.session.BatchingSessionIdGenerator}, the request is sent to the backend with that route
+ * while it is available. Otherwise a backend is picked using the {@link Strategy}.
+ * <p/>
+ * If a health check path is set every backend is sent a {@code HEAD} request for that path once per interval, a
+ * backend that fails a number of consecutive checks is not selected until it passes a check again. A check that
+ * does not complete within the timeout fails, and its connection is closed. The checks are run on the worker of the
+ * client, the XNIO timer of the IO thread that handled the first request is only used to schedule them.
+ * <p/>
+ * Selection does not lock, the backends are held in an array that is replaced when a backend is added or removed,
+ * and the outstanding requests of each backend are tracked with an atomic counter.
+ */
+public class LoadBalancer {
+
+    public enum Strategy {
+        /**
+         * The available backend with the fewest outstanding requests is picked
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * Two backends are picked at random, and the one with fewer outstanding requests is used. This avoids the
+         * scan of all backends, and spreads bursts of requests over several backends.
+         */
+        POWER_OF_TWO_CHOICES
+    }
+
+    private static final Backend[] NO_BACKENDS = new Backend[0];
+
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private static final AtomicReferenceFieldUpdater<LoadBalancer, Backend[]> backendsUpdater = AtomicReferenceFieldUpdater.newUpdater(LoadBalancer.class, Backend[].class, "backends");
+    private static final AtomicIntegerFieldUpdater<LoadBalancer> healthCheckScheduledUpdater = AtomicIntegerFieldUpdater.newUpdater(LoadBalancer.class, "healthCheckScheduled");
+
+    private final HttpClient client;
+    private final Map<String, Backend> routes = new CopyOnWriteMap<String, Backend>();
+    private final IoFuture.HandlingNotifier<HttpClientRequest, HealthCheck> healthCheckRequestNotifier = new HealthCheckRequestNotifier();
+    private final IoFuture.HandlingNotifier<HttpClientResponse, HealthCheck> healthCheckResponseNotifier = new HealthCheckResponseNotifier();
+
+    private volatile Backend[] backends = NO_BACKENDS;
+    private volatile Strategy strategy = Strategy.LEAST_OUTSTANDING;
+    private volatile String sessionCookieName = SessionCookieConfig.DEFAULT_SESSION_ID;
+    private volatile String healthCheckPath;
+    private volatile long healthCheckInterval = 10000;
+    private volatile long healthCheckTimeout = 5000;
+    private volatile int unhealthyThreshold = 2;
+
+    @SuppressWarnings("unused")
+    private volatile int healthCheckScheduled;
+
+    /**
+     * @param client The client used to send requests to the backends
+     */
+    public LoadBalancer(final HttpClient client) {
+        this.client = client;
+    }
+
+    public HttpClient getClient() {
+        return client;
+    }
+
+    public LoadBalancer addBackend(final URI uri) {
+        return addBackend(uri, null);
+    }
+
+    /**
+     * Adds a backend.
+     *
+     * @param uri   The URI of the backend. The path of the request is appended to the path of this URI.
+     * @param route The route of the backend, or null if the backend does not use sticky sessions
+     * @return this load balancer
+     */
+    public LoadBalancer addBackend(final URI uri, final String route) {
+        final Backend backend = new Backend(uri, route);
+        Backend[] oldVal, newVal;
+        do {
+            oldVal = backends;
+            newVal = Arrays.copyOf(oldVal, oldVal.length + 1);
+            newVal[oldVal.length] = backend;
+        } while (!backendsUpdater.compareAndSet(this, oldVal, newVal));
+        if (route != null) {
+            routes.put(route, backend);
+        }
+        return this;
+    }
+
+    /**
+     * Removes a backend. Requests that have already been sent to the backend are not affected.
+     *
+     * @param uri The URI of the backend
+     * @return this load balancer
+     */
+    public LoadBalancer removeBackend(final URI uri) {
+        final String target = Backend.normalize(uri);
+        Backend[] oldVal, newVal;
+        Backend removed;
+        do {
+            oldVal = backends;
+            removed = null;
+            int i = 0;
+            for (; i < oldVal.length; ++i) {
+                if (oldVal[i].uri.equals(target)) {
+                    removed = oldVal[i];
+                    break;
+                }
+            }
+            if (removed == null) {
+                return this;
+            }
+            newVal = new Backend[oldVal.length - 1];
+            System.arraycopy(oldVal, 0, newVal, 0, i);
+            System.arraycopy(oldVal, i + 1, newVal, i, oldVal.length - i - 1);
+        } while (!backendsUpdater.compareAndSet(this, oldVal, newVal));
+        if (removed.route != null) {
+            routes.remove(removed.route, removed);
+        }
+        return this;
+    }
+
+    public List<Backend> getBackends() {
+        return Collections.unmodifiableList(Arrays.asList(backends));
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public LoadBalancer setStrategy(final Strategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy");
+        }
+        this.strategy = strategy;
+        return this;
+    }
+
+    public String getSessionCookieName() {
+        return sessionCookieName;
+    }
+
+    /**
+     * @param sessionCookieName The name of the cookie the route is read from
+     * @return this load balancer
+     */
+    public LoadBalancer setSessionCookieName(final String sessionCookieName) {
+        this.sessionCookieName = sessionCookieName;
+        return this;
+    }
+
+    public String getHealthCheckPath() {
+        return healthCheckPath;
+    }
+
+    public long getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    /**
+     * Enables health checks.
+     *
+     * @param path     The path that is requested from each backend, relative to the URI of the backend, or null to
+     *                 stop the health checks
+     * @param interval The time between checks
+     * @param unit     The unit of the interval
+     * @return this load balancer
+     */
+    public LoadBalancer setHealthCheck(final String path, final long interval, final TimeUnit unit) {
+        if (path != null && interval <= 0) {
+            throw new IllegalArgumentException("interval");
+        }
+        this.healthCheckInterval = unit.toMillis(interval);
+        this.healthCheckPath = path;
+        return this;
+    }
+
+    public long getHealthCheckTimeout() {
+        return healthCheckTimeout;
+    }
+
+    /**
+     * @param timeout The time after which a health check that has not completed fails, and its connection is closed
+     * @param unit    The unit of the timeout
+     * @return this load balancer
+     */
+    public LoadBalancer setHealthCheckTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout");
+        }
+        this.healthCheckTimeout = unit.toMillis(timeout);
+        return this;
+    }
+
+    public int getUnhealthyThreshold() {
+        return unhealthyThreshold;
+    }
+
+    /**
+     * @param unhealthyThreshold The number of consecutive failed health checks after which a backend is no longer
+     *                           selected
+     * @return this load balancer
+     */
+    public LoadBalancer setUnhealthyThreshold(final int unhealthyThreshold) {
+        if (unhealthyThreshold < 1) {
+            throw new IllegalArgumentException("unhealthyThreshold");
+        }
+        this.unhealthyThreshold = unhealthyThreshold;
+        return this;
+    }
+
+    /**
+     * Selects the backend for a request, and counts it as outstanding on that backend. Every selected backend
+     * must be passed to {@link #release(Backend)} once the request is done.
+     *
+     * @param exchange The exchange
+     * @return The backend, or null if no backend is available
+     */
+    public Backend select(final HttpServerExchange exchange) {
+        if (healthCheckPath != null && healthCheckScheduled == 0) {
+            scheduleHealthCheck(exchange.getWriteThread());
+        }
+        final Backend[] backends = this.backends;
+        if (backends.length == 0) {
+            return null;
+        }
+        Backend backend = null;
+        if (!routes.isEmpty()) {
+            final String route = getRoute(exchange);
+            if (route != null) {
+                backend = routes.get(route);
+                if (backend != null && !backend.available) {
+                    //the session fails over to another backend
+                    backend = null;
+                }
+            }
+        }
+        if (backend == null) {
+            if (strategy == Strategy.POWER_OF_TWO_CHOICES) {
+                backend = powerOfTwoChoices(backends);
+            } else {
+                backend = leastOutstanding(backends, backends.length == 1 ? 0 : RANDOM.get().nextInt(backends.length));
+            }
+            if (backend == null) {
+                return null;
+            }
+        }
+        Backend.outstandingUpdater.incrementAndGet(backend);
+        return backend;
+    }
+
+    /**
+     * Marks a request that was sent to the backend as done.
+     *
+     * @param backend The backend returned by {@link #select(HttpServerExchange)}
+     */
+    public void release(final Backend backend) {
+        Backend.outstandingUpdater.decrementAndGet(backend);
+    }
+
+    /**
+     * Scans all backends, starting at the given index so that backends with the same number of outstanding
+     * requests are picked evenly.
+     */
+    private static Backend leastOutstanding(final Backend[] backends, final int start) {
+        Backend best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        for (int i = 0; i < backends.length; ++i) {
+            final Backend backend = backends[(start + i) % backends.length];
+            if (backend.available) {
+                final int outstanding = backend.outstanding;
+                if (outstanding < bestOutstanding) {
+                    best = backend;
+                    bestOutstanding = outstanding;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static Backend powerOfTwoChoices(final Backend[] backends) {
+        if (backends.length == 1) {
+            return backends[0].available ? backends[0] : null;
+        }
+        final Random random = RANDOM.get();
+        final int first = random.nextInt(backends.length);
+        int second = random.nextInt(backends.length - 1);
+        if (second >= first) {
+            ++second;
+        }
+        final Backend a = backends[first];
+        final Backend b = backends[second];
+        if (a.available && b.available) {
+            return a.outstanding <= b.outstanding ? a : b;
+        } else if (a.available) {
+            return a;
+        } else if (b.available) {
+            return b;
+        }
+        return leastOutstanding(backends, first);
+    }
+
+    /**
+     * Finds the route suffix of the session cookie, without parsing all cookies of the request.
+     */
+    private String getRoute(final HttpServerExchange exchange) {
+        final Deque<String> cookies = exchange.getRequestHeaders().get(Headers.COOKIE);
+        if (cookies == null) {
+            return null;
+        }
+        final String name = sessionCookieName;
+        for (String header : cookies) {
+            final String route = getRoute(header, name);
+            if (route != null) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    static String getRoute(final String header, final String name) {
+        int index = 0;
+        while ((index = header.indexOf(name, index)) != -1) {
+            final int valueStart = index + name.length() + 1;
+            if (valueStart <= header.length() && header.charAt(valueStart - 1) == '=' && isCookieStart(header, index)) {
+                int valueEnd = header.indexOf(';', valueStart);
+                if (valueEnd == -1) {
+                    valueEnd = header.length();
+                }
+                final int separator = header.indexOf('.', valueStart);
+                if (separator == -1 || separator >= valueEnd) {
+                    return null;
+                }
+                while (valueEnd > separator + 1 && (header.charAt(valueEnd - 1) == ' ' || header.charAt(valueEnd - 1) == '"')) {
+                    --valueEnd;
+                }
+                return separator + 1 == valueEnd ? null : header.substring(separator + 1, valueEnd);
+            }
+            index += name.length();
+        }
+        return null;
+    }
+
+    private static boolean isCookieStart(final String header, final int index) {
+        for (int i = index - 1; i >= 0; --i) {
+            final char c = header.charAt(i);
+            if (c == ';' || c == ',') {
+                return true;
+            } else if (c != ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void scheduleHealthCheck(final XnioExecutor executor) {
+        if (healthCheckScheduledUpdater.compareAndSet(this, 0, 1)) {
+            try {
+                executor.executeAfter(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            client.getWorker().execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    runHealthChecks(executor);
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            //the worker is shutting down
+                            healthCheckScheduled = 0;
+                        }
+                    }
+                }, healthCheckInterval, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                //the IO thread is shutting down, the next request starts the checks again
+                healthCheckScheduled = 0;
+            }
+        }
+    }
+
+    private void runHealthChecks(final XnioExecutor executor) {
+        final String path = healthCheckPath;
+        try {
+            if (path != null) {
+                for (Backend backend : backends) {
+                    healthCheck(backend, path, executor);
+                }
+            }
+        } finally {
+            healthCheckScheduled = 0;
+        }
+        if (path != null) {
+            scheduleHealthCheck(executor);
+        }
+    }
+
+    private void healthCheck(final Backend backend, final String path, final XnioExecutor executor) {
+        if (!Backend.healthCheckRunningUpdater.compareAndSet(backend, 0, 1)) {
+            //the previous check has neither completed nor timed out within the interval
+            updateHealth(backend, false);
+            return;
+        }
+        final HealthCheck check = new HealthCheck(backend);
+        try {
+            check.timeoutKey = executor.executeAfter(new Runnable() {
+                @Override
+                public void run() {
+                    healthCheckTimedOut(check);
+                }
+            }, healthCheckTimeout, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            backend.healthCheckRunning = 0;
+            return;
+        }
+        final String target = path.startsWith("/") ? backend.uri + path : backend.uri + "/" + path;
+        check.request = client.sendRequest(Methods.HEAD_STRING, target, OptionMap.EMPTY);
+        check.request.addNotifier(healthCheckRequestNotifier, check);
+    }
+
+    private void healthCheckTimedOut(final HealthCheck check) {
+        if (!HealthCheck.doneUpdater.compareAndSet(check, 0, 1)) {
+            return;
+        }
+        //closing the connection fails the request, which is then ignored as the check is already done
+        final HttpClientRequest request = check.sentRequest;
+        if (request != null) {
+            IoUtils.safeClose(request.getConnection());
+        } else if (check.request != null) {
+            check.request.cancel();
+        }
+        check.backend.healthCheckRunning = 0;
+        updateHealth(check.backend, false);
+    }
+
+    private void healthCheckDone(final HealthCheck check, final boolean healthy) {
+        if (!HealthCheck.doneUpdater.compareAndSet(check, 0, 1)) {
+            //the check has timed out
+            return;
+        }
+        final XnioExecutor.Key key = check.timeoutKey;
+        if (key != null) {
+            key.remove();
+        }
+        check.backend.healthCheckRunning = 0;
+        updateHealth(check.backend, healthy);
+    }
+
+    private void updateHealth(final Backend backend, final boolean healthy) {
+        synchronized (backend) {
+            if (healthy) {
+                backend.failedHealthChecks = 0;
+                if (!backend.available) {
+                    backend.available = true;
+                    UndertowLogger.ROOT_LOGGER.proxyBackendAvailable(backend.uri);
+                }
+            } else if (++backend.failedHealthChecks >= unhealthyThreshold && backend.available) {
+                backend.available = false;
+                UndertowLogger.ROOT_LOGGER.proxyBackendUnavailable(backend.uri);
+            }
+        }
+    }
+
+    /**
+     * A single health check of a backend, which is done once it has completed or timed out
+     */
+    private static final class HealthCheck {
+
+        static final AtomicIntegerFieldUpdater<HealthCheck> doneUpdater = AtomicIntegerFieldUpdater.newUpdater(HealthCheck.class, "done");
+
+        private final Backend backend;
+        private volatile IoFuture<HttpClientRequest> request;
+        private volatile HttpClientRequest sentRequest;
+        private volatile XnioExecutor.Key timeoutKey;
+        @SuppressWarnings("unused")
+        private volatile int done;
+
+        private HealthCheck(final Backend backend) {
+            this.backend = backend;
+        }
+    }
+
+    private class HealthCheckRequestNotifier extends IoFuture.HandlingNotifier<HttpClientRequest, HealthCheck> {
+
+        @Override
+        public void handleDone(final HttpClientRequest request, final HealthCheck check) {
+            check.sentRequest = request;
+            if (check.done != 0) {
+                //timed out while the connection was made
+                IoUtils.safeClose(request.getConnection());
+                return;
+            }
+            request.getResponse().addNotifier(healthCheckResponseNotifier, check);
+        }
+
+        @Override
+        public void handleFailed(final IOException exception, final HealthCheck check) {
+            healthCheckDone(check, false);
+        }
+
+        @Override
+        public void handleCancelled(final HealthCheck check) {
+            healthCheckDone(check, false);
+        }
+    }
+
+    private class HealthCheckResponseNotifier extends IoFuture.HandlingNotifier<HttpClientResponse, HealthCheck> {
+
+        @Override
+        public void handleDone(final HttpClientResponse response, final HealthCheck check) {
+            boolean healthy;
+            try {
+                final int code = response.getResponseCode();
+                healthy = code >= 200 && code < 400;
+                //a response to a HEAD request has no body
+                IoUtils.safeClose(response.readReplyBody());
+            } catch (IOException e) {
+                healthy = false;
+            }
+            healthCheckDone(check, healthy);
+        }
+
+        @Override
+        public void handleFailed(final IOException exception, final HealthCheck check) {
+            healthCheckDone(check, false);
+        }
+
+        @Override
+        public void handleCancelled(final HealthCheck check) {
+            healthCheckDone(check, false);
+        }
+    }
+
+    /**
+     * A backend server.
+     */
+    public static final class Backend {
+
+        static final AtomicIntegerFieldUpdater<Backend> outstandingUpdater = AtomicIntegerFieldUpdater.newUpdater(Backend.class, "outstanding");
+        static final AtomicIntegerFieldUpdater<Backend> healthCheckRunningUpdater = AtomicIntegerFieldUpdater.newUpdater(Backend.class, "healthCheckRunning");
+
+        private final String uri;
+        private final String route;
+
+        private volatile int outstanding;
+        private volatile boolean available = true;
+        @SuppressWarnings("unused")
+        private volatile int healthCheckRunning;
+        private int failedHealthChecks;
+
+        Backend(final URI uri, final String route) {
+            this.uri = normalize(uri);
+            this.route = route;
+        }
+
+        static String normalize(final URI uri) {
+            final String value = uri.toString();
+            return value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+        }
+
+        /**
+         * @return The URI of the backend, without a trailing slash
+         */
+        public String getUri() {
+            return uri;
+        }
+
+        public String getRoute() {
+            return route;
+        }
+
+        /**
+         * @return The number of requests that have been sent to this backend and are not done yet
+         */
+        public int getOutstanding() {
+            return outstanding;
+        }
+
+        /**
+         * @return <code>false</code> if the backend has failed its health checks
+         */
+        public boolean isAvailable() {
+            return available;
+        }
+
+        @Override
+        public String toString() {
+            return "Backend{uri=" + uri + ", route=" + route + ", outstanding=" + outstanding + ", available=" + available + "}";
+        }
+    }
+}
@@ -18,7 +18,10 @@
 
 package io.undertow.server.handlers;
 
-import java.util.Deque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import io.undertow.server.HttpCompletionHandler;
@@ -30,20 +33,40 @@ import io.undertow.util.Headers;
 /**
  * A {@link HttpHandler} that implements virtual hosts based on the <code>Host:</code> http header
  * header.
+ * <p/>
+ * Host names are matched without regard to case. A host is looked up in the following order:
+ * <ol>
+ * <li>the full value of the header, including the port if present</li>
+ * <li>the host name without the port and any trailing dot</li>
+ * <li>wildcard hosts of the form <code>*.example.com</code>, which match any host that ends with
+ * <code>.example.com</code>. The wildcard with the longest suffix wins, and a host of <code>*</code>
+ * matches any host that has not otherwise been matched.</li>
+ * </ol>
+ * The registered hosts are compiled into an open addressed table that is probed with regions of the header
+ * value, and a trie of the labels of the wildcard hosts from right to left, so neither lookup creates any
+ * objects. The result of the lookup is also kept in a small cache indexed by the hash of the header value,
+ * so that a popular host is normally resolved with a single comparison. Host names are expected to be ASCII,
+ * which is the case for internationalized domain names once they have been encoded.
  *
  * @author Stuart Douglas
  */
 public class NameVirtualHostHandler implements HttpHandler {
 
+    /**
+     * The number of entries in the resolution cache, must be a power of two
+     */
+    private static final int CACHE_SIZE = 1024;
+
     private volatile HttpHandler defaultHandler = ResponseCodeHandler.HANDLE_404;
     private final Map<String, HttpHandler> hosts = new CopyOnWriteMap<String, HttpHandler>();
+    private volatile Hosts compiled = Hosts.build(Collections.<String, HttpHandler>emptyMap());
 
 
     @Override
     public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
-        final Deque<String> host = exchange.getRequestHeaders().get(Headers.HOST);
+        final String host = exchange.getRequestHeaders().getFirst(Headers.HOST);
         if(host != null) {
-            final HttpHandler handler = hosts.get(host.getFirst());
+            final HttpHandler handler = compiled.resolve(host);
             if(handler != null) {
                 HttpHandlers.executeHandler(handler, exchange, completionHandler);
                 return;
@@ -57,7 +80,7 @@ public class NameVirtualHostHandler implements HttpHandler {
     }
 
     public Map<String, HttpHandler> getHosts() {
-        return hosts;
+        return Collections.unmodifiableMap(hosts);
     }
 
     public void setDefaultHandler(final HttpHandler defaultHandler) {
@@ -65,12 +88,164 @@ public class NameVirtualHostHandler implements HttpHandler {
         this.defaultHandler = defaultHandler;
     }
 
+    /**
+     * Adds a host and a handler for that host.
+     *
+     * @param host    The host, which may include a port, or be a wildcard of the form <code>*.example.com</code>
+     * @param handler The handler
+     */
     public synchronized void addHost(final String host, final HttpHandler handler) {
         HttpHandlers.handlerNotNull(handler);
         hosts.put(host, handler);
+        compiled = Hosts.build(hosts);
     }
 
     public synchronized void removeHost(final String host) {
         hosts.remove(host);
+        compiled = Hosts.build(hosts);
+    }
+
+    /**
+     * A node of the trie of wildcard hosts, keyed on the labels of the host from right to left.
+     */
+    private static final class Label {
+
+        private final RegionTable<Label> children;
+        /**
+         * The handler for hosts that have further labels to the left of this one, or null
+         */
+        private final HttpHandler wildcard;
+
+        private Label(final RegionTable<Label> children, final HttpHandler wildcard) {
+            this.children = children;
+            this.wildcard = wildcard;
+        }
+
+        static Label build(final LabelBuilder builder) {
+            final Map<String, Label> children = new HashMap<String, Label>();
+            for (final Map.Entry<String, LabelBuilder> entry : builder.children.entrySet()) {
+                children.put(entry.getKey(), build(entry.getValue()));
+            }
+            return new Label(new RegionTable<Label>(children), builder.wildcard);
+        }
+    }
+
+    private static final class LabelBuilder {
+
+        private final Map<String, LabelBuilder> children = new HashMap<String, LabelBuilder>();
+        private HttpHandler wildcard;
+    }
+
+    private static final class CacheEntry {
+
+        private final String host;
+        private final HttpHandler handler;
+
+        private CacheEntry(final String host, final HttpHandler handler) {
+            this.host = host;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * An immutable snapshot of the registered hosts.
+     */
+    private static final class Hosts {
+
+        private final RegionTable<HttpHandler> exact;
+        private final Label wildcards;
+        /**
+         * The cache is written to without synchronization. As the entries are immutable the worst that can
+         * happen is that a thread does not see an entry another thread has just added.
+         */
+        private final CacheEntry[] cache = new CacheEntry[CACHE_SIZE];
+
+        private Hosts(final RegionTable<HttpHandler> exact, final Label wildcards) {
+            this.exact = exact;
+            this.wildcards = wildcards;
+        }
+
+        static Hosts build(final Map<String, HttpHandler> hosts) {
+            final Map<String, HttpHandler> exact = new LinkedHashMap<String, HttpHandler>();
+            final LabelBuilder wildcards = new LabelBuilder();
+            for (final Map.Entry<String, HttpHandler> entry : hosts.entrySet()) {
+                final String host = entry.getKey().toLowerCase(Locale.ENGLISH);
+                if (host.equals("*")) {
+                    wildcards.wildcard = entry.getValue();
+                } else if (host.startsWith("*.")) {
+                    LabelBuilder node = wildcards;
+                    int end = host.length();
+                    while (end > 1) {
+                        final int dot = host.lastIndexOf('.', end - 1);
+                        final String label = host.substring(dot + 1, end);
+                        LabelBuilder child = node.children.get(label);
+                        if (child == null) {
+                            node.children.put(label, child = new LabelBuilder());
+                        }
+                        node = child;
+                        end = dot;
+                    }
+                    node.wildcard = entry.getValue();
+                } else {
+                    exact.put(host, entry.getValue());
+                }
+            }
+            return new Hosts(new RegionTable<HttpHandler>(exact), Label.build(wildcards));
+        }
+
+        HttpHandler resolve(final String host) {
+            final int hash = host.hashCode();
+            final int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+            final CacheEntry entry = cache[slot];
+            if (entry != null && entry.host.equals(host)) {
+                return entry.handler;
+            }
+            final HttpHandler handler = lookup(host);
+            cache[slot] = new CacheEntry(host, handler);
+            return handler;
+        }
+
+        private HttpHandler lookup(final String host) {
+            final int length = host.length();
+            HttpHandler handler = exact.getIgnoreCase(host, 0, length);
+            if (handler != null) {
+                return handler;
+            }
+            int end;
+            if (length > 0 && host.charAt(0) == '[') {
+                //an IPv6 literal, the port follows the closing bracket
+                end = host.indexOf(']');
+                end = end == -1 ? length : end + 1;
+            } else {
+                end = host.indexOf(':');
+                if (end == -1) {
+                    end = length;
+                }
+            }
+            if (end > 0 && host.charAt(end - 1) == '.') {
+                --end;
+            }
+            if (end != length) {
+                handler = exact.getIgnoreCase(host, 0, end);
+                if (handler != null) {
+                    return handler;
+                }
+            }
+            //walk the labels from right to left, remembering the most specific wildcard
+            Label node = wildcards;
+            HttpHandler wildcard = end > 0 ? node.wildcard : null;
+            while (end > 0) {
+                final int dot = host.lastIndexOf('.', end - 1);
+                node = node.children.getIgnoreCase(host, dot + 1, end);
+                if (node == null) {
+                    break;
+                }
+                if (dot > 0 && node.wildcard != null) {
+                    wildcard = node.wildcard;
+                }
+                end = dot;
+            }
+            return wildcard;
+        }
     }
 }
@@ -19,6 +19,7 @@
 package io.undertow.server.handlers;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 
@@ -31,14 +32,14 @@ import io.undertow.util.CopyOnWriteMap;
 /**
  * Handler that dispatches to a given handler based of a prefix match of the path.
  * <p/>
- * This only matches a single level of a request, e.g if you have a request that takes the form:
+ * Paths are matched a whole segment at a time, and the longest registered prefix wins. e.g. if handlers are
+ * registered for /foo and /foo/bar, a request for /foo/bar/baz is dispatched to the /foo/bar handler with a
+ * relative path of /baz, while a request for /foo/barbaz is dispatched to the /foo handler with a relative
+ * path of /barbaz.
  * <p/>
- * /foo/bar
- * <p/>
- * This handler can only match a single part of this request (namely /foo). To match the full path
- * two of these handlers must be chained together.
- *
- * Note that
+ * The registered paths are compiled into a trie of path segments, so the relative path is walked once per
+ * request without creating any intermediate strings, and the relative and resolved paths are only updated
+ * once a match has been found.
  *
  * @author Stuart Douglas
  */
@@ -46,25 +47,40 @@ public class PathHandler implements HttpHandler {
 
     private volatile HttpHandler defaultHandler = ResponseCodeHandler.HANDLE_404;
     private final ConcurrentMap<String, HttpHandler> paths = new CopyOnWriteMap<String, HttpHandler>();
+    private volatile Node root = Node.EMPTY;
 
     @Override
     public void handleRequest(HttpServerExchange exchange, HttpCompletionHandler completionHandler) {
-        int pos = 0;
         final String path = exchange.getRelativePath();
         final int length = path.length();
-
-        while (pos < length) {
-            if(path.charAt(pos) == '/' && pos != 0) {
+        Node node = root;
+        HttpHandler match = null;
+        int matchEnd = 0;
+        int start = 0;
+        while (start < length) {
+            //a segment runs up to, but not including, the next slash
+            int hash = path.charAt(start);
+            int pos = start + 1;
+            char c;
+            while (pos < length && (c = path.charAt(pos)) != '/') {
+                hash = 31 * hash + c;
+                ++pos;
+            }
+            node = node.child(path, start, pos, hash);
+            if (node == null) {
                 break;
             }
-            ++pos;
+            if (node.handler != null) {
+                match = node.handler;
+                matchEnd = pos;
+            }
+            start = pos;
         }
-        final String part = path.substring(0, pos);
-        final HttpHandler next = paths.get(part);
-        if(next != null) {
-            exchange.setRelativePath(path.substring(pos));
-            exchange.setResolvedPath(exchange.getResolvedPath() + part);
-            HttpHandlers.executeHandler(next, exchange, completionHandler);
+        if (match != null) {
+            final String resolvedPath = exchange.getResolvedPath();
+            exchange.setRelativePath(path.substring(matchEnd));
+            exchange.setResolvedPath(new StringBuilder(resolvedPath.length() + matchEnd).append(resolvedPath).append(path, 0, matchEnd).toString());
+            HttpHandlers.executeHandler(match, exchange, completionHandler);
         } else {
             HttpHandlers.executeHandler(defaultHandler, exchange, completionHandler);
         }
@@ -81,11 +97,12 @@ public class PathHandler implements HttpHandler {
 
     /**
      * Adds a path and a handler for that path. If the path does not start
-     * with a / then one will be prepended
+     * with a / then one will be prepended. The path may contain several
+     * segments, such as /foo/bar.
      * @param path The path
      * @param handler The handler
      */
-    public void addPath(final String path, final HttpHandler handler) {
+    public synchronized void addPath(final String path, final HttpHandler handler) {
         HttpHandlers.handlerNotNull(handler);
         if(path == null || path.isEmpty()) {
             throw UndertowMessages.MESSAGES.pathMustBeSpecified();
@@ -95,9 +112,10 @@ public class PathHandler implements HttpHandler {
         } else {
             paths.put(path, handler);
         }
+        root = Node.build(paths);
     }
 
-    public void removePath(final String path) {
+    public synchronized void removePath(final String path) {
         if(path == null || path.isEmpty()) {
             throw UndertowMessages.MESSAGES.pathMustBeSpecified();
         }
@@ -106,13 +124,79 @@ public class PathHandler implements HttpHandler {
         } else {
             paths.remove(path);
         }
+        root = Node.build(paths);
     }
 
-    public void clearPaths() {
+    public synchronized void clearPaths() {
         paths.clear();
+        root = Node.EMPTY;
     }
 
     public Map<String, HttpHandler> getPaths() {
         return Collections.unmodifiableMap(paths);
     }
+
+    /**
+     * An immutable node of the path trie. The children are keyed on the segment, including its leading slash,
+     * so they can be looked up from a region of the request path.
+     */
+    private static final class Node {
+
+        static final Node EMPTY = new Node(null, new RegionTable<Node>(Collections.<String, Node>emptyMap()));
+
+        final HttpHandler handler;
+        private final RegionTable<Node> children;
+
+        private Node(final HttpHandler handler, final RegionTable<Node> children) {
+            this.handler = handler;
+            this.children = children;
+        }
+
+        /**
+         * @param hash The hash of the region, as computed by {@link String#hashCode()}
+         * @return The child for the segment between start and end, or null if there is none
+         */
+        Node child(final String path, final int start, final int end, final int hash) {
+            return children.get(path, start, end, hash);
+        }
+
+        static Node build(final Map<String, HttpHandler> paths) {
+            final Builder root = new Builder();
+            for (final Map.Entry<String, HttpHandler> entry : paths.entrySet()) {
+                final String path = entry.getKey();
+                final int length = path.length();
+                Builder node = root;
+                int start = 0;
+                while (start < length) {
+                    int pos = start + 1;
+                    while (pos < length && path.charAt(pos) != '/') {
+                        ++pos;
+                    }
+                    final String segment = path.substring(start, pos);
+                    Builder child = node.children.get(segment);
+                    if (child == null) {
+                        node.children.put(segment, child = new Builder());
+                    }
+                    node = child;
+                    start = pos;
+                }
+                node.handler = entry.getValue();
+            }
+            return root.build();
+        }
+    }
+
+    private static final class Builder {
+
+        private final Map<String, Builder> children = new HashMap<String, Builder>();
+        private HttpHandler handler;
+
+        Node build() {
+            final Map<String, Node> nodes = new HashMap<String, Node>();
+            for (final Map.Entry<String, Builder> entry : children.entrySet()) {
+                nodes.put(entry.getKey(), entry.getValue().build());
+            }
+            return new Node(handler, new RegionTable<Node>(nodes));
+        }
+    }
 }
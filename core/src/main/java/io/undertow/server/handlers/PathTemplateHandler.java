@@ -0,0 +1,413 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.undertow.UndertowMessages;
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+
+/**
+ * Handler that dispatches to a handler based on a path template, such as {@code /users/{id}/orders/{orderId}}.
+ * <p/>
+ * A template is made up of segments separated by slashes, and each segment is either literal text or a parameter
+ * of the form {@code {name}}, which matches any non empty segment. The whole of the relative path must match the
+ * template. When several templates match a path, literal segments take priority over parameters, so with
+ * templates for {@code /users/{id}} and {@code /users/me} a request for {@code /users/me} is dispatched to the
+ * second.
+ * <p/>
+ * The values of the parameters are attached to the exchange under {@link #PATH_PARAMETERS}. They are taken from
+ * the relative path as is, without any decoding.
+ * <p/>
+ * A handler can be registered for all methods, or for a specific method. If a template matches but there is no
+ * handler for the request method a 405 response is sent, with an {@code Allow} header that lists the methods
+ * that have handlers. If no template matches the request is passed to the default handler.
+ * <p/>
+ * The templates are compiled into a tree of segments, so a request is matched by walking its relative path once,
+ * backtracking only when a literal segment leads to a dead end. No strings are created until a match is found.
+ */
+public class PathTemplateHandler implements HttpHandler {
+
+    /**
+     * The values of the parameters of the matched template, keyed by parameter name
+     */
+    public static final AttachmentKey<Map<String, String>> PATH_PARAMETERS = AttachmentKey.create(Map.class);
+
+    private volatile HttpHandler defaultHandler = ResponseCodeHandler.HANDLE_404;
+    private final Map<String, Template> templates = new LinkedHashMap<String, Template>();
+    private volatile Node root = new Builder().build();
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+        final String path = exchange.getRelativePath();
+        final Node root = this.root;
+        if (path.isEmpty() || path.charAt(0) != '/') {
+            HttpHandlers.executeHandler(defaultHandler, exchange, completionHandler);
+            return;
+        }
+        final int[] captures = root.maxParameters == 0 ? null : new int[root.maxParameters * 2];
+        final Node node = match(root, path, 1, captures, 0);
+        if (node == null) {
+            HttpHandlers.executeHandler(defaultHandler, exchange, completionHandler);
+            return;
+        }
+        final Target target = node.target(exchange.getRequestMethod());
+        if (target == null) {
+            exchange.setResponseCode(405);
+            exchange.getResponseHeaders().put(Headers.ALLOW, node.allow);
+            completionHandler.handleComplete();
+            return;
+        }
+        final String[] names = target.names;
+        if (names.length == 0) {
+            exchange.putAttachment(PATH_PARAMETERS, Collections.<String, String>emptyMap());
+        } else {
+            final Map<String, String> parameters = new HashMap<String, String>(names.length * 2);
+            for (int i = 0; i < names.length; ++i) {
+                parameters.put(names[i], path.substring(captures[i * 2], captures[i * 2 + 1]));
+            }
+            exchange.putAttachment(PATH_PARAMETERS, parameters);
+        }
+        HttpHandlers.executeHandler(target.handler, exchange, completionHandler);
+    }
+
+    /**
+     * Matches the remainder of the path against the tree, trying the literal child of each node before the
+     * parameter child.
+     *
+     * @param start    The start of the current segment, after the slash
+     * @param captures The start and end of each parameter value matched so far
+     * @param count    The number of parameter values matched so far
+     * @return The node that the path ends at, or null if there is no match
+     */
+    private static Node match(final Node node, final String path, final int start, final int[] captures, final int count) {
+        final int length = path.length();
+        int hash = 0;
+        int end = start;
+        char c;
+        while (end < length && (c = path.charAt(end)) != '/') {
+            hash = 31 * hash + c;
+            ++end;
+        }
+        final Node child = node.child(path, start, end, hash);
+        if (child != null) {
+            if (end == length) {
+                if (child.allow != null) {
+                    return child;
+                }
+            } else {
+                final Node result = match(child, path, end + 1, captures, count);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        final Node parameter = node.parameter;
+        if (parameter != null && end > start) {
+            captures[count * 2] = start;
+            captures[count * 2 + 1] = end;
+            if (end == length) {
+                if (parameter.allow != null) {
+                    return parameter;
+                }
+            } else {
+                return match(parameter, path, end + 1, captures, count + 1);
+            }
+        }
+        return null;
+    }
+
+    public HttpHandler getDefaultHandler() {
+        return defaultHandler;
+    }
+
+    public void setDefaultHandler(final HttpHandler defaultHandler) {
+        HttpHandlers.handlerNotNull(defaultHandler);
+        this.defaultHandler = defaultHandler;
+    }
+
+    /**
+     * Adds a template and a handler that is used for all request methods. If the template does not start
+     * with a / then one will be prepended.
+     *
+     * @param template The path template
+     * @param handler  The handler
+     */
+    public void add(final String template, final HttpHandler handler) {
+        add(null, template, handler);
+    }
+
+    /**
+     * Adds a template and a handler that is used for a single request method. If the template does not start
+     * with a / then one will be prepended. A handler for a specific method takes priority over a handler for all
+     * methods.
+     *
+     * @param method   The request method, or null for all methods
+     * @param template The path template
+     * @param handler  The handler
+     */
+    public synchronized void add(final HttpString method, final String template, final HttpHandler handler) {
+        HttpHandlers.handlerNotNull(handler);
+        final String normalized = normalize(template);
+        Template existing = templates.get(normalized);
+        if (existing == null) {
+            existing = Template.parse(normalized);
+        }
+        if (method == null) {
+            existing.handler = handler;
+        } else {
+            existing.methods.put(method, handler);
+        }
+        templates.put(normalized, existing);
+        rebuild();
+    }
+
+    /**
+     * Removes a template, along with all the handlers registered for it.
+     *
+     * @param template The path template
+     */
+    public synchronized void remove(final String template) {
+        templates.remove(normalize(template));
+        rebuild();
+    }
+
+    /**
+     * Removes the handler registered for a template and request method.
+     *
+     * @param method   The request method, or null to remove the handler for all methods
+     * @param template The path template
+     */
+    public synchronized void remove(final HttpString method, final String template) {
+        final String normalized = normalize(template);
+        final Template existing = templates.get(normalized);
+        if (existing == null) {
+            return;
+        }
+        if (method == null) {
+            existing.handler = null;
+        } else {
+            existing.methods.remove(method);
+        }
+        if (existing.handler == null && existing.methods.isEmpty()) {
+            templates.remove(normalized);
+        }
+        rebuild();
+    }
+
+    public synchronized void clear() {
+        templates.clear();
+        rebuild();
+    }
+
+    private static String normalize(final String template) {
+        if (template == null || template.isEmpty()) {
+            throw UndertowMessages.MESSAGES.pathMustBeSpecified();
+        }
+        return template.charAt(0) == '/' ? template : "/" + template;
+    }
+
+    private void rebuild() {
+        final Builder root = new Builder();
+        for (final Template template : templates.values()) {
+            Builder node = root;
+            for (final String segment : template.segments) {
+                if (segment == null) {
+                    if (node.parameter == null) {
+                        node.parameter = new Builder();
+                    }
+                    node = node.parameter;
+                } else {
+                    Builder child = node.children.get(segment);
+                    if (child == null) {
+                        node.children.put(segment, child = new Builder());
+                    }
+                    node = child;
+                }
+            }
+            //templates that only differ in their parameter names end at the same node
+            if (template.handler != null) {
+                node.handler = new Target(template.handler, template.names);
+            }
+            for (final Map.Entry<HttpString, HttpHandler> entry : template.methods.entrySet()) {
+                node.methods.put(entry.getKey(), new Target(entry.getValue(), template.names));
+            }
+        }
+        this.root = root.build();
+    }
+
+    /**
+     * A registered template.
+     */
+    private static final class Template {
+
+        /**
+         * The literal segments, with null for parameters
+         */
+        final String[] segments;
+        final String[] names;
+        final Map<HttpString, HttpHandler> methods = new LinkedHashMap<HttpString, HttpHandler>();
+        HttpHandler handler;
+
+        private Template(final String[] segments, final String[] names) {
+            this.segments = segments;
+            this.names = names;
+        }
+
+        static Template parse(final String template) {
+            final List<String> segments = new ArrayList<String>();
+            final List<String> names = new ArrayList<String>();
+            final int length = template.length();
+            int start = 1;
+            for (; ; ) {
+                int end = template.indexOf('/', start);
+                if (end == -1) {
+                    end = length;
+                }
+                final String segment = template.substring(start, end);
+                if (segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}') {
+                    final String name = segment.substring(1, segment.length() - 1);
+                    if (name.indexOf('{') != -1 || name.indexOf('}') != -1 || names.contains(name)) {
+                        throw UndertowMessages.MESSAGES.invalidPathTemplate(template);
+                    }
+                    segments.add(null);
+                    names.add(name);
+                } else if (segment.indexOf('{') != -1 || segment.indexOf('}') != -1) {
+                    throw UndertowMessages.MESSAGES.invalidPathTemplate(template);
+                } else {
+                    segments.add(segment);
+                }
+                if (end == length) {
+                    break;
+                }
+                start = end + 1;
+            }
+            return new Template(segments.toArray(new String[segments.size()]), names.toArray(new String[names.size()]));
+        }
+    }
+
+    private static final class Target {
+
+        final HttpHandler handler;
+        final String[] names;
+
+        private Target(final HttpHandler handler, final String[] names) {
+            this.handler = handler;
+            this.names = names;
+        }
+    }
+
+    /**
+     * An immutable node of the compiled tree. The literal children are keyed on the segment, so they can be looked
+     * up from a region of the request path.
+     */
+    private static final class Node {
+
+        private final RegionTable<Node> children;
+        final Node parameter;
+        /**
+         * The largest number of parameters in a template that passes through this node
+         */
+        final int maxParameters;
+
+        private final HttpString[] methods;
+        private final Target[] targets;
+        private final Target handler;
+        /**
+         * The value of the Allow header, or null if no template ends at this node
+         */
+        final String allow;
+
+        private Node(final RegionTable<Node> children, final Node parameter, final int maxParameters,
+                     final HttpString[] methods, final Target[] targets, final Target handler, final String allow) {
+            this.children = children;
+            this.parameter = parameter;
+            this.maxParameters = maxParameters;
+            this.methods = methods;
+            this.targets = targets;
+            this.handler = handler;
+            this.allow = allow;
+        }
+
+        /**
+         * @param hash The hash of the region, as computed by {@link String#hashCode()}
+         * @return The literal child for the segment between start and end, or null if there is none
+         */
+        Node child(final String path, final int start, final int end, final int hash) {
+            return children.get(path, start, end, hash);
+        }
+
+        Target target(final HttpString method) {
+            for (int i = 0; i < methods.length; ++i) {
+                if (methods[i].equals(method)) {
+                    return targets[i];
+                }
+            }
+            return handler;
+        }
+    }
+
+    private static final class Builder {
+
+        private final Map<String, Builder> children = new HashMap<String, Builder>();
+        private Builder parameter;
+        private final Map<HttpString, Target> methods = new LinkedHashMap<HttpString, Target>();
+        private Target handler;
+
+        Node build() {
+            final Map<String, Node> nodes = new HashMap<String, Node>();
+            int maxParameters = 0;
+            for (final Map.Entry<String, Builder> entry : children.entrySet()) {
+                final Node node = entry.getValue().build();
+                nodes.put(entry.getKey(), node);
+                maxParameters = Math.max(maxParameters, node.maxParameters);
+            }
+            Node parameterNode = null;
+            if (parameter != null) {
+                parameterNode = parameter.build();
+                maxParameters = Math.max(maxParameters, parameterNode.maxParameters + 1);
+            }
+
+            final HttpString[] methodNames = methods.keySet().toArray(new HttpString[methods.size()]);
+            final Target[] targets = methods.values().toArray(new Target[methods.size()]);
+            String allow = null;
+            if (handler != null || !methods.isEmpty()) {
+                final StringBuilder builder = new StringBuilder();
+                for (final HttpString method : methodNames) {
+                    if (builder.length() > 0) {
+                        builder.append(", ");
+                    }
+                    builder.append(method);
+                }
+                allow = builder.toString();
+            }
+            return new Node(new RegionTable<Node>(nodes), parameterNode, maxParameters, methodNames, targets, handler, allow);
+        }
+    }
+}
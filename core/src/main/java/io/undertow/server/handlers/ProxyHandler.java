@@ -0,0 +1,442 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.server.handlers;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.undertow.UndertowLogger;
+import io.undertow.client.HttpClient;
+import io.undertow.client.HttpClientRequest;
+import io.undertow.client.HttpClientResponse;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.xnio.ChannelExceptionHandler;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Pool;
+import org.xnio.Pooled;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+
+/**
+ * A reverse proxy handler, that forwards requests to a backend server.
+ * <p/>
+ * Requests are sent using an {@link HttpClient}, so connections to the backend are pooled and reused. Request and
+ * response bodies are streamed between the channels using pooled buffers, and are never held in memory as a
+ * whole. Reads from one side are suspended while the other side can not accept any more data, so a slow client or
+ * backend slows down the transfer rather than filling up memory.
+ * <p/>
+ * Headers are copied as they were received, apart from hop-by-hop headers which only apply to a single connection.
+ * The {@code Host} header of the original request is preserved.
+ * <p/>
+ * The backend of each request is selected by a {@link LoadBalancer}. If no backend is available, or the backend
+ * can not be reached, a 503 response is sent. If the backend fails before the response has started a 502 response
+ * is sent, otherwise the connection to the client is closed.
+ */
+public class ProxyHandler implements HttpHandler {
+
+    private static final Set<HttpString> HOP_BY_HOP;
+
+    static {
+        final Set<HttpString> headers = new HashSet<HttpString>();
+        headers.add(Headers.CONNECTION);
+        headers.add(new HttpString("Keep-Alive"));
+        headers.add(new HttpString("Proxy-Connection"));
+        headers.add(Headers.PROXY_AUTHENTICATE);
+        headers.add(Headers.PROXY_AUTHORIZATION);
+        headers.add(Headers.TE);
+        headers.add(Headers.TRAILER);
+        headers.add(Headers.TRANSFER_ENCODING);
+        headers.add(Headers.UPGRADE);
+        HOP_BY_HOP = headers;
+    }
+
+    private static final AttachmentKey<LoadBalancer.Backend> BACKEND = AttachmentKey.create(LoadBalancer.Backend.class);
+
+    private final LoadBalancer loadBalancer;
+    private final HttpClient client;
+
+    private final ExchangeCompletionListener releaseListener = new ExchangeCompletionListener() {
+        @Override
+        public void exchangeComplete(final HttpServerExchange exchange) {
+            loadBalancer.release(exchange.getAttachment(BACKEND));
+        }
+    };
+
+    /**
+     * @param client  The client used to connect to the backend
+     * @param backend The backend to forward to. The path of the request is appended to the path of this URI.
+     */
+    public ProxyHandler(final HttpClient client, final URI backend) {
+        this(new LoadBalancer(client).addBackend(backend));
+    }
+
+    /**
+     * @param loadBalancer The load balancer that selects the backend of each request
+     */
+    public ProxyHandler(final LoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer;
+        this.client = loadBalancer.getClient();
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+        final long contentLength = getContentLength(exchange.getRequestHeaders());
+        if (contentLength < -1) {
+            exchange.setResponseCode(400);
+            completionHandler.handleComplete();
+            return;
+        }
+        final LoadBalancer.Backend backend = loadBalancer.select(exchange);
+        if (backend == null) {
+            exchange.setResponseCode(503);
+            completionHandler.handleComplete();
+            return;
+        }
+        exchange.putAttachment(BACKEND, backend);
+        exchange.addExchangeCompletionListener(releaseListener);
+        final String target = getTarget(backend, exchange);
+        final IoFuture<HttpClientRequest> request = client.sendRequest(exchange.getRequestMethod().toString(), target, OptionMap.EMPTY);
+        request.addNotifier(new IoFuture.HandlingNotifier<HttpClientRequest, Object>() {
+            @Override
+            public void handleDone(final HttpClientRequest request, final Object attachment) {
+                sendRequest(exchange, completionHandler, target, request, contentLength);
+            }
+
+            @Override
+            public void handleFailed(final IOException exception, final Object attachment) {
+                UndertowLogger.REQUEST_LOGGER.proxyRequestFailed(target, exception);
+                exchange.setResponseCode(503);
+                completionHandler.handleComplete();
+            }
+
+            @Override
+            public void handleCancelled(final Object attachment) {
+                exchange.setResponseCode(503);
+                completionHandler.handleComplete();
+            }
+        }, null);
+    }
+
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    private static String getTarget(final LoadBalancer.Backend backend, final HttpServerExchange exchange) {
+        final String uri = backend.getUri();
+        final String queryString = exchange.getQueryString();
+        final StringBuilder builder = new StringBuilder(uri.length() + exchange.getRequestURI().length() + (queryString == null ? 0 : queryString.length() + 1));
+        builder.append(uri);
+        builder.append(exchange.getRequestURI());
+        if (queryString != null && !queryString.isEmpty()) {
+            builder.append('?');
+            builder.append(queryString);
+        }
+        return builder.toString();
+    }
+
+    private void sendRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final String target, final HttpClientRequest request, final long contentLength) {
+        final HeaderMap requestHeaders = exchange.getRequestHeaders();
+        final HeaderMap backendHeaders = request.getRequestHeaders();
+        backendHeaders.remove(Headers.HOST);
+        copyHeaders(requestHeaders, backendHeaders);
+
+        final StreamSourceChannel requestChannel = exchange.getRequestChannel();
+        if (contentLength != 0 && requestChannel != null) {
+            sendRequestBody(exchange, target, request, requestChannel, contentLength);
+        }
+        request.getResponse().addNotifier(new IoFuture.HandlingNotifier<HttpClientResponse, Object>() {
+            @Override
+            public void handleDone(final HttpClientResponse response, final Object attachment) {
+                sendResponse(exchange, completionHandler, target, response);
+            }
+
+            @Override
+            public void handleFailed(final IOException exception, final Object attachment) {
+                UndertowLogger.REQUEST_LOGGER.proxyRequestFailed(target, exception);
+                failed(exchange, completionHandler);
+            }
+
+            @Override
+            public void handleCancelled(final Object attachment) {
+                failed(exchange, completionHandler);
+            }
+        }, null);
+    }
+
+    private void sendRequestBody(final HttpServerExchange exchange, final String target, final HttpClientRequest request, final StreamSourceChannel requestChannel, final long contentLength) {
+        final StreamSinkChannel backendChannel;
+        try {
+            backendChannel = request.writeRequestBody(contentLength);
+        } catch (IOException e) {
+            UndertowLogger.REQUEST_LOGGER.proxyRequestFailed(target, e);
+            IoUtils.safeClose(request.getConnection());
+            return;
+        }
+        //if the request body can not be sent the backend connection is closed, which fails the response
+        new Pipe(requestChannel, backendChannel, getBufferPool(exchange)) {
+            @Override
+            void done() {
+                try {
+                    backendChannel.shutdownWrites();
+                    if (!backendChannel.flush()) {
+                        backendChannel.getWriteSetter().set(ChannelListeners.<StreamSinkChannel>flushingChannelListener(null, new ChannelExceptionHandler<StreamSinkChannel>() {
+                            @Override
+                            public void handleException(final StreamSinkChannel channel, final IOException exception) {
+                                failed(exception);
+                            }
+                        }));
+                        backendChannel.resumeWrites();
+                    }
+                } catch (IOException e) {
+                    failed(e);
+                }
+            }
+
+            @Override
+            void failed(final IOException exception) {
+                UndertowLogger.REQUEST_LOGGER.proxyRequestFailed(target, exception);
+                IoUtils.safeClose(backendChannel);
+                IoUtils.safeClose(request.getConnection());
+            }
+        }.start();
+    }
+
+    private void sendResponse(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final String target, final HttpClientResponse response) {
+        final StreamSourceChannel body;
+        try {
+            exchange.setResponseCode(response.getResponseCode());
+            body = response.readReplyBody();
+        } catch (IOException e) {
+            UndertowLogger.REQUEST_LOGGER.proxyRequestFailed(target, e);
+            failed(exchange, completionHandler);
+            return;
+        }
+        copyHeaders(response.getResponseHeaders(), exchange.getResponseHeaders());
+        final StreamSinkChannel responseChannel = exchange.getResponseChannelFactory().create();
+        if (responseChannel == null) {
+            IoUtils.safeClose(body);
+            completionHandler.handleComplete();
+            return;
+        }
+        new Pipe(body, responseChannel, getBufferPool(exchange)) {
+            @Override
+            void done() {
+                IoUtils.safeClose(body);
+                HttpHandlers.flushAndCompleteRequest(responseChannel, completionHandler);
+            }
+
+            @Override
+            void failed(final IOException exception) {
+                //the response has already started, so the only way to tell the client is to close the connection
+                UndertowLogger.REQUEST_LOGGER.proxyRequestFailed(target, exception);
+                IoUtils.safeClose(body);
+                IoUtils.safeClose(exchange.getConnection().getChannel());
+                completionHandler.handleComplete();
+            }
+        }.start();
+    }
+
+    private static void failed(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+        if (!exchange.isResponseStarted()) {
+            exchange.setResponseCode(502);
+        } else {
+            IoUtils.safeClose(exchange.getConnection().getChannel());
+        }
+        completionHandler.handleComplete();
+    }
+
+    /**
+     * @return the length of the request body, -1 if it is chunked, or -2 if the {@code Content-Length} is invalid
+     */
+    private static long getContentLength(final HeaderMap requestHeaders) {
+        if (requestHeaders.contains(Headers.TRANSFER_ENCODING)) {
+            return -1;
+        }
+        final String contentLength = requestHeaders.getFirst(Headers.CONTENT_LENGTH);
+        if (contentLength == null) {
+            return 0;
+        }
+        try {
+            final long length = Long.parseLong(contentLength.trim());
+            return length < 0 ? -2 : length;
+        } catch (NumberFormatException e) {
+            return -2;
+        }
+    }
+
+    private static Pool<ByteBuffer> getBufferPool(final HttpServerExchange exchange) {
+        return exchange.getConnection().getBufferPool();
+    }
+
+    /**
+     * Copies all end-to-end headers. Headers named in the {@code Connection} header are hop-by-hop headers as well.
+     * Values are copied as they were received.
+     */
+    private static void copyHeaders(final HeaderMap from, final HeaderMap to) {
+        final Deque<String> connection = from.get(Headers.CONNECTION);
+        for (int i = from.fastIterate(); i != -1; i = from.fiNext(i)) {
+            final HttpString name = from.fiName(i);
+            if (!HOP_BY_HOP.contains(name) && (connection == null || !isConnectionOption(connection, name))) {
+                to.addFrom(from, i);
+            }
+        }
+    }
+
+    /**
+     * @return true if the header is one of the comma separated options of the {@code Connection} header
+     */
+    private static boolean isConnectionOption(final Deque<String> connection, final HttpString name) {
+        final String headerName = name.toString();
+        for (String value : connection) {
+            int start = 0;
+            while (start < value.length()) {
+                int end = value.indexOf(',', start);
+                if (end == -1) {
+                    end = value.length();
+                }
+                int tokenStart = start;
+                int tokenEnd = end;
+                while (tokenStart < tokenEnd && Character.isWhitespace(value.charAt(tokenStart))) {
+                    ++tokenStart;
+                }
+                while (tokenEnd > tokenStart && Character.isWhitespace(value.charAt(tokenEnd - 1))) {
+                    --tokenEnd;
+                }
+                if (tokenEnd - tokenStart == headerName.length() && value.regionMatches(true, tokenStart, headerName, 0, headerName.length())) {
+                    return true;
+                }
+                start = end + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies data from a source channel to a sink channel through a pooled buffer. Reads are only resumed while
+     * the buffer is empty, and writes are only resumed while it is full, so the rate of the transfer is limited by
+     * the slower of the two channels.
+     * <p/>
+     * The two channels normally belong to different connections, so the listeners may be invoked on different
+     * threads.
+     */
+    private abstract static class Pipe implements ChannelListener<Channel> {
+
+        private final StreamSourceChannel source;
+        private final StreamSinkChannel sink;
+        private final Pooled<ByteBuffer> pooled;
+        private boolean finished;
+
+        Pipe(final StreamSourceChannel source, final StreamSinkChannel sink, final Pool<ByteBuffer> bufferPool) {
+            this.source = source;
+            this.sink = sink;
+            this.pooled = bufferPool.allocate();
+            final ByteBuffer buffer = pooled.getResource();
+            buffer.clear();
+            buffer.flip();
+        }
+
+        void start() {
+            source.getReadSetter().set(this);
+            sink.getWriteSetter().set(this);
+            handleEvent(source);
+        }
+
+        @Override
+        public void handleEvent(final Channel channel) {
+            IOException readFailure = null;
+            IOException writeFailure = null;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                final ByteBuffer buffer = pooled.getResource();
+                for (;;) {
+                    while (buffer.hasRemaining()) {
+                        final int res;
+                        try {
+                            res = sink.write(buffer);
+                        } catch (IOException e) {
+                            writeFailure = e;
+                            break;
+                        }
+                        if (res == 0) {
+                            source.suspendReads();
+                            sink.resumeWrites();
+                            return;
+                        }
+                    }
+                    if (writeFailure != null) {
+                        break;
+                    }
+                    buffer.clear();
+                    final int res;
+                    try {
+                        res = source.read(buffer);
+                    } catch (IOException e) {
+                        readFailure = e;
+                        break;
+                    }
+                    buffer.flip();
+                    if (res == -1) {
+                        break;
+                    } else if (res == 0) {
+                        sink.suspendWrites();
+                        source.resumeReads();
+                        return;
+                    }
+                }
+                finished = true;
+                pooled.free();
+                source.suspendReads();
+                sink.suspendWrites();
+                source.getReadSetter().set(null);
+                sink.getWriteSetter().set(null);
+            }
+            if (readFailure != null) {
+                failed(readFailure);
+            } else if (writeFailure != null) {
+                failed(writeFailure);
+            } else {
+                done();
+            }
+        }
+
+        /**
+         * Called once the end of the source has been reached and all data has been written to the sink
+         */
+        abstract void done();
+
+        abstract void failed(IOException exception);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.Map;
+
+/**
+ * An immutable open addressed table with string keys, that is probed with a region of a string so a key can be
+ * looked up without creating a substring.
+ */
+final class RegionTable<V> {
+
+    private final String[] keys;
+    private final Object[] values;
+    private final int mask;
+
+    RegionTable(final Map<String, ? extends V> entries) {
+        //keep the table at most half full, so probe sequences stay short
+        int size = 1;
+        while (size < entries.size() * 2) {
+            size <<= 1;
+        }
+        keys = new String[size];
+        values = new Object[size];
+        mask = size - 1;
+        for (final Map.Entry<String, ? extends V> entry : entries.entrySet()) {
+            final String key = entry.getKey();
+            int index = key.hashCode() & mask;
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            values[index] = entry.getValue();
+        }
+    }
+
+    /**
+     * @param hash The hash of the region, as computed by {@link String#hashCode()}
+     * @return The value for the region between start and end, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    V get(final String value, final int start, final int end, final int hash) {
+        final int length = end - start;
+        int index = hash & mask;
+        String key;
+        while ((key = keys[index]) != null) {
+            if (key.length() == length && value.regionMatches(start, key, 0, length)) {
+                return (V) values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Looks up a region without regard to case. The keys of the table must be lower case.
+     *
+     * @return The value for the region between start and end, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    V getIgnoreCase(final String value, final int start, final int end) {
+        final int length = end - start;
+        int index = lowerCaseHash(value, start, end) & mask;
+        String key;
+        while ((key = keys[index]) != null) {
+            if (key.length() == length && value.regionMatches(true, start, key, 0, length)) {
+                return (V) values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return The hash of the region, as computed by {@link String#hashCode()} of the lower case region
+     */
+    private static int lowerCaseHash(final String value, final int start, final int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            char c = value.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            hash = 31 * hash + c;
+        }
+        return hash;
+    }
+}
@@ -34,6 +34,9 @@ import static org.xnio.Bits.longBitMask;
 /**
  * A handler which limits the maximum number of concurrent requests.  Requests beyond the limit will
  * block until the previous request is complete.
+ * <p/>
+ * The limit can either be fixed, or adjusted continuously by an {@link AdaptiveConcurrencyLimit} based on the
+ * measured latency of requests.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
@@ -41,6 +44,7 @@ public final class RequestLimitingHandler implements HttpHandler {
     @SuppressWarnings("unused")
     private volatile long state;
     private volatile HttpHandler nextHandler = ResponseCodeHandler.HANDLE_404;
+    private final AdaptiveConcurrencyLimit adaptiveLimit;
 
     private static final AtomicLongFieldUpdater<RequestLimitingHandler> stateUpdater = AtomicLongFieldUpdater.newUpdater(RequestLimitingHandler.class, "state");
     private static final AtomicReferenceFieldUpdater<RequestLimitingHandler, HttpHandler> nextHandlerUpdater = AtomicReferenceFieldUpdater.newUpdater(RequestLimitingHandler.class, HttpHandler.class, "nextHandler");
@@ -70,6 +74,21 @@ public final class RequestLimitingHandler implements HttpHandler {
      * @param nextHandler the next handler
      */
     public RequestLimitingHandler(int maximumConcurrentRequests, HttpHandler nextHandler) {
+        this(maximumConcurrentRequests, null, nextHandler);
+    }
+
+    /**
+     * Construct a new instance with a limit that adapts to the latency of requests.  The next handler must not be
+     * {@code null}.
+     *
+     * @param adaptiveLimit the adaptive limit
+     * @param nextHandler the next handler
+     */
+    public RequestLimitingHandler(AdaptiveConcurrencyLimit adaptiveLimit, HttpHandler nextHandler) {
+        this(adaptiveLimit.getLimit(), adaptiveLimit, nextHandler);
+    }
+
+    private RequestLimitingHandler(int maximumConcurrentRequests, AdaptiveConcurrencyLimit adaptiveLimit, HttpHandler nextHandler) {
         if (nextHandler == null) {
             throw new IllegalArgumentException("nextHandler is null");
         }
@@ -78,6 +97,7 @@ public final class RequestLimitingHandler implements HttpHandler {
         }
         state = (maximumConcurrentRequests & 0xFFFFFFFFL) << 32;
         this.nextHandler = nextHandler;
+        this.adaptiveLimit = adaptiveLimit;
         Queue<QueuedRequest> queue;
         if(linkedTransferQueue == null) {
             queue = new ConcurrentLinkedQueue<QueuedRequest>();
@@ -130,21 +150,31 @@ public final class RequestLimitingHandler implements HttpHandler {
             oldVal = state;
             current = (int) (oldVal & MASK_CURRENT);
             oldMax = (int) ((oldVal & MASK_MAX) >> 32L);
-            newVal = current | newMax & 0xFFFFFFFFL << 32L;
+            newVal = current | (newMax & 0xFFFFFFFFL) << 32L;
         } while (! stateUpdater.compareAndSet(this, oldVal, newVal));
         while (current < newMax) {
             // more space opened up!  Process queue entries for a while
             final QueuedRequest request = queue.poll();
-            if (request != null) {
-                // now bump up the counter by one; this *could* put us over the max if it changed in the meantime but that's OK
-                newVal = stateUpdater.getAndIncrement(this);
-                current = (int) (newVal & MASK_CURRENT);
-                WorkerDispatcher.dispatch(request.exchange, request);
+            if (request == null) {
+                break;
             }
+            // now bump up the counter by one; this *could* put us over the max if it changed in the meantime but that's OK
+            newVal = stateUpdater.incrementAndGet(this);
+            current = (int) (newVal & MASK_CURRENT);
+            WorkerDispatcher.dispatch(request.exchange, request);
         }
         return oldMax;
     }
 
+    /**
+     * Get the adaptive limit.
+     *
+     * @return the adaptive limit, or {@code null} if the limit is fixed
+     */
+    public AdaptiveConcurrencyLimit getAdaptiveLimit() {
+        return adaptiveLimit;
+    }
+
     private void decrementRequests() {
         stateUpdater.decrementAndGet(this);
     }
@@ -191,10 +221,12 @@ public final class RequestLimitingHandler implements HttpHandler {
 
         private final HttpCompletionHandler completionHandler;
         private final HttpServerExchange exchange;
+        private final long start;
 
         public CompletionHandler(final HttpCompletionHandler completionHandler, final HttpServerExchange exchange) {
             this.completionHandler = completionHandler;
             this.exchange = exchange;
+            this.start = adaptiveLimit == null ? 0 : System.nanoTime();
         }
 
         public void handleComplete() {
@@ -204,7 +236,15 @@ public final class RequestLimitingHandler implements HttpHandler {
             try {
                 completionHandler.handleComplete();
             } finally {
-                final QueuedRequest task = queue.poll();
+                if (adaptiveLimit != null) {
+                    final int newLimit = adaptiveLimit.addSample(start, System.nanoTime(), (int) (RequestLimitingHandler.this.state & MASK_CURRENT));
+                    if (newLimit != -1) {
+                        setMaximumConcurrentRequests(newLimit);
+                    }
+                }
+                // if the limit has been lowered we give up our slot rather than passing it on
+                final long state = RequestLimitingHandler.this.state;
+                final QueuedRequest task = (state & MASK_CURRENT) > (state & MASK_MAX) >> 32L ? null : queue.poll();
                 if (task != null) {
                     WorkerDispatcher.dispatch(exchange, task);
                 } else {
@@ -0,0 +1,416 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import java.net.InetSocketAddress;
+import java.security.Principal;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import io.undertow.UndertowMessages;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.security.SecurityContext;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+
+/**
+ * A compiled access log pattern.
+ * <p/>
+ * The pattern uses the Apache HTTPD log format syntax, the following are supported:
+ * <ul>
+ * <li><b>%a</b> - Remote IP address</li>
+ * <li><b>%A</b> - Local IP address</li>
+ * <li><b>%b</b> - Bytes sent, excluding HTTP headers, or '-' if no bytes were sent or the length is not known</li>
+ * <li><b>%B</b> - Bytes sent, excluding HTTP headers, or 0</li>
+ * <li><b>%D</b> - Time taken to process the request, in milliseconds</li>
+ * <li><b>%h</b> - Remote host, this is always the IP address as no lookup is performed</li>
+ * <li><b>%H</b> - Request protocol</li>
+ * <li><b>%l</b> - Remote logical username, always '-'</li>
+ * <li><b>%m</b> - Request method</li>
+ * <li><b>%p</b> - Local port</li>
+ * <li><b>%q</b> - Query string, prepended with a '?' if it exists</li>
+ * <li><b>%r</b> - First line of the request</li>
+ * <li><b>%s</b> - HTTP status code of the response</li>
+ * <li><b>%t</b> - Date and time, in Common Log Format</li>
+ * <li><b>%T</b> - Time taken to process the request, in seconds</li>
+ * <li><b>%u</b> - Remote user that was authenticated, or '-'</li>
+ * <li><b>%U</b> - Requested URL path</li>
+ * <li><b>%v</b> - Server name, taken from the Host header</li>
+ * <li><b>%{xxx}i</b> - Request header xxx</li>
+ * <li><b>%{xxx}o</b> - Response header xxx</li>
+ * <li><b>%%</b> - A literal '%'</li>
+ * </ul>
+ * The names {@code common} and {@code combined} can be used for the standard formats.
+ * <p/>
+ * The pattern is parsed once, formatting an entry only appends to the given builder.
+ */
+public final class AccessLogFormat {
+
+    public static final String COMMON = "%h %l %u %t \"%r\" %s %b";
+    public static final String COMBINED = COMMON + " \"%{Referer}i\" \"%{User-Agent}i\"";
+
+    private final String pattern;
+    private final Token[] tokens;
+
+    private AccessLogFormat(final String pattern, final Token[] tokens) {
+        this.pattern = pattern;
+        this.tokens = tokens;
+    }
+
+    public static AccessLogFormat compile(final String pattern) {
+        final String format;
+        if (pattern.equals("common")) {
+            format = COMMON;
+        } else if (pattern.equals("combined")) {
+            format = COMBINED;
+        } else {
+            format = pattern;
+        }
+        final List<Token> tokens = new ArrayList<Token>();
+        final StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < format.length(); ++i) {
+            final char c = format.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            if (i + 1 == format.length()) {
+                throw UndertowMessages.MESSAGES.invalidAccessLogPattern(pattern, i);
+            }
+            char type = format.charAt(++i);
+            if (type == '%') {
+                literal.append('%');
+                continue;
+            }
+            if (literal.length() > 0) {
+                tokens.add(new LiteralToken(literal.toString()));
+                literal.setLength(0);
+            }
+            if (type == '{') {
+                final int end = format.indexOf('}', i);
+                if (end == -1 || end + 1 == format.length()) {
+                    throw UndertowMessages.MESSAGES.invalidAccessLogPattern(pattern, i);
+                }
+                final HttpString header = new HttpString(format.substring(i + 1, end));
+                i = end + 1;
+                type = format.charAt(i);
+                if (type == 'i') {
+                    tokens.add(new RequestHeaderToken(header));
+                } else if (type == 'o') {
+                    tokens.add(new ResponseHeaderToken(header));
+                } else {
+                    throw UndertowMessages.MESSAGES.invalidAccessLogPattern(pattern, i);
+                }
+                continue;
+            }
+            final Token token = simpleToken(type);
+            if (token == null) {
+                throw UndertowMessages.MESSAGES.invalidAccessLogPattern(pattern, i);
+            }
+            tokens.add(token);
+        }
+        if (literal.length() > 0) {
+            tokens.add(new LiteralToken(literal.toString()));
+        }
+        return new AccessLogFormat(pattern, tokens.toArray(new Token[tokens.size()]));
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Formats the log entry for an exchange
+     *
+     * @param exchange  The exchange
+     * @param startTime The time the exchange started, in milliseconds
+     * @param endTime   The time the exchange completed, in milliseconds
+     * @param builder   The builder the entry is appended to
+     */
+    public void format(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+        for (Token token : tokens) {
+            token.append(exchange, startTime, endTime, builder);
+        }
+    }
+
+    private static Token simpleToken(final char type) {
+        switch (type) {
+            case 'a':
+            case 'h':
+                return REMOTE_ADDRESS;
+            case 'A':
+                return LOCAL_ADDRESS;
+            case 'b':
+                return BYTES_OR_DASH;
+            case 'B':
+                return BYTES;
+            case 'D':
+                return TIME_MILLIS;
+            case 'H':
+                return PROTOCOL;
+            case 'l':
+                return DASH;
+            case 'm':
+                return METHOD;
+            case 'p':
+                return LOCAL_PORT;
+            case 'q':
+                return QUERY_STRING;
+            case 'r':
+                return REQUEST_LINE;
+            case 's':
+                return STATUS;
+            case 't':
+                return DATE_TIME;
+            case 'T':
+                return TIME_SECONDS;
+            case 'u':
+                return REMOTE_USER;
+            case 'U':
+                return REQUEST_PATH;
+            case 'v':
+                return SERVER_NAME;
+            default:
+                return null;
+        }
+    }
+
+    private interface Token {
+        void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder);
+    }
+
+    private static final class LiteralToken implements Token {
+        private final String value;
+
+        private LiteralToken(final String value) {
+            this.value = value;
+        }
+
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            builder.append(value);
+        }
+    }
+
+    private static final class RequestHeaderToken implements Token {
+        private final HttpString header;
+
+        private RequestHeaderToken(final HttpString header) {
+            this.header = header;
+        }
+
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            appendOrDash(exchange.getRequestHeaders().getFirst(header), builder);
+        }
+    }
+
+    private static final class ResponseHeaderToken implements Token {
+        private final HttpString header;
+
+        private ResponseHeaderToken(final HttpString header) {
+            this.header = header;
+        }
+
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            appendOrDash(exchange.getResponseHeaders().getFirst(header), builder);
+        }
+    }
+
+    private static void appendOrDash(final String value, final StringBuilder builder) {
+        if (value == null || value.isEmpty()) {
+            builder.append('-');
+        } else {
+            builder.append(value);
+        }
+    }
+
+    private static void appendAddress(final InetSocketAddress address, final StringBuilder builder) {
+        if (address == null || address.getAddress() == null) {
+            builder.append('-');
+        } else {
+            builder.append(address.getAddress().getHostAddress());
+        }
+    }
+
+    private static final Token REMOTE_ADDRESS = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            appendAddress(exchange.getSourceAddress(), builder);
+        }
+    };
+
+    private static final Token LOCAL_ADDRESS = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            appendAddress(exchange.getDestinationAddress(), builder);
+        }
+    };
+
+    private static final Token LOCAL_PORT = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            final InetSocketAddress address = exchange.getDestinationAddress();
+            if (address == null) {
+                builder.append('-');
+            } else {
+                builder.append(address.getPort());
+            }
+        }
+    };
+
+    private static final Token BYTES_OR_DASH = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            final String length = exchange.getResponseHeaders().getFirst(Headers.CONTENT_LENGTH);
+            if (length == null || length.equals("0")) {
+                builder.append('-');
+            } else {
+                builder.append(length);
+            }
+        }
+    };
+
+    private static final Token BYTES = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            final String length = exchange.getResponseHeaders().getFirst(Headers.CONTENT_LENGTH);
+            builder.append(length == null ? "0" : length);
+        }
+    };
+
+    private static final Token TIME_MILLIS = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            builder.append(endTime - startTime);
+        }
+    };
+
+    private static final Token TIME_SECONDS = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            final long millis = endTime - startTime;
+            builder.append(millis / 1000).append('.');
+            final long fraction = millis % 1000;
+            if (fraction < 100) {
+                builder.append('0');
+            }
+            if (fraction < 10) {
+                builder.append('0');
+            }
+            builder.append(fraction);
+        }
+    };
+
+    private static final Token PROTOCOL = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            builder.append(exchange.getProtocol());
+        }
+    };
+
+    private static final Token DASH = new LiteralToken("-");
+
+    private static final Token METHOD = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            builder.append(exchange.getRequestMethod());
+        }
+    };
+
+    private static final Token QUERY_STRING = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            final String query = exchange.getQueryString();
+            if (query != null && !query.isEmpty()) {
+                builder.append('?').append(query);
+            }
+        }
+    };
+
+    private static final Token REQUEST_LINE = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            builder.append(exchange.getRequestMethod()).append(' ').append(exchange.getRequestURI());
+            QUERY_STRING.append(exchange, startTime, endTime, builder);
+            builder.append(' ').append(exchange.getProtocol());
+        }
+    };
+
+    private static final Token STATUS = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            builder.append(exchange.getResponseCode());
+        }
+    };
+
+    private static final Token REMOTE_USER = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            final SecurityContext context = exchange.getAttachment(SecurityContext.ATTACHMENT_KEY);
+            final Principal principal = context == null ? null : context.getAuthenticatedPrincipal();
+            appendOrDash(principal == null ? null : principal.getName(), builder);
+        }
+    };
+
+    private static final Token REQUEST_PATH = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            builder.append(exchange.getRequestPath());
+        }
+    };
+
+    private static final Token SERVER_NAME = new RequestHeaderToken(Headers.HOST);
+
+    private static final Token DATE_TIME = new Token() {
+        @Override
+        public void append(final HttpServerExchange exchange, final long startTime, final long endTime, final StringBuilder builder) {
+            builder.append(DATE_CACHE.get().format(startTime));
+        }
+    };
+
+    private static final ThreadLocal<DateCache> DATE_CACHE = new ThreadLocal<DateCache>() {
+        @Override
+        protected DateCache initialValue() {
+            return new DateCache();
+        }
+    };
+
+    /**
+     * Caches the formatted date for the current second
+     */
+    private static final class DateCache {
+        private final SimpleDateFormat format = new SimpleDateFormat("[dd/MMM/yyyy:HH:mm:ss Z]", Locale.US);
+        private long second = -1;
+        private String value;
+
+        String format(final long millis) {
+            final long second = millis / 1000;
+            if (second != this.second) {
+                this.second = second;
+                value = format.format(new Date(millis));
+            }
+            return value;
+        }
+    }
+}
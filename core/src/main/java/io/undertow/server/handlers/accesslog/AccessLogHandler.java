@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.HttpHandlers;
+import io.undertow.server.handlers.ResponseCodeHandler;
+
+/**
+ * Handler that writes an access log entry for every request once it has completed.
+ * <p/>
+ * Entries are formatted by an {@link AccessLogFormat} into a per thread buffer and handed to an
+ * {@link AccessLogWriter}, which writes them to disk from its own thread.
+ */
+public class AccessLogHandler implements HttpHandler {
+
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private volatile HttpHandler next = ResponseCodeHandler.HANDLE_404;
+    private final AccessLogWriter writer;
+    private final AccessLogFormat format;
+
+    public AccessLogHandler(final AccessLogWriter writer, final String pattern) {
+        this.writer = writer;
+        this.format = AccessLogFormat.compile(pattern);
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+        HttpHandlers.executeHandler(next, exchange, new AccessLogCompletionHandler(exchange, completionHandler, System.currentTimeMillis()));
+    }
+
+    public HttpHandler getNext() {
+        return next;
+    }
+
+    public void setNext(final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+    }
+
+    public AccessLogWriter getWriter() {
+        return writer;
+    }
+
+    public AccessLogFormat getFormat() {
+        return format;
+    }
+
+    private class AccessLogCompletionHandler implements HttpCompletionHandler {
+
+        private final HttpServerExchange exchange;
+        private final HttpCompletionHandler completionHandler;
+        private final long startTime;
+
+        private AccessLogCompletionHandler(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final long startTime) {
+            this.exchange = exchange;
+            this.completionHandler = completionHandler;
+            this.startTime = startTime;
+        }
+
+        @Override
+        public void handleComplete() {
+            try {
+                final StringBuilder builder = BUILDER.get();
+                builder.setLength(0);
+                format.format(exchange, startTime, System.currentTimeMillis(), builder);
+                writer.write(builder);
+            } finally {
+                completionHandler.handleComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import io.undertow.UndertowLogger;
+import org.xnio.IoUtils;
+
+/**
+ * Writes access log entries to a daily rolling file from a dedicated thread.
+ * <p/>
+ * Threads that log an entry encode it into a pre-allocated slot of a ring buffer and publish it, they never
+ * block and never touch the file system. The writer thread copies published entries into a direct buffer and
+ * writes them to the file in large batches. If the ring buffer is full the entry is queued on the heap instead,
+ * so entries are not lost at peak load, at the cost of some allocation.
+ * <p/>
+ * Log files are named after the base name and the current date, for example {@code access_log.2012-11-02.log}.
+ */
+public class AccessLogWriter implements Closeable {
+
+    private static final AtomicLongFieldUpdater<AccessLogWriter> claimedUpdater = AtomicLongFieldUpdater.newUpdater(AccessLogWriter.class, "claimed");
+    private static final AtomicIntegerFieldUpdater<AccessLogWriter> sleepingUpdater = AtomicIntegerFieldUpdater.newUpdater(AccessLogWriter.class, "sleeping");
+
+    private static final int DEFAULT_RING_SIZE = 8192;
+    private static final int DEFAULT_ENTRY_SIZE = 512;
+    private static final int BATCH_SIZE = 64 * 1024;
+
+    /**
+     * The longest the writer thread sleeps before checking for entries, entries normally wake it up
+     */
+    private static final long MAX_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final File directory;
+    private final String baseName;
+    private final Entry[] ring;
+    private final int mask;
+    private final Queue<byte[]> overflow = new ConcurrentLinkedQueue<byte[]>();
+    private final Thread writerThread;
+
+    /**
+     * The next sequence that will be claimed by a logging thread
+     */
+    @SuppressWarnings("unused")
+    private volatile long claimed;
+
+    /**
+     * The next sequence that will be consumed by the writer thread
+     */
+    private volatile long consumed;
+
+    @SuppressWarnings("unused")
+    private volatile int sleeping;
+
+    private volatile boolean closed;
+
+    // only accessed by the writer thread
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+    private FileChannel channel;
+    private long nextRollover;
+
+    /**
+     * @param directory The directory the log files are written to
+     * @param baseName  The start of the log file names
+     * @param ringSize  The number of entries the ring buffer holds, rounded up to a power of two
+     * @param entrySize The space reserved for each entry, longer entries are allocated on the heap
+     */
+    public AccessLogWriter(final File directory, final String baseName, final int ringSize, final int entrySize) {
+        this.directory = directory;
+        this.baseName = baseName;
+        int size = 1;
+        while (size < ringSize) {
+            size <<= 1;
+        }
+        this.ring = new Entry[size];
+        for (int i = 0; i < size; ++i) {
+            ring[i] = new Entry(entrySize);
+        }
+        this.mask = size - 1;
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeEntries();
+            }
+        }, "access-log-writer " + new File(directory, baseName));
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public AccessLogWriter(final File directory, final String baseName) {
+        this(directory, baseName, DEFAULT_RING_SIZE, DEFAULT_ENTRY_SIZE);
+    }
+
+    /**
+     * Queues an entry to be written to the log. A line separator is added to the entry.
+     *
+     * @param entry The entry
+     */
+    public void write(final CharSequence entry) {
+        if (closed) {
+            return;
+        }
+        final long sequence = claim();
+        if (sequence < 0) {
+            overflow.add(encode(entry));
+        } else {
+            final Entry slot = ring[(int) (sequence & mask)];
+            final int length = encode(entry, slot.data);
+            if (length < 0) {
+                slot.large = encode(entry);
+            } else {
+                slot.length = length;
+            }
+            slot.sequence = sequence;
+        }
+        if (sleeping == 1 && sleepingUpdater.compareAndSet(this, 1, 0)) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /**
+     * Writes out all queued entries and closes the log file. Entries logged after this are discarded.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long claim() {
+        for (; ; ) {
+            final long sequence = claimed;
+            if (sequence - consumed >= ring.length) {
+                return -1;
+            }
+            if (claimedUpdater.compareAndSet(this, sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    private void writeEntries() {
+        try {
+            for (; ; ) {
+                if (drain()) {
+                    flush();
+                    continue;
+                }
+                if (closed) {
+                    // entries claimed before the writer was closed may still be being published
+                    if (claimed == consumed && overflow.isEmpty()) {
+                        break;
+                    }
+                    Thread.yield();
+                    continue;
+                }
+                sleeping = 1;
+                if (!hasEntries()) {
+                    LockSupport.parkNanos(this, MAX_SLEEP_NANOS);
+                }
+                sleeping = 0;
+            }
+        } finally {
+            IoUtils.safeClose(channel);
+        }
+    }
+
+    private boolean hasEntries() {
+        return ring[(int) (consumed & mask)].sequence == consumed || !overflow.isEmpty();
+    }
+
+    /**
+     * Copies all published entries into the batch buffer, writing the buffer out whenever it fills up
+     *
+     * @return true if any entries were copied
+     */
+    private boolean drain() {
+        boolean copied = false;
+        long next = consumed;
+        for (; ; ) {
+            final Entry slot = ring[(int) (next & mask)];
+            if (slot.sequence != next) {
+                break;
+            }
+            if (slot.large != null) {
+                append(slot.large, slot.large.length);
+                slot.large = null;
+            } else {
+                append(slot.data, slot.length);
+            }
+            consumed = ++next;
+            copied = true;
+        }
+        byte[] data = overflow.poll();
+        while (data != null) {
+            append(data, data.length);
+            copied = true;
+            data = overflow.poll();
+        }
+        return copied;
+    }
+
+    private void append(final byte[] data, final int length) {
+        int pos = 0;
+        while (pos < length) {
+            if (!batch.hasRemaining()) {
+                flush();
+            }
+            final int count = Math.min(batch.remaining(), length - pos);
+            batch.put(data, pos, count);
+            pos += count;
+        }
+    }
+
+    private void flush() {
+        batch.flip();
+        try {
+            if (batch.hasRemaining()) {
+                final FileChannel channel = currentChannel();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+            }
+        } catch (IOException e) {
+            UndertowLogger.ROOT_LOGGER.errorWritingAccessLog(e);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    private FileChannel currentChannel() throws IOException {
+        final long now = System.currentTimeMillis();
+        if (channel == null || now >= nextRollover) {
+            IoUtils.safeClose(channel);
+            channel = null;
+            final Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(now);
+            final String date = new SimpleDateFormat("yyyy-MM-dd").format(calendar.getTime());
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            calendar.add(Calendar.DATE, 1);
+            nextRollover = calendar.getTimeInMillis();
+            channel = new FileOutputStream(new File(directory, baseName + date + ".log"), true).getChannel();
+        }
+        return channel;
+    }
+
+    /**
+     * Encodes the entry as UTF-8 followed by a new line
+     *
+     * @return The number of bytes written, or -1 if the entry does not fit
+     */
+    private static int encode(final CharSequence entry, final byte[] out) {
+        int pos = 0;
+        final int length = entry.length();
+        for (int i = 0; i < length; ++i) {
+            final char c = entry.charAt(i);
+            if (c < 0x80) {
+                if (pos + 1 > out.length) {
+                    return -1;
+                }
+                out[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                if (pos + 2 > out.length) {
+                    return -1;
+                }
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(entry.charAt(i + 1))) {
+                if (pos + 4 > out.length) {
+                    return -1;
+                }
+                final int cp = Character.toCodePoint(c, entry.charAt(++i));
+                out[pos++] = (byte) (0xF0 | (cp >> 18));
+                out[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                out[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                if (pos + 3 > out.length) {
+                    return -1;
+                }
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        if (pos + 1 > out.length) {
+            return -1;
+        }
+        out[pos++] = '\n';
+        return pos;
+    }
+
+    private static byte[] encode(final CharSequence entry) {
+        final byte[] out = new byte[entry.length() * 4 + 1];
+        final int length = encode(entry, out);
+        final byte[] result = new byte[length];
+        System.arraycopy(out, 0, result, 0, length);
+        return result;
+    }
+
+    private static final class Entry {
+        final byte[] data;
+        int length;
+        byte[] large;
+        volatile long sequence = -1;
+
+        private Entry(final int size) {
+            this.data = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.file.DirectBufferCache;
+import io.undertow.server.handlers.file.LimitedBufferSlicePool;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
+import org.xnio.Option;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+
+/**
+ * Channel that keeps a copy of everything that is written to the delegate, and passes it to the
+ * {@link ResponseCacheHandler} once the channel has been shut down.
+ * <p/>
+ * If the length of the response is known the copy is written straight into the direct buffers of a cache entry
+ * that was created for it, which is enabled once the whole body has been written. Otherwise the copy is kept in
+ * a heap array that grows as data is written, as the size of the cache entry has to be known before it is created.
+ * If the response turns out to be larger than expected, or is written with
+ * {@link #transferFrom(FileChannel, long, long)}, the copy is discarded and the response is passed through without
+ * being cached.
+ */
+class CachingStreamSinkChannel implements StreamSinkChannel, ExchangeCompletionListener {
+
+    private static final int INITIAL_SIZE = 1024;
+
+    private static final AtomicReferenceFieldUpdater<CachingStreamSinkChannel, DirectBufferCache.CacheEntry> entryUpdater = AtomicReferenceFieldUpdater.newUpdater(CachingStreamSinkChannel.class, DirectBufferCache.CacheEntry.class, "entry");
+
+    private final StreamSinkChannel delegate;
+    private final ResponseCacheHandler handler;
+    private final String key;
+    private final ResponseCacheHandler.CachedResponse response;
+    private final int maxSize;
+
+    /**
+     * The entry the data is written into if the length of the response is known, or null
+     */
+    private volatile DirectBufferCache.CacheEntry entry;
+    private int slice;
+
+    private final ChannelListener.SimpleSetter<CachingStreamSinkChannel> writeSetter = new ChannelListener.SimpleSetter<CachingStreamSinkChannel>();
+    private final ChannelListener.SimpleSetter<CachingStreamSinkChannel> closeSetter = new ChannelListener.SimpleSetter<CachingStreamSinkChannel>();
+
+    /**
+     * The captured data, or null if the response will not be cached
+     */
+    private byte[] data;
+    private int size;
+    /**
+     * The positions of the buffers passed to a gathering write, kept to avoid allocating on every write
+     */
+    private int[] positions;
+
+    CachingStreamSinkChannel(final StreamSinkChannel delegate, final ResponseCacheHandler handler, final String key, final ResponseCacheHandler.CachedResponse response, final int maxSize) {
+        this.delegate = delegate;
+        this.handler = handler;
+        this.key = key;
+        this.response = response;
+        this.maxSize = maxSize;
+        this.data = new byte[Math.min(INITIAL_SIZE, maxSize)];
+        delegate.getWriteSetter().set(ChannelListeners.delegatingChannelListener(this, writeSetter));
+        delegate.getCloseSetter().set(ChannelListeners.delegatingChannelListener(this, closeSetter));
+    }
+
+    /**
+     * Creates a channel that writes the copy into an entry reserved for a response of a known length.
+     */
+    CachingStreamSinkChannel(final StreamSinkChannel delegate, final ResponseCacheHandler handler, final ResponseCacheHandler.CachedResponse response, final DirectBufferCache.CacheEntry entry) {
+        this.delegate = delegate;
+        this.handler = handler;
+        this.key = entry.path();
+        this.response = response;
+        this.maxSize = entry.size();
+        this.entry = entry;
+        delegate.getWriteSetter().set(ChannelListeners.delegatingChannelListener(this, writeSetter));
+        delegate.getCloseSetter().set(ChannelListeners.delegatingChannelListener(this, closeSetter));
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        final int position = src.position();
+        final int res = delegate.write(src);
+        if (res > 0) {
+            capture(src, position, res);
+        }
+        return res;
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        if (data == null && entry == null) {
+            return delegate.write(srcs, offset, length);
+        }
+        int[] positions = this.positions;
+        if (positions == null || positions.length < length) {
+            positions = this.positions = new int[length];
+        }
+        for (int i = 0; i < length; ++i) {
+            positions[i] = srcs[offset + i].position();
+        }
+        final long res = delegate.write(srcs, offset, length);
+        if (res > 0) {
+            for (int i = 0; i < length; ++i) {
+                final ByteBuffer src = srcs[offset + i];
+                final int written = src.position() - positions[i];
+                if (written > 0) {
+                    capture(src, positions[i], written);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Copies bytes that have just been written from the buffer.
+     */
+    private void capture(final ByteBuffer src, final int position, final int count) {
+        final DirectBufferCache.CacheEntry entry = this.entry;
+        if (entry != null) {
+            captureDirect(entry, src, position, count);
+            return;
+        }
+        byte[] data = this.data;
+        if (data == null) {
+            return;
+        }
+        final int newSize = size + count;
+        if (newSize > maxSize || newSize < 0) {
+            this.data = null;
+            return;
+        }
+        if (newSize > data.length) {
+            final byte[] newData = new byte[(int) Math.min(maxSize, Math.max(newSize, data.length * 2L))];
+            System.arraycopy(data, 0, newData, 0, size);
+            data = this.data = newData;
+        }
+        final int end = src.position();
+        src.position(position);
+        src.get(data, size, count);
+        src.position(end);
+        size = newSize;
+    }
+
+    /**
+     * Copies bytes that have just been written from the buffer into the slices of the entry.
+     */
+    private void captureDirect(final DirectBufferCache.CacheEntry entry, final ByteBuffer src, final int position, final int count) {
+        final int newSize = size + count;
+        if (newSize > maxSize || newSize < 0) {
+            abandon();
+            return;
+        }
+        final LimitedBufferSlicePool.PooledByteBuffer[] slices = entry.buffers();
+        final int end = src.position();
+        final int limit = src.limit();
+        src.position(position);
+        int remaining = count;
+        while (remaining > 0) {
+            final ByteBuffer buffer = slices[slice].getResource();
+            if (!buffer.hasRemaining()) {
+                ++slice;
+                continue;
+            }
+            final int copy = Math.min(remaining, buffer.remaining());
+            src.limit(src.position() + copy);
+            buffer.put(src);
+            src.limit(limit);
+            remaining -= copy;
+        }
+        src.position(end);
+        size = newSize;
+    }
+
+    private void abandon() {
+        data = null;
+        final DirectBufferCache.CacheEntry entry = entryUpdater.getAndSet(this, null);
+        if (entry != null) {
+            handler.abandon(entry);
+        }
+    }
+
+    /**
+     * Releases the entry if the exchange ended without the response being shut down
+     */
+    @Override
+    public void exchangeComplete(final HttpServerExchange exchange) {
+        abandon();
+    }
+
+    @Override
+    public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+        abandon();
+        return delegate.transferFrom(src, position, count);
+    }
+
+    @Override
+    public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+        //the data has to be seen to be captured, so it cannot be transferred directly
+        return IoUtils.transfer(source, count, throughBuffer, this);
+    }
+
+    @Override
+    public void shutdownWrites() throws IOException {
+        //the whole body has been captured, and shutting down the delegate may complete the exchange
+        final DirectBufferCache.CacheEntry entry = entryUpdater.getAndSet(this, null);
+        if (entry != null) {
+            if (size == maxSize) {
+                handler.complete(entry, response);
+            } else {
+                handler.abandon(entry);
+            }
+            delegate.shutdownWrites();
+            return;
+        }
+        delegate.shutdownWrites();
+        final byte[] data = this.data;
+        if (data != null) {
+            this.data = null;
+            handler.store(key, response, data, size);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        abandon();
+        delegate.close();
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        return delegate.flush();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    @Override
+    public ChannelListener.Setter<? extends StreamSinkChannel> getWriteSetter() {
+        return writeSetter;
+    }
+
+    @Override
+    public ChannelListener.Setter<? extends StreamSinkChannel> getCloseSetter() {
+        return closeSetter;
+    }
+
+    @Override
+    public void suspendWrites() {
+        delegate.suspendWrites();
+    }
+
+    @Override
+    public void resumeWrites() {
+        delegate.resumeWrites();
+    }
+
+    @Override
+    public boolean isWriteResumed() {
+        return delegate.isWriteResumed();
+    }
+
+    @Override
+    public void wakeupWrites() {
+        delegate.wakeupWrites();
+    }
+
+    @Override
+    public void awaitWritable() throws IOException {
+        delegate.awaitWritable();
+    }
+
+    @Override
+    public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
+        delegate.awaitWritable(time, timeUnit);
+    }
+
+    @Override
+    public XnioExecutor getWriteThread() {
+        return delegate.getWriteThread();
+    }
+
+    @Override
+    public XnioWorker getWorker() {
+        return delegate.getWorker();
+    }
+
+    @Override
+    public boolean supportsOption(final Option<?> option) {
+        return delegate.supportsOption(option);
+    }
+
+    @Override
+    public <T> T getOption(final Option<T> option) throws IOException {
+        return delegate.getOption(option);
+    }
+
+    @Override
+    public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException, IOException {
+        return delegate.setOption(option, value);
+    }
+}
@@ -0,0 +1,553 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.ChannelWrapper;
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.HttpHandlers;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.server.handlers.file.BufferTransfer;
+import io.undertow.server.handlers.file.DirectBufferCache;
+import io.undertow.server.handlers.file.LimitedBufferSlicePool;
+import io.undertow.util.DateUtils;
+import io.undertow.util.ETagUtils;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import org.xnio.IoUtils;
+import org.xnio.channels.ChannelFactory;
+import org.xnio.channels.StreamSinkChannel;
+
+/**
+ * Handler that caches responses in a {@link DirectBufferCache}, and serves later requests for the same resource
+ * straight from the cache without invoking the next handler. Cache hits are written out from the direct buffers
+ * by the thread that handles the request, which is normally the IO thread.
+ * <p/>
+ * Entries are keyed on the {@code Host} header, the request URI and query string, and the values of the request
+ * headers that responses are allowed to vary on (by default only {@code Accept-Encoding}). A {@code HEAD} request
+ * is answered using the headers of the cached {@code GET} response. A conditional request is answered with a 304
+ * if its {@code If-None-Match} or {@code If-Modified-Since} header matches the cached response.
+ * <p/>
+ * Only responses to {@code GET} requests without an {@code Authorization} header are cached, and only if:
+ * <ul>
+ * <li>they have a 200 status</li>
+ * <li>they have no {@code Set-Cookie} header</li>
+ * <li>their {@code Cache-Control} header does not contain {@code no-store}, {@code no-cache} or {@code private}</li>
+ * <li>they are fresh for some time, as given by the {@code s-maxage} or {@code max-age} directives, the
+ * {@code Expires} header, or failing those the default time to live of this handler</li>
+ * <li>they only vary on request headers that are part of the key</li>
+ * <li>their body is no larger than the maximum entry size</li>
+ * </ul>
+ * The response body is captured by a response channel wrapper as it is written, and the entry is enabled once
+ * the channel is shut down. If the response has a {@code Content-Length} the body is copied straight into the
+ * direct buffers of the entry, otherwise it is collected on the heap and copied once its size is known. As the
+ * channel that is seen is the one the next handler writes to, this handler must be placed in front of any
+ * handler that transforms the response body, such as
+ * {@link io.undertow.server.handlers.encoding.EncodingHandler}, so the cached body matches the cached headers.
+ * <p/>
+ * A request with {@code Cache-Control: no-cache} or {@code Pragma: no-cache} bypasses the cache, but its
+ * response replaces the cached entry. A request with {@code Cache-Control: no-store} is neither served from
+ * the cache nor stored.
+ */
+public class ResponseCacheHandler implements HttpHandler {
+
+    /**
+     * The default maximum size of a response body that is cached
+     */
+    public static final int DEFAULT_MAX_ENTRY_SIZE = 1024 * 1024;
+
+    /**
+     * Headers that apply to a single connection or message, and are not replayed from the cache
+     */
+    private static final HttpString[] NOT_CACHED_HEADERS = {Headers.CONNECTION, Headers.KEEP_ALIVE, Headers.TRANSFER_ENCODING,
+            Headers.TE, Headers.TRAILER, Headers.UPGRADE, Headers.PROXY_AUTHENTICATE, Headers.CONTENT_LENGTH, Headers.DATE, Headers.AGE};
+
+    private final DirectBufferCache cache;
+    private volatile HttpHandler next = ResponseCodeHandler.HANDLE_404;
+    private volatile int maxEntrySize = DEFAULT_MAX_ENTRY_SIZE;
+    private volatile long defaultTimeToLive;
+    private volatile HttpString[] varyHeaders = {Headers.ACCEPT_ENCODING};
+
+    /**
+     * @param sliceSize The size of the direct buffer slices the cached bodies are stored in
+     * @param maxSlices The maximum number of slices, which bounds the amount of memory used by the cache
+     */
+    public ResponseCacheHandler(final int sliceSize, final int maxSlices) {
+        this(new DirectBufferCache(sliceSize, sliceSize * maxSlices));
+    }
+
+    public ResponseCacheHandler(final DirectBufferCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+        final HttpString method = exchange.getRequestMethod();
+        final boolean head = method.equals(Methods.HEAD);
+        final HeaderMap requestHeaders = exchange.getRequestHeaders();
+        if ((!head && !method.equals(Methods.GET))
+                || requestHeaders.contains(Headers.AUTHORIZATION)
+                || hasDirective(requestHeaders.get(Headers.CACHE_CONTROL), "no-store")) {
+            HttpHandlers.executeHandler(next, exchange, completionHandler);
+            return;
+        }
+        final String key = createKey(exchange);
+        final boolean noCache = hasDirective(requestHeaders.get(Headers.CACHE_CONTROL), "no-cache")
+                || hasDirective(requestHeaders.get(Headers.PRAGMA), "no-cache");
+        if (!noCache && serveCachedResponse(exchange, completionHandler, key, head)) {
+            return;
+        }
+        if (!head) {
+            exchange.addResponseWrapper(new CachingChannelWrapper(key));
+        }
+        HttpHandlers.executeHandler(next, exchange, completionHandler);
+    }
+
+    private String createKey(final HttpServerExchange exchange) {
+        final HeaderMap requestHeaders = exchange.getRequestHeaders();
+        final StringBuilder key = new StringBuilder("GET ");
+        final String host = requestHeaders.getFirst(Headers.HOST);
+        if (host != null) {
+            //host names are case insensitive
+            key.append(host.toLowerCase(Locale.ENGLISH));
+        }
+        key.append(exchange.getRequestURI());
+        final String query = exchange.getQueryString();
+        if (query != null && !query.isEmpty()) {
+            key.append('?').append(query);
+        }
+        for (final HttpString header : varyHeaders) {
+            key.append('\0');
+            final Deque<String> values = requestHeaders.get(header);
+            if (values != null) {
+                boolean first = true;
+                for (final String value : values) {
+                    if (!first) {
+                        key.append(',');
+                    }
+                    key.append(value);
+                    first = false;
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    private boolean serveCachedResponse(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final String key, final boolean head) {
+        final DirectBufferCache.CacheEntry entry = cache.get(key);
+        if (entry == null || !entry.enabled() || !entry.reference()) {
+            return false;
+        }
+        final CachedResponse response = (CachedResponse) entry.attachment();
+        final long now = System.currentTimeMillis();
+        if (response == null || response.expires <= now) {
+            entry.dereference();
+            if (response != null) {
+                cache.remove(key);
+            }
+            return false;
+        }
+        final ChannelFactory<StreamSinkChannel> factory = exchange.getResponseChannelFactory();
+        if (factory == null) {
+            entry.dereference();
+            return false;
+        }
+        IoUtils.safeShutdownReads(exchange.getRequestChannel());
+        response.apply(exchange, entry.size(), now);
+        if (response.isNotModified(exchange.getRequestHeaders())) {
+            entry.dereference();
+            exchange.setResponseCode(304);
+            exchange.getResponseHeaders().remove(Headers.CONTENT_LENGTH);
+            completionHandler.handleComplete();
+            return true;
+        }
+        if (head) {
+            entry.dereference();
+            factory.create();
+            completionHandler.handleComplete();
+            return true;
+        }
+
+        final StreamSinkChannel responseChannel;
+        final ByteBuffer[] buffers;
+        boolean ok = false;
+        try {
+            responseChannel = factory.create();
+            final LimitedBufferSlicePool.PooledByteBuffer[] pooled = entry.buffers();
+            buffers = new ByteBuffer[pooled.length];
+            for (int i = 0; i < buffers.length; i++) {
+                // Keep position from mutating
+                buffers[i] = pooled[i].getResource().duplicate();
+            }
+            ok = true;
+        } finally {
+            if (!ok) {
+                entry.dereference();
+            }
+        }
+        BufferTransfer.transfer(exchange, responseChannel, completionHandler, new BufferTransfer.TransferCompletionCallback() {
+            @Override
+            public void complete() {
+                entry.dereference();
+            }
+        }, buffers);
+        return true;
+    }
+
+    /**
+     * Creates the entry a response body of a known length is written into, replacing any existing entry for the key.
+     *
+     * @return The entry, which has been referenced and claimed by the caller, or null if it could not be created
+     */
+    DirectBufferCache.CacheEntry reserve(final String key, final int length) {
+        DirectBufferCache.CacheEntry entry = cache.add(key, length);
+        if (entry.size() != length || entry.enabled()) {
+            // an older version of the response
+            cache.remove(key);
+            entry = cache.add(key, length);
+        }
+        if (entry.size() == length && entry.allocate() && entry.buffers().length > 0 && entry.claimEnable()) {
+            if (entry.reference()) {
+                return entry;
+            }
+            entry.disable();
+        }
+        return null;
+    }
+
+    /**
+     * Enables an entry once the whole response body has been written into it.
+     */
+    void complete(final DirectBufferCache.CacheEntry entry, final CachedResponse response) {
+        for (final LimitedBufferSlicePool.PooledByteBuffer slice : entry.buffers()) {
+            slice.getResource().flip();
+        }
+        entry.setAttachment(response);
+        entry.enable();
+        entry.dereference();
+    }
+
+    /**
+     * Releases an entry that was not completely written, so that a later response can be stored in it.
+     */
+    void abandon(final DirectBufferCache.CacheEntry entry) {
+        for (final LimitedBufferSlicePool.PooledByteBuffer slice : entry.buffers()) {
+            slice.getResource().clear();
+        }
+        entry.disable();
+        entry.dereference();
+    }
+
+    /**
+     * Stores a response body that was captured on the heap, replacing any existing entry for the key.
+     */
+    void store(final String key, final CachedResponse response, final byte[] data, final int length) {
+        final DirectBufferCache.CacheEntry entry = reserve(key, length);
+        if (entry == null) {
+            return;
+        }
+        int offset = 0;
+        for (final LimitedBufferSlicePool.PooledByteBuffer slice : entry.buffers()) {
+            final ByteBuffer buffer = slice.getResource();
+            final int count = Math.min(buffer.remaining(), length - offset);
+            buffer.put(data, offset, count);
+            offset += count;
+        }
+        complete(entry, response);
+    }
+
+    /**
+     * Works out when a response stops being fresh.
+     *
+     * @return The time the response expires, or -1 if it cannot be cached
+     */
+    private long getExpires(final HttpServerExchange exchange, final long now) {
+        if (exchange.getResponseCode() != 200) {
+            return -1;
+        }
+        final HeaderMap responseHeaders = exchange.getResponseHeaders();
+        if (responseHeaders.contains(Headers.SET_COOKIE) || !isVaryCovered(responseHeaders.get(Headers.VARY))) {
+            return -1;
+        }
+        final String contentLength = responseHeaders.getFirst(Headers.CONTENT_LENGTH);
+        if (contentLength != null) {
+            try {
+                final long length = Long.parseLong(contentLength);
+                if (length < 0 || length > maxEntrySize) {
+                    return -1;
+                }
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        final Deque<String> cacheControl = responseHeaders.get(Headers.CACHE_CONTROL);
+        if (cacheControl != null) {
+            for (final String value : cacheControl) {
+                for (final String directive : value.split(",")) {
+                    final int equals = directive.indexOf('=');
+                    final String name = (equals == -1 ? directive : directive.substring(0, equals)).trim().toLowerCase(Locale.ENGLISH);
+                    if (name.equals("no-store") || name.equals("no-cache") || name.equals("private")) {
+                        return -1;
+                    } else if (equals != -1 && (name.equals("max-age") || name.equals("s-maxage"))) {
+                        final long seconds = parseDeltaSeconds(directive.substring(equals + 1));
+                        if (seconds < 0) {
+                            return -1;
+                        }
+                        if (name.equals("max-age")) {
+                            maxAge = seconds;
+                        } else {
+                            sharedMaxAge = seconds;
+                        }
+                    }
+                }
+            }
+        }
+        if (sharedMaxAge != -1) {
+            return now + TimeUnit.SECONDS.toMillis(sharedMaxAge);
+        } else if (maxAge != -1) {
+            return now + TimeUnit.SECONDS.toMillis(maxAge);
+        }
+        final String expires = responseHeaders.getFirst(Headers.EXPIRES);
+        if (expires != null) {
+            //an invalid date means the response has already expired
+            return DateUtils.parseDateMillis(expires.trim());
+        }
+        final long defaultTimeToLive = this.defaultTimeToLive;
+        return defaultTimeToLive > 0 ? now + defaultTimeToLive : -1;
+    }
+
+    private static long parseDeltaSeconds(final String value) {
+        String seconds = value.trim();
+        if (seconds.length() > 1 && seconds.charAt(0) == '"' && seconds.charAt(seconds.length() - 1) == '"') {
+            seconds = seconds.substring(1, seconds.length() - 1);
+        }
+        try {
+            return Long.parseLong(seconds);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private boolean isVaryCovered(final Deque<String> vary) {
+        if (vary == null) {
+            return true;
+        }
+        final HttpString[] varyHeaders = this.varyHeaders;
+        for (final String value : vary) {
+            for (final String header : value.split(",")) {
+                final String name = header.trim();
+                if (name.isEmpty()) {
+                    continue;
+                }
+                boolean found = false;
+                for (final HttpString varyHeader : varyHeaders) {
+                    if (varyHeader.toString().equalsIgnoreCase(name)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasDirective(final Deque<String> values, final String directive) {
+        if (values == null) {
+            return false;
+        }
+        for (final String value : values) {
+            for (final String part : value.split(",")) {
+                final String trimmed = part.trim();
+                if (trimmed.regionMatches(true, 0, directive, 0, directive.length())
+                        && (trimmed.length() == directive.length() || trimmed.charAt(directive.length()) == '=')) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public HttpHandler getNext() {
+        return next;
+    }
+
+    public void setNext(final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+    }
+
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * Sets the maximum size of a response body that is cached. Larger responses are passed through unchanged.
+     *
+     * @param maxEntrySize The maximum size in bytes
+     */
+    public void setMaxEntrySize(final int maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    public long getDefaultTimeToLive() {
+        return defaultTimeToLive;
+    }
+
+    /**
+     * Sets how long responses that have neither a {@code max-age} nor an {@code Expires} header are cached for.
+     * By default these responses are not cached.
+     *
+     * @param time The time to live, or 0 to not cache these responses
+     * @param unit The unit of the time
+     */
+    public void setDefaultTimeToLive(final long time, final TimeUnit unit) {
+        this.defaultTimeToLive = unit.toMillis(time);
+    }
+
+    /**
+     * @return The request headers that are part of the cache key
+     */
+    public HttpString[] getVaryHeaders() {
+        return varyHeaders.clone();
+    }
+
+    /**
+     * Sets the request headers that are part of the cache key. Responses that vary on any other request header
+     * are not cached. Changing these headers means existing entries will no longer be found.
+     *
+     * @param varyHeaders The request headers
+     */
+    public void setVaryHeaders(final HttpString... varyHeaders) {
+        this.varyHeaders = varyHeaders.clone();
+    }
+
+    /**
+     * The parts of a cached response that are not part of the body.
+     */
+    static final class CachedResponse {
+
+        private final HttpString[] names;
+        private final String[] values;
+        private final long created;
+        private final long expires;
+        private final String etag;
+        private final long lastModified;
+
+        private CachedResponse(final HttpString[] names, final String[] values, final long created, final long expires, final String etag, final long lastModified) {
+            this.names = names;
+            this.values = values;
+            this.created = created;
+            this.expires = expires;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        static CachedResponse create(final HeaderMap headers, final long created, final long expires) {
+            int count = 0;
+            for (final HttpString name : headers) {
+                if (isCached(name)) {
+                    count += headers.get(name).size();
+                }
+            }
+            final HttpString[] names = new HttpString[count];
+            final String[] values = new String[count];
+            int i = 0;
+            for (final HttpString name : headers) {
+                if (isCached(name)) {
+                    for (final String value : headers.get(name)) {
+                        names[i] = name;
+                        values[i++] = value;
+                    }
+                }
+            }
+            final String etag = headers.getFirst(Headers.ETAG);
+            final String lastModified = headers.getFirst(Headers.LAST_MODIFIED);
+            return new CachedResponse(names, values, created, expires, etag == null ? null : etag.trim(), lastModified == null ? -1 : DateUtils.parseDateMillis(lastModified.trim()));
+        }
+
+        private static boolean isCached(final HttpString name) {
+            for (final HttpString notCached : NOT_CACHED_HEADERS) {
+                if (notCached.equals(name)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isNotModified(final HeaderMap requestHeaders) {
+            return ETagUtils.isNotModified(requestHeaders, etag, lastModified);
+        }
+
+        void apply(final HttpServerExchange exchange, final int size, final long now) {
+            exchange.setResponseCode(200);
+            final HeaderMap responseHeaders = exchange.getResponseHeaders();
+            for (int i = 0; i < names.length; ++i) {
+                responseHeaders.add(names[i], values[i]);
+            }
+            responseHeaders.put(Headers.CONTENT_LENGTH, Integer.toString(size));
+            responseHeaders.put(Headers.AGE, Long.toString(TimeUnit.MILLISECONDS.toSeconds(now - created)));
+        }
+    }
+
+    private final class CachingChannelWrapper implements ChannelWrapper<StreamSinkChannel> {
+
+        private final String key;
+
+        private CachingChannelWrapper(final String key) {
+            this.key = key;
+        }
+
+        @Override
+        public StreamSinkChannel wrap(final StreamSinkChannel channel, final HttpServerExchange exchange) {
+            //this is decided here rather than when the response is committed, so any headers added by
+            //the commit listeners of handlers further down the chain are seen
+            final long now = System.currentTimeMillis();
+            final long expires = getExpires(exchange, now);
+            if (expires <= now) {
+                return channel;
+            }
+            final CachedResponse response = CachedResponse.create(exchange.getResponseHeaders(), now, expires);
+            final String contentLength = exchange.getResponseHeaders().getFirst(Headers.CONTENT_LENGTH);
+            if (contentLength == null) {
+                return new CachingStreamSinkChannel(channel, ResponseCacheHandler.this, key, response, maxEntrySize);
+            }
+            //the length has been checked against the maximum entry size by getExpires
+            final DirectBufferCache.CacheEntry entry = reserve(key, Integer.parseInt(contentLength));
+            if (entry == null) {
+                return channel;
+            }
+            final CachingStreamSinkChannel cachingChannel = new CachingStreamSinkChannel(channel, ResponseCacheHandler.this, response, entry);
+            exchange.addExchangeCompletionListener(cachingChannel);
+            return cachingChannel;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.encoding;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.zip.Deflater;
+
+import io.undertow.UndertowMessages;
+import io.undertow.server.ChannelWrapper;
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.ResponseCommitListener;
+import io.undertow.server.handlers.HttpHandlers;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import org.xnio.Pool;
+import org.xnio.channels.StreamSinkChannel;
+
+/**
+ * Base class for handlers that compress the response. These are intended to be registered with
+ * {@link EncodingHandler#addEncodingHandler(String, HttpHandler, int)} under the name of their content coding.
+ * <p/>
+ * The decision to compress is made when the response is committed, once the handler chain has set the final
+ * response headers. The response is not compressed if:
+ * <ul>
+ * <li>it has no body, because it is a response to a HEAD request or has a 1xx, 204 or 304 status</li>
+ * <li>it already has a {@code Content-Encoding}</li>
+ * <li>its content type is one of the excluded content types, which by default are types that are
+ * already compressed</li>
+ * <li>it has a {@code Content-Length} that is smaller than the minimum size</li>
+ * </ul>
+ * Otherwise the {@code Content-Length} header is removed, as the compressed length is not known in
+ * advance, and the {@code Content-Encoding} header is set.
+ */
+abstract class CompressingEncodingHandler implements HttpHandler {
+
+    /**
+     * The default minimum size of a response with a known length before it is compressed
+     */
+    public static final int DEFAULT_MINIMUM_SIZE = 256;
+
+    private static final String[] DEFAULT_EXCLUDED_CONTENT_TYPES = {
+            "image/gif", "image/jpeg", "image/png", "image/webp",
+            "audio/*", "video/*",
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-compress",
+            "application/x-bzip2", "application/x-7z-compressed", "application/x-rar-compressed"};
+
+    private final boolean nowrap;
+    private volatile HttpHandler next = ResponseCodeHandler.HANDLE_404;
+    private volatile int minimumSize = DEFAULT_MINIMUM_SIZE;
+    private volatile DeflaterPool deflaterPool;
+    private final Set<String> excludedContentTypes = new CopyOnWriteArraySet<String>(Arrays.asList(DEFAULT_EXCLUDED_CONTENT_TYPES));
+
+    /**
+     * @param nowrap If the deflaters used by this handler should omit the zlib header and trailer
+     */
+    protected CompressingEncodingHandler(final boolean nowrap) {
+        this.nowrap = nowrap;
+        this.deflaterPool = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, nowrap);
+    }
+
+    /**
+     * @return The name of the content coding, used as the value of the {@code Content-Encoding} header
+     */
+    protected abstract String getEncodingName();
+
+    /**
+     * Creates the channel that compresses the response.
+     *
+     * @param delegate       The channel to write the compressed data to
+     * @param bufferPool     The connection's buffer pool
+     * @param pooledDeflater The deflater to use, it is returned to the pool by the channel when it is done, or
+     *                       when the exchange completes if the channel is abandoned
+     * @return The compressing channel
+     */
+    abstract DeflatingStreamSinkChannel createChannel(final StreamSinkChannel delegate, final Pool<ByteBuffer> bufferPool, final DeflaterPool.Entry pooledDeflater);
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+        exchange.addResponseWrapper(new EncodingChannelWrapper(deflaterPool));
+        HttpHandlers.executeHandler(next, exchange, completionHandler);
+    }
+
+    private boolean isCompressible(final HttpServerExchange exchange) {
+        final int code = exchange.getResponseCode();
+        if (exchange.getRequestMethod().equals(Methods.HEAD) || (100 <= code && code <= 199) || code == 204 || code == 304) {
+            return false;
+        }
+        final HeaderMap responseHeaders = exchange.getResponseHeaders();
+        if (responseHeaders.contains(Headers.CONTENT_ENCODING)) {
+            return false;
+        }
+        final String contentLength = responseHeaders.getFirst(Headers.CONTENT_LENGTH);
+        if (contentLength != null) {
+            try {
+                if (Long.parseLong(contentLength) < minimumSize) {
+                    return false;
+                }
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        final String contentType = responseHeaders.getFirst(Headers.CONTENT_TYPE);
+        return contentType == null || !isExcludedContentType(contentType);
+    }
+
+    private boolean isExcludedContentType(final String contentType) {
+        final int end = contentType.indexOf(';');
+        final String type = (end == -1 ? contentType : contentType.substring(0, end)).trim().toLowerCase(Locale.ENGLISH);
+        for (final String excluded : excludedContentTypes) {
+            if (excluded.endsWith("/*")) {
+                if (type.regionMatches(0, excluded, 0, excluded.length() - 1)) {
+                    return true;
+                }
+            } else if (type.equals(excluded)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public HttpHandler getNext() {
+        return next;
+    }
+
+    public void setNext(final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+    }
+
+    public int getCompressionLevel() {
+        return deflaterPool.getLevel();
+    }
+
+    /**
+     * Sets the compression level, from 0 (no compression) to 9 (best compression), or -1 to use the
+     * zlib default.
+     *
+     * @param compressionLevel The compression level
+     */
+    public void setCompressionLevel(final int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw UndertowMessages.MESSAGES.invalidCompressionLevel(compressionLevel);
+        }
+        this.deflaterPool = new DeflaterPool(compressionLevel, nowrap);
+    }
+
+    public int getMinimumSize() {
+        return minimumSize;
+    }
+
+    /**
+     * Sets the minimum size of a response before it is compressed. This only applies to responses that
+     * have a {@code Content-Length}, responses of unknown length are always compressed.
+     *
+     * @param minimumSize The minimum size in bytes
+     */
+    public void setMinimumSize(final int minimumSize) {
+        this.minimumSize = minimumSize;
+    }
+
+    /**
+     * @return The content types that are never compressed
+     */
+    public Set<String> getExcludedContentTypes() {
+        return Collections.unmodifiableSet(excludedContentTypes);
+    }
+
+    /**
+     * Adds a content type that will not be compressed. A type ending in {@code /*}, such as {@code image/*},
+     * matches all subtypes.
+     *
+     * @param contentType The content type, without any parameters
+     */
+    public void addExcludedContentType(final String contentType) {
+        excludedContentTypes.add(contentType.toLowerCase(Locale.ENGLISH));
+    }
+
+    public void removeExcludedContentType(final String contentType) {
+        excludedContentTypes.remove(contentType.toLowerCase(Locale.ENGLISH));
+    }
+
+    private final class EncodingChannelWrapper implements ChannelWrapper<StreamSinkChannel>, ResponseCommitListener {
+
+        private final DeflaterPool deflaterPool;
+        private boolean compress;
+
+        private EncodingChannelWrapper(final DeflaterPool deflaterPool) {
+            this.deflaterPool = deflaterPool;
+        }
+
+        @Override
+        public void beforeCommit(final HttpServerExchange exchange) {
+            compress = isCompressible(exchange);
+            if (compress) {
+                final HeaderMap responseHeaders = exchange.getResponseHeaders();
+                responseHeaders.remove(Headers.CONTENT_LENGTH);
+                responseHeaders.put(Headers.CONTENT_ENCODING, getEncodingName());
+                responseHeaders.add(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+            }
+        }
+
+        @Override
+        public StreamSinkChannel wrap(final StreamSinkChannel channel, final HttpServerExchange exchange) {
+            if (!compress) {
+                return channel;
+            }
+            final DeflatingStreamSinkChannel deflatingChannel = createChannel(channel, exchange.getConnection().getBufferPool(), deflaterPool.allocate());
+            exchange.addExchangeCompletionListener(deflatingChannel);
+            return deflatingChannel;
+        }
+    }
+}
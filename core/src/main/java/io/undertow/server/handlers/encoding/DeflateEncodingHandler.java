@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.encoding;
+
+import java.nio.ByteBuffer;
+
+import io.undertow.server.HttpHandler;
+import org.xnio.Pool;
+import org.xnio.channels.StreamSinkChannel;
+
+/**
+ * Handler that compresses the response using the {@code deflate} content coding.
+ *
+ * @see CompressingEncodingHandler
+ */
+public class DeflateEncodingHandler extends CompressingEncodingHandler {
+
+    public static final String NAME = "deflate";
+
+    public DeflateEncodingHandler() {
+        super(false);
+    }
+
+    public DeflateEncodingHandler(final HttpHandler next) {
+        super(false);
+        setNext(next);
+    }
+
+    @Override
+    protected String getEncodingName() {
+        return NAME;
+    }
+
+    @Override
+    DeflatingStreamSinkChannel createChannel(final StreamSinkChannel delegate, final Pool<ByteBuffer> bufferPool, final DeflaterPool.Entry pooledDeflater) {
+        return new DeflatingStreamSinkChannel(delegate, bufferPool, pooledDeflater);
+    }
+}
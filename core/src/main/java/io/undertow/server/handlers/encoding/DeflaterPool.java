@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.encoding;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * A pool of {@link Deflater}s, along with the arrays that are used to pass data in and out of them.
+ * <p/>
+ * Creating a deflater is expensive, as it allocates the native zlib state, so they are reset and
+ * reused rather than being created for every response. At most {@link #MAX_POOLED} idle deflaters
+ * are retained, any more than that are ended when they are freed.
+ */
+final class DeflaterPool {
+
+    static final int MAX_POOLED = 64;
+
+    static final int BUFFER_SIZE = 8192;
+
+    private final int level;
+    private final boolean nowrap;
+    private final Queue<Entry> pool = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    DeflaterPool(final int level, final boolean nowrap) {
+        this.level = level;
+        this.nowrap = nowrap;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    Entry allocate() {
+        final Entry entry = pool.poll();
+        if (entry == null) {
+            return new Entry(this, new Deflater(level, nowrap));
+        }
+        pooled.decrementAndGet();
+        return entry;
+    }
+
+    private void free(final Entry entry) {
+        entry.deflater.reset();
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.add(entry);
+        } else {
+            pooled.decrementAndGet();
+            entry.deflater.end();
+        }
+    }
+
+    static final class Entry {
+        private final DeflaterPool pool;
+        final Deflater deflater;
+        final byte[] input = new byte[BUFFER_SIZE];
+        final byte[] output = new byte[BUFFER_SIZE];
+
+        private Entry(final DeflaterPool pool, final Deflater deflater) {
+            this.pool = pool;
+            this.deflater = deflater;
+        }
+
+        void free() {
+            pool.free(this);
+        }
+    }
+}
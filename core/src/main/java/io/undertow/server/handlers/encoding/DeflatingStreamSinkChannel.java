@@ -0,0 +1,424 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.encoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.zip.Deflater;
+
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpServerExchange;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
+import org.xnio.Option;
+import org.xnio.Pool;
+import org.xnio.Pooled;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+
+import static org.xnio.Bits.allAreClear;
+import static org.xnio.Bits.anyAreSet;
+
+/**
+ * Channel that compresses data written to it using a {@link Deflater}. On its own this implements the
+ * {@code deflate} content coding, {@link GzipStreamSinkChannel} adds the gzip header and trailer.
+ * <p/>
+ * Compressed data is collected in a buffer from the connection's buffer pool, which is written to the
+ * delegate whenever it fills up. If the delegate cannot accept any more data the write returns zero,
+ * and the remaining compressed data is written out by the next call to write or flush.
+ * <p/>
+ * As {@link Deflater} does not support a sync flush on Java 6, calling {@link #flush()} before the channel
+ * is shut down only writes out data that has already been compressed, data that is still held by the
+ * deflater is written out when more data is written, or when the channel is shut down.
+ * <p/>
+ * The deflater is normally returned to its pool once the compressed data has been written out. If the
+ * response is abandoned without being shut down, it is returned when the exchange completes, and if the
+ * underlying channel is closed it is returned when the close is noticed.
+ */
+class DeflatingStreamSinkChannel implements StreamSinkChannel, ExchangeCompletionListener {
+
+    private final StreamSinkChannel delegate;
+    private final Pool<ByteBuffer> bufferPool;
+
+    private final ChannelListener.SimpleSetter<DeflatingStreamSinkChannel> writeSetter = new ChannelListener.SimpleSetter<DeflatingStreamSinkChannel>();
+    private final ChannelListener.SimpleSetter<DeflatingStreamSinkChannel> closeSetter = new ChannelListener.SimpleSetter<DeflatingStreamSinkChannel>();
+
+    private volatile DeflaterPool.Entry pooledDeflater;
+    private final Deflater deflater;
+    private final byte[] input;
+    private final byte[] output;
+
+    private volatile Pooled<ByteBuffer> pooledBuffer;
+
+    /**
+     * Changed through {@link #setFlags(int)}, as the close listener and the completion listener can run on
+     * different threads
+     */
+    private volatile int state;
+
+    /**
+     * Set when {@link #shutdownWrites()} or {@link #close()} has been called
+     */
+    private static final int FLAG_SHUTDOWN = 1;
+    /**
+     * Set when the deflater has finished, and the trailer has been added to the buffer
+     */
+    private static final int FLAG_FINISHED = 1 << 1;
+    /**
+     * Set when all the data has been written out, and the delegate has been shut down
+     */
+    private static final int FLAG_DELEGATE_SHUTDOWN = 1 << 2;
+    private static final int FLAG_CLOSED = 1 << 3;
+
+    private static final AtomicReferenceFieldUpdater<DeflatingStreamSinkChannel, DeflaterPool.Entry> pooledDeflaterUpdater = AtomicReferenceFieldUpdater.newUpdater(DeflatingStreamSinkChannel.class, DeflaterPool.Entry.class, "pooledDeflater");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<DeflatingStreamSinkChannel, Pooled> pooledBufferUpdater = AtomicReferenceFieldUpdater.newUpdater(DeflatingStreamSinkChannel.class, Pooled.class, "pooledBuffer");
+    private static final AtomicIntegerFieldUpdater<DeflatingStreamSinkChannel> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(DeflatingStreamSinkChannel.class, "state");
+
+    DeflatingStreamSinkChannel(final StreamSinkChannel delegate, final Pool<ByteBuffer> bufferPool, final DeflaterPool.Entry pooledDeflater) {
+        this.delegate = delegate;
+        this.bufferPool = bufferPool;
+        this.pooledDeflater = pooledDeflater;
+        this.deflater = pooledDeflater.deflater;
+        this.input = pooledDeflater.input;
+        this.output = pooledDeflater.output;
+        delegate.getWriteSetter().set(ChannelListeners.delegatingChannelListener(this, writeSetter));
+        delegate.getCloseSetter().set(new ChannelListener<StreamSinkChannel>() {
+            @Override
+            public void handleEvent(final StreamSinkChannel channel) {
+                setFlags(FLAG_SHUTDOWN | FLAG_CLOSED);
+                freeResources();
+                ChannelListeners.invokeChannelListener(DeflatingStreamSinkChannel.this, closeSetter.get());
+            }
+        });
+    }
+
+    /**
+     * Returns the deflater to the pool if the response was abandoned without being shut down. If it has been
+     * shut down the deflater is returned once the remaining data is written out, or the connection is closed.
+     */
+    @Override
+    public void exchangeComplete(final HttpServerExchange exchange) {
+        int oldVal;
+        do {
+            oldVal = state;
+            if (anyAreSet(oldVal, FLAG_SHUTDOWN)) {
+                return;
+            }
+        } while (!stateUpdater.compareAndSet(this, oldVal, oldVal | FLAG_SHUTDOWN | FLAG_CLOSED));
+        freeResources();
+    }
+
+    /**
+     * @return the flags that were set before
+     */
+    private int setFlags(final int flags) {
+        int oldVal;
+        do {
+            oldVal = state;
+        } while (!stateUpdater.compareAndSet(this, oldVal, oldVal | flags));
+        return oldVal;
+    }
+
+    /**
+     * Writes any header that precedes the compressed data. The buffer is empty when this is called.
+     *
+     * @param buffer The buffer
+     */
+    protected void writeHeader(final ByteBuffer buffer) {
+    }
+
+    /**
+     * Called with all uncompressed data, before it is passed to the deflater.
+     */
+    protected void dataWritten(final byte[] data, final int offset, final int length) {
+    }
+
+    /**
+     * @return The maximum length of the trailer
+     */
+    protected int getTrailerLength() {
+        return 0;
+    }
+
+    /**
+     * Writes the trailer that follows the compressed data. The buffer will have at least
+     * {@link #getTrailerLength()} bytes remaining.
+     *
+     * @param buffer   The buffer
+     * @param deflater The deflater, which has finished
+     */
+    protected void writeTrailer(final ByteBuffer buffer, final Deflater deflater) {
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        if (anyAreSet(state, FLAG_SHUTDOWN)) {
+            throw new ClosedChannelException();
+        }
+        if (!src.hasRemaining() || !deflatePendingInput()) {
+            return 0;
+        }
+        final int count = Math.min(src.remaining(), input.length);
+        src.get(input, 0, count);
+        dataWritten(input, 0, count);
+        deflater.setInput(input, 0, count);
+        //if this does not complete the remaining input is deflated by the next write or flush
+        deflatePendingInput();
+        return count;
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            final ByteBuffer src = srcs[i];
+            while (src.hasRemaining()) {
+                final int written = write(src);
+                if (written == 0) {
+                    return total;
+                }
+                total += written;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+        if (anyAreSet(state, FLAG_SHUTDOWN)) {
+            throw new ClosedChannelException();
+        }
+        //the data has to pass through the deflater, so it cannot be transferred directly
+        return src.transferTo(position, count, this);
+    }
+
+    @Override
+    public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+        if (anyAreSet(state, FLAG_SHUTDOWN)) {
+            throw new ClosedChannelException();
+        }
+        return IoUtils.transfer(source, count, throughBuffer, this);
+    }
+
+    @Override
+    public void shutdownWrites() throws IOException {
+        setFlags(FLAG_SHUTDOWN);
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        if (anyAreSet(state, FLAG_DELEGATE_SHUTDOWN)) {
+            return delegate.flush();
+        }
+        if (anyAreSet(state, FLAG_CLOSED)) {
+            //the deflater has already been returned to the pool
+            throw new ClosedChannelException();
+        }
+        if (allAreClear(state, FLAG_SHUTDOWN)) {
+            if (pooledBuffer != null && !flushBuffer()) {
+                return false;
+            }
+            return delegate.flush();
+        }
+        if (allAreClear(state, FLAG_FINISHED)) {
+            if (!deflatePendingInput()) {
+                return false;
+            }
+            deflater.finish();
+            final ByteBuffer buffer = getBuffer();
+            while (!deflater.finished()) {
+                if (!buffer.hasRemaining() && !flushBuffer()) {
+                    return false;
+                }
+                buffer.put(output, 0, deflater.deflate(output, 0, Math.min(output.length, buffer.remaining())));
+            }
+            if (buffer.remaining() < getTrailerLength() && !flushBuffer()) {
+                return false;
+            }
+            writeTrailer(buffer, deflater);
+            setFlags(FLAG_FINISHED);
+        }
+        if (!flushBuffer()) {
+            return false;
+        }
+        freeResources();
+        setFlags(FLAG_DELEGATE_SHUTDOWN);
+        delegate.shutdownWrites();
+        return delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (anyAreSet(setFlags(FLAG_SHUTDOWN | FLAG_CLOSED), FLAG_CLOSED)) {
+            return;
+        }
+        freeResources();
+        delegate.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return allAreClear(state, FLAG_CLOSED) && delegate.isOpen();
+    }
+
+    /**
+     * Deflates any input that the deflater has not consumed yet.
+     *
+     * @return {@code true} if all input has been consumed
+     */
+    private boolean deflatePendingInput() throws IOException {
+        if (deflater.needsInput()) {
+            return true;
+        }
+        final ByteBuffer buffer = getBuffer();
+        while (!deflater.needsInput()) {
+            if (!buffer.hasRemaining() && !flushBuffer()) {
+                return false;
+            }
+            buffer.put(output, 0, deflater.deflate(output, 0, Math.min(output.length, buffer.remaining())));
+        }
+        return true;
+    }
+
+    private ByteBuffer getBuffer() {
+        Pooled<ByteBuffer> pooledBuffer = this.pooledBuffer;
+        if (pooledBuffer == null) {
+            this.pooledBuffer = pooledBuffer = bufferPool.allocate();
+            final ByteBuffer buffer = pooledBuffer.getResource();
+            buffer.clear();
+            writeHeader(buffer);
+            return buffer;
+        }
+        return pooledBuffer.getResource();
+    }
+
+    /**
+     * Writes the contents of the buffer to the delegate.
+     *
+     * @return {@code true} if the buffer was completely written out
+     */
+    private boolean flushBuffer() throws IOException {
+        final ByteBuffer buffer = getBuffer();
+        if (buffer.position() == 0) {
+            return true;
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                if (delegate.write(buffer) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            buffer.compact();
+        }
+    }
+
+    private void freeResources() {
+        //this can be called from both the completion listener and the close listener
+        final Pooled<?> pooledBuffer = pooledBufferUpdater.getAndSet(this, null);
+        if (pooledBuffer != null) {
+            pooledBuffer.free();
+        }
+        final DeflaterPool.Entry pooledDeflater = pooledDeflaterUpdater.getAndSet(this, null);
+        if (pooledDeflater != null) {
+            pooledDeflater.free();
+        }
+    }
+
+    @Override
+    public ChannelListener.Setter<? extends StreamSinkChannel> getWriteSetter() {
+        return writeSetter;
+    }
+
+    @Override
+    public ChannelListener.Setter<? extends StreamSinkChannel> getCloseSetter() {
+        return closeSetter;
+    }
+
+    @Override
+    public void suspendWrites() {
+        delegate.suspendWrites();
+    }
+
+    @Override
+    public void resumeWrites() {
+        delegate.resumeWrites();
+    }
+
+    @Override
+    public boolean isWriteResumed() {
+        return delegate.isWriteResumed();
+    }
+
+    @Override
+    public void wakeupWrites() {
+        delegate.wakeupWrites();
+    }
+
+    @Override
+    public void awaitWritable() throws IOException {
+        delegate.awaitWritable();
+    }
+
+    @Override
+    public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
+        delegate.awaitWritable(time, timeUnit);
+    }
+
+    @Override
+    public XnioExecutor getWriteThread() {
+        return delegate.getWriteThread();
+    }
+
+    @Override
+    public XnioWorker getWorker() {
+        return delegate.getWorker();
+    }
+
+    @Override
+    public boolean supportsOption(final Option<?> option) {
+        return delegate.supportsOption(option);
+    }
+
+    @Override
+    public <T> T getOption(final Option<T> option) throws IOException {
+        return delegate.getOption(option);
+    }
+
+    @Override
+    public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException, IOException {
+        return delegate.setOption(option, value);
+    }
+}
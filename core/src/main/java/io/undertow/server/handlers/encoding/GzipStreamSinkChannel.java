@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.encoding;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.xnio.Pool;
+import org.xnio.channels.StreamSinkChannel;
+
+/**
+ * Channel that implements the {@code gzip} content coding. The deflater must have been created
+ * with {@code nowrap} set, as the gzip header and trailer are written by this channel.
+ */
+final class GzipStreamSinkChannel extends DeflatingStreamSinkChannel {
+
+    private static final byte[] HEADER = {
+            (byte) 0x1f, (byte) 0x8b, // magic number
+            Deflater.DEFLATED, // compression method
+            0, // flags
+            0, 0, 0, 0, // modification time
+            0, // extra flags
+            0 // operating system
+    };
+
+    private static final int TRAILER_LENGTH = 8;
+
+    private final CRC32 crc = new CRC32();
+
+    GzipStreamSinkChannel(final StreamSinkChannel delegate, final Pool<ByteBuffer> bufferPool, final DeflaterPool.Entry pooledDeflater) {
+        super(delegate, bufferPool, pooledDeflater);
+    }
+
+    @Override
+    protected void writeHeader(final ByteBuffer buffer) {
+        buffer.put(HEADER);
+    }
+
+    @Override
+    protected void dataWritten(final byte[] data, final int offset, final int length) {
+        crc.update(data, offset, length);
+    }
+
+    @Override
+    protected int getTrailerLength() {
+        return TRAILER_LENGTH;
+    }
+
+    @Override
+    protected void writeTrailer(final ByteBuffer buffer, final Deflater deflater) {
+        writeInt(buffer, (int) crc.getValue());
+        writeInt(buffer, (int) deflater.getBytesRead());
+    }
+
+    private static void writeInt(final ByteBuffer buffer, final int value) {
+        //gzip is little endian
+        buffer.put((byte) value);
+        buffer.put((byte) (value >> 8));
+        buffer.put((byte) (value >> 16));
+        buffer.put((byte) (value >> 24));
+    }
+}
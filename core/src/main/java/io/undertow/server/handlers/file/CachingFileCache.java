@@ -18,17 +18,29 @@
 
 package io.undertow.server.handlers.file;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import io.undertow.server.HttpCompletionHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
+import io.undertow.util.QValueParser;
 import io.undertow.util.WorkerDispatcher;
 import org.jboss.logging.Logger;
 import org.xnio.FileAccess;
@@ -38,20 +50,56 @@ import org.xnio.channels.Channels;
 import org.xnio.channels.StreamSinkChannel;
 
 /**
- * A file cache that caches
+ * A file cache that keeps the contents of small files in direct buffers, so they can be served without going to
+ * the file system.
+ * <p/>
+ * If the client accepts a content coding the cache can also serve an encoded variant of a file. A sibling file with
+ * a {@code .br} or {@code .gz} suffix is served if it exists, otherwise the file is gzipped once and the compressed
+ * bytes are cached next to the identity bytes. If there is no room in the cache for them the identity file is served
+ * instead, so the file is not compressed again for every request. Only files with a compressible extension are
+ * considered. There is no brotli encoder available, so brotli is only ever served from a sibling file. Sibling files
+ * that were found not to exist are remembered for one check interval, so requests for files without siblings can be
+ * served from the cached identity bytes without going to the file system.
+ * <p/>
+ * Cached entries are checked against the modification time and size of their file at most once per check
+ * interval, and are dropped if the file has changed. Entries can also be dropped explicitly through
+ * {@link #invalidate(File)}, for example by a {@link FileChangeWatcher}.
  *
  * @author Jason T. Greene
  */
-public class CachingFileCache implements FileCache {
+public class CachingFileCache implements InvalidatableFileCache {
 
     private static final int DEFAULT_MAX_CACHE_FILE_SIZE = 2048 * 1024;
+    private static final long DEFAULT_CHECK_INTERVAL = 1000;
 
     private static final Logger log = Logger.getLogger("io.undertow.server.handlers.file");
     private static final String JDK7_NO_SUCH_FILE = "java.nio.file.NoSuchFileException";
 
+    private static final String GZIP = "gzip";
+    private static final String BROTLI = "br";
+
+    private static final String[] NO_ENCODINGS = {};
+    private static final String[] GZIP_ONLY = {GZIP};
+    private static final String[] BROTLI_ONLY = {BROTLI};
+    private static final String[] BROTLI_THEN_GZIP = {BROTLI, GZIP};
+    private static final String[] GZIP_THEN_BROTLI = {GZIP, BROTLI};
+
+    /**
+     * Suffix of the cache key that holds the gzipped variant of a file. A NUL can never be part of a
+     * file name, so this key can not clash with the key of a real file.
+     */
+    private static final String COMPRESSED_GZIP_SUFFIX = "\u0000gzip";
+
+    private static final String[] DEFAULT_COMPRESSIBLE_EXTENSIONS = {"html", "htm", "css", "js", "json", "xml", "txt", "svg", "csv"};
+
     private final DirectBufferCache cache;
     private final long maxFileSize;
 
+    private volatile long checkInterval = DEFAULT_CHECK_INTERVAL;
+    private volatile boolean precompressedEnabled = true;
+    private volatile boolean compressionEnabled = true;
+    private final Set<String> compressibleExtensions = new CopyOnWriteArraySet<String>(Arrays.asList(DEFAULT_COMPRESSIBLE_EXTENSIONS));
+
     private static class DereferenceCallback implements BufferTransfer.TransferCompletionCallback {
         private final DirectBufferCache.CacheEntry cache;
 
@@ -85,24 +133,161 @@ public class CachingFileCache implements FileCache {
             return;
         }
         final ChannelFactory<StreamSinkChannel> factory = exchange.getResponseChannelFactory();
-        final DirectBufferCache.CacheEntry entry = cache.get(file.getAbsolutePath());
-        if (entry == null) {
-            WorkerDispatcher.dispatch(exchange, new FileWriteLoadTask(exchange, completionHandler, factory, file, directoryListingEnabled));
-            return;
+        final String path = file.getAbsolutePath();
+
+        if ((precompressedEnabled || compressionEnabled) && isCompressible(path)) {
+            exchange.getResponseHeaders().add(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+            final String[] encodings = acceptedEncodings(exchange);
+            if (encodings.length > 0) {
+                if (!serveCachedVariant(exchange, completionHandler, factory, path, encodings)) {
+                    // the variant has to be looked for or created, or the entry is still loading
+                    WorkerDispatcher.dispatch(exchange, new VariantLoadTask(exchange, completionHandler, factory, file, directoryListingEnabled, encodings));
+                }
+                return;
+            }
         }
 
-        exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Long.toString(entry.size()));
-        if (method.equals(Methods.HEAD)) {
-            completionHandler.handleComplete();
-            return;
+        final DirectBufferCache.CacheEntry entry = cache.get(path);
+        if (entry == null || !isFresh(entry, path) || !serveCachedEntry(exchange, completionHandler, factory, entry, null)) {
+            WorkerDispatcher.dispatch(exchange, new FileWriteLoadTask(exchange, completionHandler, factory, file, directoryListingEnabled, null));
+        }
+    }
+
+    /**
+     * Serves the most preferred variant that is known to the cache. If that variant is still being
+     * loaded, or it is not known whether a sibling file exists for it, nothing is served, so the caller
+     * can load it rather than settle for a less preferred one. If it is known that no variant can be
+     * produced the cached identity entry is served.
+     *
+     * @return <code>true</code> if a variant was served
+     */
+    private boolean serveCachedVariant(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final ChannelFactory<StreamSinkChannel> factory, final String path, final String[] encodings) {
+        DirectBufferCache.CacheEntry identity = null;
+        for (final String encoding : encodings) {
+            DirectBufferCache.CacheEntry entry;
+            if (precompressedEnabled) {
+                if ((entry = cache.get(path + siblingSuffix(encoding))) != null) {
+                    return isFresh(entry, entry.path()) && serveCachedEntry(exchange, completionHandler, factory, entry, encoding);
+                }
+                if (identity == null) {
+                    identity = cache.peek(path);
+                }
+                if (!isSiblingMissing(identity, encoding)) {
+                    return false;
+                }
+            }
+            if (compressionEnabled && GZIP.equals(encoding)) {
+                // if there is no gzipped variant yet the caller creates one
+                entry = cache.get(path + COMPRESSED_GZIP_SUFFIX);
+                return entry != null && isFresh(entry, path) && serveCachedEntry(exchange, completionHandler, factory, entry, encoding);
+            }
+        }
+        identity = cache.get(path);
+        return identity != null && isFresh(identity, path) && serveCachedEntry(exchange, completionHandler, factory, identity, null);
+    }
+
+    /**
+     * @return <code>true</code> if the sibling file for the encoding was found not to exist within the
+     *         last check interval
+     */
+    private boolean isSiblingMissing(final DirectBufferCache.CacheEntry identity, final String encoding) {
+        if (identity == null) {
+            return false;
+        }
+        final Object attachment = identity.attachment();
+        if (!(attachment instanceof MissingSiblings)) {
+            return false;
         }
+        final MissingSiblings missing = (MissingSiblings) attachment;
+        return missing.isCurrent(System.currentTimeMillis(), checkInterval) && missing.isMissing(encoding);
+    }
+
+    /**
+     * Records that the sibling file for the encoding does not exist.
+     */
+    private void siblingMissing(final DirectBufferCache.CacheEntry identity, final String encoding) {
+        final long now = System.currentTimeMillis();
+        final Object attachment = identity.attachment();
+        boolean brotli = BROTLI.equals(encoding);
+        boolean gzip = !brotli;
+        if (attachment instanceof MissingSiblings) {
+            final MissingSiblings missing = (MissingSiblings) attachment;
+            if (missing.isCurrent(now, checkInterval)) {
+                brotli |= missing.brotli;
+                gzip |= missing.gzip;
+            }
+        }
+        //a lost update between two threads only means the file system is checked again
+        identity.setAttachment(new MissingSiblings(now, brotli, gzip));
+    }
 
+    /**
+     * Serves a loaded entry, including the conditional and range handling.
+     *
+     * @param encoding The content coding of the entry, or <code>null</code> for the identity entry
+     * @return <code>false</code> if the entry is still loading
+     */
+    private static boolean serveCachedEntry(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final ChannelFactory<StreamSinkChannel> factory, final DirectBufferCache.CacheEntry entry, final String encoding) {
         // It's loading retry later
         if (!entry.enabled() || !entry.reference()) {
-            WorkerDispatcher.dispatch(exchange, new FileWriteLoadTask(exchange, completionHandler, factory, file, directoryListingEnabled));
-            return;
+            return false;
         }
+        if (encoding != null) {
+            exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, encoding);
+        }
+        final ConditionalFileResponse.Range range = ConditionalFileResponse.start(exchange, completionHandler, entry.etag(), entry.lastModified(), entry.size());
+        if (range == null) {
+            entry.dereference();
+            return true;
+        }
+        if (exchange.getRequestMethod().equals(Methods.HEAD)) {
+            entry.dereference();
+            completionHandler.handleComplete();
+            return true;
+        }
+        transferEntry(exchange, completionHandler, factory, entry, range);
+        return true;
+    }
 
+    /**
+     * Checks if the file an entry was loaded from has changed, if the entry has not been checked within
+     * the check interval. A stale entry is removed from the cache.
+     *
+     * @return <code>false</code> if the entry is stale
+     */
+    private boolean isFresh(final DirectBufferCache.CacheEntry entry, final String sourcePath) {
+        final long interval = checkInterval;
+        // entries that are not loaded yet are never served, so there is nothing to check
+        if (interval < 0 || !entry.enabled() || !entry.claimCheck(System.currentTimeMillis(), interval)) {
+            return true;
+        }
+        final File source = new File(sourcePath);
+        if (source.lastModified() == entry.lastModified() && source.length() == entry.sourceSize()) {
+            return true;
+        }
+        log.tracef("Cached file %s has changed", sourcePath);
+        cache.remove(entry.path());
+        return false;
+    }
+
+    @Override
+    public void invalidate(final File file) {
+        final String path = file.getAbsolutePath();
+        cache.remove(path);
+        cache.remove(path + COMPRESSED_GZIP_SUFFIX);
+        if (path.endsWith(".br") || path.endsWith(".gz")) {
+            // a sibling that was missing may have been created
+            final DirectBufferCache.CacheEntry identity = cache.peek(path.substring(0, path.length() - 3));
+            if (identity != null) {
+                identity.setAttachment(null);
+            }
+        }
+    }
+
+    /**
+     * Writes the contents of a referenced entry, the reference is released once the transfer is done.
+     */
+    private static void transferEntry(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final ChannelFactory<StreamSinkChannel> factory, final DirectBufferCache.CacheEntry entry, final ConditionalFileResponse.Range range) {
         final StreamSinkChannel responseChannel;
         final ByteBuffer[] buffers;
 
@@ -125,7 +310,347 @@ public class CachingFileCache implements FileCache {
 
         // Transfer Inline, or register and continue transfer
         // Pass off the entry dereference call to the listener
-        BufferTransfer.transfer(exchange, responseChannel, completionHandler, new DereferenceCallback(entry), buffers);
+        BufferTransfer.transfer(exchange, responseChannel, completionHandler, new DereferenceCallback(entry), selectRange(buffers, range));
+    }
+
+    /**
+     * Narrows duplicates of the buffers of an entry down to the requested range.
+     */
+    private static ByteBuffer[] selectRange(final ByteBuffer[] buffers, final ConditionalFileResponse.Range range) {
+        if (range == ConditionalFileResponse.ENTIRE_FILE) {
+            return buffers;
+        }
+        int first = 0;
+        long skip = range.start;
+        while (skip >= buffers[first].remaining()) {
+            skip -= buffers[first++].remaining();
+        }
+        final long length = range.length();
+        int last = first;
+        long available = buffers[first].remaining() - skip;
+        while (available < length) {
+            available += buffers[++last].remaining();
+        }
+        final ByteBuffer[] result = new ByteBuffer[last - first + 1];
+        System.arraycopy(buffers, first, result, 0, result.length);
+        result[0].position(result[0].position() + (int) skip);
+        final ByteBuffer end = result[result.length - 1];
+        end.limit(end.limit() - (int) (available - length));
+        return result;
+    }
+
+    private boolean isCompressible(final String path) {
+        final int dot = path.lastIndexOf('.');
+        if (dot == -1 || dot < path.lastIndexOf(File.separatorChar)) {
+            return false;
+        }
+        return compressibleExtensions.contains(path.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Returns the content codings this cache can produce that the client accepts, most preferred first.
+     */
+    private static String[] acceptedEncodings(final HttpServerExchange exchange) {
+        final Deque<String> header = exchange.getRequestHeaders().get(Headers.ACCEPT_ENCODING);
+        if (header == null || header.isEmpty()) {
+            return NO_ENCODINGS;
+        }
+        int brotli = -1;
+        int gzip = -1;
+        int any = -1;
+        boolean brotliRefused = false;
+        boolean gzipRefused = false;
+        final List<List<QValueParser.QValueResult>> found = QValueParser.parse(header);
+        for (int rank = 0; rank < found.size(); ++rank) {
+            for (final QValueParser.QValueResult result : found.get(rank)) {
+                final String value = result.getValue();
+                if (value.equalsIgnoreCase(BROTLI)) {
+                    if (result.isQValueZero()) {
+                        brotliRefused = true;
+                    } else if (brotli == -1) {
+                        brotli = rank;
+                    }
+                } else if (value.equalsIgnoreCase(GZIP) || value.equalsIgnoreCase("x-gzip")) {
+                    if (result.isQValueZero()) {
+                        gzipRefused = true;
+                    } else if (gzip == -1) {
+                        gzip = rank;
+                    }
+                } else if (value.equals("*") && !result.isQValueZero() && any == -1) {
+                    any = rank;
+                }
+            }
+        }
+        if (brotli == -1 && !brotliRefused) {
+            brotli = any;
+        }
+        if (gzip == -1 && !gzipRefused) {
+            gzip = any;
+        }
+        if (brotli == -1) {
+            return gzip == -1 ? NO_ENCODINGS : GZIP_ONLY;
+        } else if (gzip == -1) {
+            return BROTLI_ONLY;
+        }
+        //on equal preference brotli wins, as it is the smaller of the two
+        return brotli <= gzip ? BROTLI_THEN_GZIP : GZIP_THEN_BROTLI;
+    }
+
+    private static String siblingSuffix(final String encoding) {
+        return BROTLI.equals(encoding) ? ".br" : ".gz";
+    }
+
+    /**
+     * The minimum time in milliseconds between two checks of a cached file for modifications. A negative
+     * interval disables the checks.
+     */
+    public long getCheckInterval() {
+        return checkInterval;
+    }
+
+    public void setCheckInterval(final long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * If sibling files with a {@code .br} or {@code .gz} suffix should be served in place of the
+     * requested file when the client accepts the encoding.
+     */
+    public boolean isPrecompressedEnabled() {
+        return precompressedEnabled;
+    }
+
+    public void setPrecompressedEnabled(final boolean precompressedEnabled) {
+        this.precompressedEnabled = precompressedEnabled;
+    }
+
+    /**
+     * If a gzipped variant should be created and cached for compressible files that have no
+     * precompressed sibling.
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public void setCompressionEnabled(final boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public Set<String> getCompressibleExtensions() {
+        return Collections.unmodifiableSet(compressibleExtensions);
+    }
+
+    public void addCompressibleExtension(final String extension) {
+        compressibleExtensions.add(extension.toLowerCase(Locale.ENGLISH));
+    }
+
+    public void removeCompressibleExtension(final String extension) {
+        compressibleExtensions.remove(extension.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Resolves the encoded variant of a file that is not in the cache yet. Each encoding the client
+     * accepts is tried in turn, if none of them can be produced the identity file is served.
+     */
+    private class VariantLoadTask implements Runnable {
+
+        private final HttpServerExchange exchange;
+        private final HttpCompletionHandler completionHandler;
+        private final ChannelFactory<StreamSinkChannel> factory;
+        private final File file;
+        private final boolean renderDirectoryListing;
+        private final String[] encodings;
+
+        public VariantLoadTask(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final ChannelFactory<StreamSinkChannel> factory, final File file, final boolean renderDirectoryListing, final String[] encodings) {
+            this.exchange = exchange;
+            this.completionHandler = completionHandler;
+            this.factory = factory;
+            this.file = file;
+            this.renderDirectoryListing = renderDirectoryListing;
+            this.encodings = encodings;
+        }
+
+        @Override
+        public void run() {
+            final String path = file.getAbsolutePath();
+            DirectBufferCache.CacheEntry identity = cache.peek(path);
+            if (identity == null && precompressedEnabled && file.isFile() && file.length() < maxFileSize) {
+                // the entry holds the results of the sibling lookups, its buffers are only allocated if it is served
+                identity = cache.add(path, (int) file.length());
+            }
+            for (final String encoding : encodings) {
+                if (precompressedEnabled && !isSiblingMissing(identity, encoding)) {
+                    final File sibling = new File(path + siblingSuffix(encoding));
+                    if (sibling.isFile()) {
+                        new FileWriteLoadTask(exchange, completionHandler, factory, sibling, false, encoding).run();
+                        return;
+                    }
+                    if (identity != null) {
+                        siblingMissing(identity, encoding);
+                    }
+                }
+                if (compressionEnabled && GZIP.equals(encoding) && file.isFile() && file.length() < maxFileSize && serveCompressed(path + COMPRESSED_GZIP_SUFFIX)) {
+                    return;
+                }
+            }
+            if (identity != null && isFresh(identity, path) && serveCachedEntry(exchange, completionHandler, factory, identity, null)) {
+                return;
+            }
+            new FileWriteLoadTask(exchange, completionHandler, factory, file, renderDirectoryListing, null).run();
+        }
+
+        /**
+         * Serves the gzipped variant of the file, compressing it if it is not in the cache. The file is only
+         * compressed if the result can be cached, otherwise it would be compressed again for every request.
+         *
+         * @return <code>false</code> if the variant can not be cached, and nothing has been served
+         */
+        private boolean serveCompressed(final String key) {
+            final DirectBufferCache.CacheEntry existing = cache.get(key);
+            if (existing != null) {
+                if (isFresh(existing, file.getAbsolutePath()) && serveCachedEntry(exchange, completionHandler, factory, existing, GZIP)) {
+                    return true;
+                }
+                if (existing.enabling()) {
+                    // another request is compressing the file
+                    return false;
+                }
+            }
+            if (!cache.canAllocate((int) file.length())) {
+                return false;
+            }
+            final byte[] compressed;
+            final long lastModified = file.lastModified();
+            final long length;
+            FileChannel fileChannel = null;
+            try {
+                fileChannel = exchange.getConnection().getWorker().getXnio().openFile(file, FileAccess.READ_ONLY);
+                length = fileChannel.size();
+                compressed = gzip(fileChannel, length);
+            } catch (IOException e) {
+                if (e instanceof FileNotFoundException || JDK7_NO_SUCH_FILE.equals(e.getClass().getName())) {
+                    exchange.setResponseCode(404);
+                } else {
+                    exchange.setResponseCode(500);
+                }
+                completionHandler.handleComplete();
+                return true;
+            } finally {
+                IoUtils.safeClose(fileChannel);
+            }
+
+            final String etag = ConditionalFileResponse.createETag(ConditionalFileResponse.createETag(lastModified, length), GZIP);
+
+            // Compressing is expensive, so rather than waiting for the cache to sample the entry
+            // the buffers are allocated straight away
+            DirectBufferCache.CacheEntry entry = cache.add(key, compressed.length);
+            if (entry.size() != compressed.length) {
+                // left over from an older version of the file
+                cache.remove(key);
+                entry = cache.add(key, compressed.length);
+            }
+            ByteBuffer[] buffers = null;
+            if (entry.size() == compressed.length && entry.allocate() && entry.buffers().length > 0 && entry.claimEnable()) {
+                if (entry.reference()) {
+                    buffers = populateBuffers(entry, compressed);
+                    entry.setSource(lastModified, length);
+                    entry.setETag(etag);
+                    entry.enable();
+                } else {
+                    entry.disable();
+                }
+            }
+
+            exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, GZIP);
+            final ConditionalFileResponse.Range range = ConditionalFileResponse.start(exchange, completionHandler, etag, lastModified, compressed.length);
+            if (range == null || exchange.getRequestMethod().equals(Methods.HEAD)) {
+                if (buffers != null) {
+                    entry.dereference();
+                }
+                if (range != null) {
+                    completionHandler.handleComplete();
+                }
+                return true;
+            }
+
+            final StreamSinkChannel channel = factory.create();
+            if (buffers == null) {
+                BufferTransfer.transfer(exchange, channel, completionHandler, null, selectRange(new ByteBuffer[]{ByteBuffer.wrap(compressed)}, range));
+            } else {
+                BufferTransfer.transfer(exchange, channel, completionHandler, new DereferenceCallback(entry), selectRange(buffers, range));
+            }
+            return true;
+        }
+
+        private byte[] gzip(final FileChannel fileChannel, final long length) throws IOException {
+            final ByteBuffer contents = ByteBuffer.allocate((int) length);
+            while (contents.hasRemaining()) {
+                if (fileChannel.read(contents) == -1) {
+                    break;
+                }
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(contents.position() / 2 + 32);
+            final OutputStream gzip = new BestCompressionGzipOutputStream(out);
+            gzip.write(contents.array(), 0, contents.position());
+            gzip.close();
+            return out.toByteArray();
+        }
+
+        private ByteBuffer[] populateBuffers(final DirectBufferCache.CacheEntry entry, final byte[] data) {
+            LimitedBufferSlicePool.PooledByteBuffer[] pooled = entry.buffers();
+            ByteBuffer[] buffers = new ByteBuffer[pooled.length];
+            int offset = 0;
+            for (int i = 0; i < buffers.length; i++) {
+                final ByteBuffer buffer = pooled[i].getResource();
+                final int length = Math.min(buffer.remaining(), data.length - offset);
+                buffer.put(data, offset, length);
+                offset += length;
+                buffer.flip();
+
+                // Prevent mutation when writing below
+                buffers[i] = buffer.duplicate();
+            }
+            return buffers;
+        }
+    }
+
+    /**
+     * The sibling files of a file that were found not to exist, kept as the attachment of the identity entry
+     * of the file. Instances are immutable, and are replaced as more siblings are looked for.
+     */
+    private static final class MissingSiblings {
+
+        private final long time;
+        private final boolean brotli;
+        private final boolean gzip;
+
+        private MissingSiblings(final long time, final boolean brotli, final boolean gzip) {
+            this.time = time;
+            this.brotli = brotli;
+            this.gzip = gzip;
+        }
+
+        /**
+         * Like modification checks, a negative check interval means the result never expires
+         */
+        boolean isCurrent(final long now, final long interval) {
+            return interval < 0 || now - time < interval;
+        }
+
+        boolean isMissing(final String encoding) {
+            return BROTLI.equals(encoding) ? brotli : gzip;
+        }
+    }
+
+    /**
+     * Compressed variants are only created once, so they are worth the extra effort
+     */
+    private static final class BestCompressionGzipOutputStream extends GZIPOutputStream {
+
+        private BestCompressionGzipOutputStream(final OutputStream out) throws IOException {
+            super(out);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
     }
 
     private class FileWriteLoadTask implements Runnable {
@@ -135,13 +660,15 @@ public class CachingFileCache implements FileCache {
         private final HttpServerExchange exchange;
         private final ChannelFactory<StreamSinkChannel> factory;
         private final boolean renderDirectoryListing;
+        private final String encoding;
 
-        public FileWriteLoadTask(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final ChannelFactory<StreamSinkChannel> factory, final File file, final boolean renderDirectoryListing) {
+        public FileWriteLoadTask(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final ChannelFactory<StreamSinkChannel> factory, final File file, final boolean renderDirectoryListing, final String encoding) {
             this.completionHandler = completionHandler;
             this.factory = factory;
             this.file = file;
             this.exchange = exchange;
             this.renderDirectoryListing = renderDirectoryListing;
+            this.encoding = encoding;
         }
 
         @Override
@@ -161,6 +688,8 @@ public class CachingFileCache implements FileCache {
                 return;
             }
 
+            // read before the contents, so a change while loading is noticed by the next check
+            final long lastModified = file.lastModified();
             try {
                 fileChannel = exchange.getConnection().getWorker().getXnio().openFile(file, FileAccess.READ_ONLY);
                 length = fileChannel.size();
@@ -174,13 +703,22 @@ public class CachingFileCache implements FileCache {
                 return;
             }
 
-
-            exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Long.toString(length));
+            if (encoding != null) {
+                exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, encoding);
+            }
+            final String etag = ConditionalFileResponse.createETag(lastModified, length);
+            final ConditionalFileResponse.Range range = ConditionalFileResponse.start(exchange, completionHandler, etag, lastModified, length);
+            if (range == null) {
+                IoUtils.safeClose(fileChannel);
+                return;
+            }
             if (method.equals(Methods.HEAD)) {
+                IoUtils.safeClose(fileChannel);
                 completionHandler.handleComplete();
                 return;
             }
             if (!method.equals(Methods.GET)) {
+                IoUtils.safeClose(fileChannel);
                 exchange.setResponseCode(500);
                 completionHandler.handleComplete();
                 return;
@@ -192,16 +730,21 @@ public class CachingFileCache implements FileCache {
             String path = file.getAbsolutePath();
             if (length < maxFileSize) {
                 entry = cache.add(path, (int) length);
+                if (entry.size() != length) {
+                    // left over from an older version of the file
+                    cache.remove(path);
+                    entry = cache.add(path, (int) length);
+                }
             }
 
             if (entry == null || entry.buffers().length == 0 || !entry.claimEnable()) {
-                transfer(channel, fileChannel, length);
+                transfer(channel, fileChannel, range, length);
                 return;
             }
 
             if (!entry.reference()) {
                 entry.disable();
-                transfer(channel, fileChannel, length);
+                transfer(channel, fileChannel, range, length);
                 return;
             }
 
@@ -213,6 +756,8 @@ public class CachingFileCache implements FileCache {
                     // File I/O exception, cleanup required
                     return;
                 }
+                entry.setSource(lastModified, length);
+                entry.setETag(etag);
                 entry.enable();
                 ok = true;
             } finally {
@@ -225,7 +770,7 @@ public class CachingFileCache implements FileCache {
 
             // Now that the cache is loaded, attempt to write or register a lister
             // Also, pass off entry dereference to the listener
-            BufferTransfer.transfer(exchange, channel, completionHandler, new DereferenceCallback(entry), buffers);
+            BufferTransfer.transfer(exchange, channel, completionHandler, new DereferenceCallback(entry), selectRange(buffers, range));
         }
 
         private ByteBuffer[] populateBuffers(FileChannel fileChannel, long length, DirectBufferCache.CacheEntry entry) {
@@ -265,10 +810,14 @@ public class CachingFileCache implements FileCache {
         }
 
 
-        private void transfer(StreamSinkChannel channel, FileChannel fileChannel, long length) {
+        private void transfer(StreamSinkChannel channel, FileChannel fileChannel, ConditionalFileResponse.Range range, long length) {
             try {
                 log.tracef("Serving file %s (blocking)", fileChannel);
-                Channels.transferBlocking(channel, fileChannel, 0, length);
+                if (range == ConditionalFileResponse.ENTIRE_FILE) {
+                    Channels.transferBlocking(channel, fileChannel, 0, length);
+                } else {
+                    Channels.transferBlocking(channel, fileChannel, range.start, range.length());
+                }
                 log.tracef("Finished serving %s, shutting down (blocking)", fileChannel);
                 channel.shutdownWrites();
                 log.tracef("Finished serving %s, flushing (blocking)", fileChannel);
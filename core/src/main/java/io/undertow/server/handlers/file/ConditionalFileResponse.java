@@ -0,0 +1,188 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.server.handlers.file;
+
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.DateUtils;
+import io.undertow.util.ETagUtils;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+
+/**
+ * Sets the validators of a file response, and handles the conditional request and byte range headers
+ * that depend on them.
+ * <p/>
+ * Only a single byte range is supported. A request for several ranges is answered with the whole file,
+ * which is what a server that does not support ranges at all would do.
+ */
+final class ConditionalFileResponse {
+
+    /**
+     * Returned by {@link #start} if the whole file should be sent
+     */
+    static final Range ENTIRE_FILE = new Range(0, -1);
+
+    private static final String BYTES_UNIT = "bytes";
+    private static final String BYTES_PREFIX = "bytes=";
+
+    private ConditionalFileResponse() {
+    }
+
+    /**
+     * Creates an entity tag from the modification time and size of a file.
+     *
+     * @param lastModified The modification time
+     * @param length       The size of the file
+     * @return The quoted entity tag
+     */
+    static String createETag(final long lastModified, final long length) {
+        return '"' + Long.toHexString(length) + '-' + Long.toHexString(lastModified) + '"';
+    }
+
+    /**
+     * Creates the entity tag of a variant of a file, as every representation needs its own tag.
+     *
+     * @param etag    The entity tag of the file
+     * @param variant The variant
+     * @return The quoted entity tag of the variant
+     */
+    static String createETag(final String etag, final String variant) {
+        return etag.substring(0, etag.length() - 1) + '-' + variant + '"';
+    }
+
+    /**
+     * Sets the validators of the response, and then either completes the response if the request is
+     * conditional and the file has not changed or a range was requested that can not be satisfied, or
+     * sets the status and length headers for the part of the file that should be sent.
+     *
+     * @param exchange          The exchange
+     * @param completionHandler The completion handler, which is invoked if the response is completed
+     * @param etag              The entity tag of the file
+     * @param lastModified      The modification time of the file
+     * @param length            The size of the file
+     * @return <code>null</code> if the response has been completed, {@link #ENTIRE_FILE} if the whole file
+     *         should be sent, otherwise the range of the file to send
+     */
+    static Range start(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final String etag, final long lastModified, final long length) {
+        final HeaderMap requestHeaders = exchange.getRequestHeaders();
+        final HeaderMap responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.put(Headers.ETAG, etag);
+        responseHeaders.put(Headers.LAST_MODIFIED, DateUtils.toDateString(lastModified));
+        responseHeaders.put(Headers.ACCEPT_RANGES, BYTES_UNIT);
+
+        if (ETagUtils.isNotModified(requestHeaders, etag, lastModified)) {
+            exchange.setResponseCode(304);
+            completionHandler.handleComplete();
+            return null;
+        }
+
+        final String rangeHeader = requestHeaders.getFirst(Headers.RANGE);
+        if (rangeHeader != null && exchange.getRequestMethod().equals(Methods.GET) && ifRangeMatches(requestHeaders.getFirst(Headers.IF_RANGE), etag, lastModified)) {
+            final Range range = Range.parse(rangeHeader, length);
+            if (range == Range.UNSATISFIABLE) {
+                exchange.setResponseCode(416);
+                responseHeaders.put(Headers.CONTENT_RANGE, BYTES_UNIT + " */" + length);
+                completionHandler.handleComplete();
+                return null;
+            } else if (range != null) {
+                exchange.setResponseCode(206);
+                responseHeaders.put(Headers.CONTENT_RANGE, BYTES_UNIT + " " + range.start + "-" + range.end + "/" + length);
+                responseHeaders.put(Headers.CONTENT_LENGTH, Long.toString(range.length()));
+                return range;
+            }
+        }
+        responseHeaders.put(Headers.CONTENT_LENGTH, Long.toString(length));
+        return ENTIRE_FILE;
+    }
+
+    private static boolean ifRangeMatches(final String ifRange, final String etag, final long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        final String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            //If-Range requires the strong comparison
+            return ETagUtils.containsETag(value, etag, false);
+        }
+        final long date = DateUtils.parseDateMillis(value);
+        return date != -1 && lastModified / 1000 == date / 1000;
+    }
+
+    /**
+     * A range of bytes, the end is inclusive.
+     */
+    static final class Range {
+
+        static final Range UNSATISFIABLE = new Range(0, -1);
+
+        final long start;
+        final long end;
+
+        Range(final long start, final long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+
+        /**
+         * Parses a range header that specifies a single byte range.
+         *
+         * @param header The value of the range header
+         * @param length The size of the file
+         * @return The range, {@link #UNSATISFIABLE} if it does not overlap the file, or <code>null</code> if the
+         *         header is invalid or specifies several ranges, in which case it is ignored
+         */
+        static Range parse(final String header, final long length) {
+            if (!header.regionMatches(true, 0, BYTES_PREFIX, 0, BYTES_PREFIX.length()) || header.indexOf(',') != -1) {
+                return null;
+            }
+            final String spec = header.substring(BYTES_PREFIX.length()).trim();
+            final int dash = spec.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+            try {
+                if (dash == 0) {
+                    //a suffix range, the last n bytes of the file
+                    final long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix < 0) {
+                        return null;
+                    } else if (suffix == 0 || length == 0) {
+                        return UNSATISFIABLE;
+                    }
+                    return new Range(Math.max(0, length - suffix), length - 1);
+                }
+                final long start = Long.parseLong(spec.substring(0, dash));
+                long end = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+                if (start < 0 || end < start) {
+                    return null;
+                } else if (start >= length) {
+                    return UNSATISFIABLE;
+                }
+                return new Range(start, Math.min(end, length - 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
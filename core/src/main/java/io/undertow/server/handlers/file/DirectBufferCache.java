@@ -21,6 +21,7 @@ package io.undertow.server.handlers.file;
 import static io.undertow.server.handlers.file.LimitedBufferSlicePool.PooledByteBuffer;
 
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import io.undertow.util.SecureHashMap;
@@ -47,9 +48,11 @@ public class DirectBufferCache {
     private final SecureHashMap<String, CacheEntry> cache;
     private final ConcurrentDirectDeque<CacheEntry> accessQueue;
     private final int sliceSize;
+    private final int max;
 
     public DirectBufferCache(int sliceSize, int max) {
         this.sliceSize = sliceSize;
+        this.max = max;
         this.pool = new LimitedBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, sliceSize, max, 1);
         this.cache = new SecureHashMap<String, CacheEntry>(16);
         this.accessQueue = ConcurrentDirectDeque.newInstance();
@@ -70,6 +73,34 @@ public class DirectBufferCache {
         return value;
     }
 
+    /**
+     * Returns the entry for a path without counting a hit, so looking at an entry that is not going to be
+     * served does not cause its buffers to be allocated.
+     *
+     * @param path The path
+     * @return The entry, or <code>null</code> if there is none
+     */
+    public CacheEntry peek(String path) {
+        return cache.get(path);
+    }
+
+    /**
+     * Returns if there are enough free slices for an entry of the given size, without evicting other entries.
+     *
+     * @param size The size of the entry
+     * @return <code>true</code> if the buffers of the entry could be allocated
+     */
+    public boolean canAllocate(int size) {
+        if (size > max) {
+            return false;
+        }
+        int n = 1;
+        while ((size -= sliceSize) > 0) {
+            n++;
+        }
+        return pool.canAllocate(n);
+    }
+
     public CacheEntry get(String path) {
         CacheEntry cacheEntry = cache.get(path);
         if (cacheEntry == null) {
@@ -146,6 +177,7 @@ public class DirectBufferCache {
         private static final AtomicIntegerFieldUpdater<CacheEntry> hitsUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "hits");
         private static final AtomicIntegerFieldUpdater<CacheEntry> refsUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "refs");
         private static final AtomicIntegerFieldUpdater<CacheEntry> enabledUpdator = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "enabled");
+        private static final AtomicLongFieldUpdater<CacheEntry> lastCheckedUpdater = AtomicLongFieldUpdater.newUpdater(CacheEntry.class, "lastChecked");
 
         private static final AtomicReferenceFieldUpdater<CacheEntry, PooledByteBuffer[]> bufsUpdater = AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, PooledByteBuffer[].class, "buffers");
         private static final AtomicReferenceFieldUpdater<CacheEntry, Object> tokenUpdator = AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, Object.class, "accessToken");
@@ -158,6 +190,11 @@ public class DirectBufferCache {
         private volatile int hits = 1;
         private volatile Object accessToken;
         private volatile int enabled;
+        private volatile long lastModified;
+        private volatile long sourceSize;
+        private volatile long lastChecked;
+        private volatile String etag;
+        private volatile Object attachment;
 
         private CacheEntry(String path, int size, DirectBufferCache cache) {
             this.path = path;
@@ -196,10 +233,70 @@ public class DirectBufferCache {
             this.enabled = 2;
         }
 
+        /**
+         * @return <code>true</code> if a caller has claimed the right to enable the entry, and has not enabled it yet
+         */
+        public boolean enabling() {
+            return enabled == 1;
+        }
+
         public void disable() {
             this.enabled = 0;
         }
 
+        /**
+         * Records the modification time and size of the source the entry was loaded from, so later
+         * checks can tell if it has changed.
+         *
+         * @param lastModified The modification time of the source
+         * @param sourceSize   The size of the source, which differs from the entry size if the source was transformed
+         */
+        public void setSource(long lastModified, long sourceSize) {
+            this.lastModified = lastModified;
+            this.sourceSize = sourceSize;
+            this.lastChecked = System.currentTimeMillis();
+        }
+
+        public long lastModified() {
+            return lastModified;
+        }
+
+        public long sourceSize() {
+            return sourceSize;
+        }
+
+        public String etag() {
+            return etag;
+        }
+
+        public void setETag(String etag) {
+            this.etag = etag;
+        }
+
+        /**
+         * @return Data associated with the entry by its user, such as the headers of a cached response
+         */
+        public Object attachment() {
+            return attachment;
+        }
+
+        public void setAttachment(Object attachment) {
+            this.attachment = attachment;
+        }
+
+        /**
+         * Claims the right to check the source of this entry for changes. At most one caller will succeed
+         * per interval.
+         *
+         * @param now      The current time in milliseconds
+         * @param interval The minimum time between checks
+         * @return <code>true</code> if the caller should check the source
+         */
+        public boolean claimCheck(long now, long interval) {
+            long last = lastChecked;
+            return now - last >= interval && lastCheckedUpdater.compareAndSet(this, last, now);
+        }
+
         public boolean claimEnable() {
             return enabledUpdator.compareAndSet(this, 0, 1);
         }
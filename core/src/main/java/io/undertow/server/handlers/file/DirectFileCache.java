@@ -27,7 +27,6 @@ import java.nio.channels.FileChannel;
 import io.undertow.UndertowLogger;
 import io.undertow.server.HttpCompletionHandler;
 import io.undertow.server.HttpServerExchange;
-import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
 import io.undertow.util.WorkerDispatcher;
@@ -76,6 +75,7 @@ public class DirectFileCache implements FileCache {
             final HttpString method = exchange.getRequestMethod();
             final FileChannel fileChannel;
             final long length;
+            final long lastModified = file.lastModified();
             try {
                 try {
                     fileChannel = exchange.getConnection().getWorker().getXnio().openFile(file, FileAccess.READ_ONLY);
@@ -91,12 +91,18 @@ public class DirectFileCache implements FileCache {
                 completionHandler.handleComplete();
                 return;
             }
-            exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Long.toString(length));
+            final ConditionalFileResponse.Range range = ConditionalFileResponse.start(exchange, completionHandler, ConditionalFileResponse.createETag(lastModified, length), lastModified, length);
+            if (range == null) {
+                IoUtils.safeClose(fileChannel);
+                return;
+            }
             if (method.equals(Methods.HEAD)) {
+                IoUtils.safeClose(fileChannel);
                 completionHandler.handleComplete();
                 return;
             }
             if (!method.equals(Methods.GET)) {
+                IoUtils.safeClose(fileChannel);
                 exchange.setResponseCode(500);
                 completionHandler.handleComplete();
                 return;
@@ -117,7 +123,11 @@ public class DirectFileCache implements FileCache {
 
             try {
                 log.tracef("Serving file %s (blocking)", fileChannel);
-                Channels.transferBlocking(response, fileChannel, 0, length);
+                if (range == ConditionalFileResponse.ENTIRE_FILE) {
+                    Channels.transferBlocking(response, fileChannel, 0, length);
+                } else {
+                    Channels.transferBlocking(response, fileChannel, range.start, range.length());
+                }
                 log.tracef("Finished serving %s, shutting down (blocking)", fileChannel);
                 response.shutdownWrites();
                 log.tracef("Finished serving %s, flushing (blocking)", fileChannel);
@@ -36,7 +36,9 @@ public interface FileCache {
      * This method essentially takes over the request, once it has been invoked no further handlers should process
      * the request.
      * <p/>
-     * This method must set the Content-Length header on the {@link HttpServerExchange}.
+     * This method must set the Content-Length header on the {@link HttpServerExchange}. Implementations should also
+     * set the ETag and Last-Modified headers, answer conditional requests for an unchanged file with a 304, and
+     * serve byte ranges.
      *
      * @param exchange                The exchange
      * @param completionHandler       The completion handler
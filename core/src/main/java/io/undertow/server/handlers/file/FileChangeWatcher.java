@@ -0,0 +1,264 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.server.handlers.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import org.jboss.logging.Logger;
+
+/**
+ * Watches a directory tree for changes and invalidates the changed files in a file cache, so updated
+ * files are picked up straight away rather than when the cache next checks them.
+ * <p/>
+ * This uses the {@code java.nio.file.WatchService} added in Java 7. It is accessed reflectively, so this
+ * class can still be loaded on Java 6, where {@link #isSupported()} returns <code>false</code>.
+ * <p/>
+ * Events are handled by a daemon thread, which runs until the watcher is closed.
+ */
+public class FileChangeWatcher implements Closeable {
+
+    private static final Logger log = Logger.getLogger("io.undertow.server.handlers.file");
+
+    private static final Method GET_DEFAULT_FILE_SYSTEM;
+    private static final Method NEW_WATCH_SERVICE;
+    private static final Method TO_PATH;
+    private static final Method TO_FILE;
+    private static final Method REGISTER;
+    private static final Method TAKE;
+    private static final Method CLOSE;
+    private static final Method POLL_EVENTS;
+    private static final Method RESET;
+    private static final Method WATCHABLE;
+    private static final Method KIND;
+    private static final Method CONTEXT;
+    private static final Object OVERFLOW;
+    private static final Object ENTRY_CREATE;
+    private static final Object KINDS;
+
+    static {
+        Method getDefaultFileSystem = null;
+        Method newWatchService = null;
+        Method toPath = null;
+        Method toFile = null;
+        Method register = null;
+        Method take = null;
+        Method close = null;
+        Method pollEvents = null;
+        Method reset = null;
+        Method watchable = null;
+        Method kind = null;
+        Method context = null;
+        Object overflow = null;
+        Object entryCreate = null;
+        Object kinds = null;
+        try {
+            final Class<?> fileSystems = Class.forName("java.nio.file.FileSystems");
+            final Class<?> fileSystem = Class.forName("java.nio.file.FileSystem");
+            final Class<?> path = Class.forName("java.nio.file.Path");
+            final Class<?> watchService = Class.forName("java.nio.file.WatchService");
+            final Class<?> watchKey = Class.forName("java.nio.file.WatchKey");
+            final Class<?> watchEvent = Class.forName("java.nio.file.WatchEvent");
+            final Class<?> watchEventKind = Class.forName("java.nio.file.WatchEvent$Kind");
+            final Class<?> standardKinds = Class.forName("java.nio.file.StandardWatchEventKinds");
+            getDefaultFileSystem = fileSystems.getMethod("getDefault");
+            newWatchService = fileSystem.getMethod("newWatchService");
+            toPath = File.class.getMethod("toPath");
+            toFile = path.getMethod("toFile");
+            register = path.getMethod("register", watchService, Array.newInstance(watchEventKind, 0).getClass());
+            take = watchService.getMethod("take");
+            close = watchService.getMethod("close");
+            pollEvents = watchKey.getMethod("pollEvents");
+            reset = watchKey.getMethod("reset");
+            watchable = watchKey.getMethod("watchable");
+            kind = watchEvent.getMethod("kind");
+            context = watchEvent.getMethod("context");
+            overflow = standardKinds.getField("OVERFLOW").get(null);
+            entryCreate = standardKinds.getField("ENTRY_CREATE").get(null);
+            kinds = Array.newInstance(watchEventKind, 3);
+            Array.set(kinds, 0, entryCreate);
+            Array.set(kinds, 1, standardKinds.getField("ENTRY_MODIFY").get(null));
+            Array.set(kinds, 2, standardKinds.getField("ENTRY_DELETE").get(null));
+        } catch (Exception e) {
+            //Java 6, the watch service is not available
+            register = null;
+        }
+        GET_DEFAULT_FILE_SYSTEM = getDefaultFileSystem;
+        NEW_WATCH_SERVICE = newWatchService;
+        TO_PATH = toPath;
+        TO_FILE = toFile;
+        REGISTER = register;
+        TAKE = take;
+        CLOSE = close;
+        POLL_EVENTS = pollEvents;
+        RESET = reset;
+        WATCHABLE = watchable;
+        KIND = kind;
+        CONTEXT = context;
+        OVERFLOW = overflow;
+        ENTRY_CREATE = entryCreate;
+        KINDS = kinds;
+    }
+
+    private final File base;
+    private final InvalidatableFileCache cache;
+    private final Object watchService;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Starts watching the given directory and all directories below it.
+     *
+     * @param base  The directory to watch
+     * @param cache The cache to invalidate changed files in
+     * @throws IOException           If the directory could not be watched
+     * @throws IllegalStateException If the watch service is not supported by this JVM
+     */
+    public FileChangeWatcher(final File base, final InvalidatableFileCache cache) throws IOException {
+        if (!isSupported()) {
+            throw UndertowMessages.MESSAGES.fileWatchingNotSupported();
+        }
+        if (base == null || cache == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull();
+        }
+        this.base = base.getAbsoluteFile();
+        this.cache = cache;
+        this.watchService = invoke(NEW_WATCH_SERVICE, invoke(GET_DEFAULT_FILE_SYSTEM, null));
+        boolean ok = false;
+        try {
+            registerTree(this.base);
+            ok = true;
+        } finally {
+            if (!ok) {
+                invoke(CLOSE, watchService);
+            }
+        }
+        thread = new Thread(new WatchTask(), "Undertow file watcher for " + this.base);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return <code>true</code> if this JVM provides the watch service
+     */
+    public static boolean isSupported() {
+        return REGISTER != null;
+    }
+
+    public File getBase() {
+        return base;
+    }
+
+    /**
+     * Stops watching for changes.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        invoke(CLOSE, watchService);
+    }
+
+    private void registerTree(final File directory) throws IOException {
+        invoke(REGISTER, invoke(TO_PATH, directory), watchService, KINDS);
+        final File[] children = directory.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                if (child.isDirectory()) {
+                    registerTree(child);
+                }
+            }
+        }
+    }
+
+    private void handleEvents(final Object key) throws IOException {
+        try {
+            final File directory = (File) invoke(TO_FILE, invoke(WATCHABLE, key));
+            for (final Object event : (List<?>) invoke(POLL_EVENTS, key)) {
+                final Object kind = invoke(KIND, event);
+                if (kind == OVERFLOW) {
+                    //events were lost, so everything in the directory may have changed
+                    final File[] children = directory.listFiles();
+                    if (children != null) {
+                        for (final File child : children) {
+                            cache.invalidate(child);
+                        }
+                    }
+                    continue;
+                }
+                final File file = new File(directory, invoke(CONTEXT, event).toString());
+                log.tracef("File %s has changed", file);
+                cache.invalidate(file);
+                if (kind == ENTRY_CREATE && file.isDirectory()) {
+                    registerTree(file);
+                }
+            }
+        } finally {
+            //the key has to be reset to receive further events
+            invoke(RESET, key);
+        }
+    }
+
+    private static Object invoke(final Method method, final Object target, final Object... args) throws IOException {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final class WatchTask implements Runnable {
+
+        @Override
+        public void run() {
+            while (!closed) {
+                final Object key;
+                try {
+                    key = invoke(TAKE, watchService);
+                } catch (Exception e) {
+                    //take() fails with a ClosedWatchServiceException once the watcher has been closed
+                    if (!closed) {
+                        UndertowLogger.ROOT_LOGGER.failedToWatchForChanges(base, e);
+                    }
+                    return;
+                }
+                try {
+                    handleEvents(key);
+                } catch (Exception e) {
+                    UndertowLogger.ROOT_LOGGER.failedToWatchForChanges(base, e);
+                }
+            }
+        }
+    }
+}
@@ -30,7 +30,6 @@ import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.HttpHandlers;
 import io.undertow.util.CompletionChannelExceptionHandler;
 import io.undertow.util.CompletionChannelListener;
-import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
 import org.xnio.ChannelListener;
@@ -57,6 +56,7 @@ public class InLineFileCache implements FileCache {
         final HttpString method = exchange.getRequestMethod();
         final FileChannel fileChannel;
         long length;
+        final long lastModified = file.lastModified();
         try {
             try {
                 fileChannel = exchange.getConnection().getWorker().getXnio().openFile(file, FileAccess.READ_ONLY);
@@ -72,12 +72,18 @@ public class InLineFileCache implements FileCache {
             completionHandler.handleComplete();
             return;
         }
-        exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Long.toString(length));
+        final ConditionalFileResponse.Range range = ConditionalFileResponse.start(exchange, completionHandler, ConditionalFileResponse.createETag(lastModified, length), lastModified, length);
+        if (range == null) {
+            IoUtils.safeClose(fileChannel);
+            return;
+        }
         if (method.equals(Methods.HEAD)) {
+            IoUtils.safeClose(fileChannel);
             completionHandler.handleComplete();
             return;
         }
         if (! method.equals(Methods.GET)) {
+            IoUtils.safeClose(fileChannel);
             exchange.setResponseCode(500);
             completionHandler.handleComplete();
             return;
@@ -96,6 +102,10 @@ public class InLineFileCache implements FileCache {
             }
         });
         long pos = 0L;
+        if (range != ConditionalFileResponse.ENTIRE_FILE) {
+            pos = range.start;
+            length = range.length();
+        }
         long res;
         while (length > 0L) {
             try {
@@ -0,0 +1,299 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.server.handlers.file;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import io.undertow.UndertowLogger;
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.WorkerDispatcher;
+import org.jboss.logging.Logger;
+import org.xnio.FileAccess;
+import org.xnio.IoUtils;
+import org.xnio.channels.ChannelFactory;
+import org.xnio.channels.Channels;
+import org.xnio.channels.StreamSinkChannel;
+
+/**
+ * A file cache that memory maps files and writes the mapped buffers straight to the response channel,
+ * leaving the caching of the file contents to the operating system page cache.
+ * <p/>
+ * Files are mapped on a worker thread the first time they are requested, after that they are served
+ * without opening the file again. Files larger than the maximum file size are not mapped, they are
+ * transferred from the file system on every request. Once the number of live mappings exceeds the maximum
+ * the least recently used mappings are dropped. A mapping is only released once it has been garbage
+ * collected, so the maximum is a bound on the mappings held by the cache rather than on address space.
+ * <p/>
+ * Files served by this cache must not be truncated while they are mapped.
+ */
+public class MappedFileCache implements InvalidatableFileCache {
+
+    private static final Logger log = Logger.getLogger("io.undertow.server.handlers.file");
+
+    private static final int SAMPLE_INTERVAL = 5;
+    private static final int DEFAULT_MAX_MAPPINGS = 1024;
+
+    private final ConcurrentMap<String, Mapping> mappings = new ConcurrentHashMap<String, Mapping>();
+    private final ConcurrentDirectDeque<Mapping> accessQueue = ConcurrentDirectDeque.newInstance();
+    private final long maxFileSize;
+    private final int maxMappings;
+
+    /**
+     * @param maxFileSize The largest file that will be mapped, a single mapping can not be larger than 2GB
+     * @param maxMappings The maximum number of live mappings
+     */
+    public MappedFileCache(final long maxFileSize, final int maxMappings) {
+        this.maxFileSize = Math.min(maxFileSize, Integer.MAX_VALUE);
+        this.maxMappings = maxMappings;
+    }
+
+    public MappedFileCache() {
+        this(Integer.MAX_VALUE, DEFAULT_MAX_MAPPINGS);
+    }
+
+    @Override
+    public void serveFile(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final File file, final boolean directoryListingEnabled) {
+        // ignore request body
+        IoUtils.safeShutdownReads(exchange.getRequestChannel());
+        final HttpString method = exchange.getRequestMethod();
+
+        if (!(method.equals(Methods.GET) || method.equals(Methods.HEAD))) {
+            exchange.setResponseCode(500);
+            completionHandler.handleComplete();
+            return;
+        }
+        final Mapping mapping = mappings.get(file.getAbsolutePath());
+        if (mapping == null) {
+            WorkerDispatcher.dispatch(exchange, new FileMapTask(exchange, completionHandler, file, directoryListingEnabled));
+            return;
+        }
+        if (mapping.hit() % SAMPLE_INTERVAL == 0) {
+            bumpAccess(mapping);
+        }
+        serveMapping(exchange, completionHandler, mapping);
+    }
+
+    public int getMaxMappings() {
+        return maxMappings;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    @Override
+    public void invalidate(final File file) {
+        final Mapping mapping = mappings.remove(file.getAbsolutePath());
+        if (mapping != null) {
+            mapping.clearAccess(accessQueue);
+        }
+    }
+
+    private static void serveMapping(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final Mapping mapping) {
+        final ByteBuffer buffer = mapping.buffer.duplicate();
+        final ConditionalFileResponse.Range range = ConditionalFileResponse.start(exchange, completionHandler, mapping.etag, mapping.lastModified, buffer.remaining());
+        if (range == null) {
+            return;
+        }
+        if (exchange.getRequestMethod().equals(Methods.HEAD)) {
+            completionHandler.handleComplete();
+            return;
+        }
+        if (range != ConditionalFileResponse.ENTIRE_FILE) {
+            buffer.position((int) range.start);
+            buffer.limit((int) range.end + 1);
+        }
+        final ChannelFactory<StreamSinkChannel> factory = exchange.getResponseChannelFactory();
+        BufferTransfer.transfer(exchange, factory.create(), completionHandler, null, new ByteBuffer[]{buffer});
+    }
+
+    private void bumpAccess(final Mapping mapping) {
+        // the mapping may have been evicted concurrently, if so it is not added back
+        if (mappings.get(mapping.path) == mapping) {
+            mapping.access(accessQueue);
+        }
+    }
+
+    private Mapping addMapping(final Mapping mapping) {
+        final Mapping existing = mappings.putIfAbsent(mapping.path, mapping);
+        if (existing != null) {
+            return existing;
+        }
+        mapping.access(accessQueue);
+        while (mappings.size() > maxMappings) {
+            final Mapping oldest = accessQueue.peekFirst();
+            if (oldest == null) {
+                break;
+            }
+            oldest.clearAccess(accessQueue);
+            mappings.remove(oldest.path, oldest);
+            log.tracef("Evicted mapping of %s", oldest.path);
+        }
+        return mapping;
+    }
+
+    private static final class Mapping {
+
+        private static final AtomicIntegerFieldUpdater<Mapping> hitsUpdater = AtomicIntegerFieldUpdater.newUpdater(Mapping.class, "hits");
+
+        private final String path;
+        private final MappedByteBuffer buffer;
+        private final long lastModified;
+        private final String etag;
+        private volatile int hits;
+        private Object accessToken;
+
+        private Mapping(final String path, final MappedByteBuffer buffer, final long lastModified) {
+            this.path = path;
+            this.buffer = buffer;
+            this.lastModified = lastModified;
+            this.etag = ConditionalFileResponse.createETag(lastModified, buffer.capacity());
+        }
+
+        int hit() {
+            return hitsUpdater.incrementAndGet(this);
+        }
+
+        /**
+         * Moves the mapping to the back of the access queue
+         */
+        synchronized void access(final ConcurrentDirectDeque<Mapping> accessQueue) {
+            if (accessToken != null) {
+                accessQueue.removeToken(accessToken);
+            }
+            accessToken = accessQueue.offerLastAndReturnToken(this);
+        }
+
+        synchronized void clearAccess(final ConcurrentDirectDeque<Mapping> accessQueue) {
+            if (accessToken != null) {
+                accessQueue.removeToken(accessToken);
+                accessToken = null;
+            }
+        }
+    }
+
+    private class FileMapTask implements Runnable {
+
+        private final HttpServerExchange exchange;
+        private final HttpCompletionHandler completionHandler;
+        private final File file;
+        private final boolean renderDirectoryListing;
+
+        private FileMapTask(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final File file, final boolean renderDirectoryListing) {
+            this.exchange = exchange;
+            this.completionHandler = completionHandler;
+            this.file = file;
+            this.renderDirectoryListing = renderDirectoryListing;
+        }
+
+        @Override
+        public void run() {
+            if (file.isDirectory()) {
+                if (renderDirectoryListing) {
+                    FileHandler.renderDirectoryListing(exchange, completionHandler, file, exchange.getResponseChannelFactory());
+                } else {
+                    //we send a 404 so as to not leak any information
+                    exchange.setResponseCode(404);
+                    completionHandler.handleComplete();
+                }
+                return;
+            }
+
+            final FileChannel fileChannel;
+            final long length;
+            final long lastModified = file.lastModified();
+            try {
+                try {
+                    fileChannel = exchange.getConnection().getWorker().getXnio().openFile(file, FileAccess.READ_ONLY);
+                } catch (FileNotFoundException e) {
+                    exchange.setResponseCode(404);
+                    completionHandler.handleComplete();
+                    return;
+                }
+                length = fileChannel.size();
+            } catch (IOException e) {
+                UndertowLogger.REQUEST_LOGGER.exceptionReadingFile(file, e);
+                exchange.setResponseCode(500);
+                completionHandler.handleComplete();
+                return;
+            }
+
+            if (length > maxFileSize) {
+                transfer(fileChannel, length, lastModified);
+                return;
+            }
+
+            final Mapping mapping;
+            try {
+                // the mapping stays valid once the channel is closed
+                mapping = addMapping(new Mapping(file.getAbsolutePath(), fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, length), lastModified));
+            } catch (IOException e) {
+                UndertowLogger.REQUEST_LOGGER.exceptionReadingFile(file, e);
+                exchange.setResponseCode(500);
+                completionHandler.handleComplete();
+                return;
+            } finally {
+                IoUtils.safeClose(fileChannel);
+            }
+            serveMapping(exchange, completionHandler, mapping);
+        }
+
+        private void transfer(final FileChannel fileChannel, final long length, final long lastModified) {
+            final ConditionalFileResponse.Range range = ConditionalFileResponse.start(exchange, completionHandler, ConditionalFileResponse.createETag(lastModified, length), lastModified, length);
+            if (range == null) {
+                IoUtils.safeClose(fileChannel);
+                return;
+            }
+            if (exchange.getRequestMethod().equals(Methods.HEAD)) {
+                IoUtils.safeClose(fileChannel);
+                completionHandler.handleComplete();
+                return;
+            }
+            final StreamSinkChannel channel = exchange.getResponseChannelFactory().create();
+            try {
+                log.tracef("Serving file %s (blocking)", fileChannel);
+                if (range == ConditionalFileResponse.ENTIRE_FILE) {
+                    Channels.transferBlocking(channel, fileChannel, 0, length);
+                } else {
+                    Channels.transferBlocking(channel, fileChannel, range.start, range.length());
+                }
+                log.tracef("Finished serving %s, shutting down (blocking)", fileChannel);
+                channel.shutdownWrites();
+                log.tracef("Finished serving %s, flushing (blocking)", fileChannel);
+                Channels.flushBlocking(channel);
+                log.tracef("Finished serving %s (complete)", fileChannel);
+            } catch (IOException ignored) {
+                log.tracef("Failed to serve %s: %s", fileChannel, ignored);
+            } finally {
+                IoUtils.safeClose(fileChannel);
+                completionHandler.handleComplete();
+            }
+        }
+    }
+}
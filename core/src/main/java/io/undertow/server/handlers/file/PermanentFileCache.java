@@ -21,7 +21,6 @@ package io.undertow.server.handlers.file;
 import io.undertow.UndertowLogger;
 import io.undertow.server.HttpCompletionHandler;
 import io.undertow.server.HttpServerExchange;
-import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
 import java.io.File;
@@ -30,6 +29,8 @@ import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import io.undertow.util.WorkerDispatcher;
 import org.jboss.logging.Logger;
@@ -41,29 +42,43 @@ import org.xnio.channels.StreamSinkChannel;
 
 /**
  * A file cache that serves files directly with a permanent cache.
+ * <p/>
+ * Open file channels are kept for every file that has been served. A cached channel is checked against the
+ * modification time and size of its file at most once per check interval, and is closed once it is no longer
+ * in use if the file has changed.
  *
  * @author Stuart Douglas
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
-public class PermanentFileCache implements FileCache {
+public class PermanentFileCache implements InvalidatableFileCache {
 
     private static final Logger log = Logger.getLogger("io.undertow.server.handlers.file");
 
+    private static final long DEFAULT_CHECK_INTERVAL = 1000;
+
     public PermanentFileCache() {
     }
 
-    private final ConcurrentMap<String, FileChannel> channels = new ConcurrentHashMap<String, FileChannel>();
+    private final ConcurrentMap<String, CachedChannel> channels = new ConcurrentHashMap<String, CachedChannel>();
+
+    private volatile long checkInterval = DEFAULT_CHECK_INTERVAL;
 
     @Override
     public void serveFile(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final File file, final boolean directoryListingEnabled) {
         // ignore request body
         IoUtils.safeShutdownReads(exchange.getRequestChannel());
         final HttpString method = exchange.getRequestMethod();
+        final String path = file.getAbsolutePath();
         final long length;
-        FileChannel fileChannel;
+        CachedChannel cached = channels.get(path);
+        if (cached != null && (!isFresh(path, cached) || !cached.reference())) {
+            cached = null;
+        }
         try {
-            fileChannel = channels.get(file.getPath());
-            if (fileChannel == null) {
+            if (cached == null) {
+                // read before opening, so a change after that is noticed by the next check
+                final long lastModified = file.lastModified();
+                final FileChannel fileChannel;
                 try {
                     fileChannel = exchange.getConnection().getWorker().getXnio().openFile(file, FileAccess.READ_ONLY);
                 } catch (FileNotFoundException e) {
@@ -71,57 +86,163 @@ public class PermanentFileCache implements FileCache {
                     completionHandler.handleComplete();
                     return;
                 }
-                final FileChannel appearing = channels.putIfAbsent(file.getPath(), fileChannel);
-                if (appearing != null) {
-                    IoUtils.safeClose(fileChannel);
-                    fileChannel = appearing;
+                cached = new CachedChannel(fileChannel, lastModified, fileChannel.size());
+                // if another request got there first this channel is only used for this request
+                if (channels.putIfAbsent(path, cached) == null) {
+                    cached.reference();
                 }
             }
-            length = fileChannel.size();
+            length = cached.channel.size();
         } catch (IOException e) {
+            if (cached != null) {
+                cached.dereference();
+            }
             UndertowLogger.REQUEST_LOGGER.exceptionReadingFile(file, e);
             exchange.setResponseCode(500);
             completionHandler.handleComplete();
             return;
         }
-        exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Long.toString(length));
+        final ConditionalFileResponse.Range range = ConditionalFileResponse.start(exchange, completionHandler, cached.etag, cached.lastModified, length);
+        if (range == null) {
+            cached.dereference();
+            return;
+        }
         if (method.equals(Methods.HEAD)) {
+            cached.dereference();
             completionHandler.handleComplete();
             return;
         }
         if (! method.equals(Methods.GET)) {
+            cached.dereference();
             exchange.setResponseCode(500);
             completionHandler.handleComplete();
             return;
         }
         final ChannelFactory<StreamSinkChannel> factory = exchange.getResponseChannelFactory();
         if (factory == null) {
+            cached.dereference();
             completionHandler.handleComplete();
             return;
         }
         final StreamSinkChannel response = factory.create();
-        WorkerDispatcher.dispatch(exchange, new FileWriteTask(completionHandler, response, fileChannel, length));
+        if (range == ConditionalFileResponse.ENTIRE_FILE) {
+            WorkerDispatcher.dispatch(exchange, new FileWriteTask(completionHandler, response, cached, 0, length));
+        } else {
+            WorkerDispatcher.dispatch(exchange, new FileWriteTask(completionHandler, response, cached, range.start, range.length()));
+        }
+    }
+
+    @Override
+    public void invalidate(final File file) {
+        final CachedChannel cached = channels.remove(file.getAbsolutePath());
+        if (cached != null) {
+            cached.dereference();
+        }
+    }
+
+    /**
+     * The minimum time in milliseconds between two checks of a cached file for modifications. A negative
+     * interval disables the checks.
+     */
+    public long getCheckInterval() {
+        return checkInterval;
+    }
+
+    public void setCheckInterval(final long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * Checks if a file has changed since its channel was opened, if it has not been checked within the
+     * check interval. A stale channel is removed from the cache.
+     *
+     * @return <code>false</code> if the channel is stale
+     */
+    private boolean isFresh(final String path, final CachedChannel cached) {
+        final long interval = checkInterval;
+        if (interval < 0 || !cached.claimCheck(System.currentTimeMillis(), interval)) {
+            return true;
+        }
+        final File file = new File(path);
+        if (file.lastModified() == cached.lastModified && file.length() == cached.length) {
+            return true;
+        }
+        log.tracef("Cached file %s has changed", path);
+        if (channels.remove(path, cached)) {
+            cached.dereference();
+        }
+        return false;
+    }
+
+    /**
+     * A reference counted file channel, the cache holds one reference and every request that is using the
+     * channel holds another. The channel is closed when the last reference is released.
+     */
+    private static final class CachedChannel {
+
+        private static final AtomicIntegerFieldUpdater<CachedChannel> refsUpdater = AtomicIntegerFieldUpdater.newUpdater(CachedChannel.class, "refs");
+        private static final AtomicLongFieldUpdater<CachedChannel> lastCheckedUpdater = AtomicLongFieldUpdater.newUpdater(CachedChannel.class, "lastChecked");
+
+        private final FileChannel channel;
+        private final long lastModified;
+        private final long length;
+        private final String etag;
+        private volatile int refs = 1;
+        private volatile long lastChecked = System.currentTimeMillis();
+
+        private CachedChannel(final FileChannel channel, final long lastModified, final long length) {
+            this.channel = channel;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.etag = ConditionalFileResponse.createETag(lastModified, length);
+        }
+
+        boolean claimCheck(final long now, final long interval) {
+            final long last = lastChecked;
+            return now - last >= interval && lastCheckedUpdater.compareAndSet(this, last, now);
+        }
+
+        boolean reference() {
+            for (;;) {
+                final int refs = this.refs;
+                if (refs < 1) {
+                    return false; // closing
+                }
+                if (refsUpdater.compareAndSet(this, refs, refs + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void dereference() {
+            if (refsUpdater.decrementAndGet(this) == 0) {
+                IoUtils.safeClose(channel);
+            }
+        }
     }
 
     private static class FileWriteTask implements Runnable {
 
         private final HttpCompletionHandler completionHandler;
         private final StreamSinkChannel channel;
-        private final FileChannel fileChannel;
-        private final long length;
+        private final CachedChannel cached;
+        private final long position;
+        private final long count;
 
-        public FileWriteTask(final HttpCompletionHandler completionHandler, final StreamSinkChannel channel, final FileChannel fileChannel, final long length) {
+        public FileWriteTask(final HttpCompletionHandler completionHandler, final StreamSinkChannel channel, final CachedChannel cached, final long position, final long count) {
             this.completionHandler = completionHandler;
             this.channel = channel;
-            this.fileChannel = fileChannel;
-            this.length = length;
+            this.cached = cached;
+            this.position = position;
+            this.count = count;
         }
 
         @Override
         public void run() {
+            final FileChannel fileChannel = cached.channel;
             try {
                 log.tracef("Serving file %s (blocking)", fileChannel);
-                Channels.transferBlocking(channel, fileChannel, 0, length);
+                Channels.transferBlocking(channel, fileChannel, position, count);
                 log.tracef("Finished serving %s, shutting down (blocking)", fileChannel);
                 channel.shutdownWrites();
                 log.tracef("Finished serving %s, flushing (blocking)", fileChannel);
@@ -132,6 +253,7 @@ public class PermanentFileCache implements FileCache {
                 log.tracef("Failed to serve %s: %s", fileChannel, ignored);
                 completionHandler.handleComplete();
             } finally {
+                cached.dereference();
                 IoUtils.safeClose(channel);
             }
         }
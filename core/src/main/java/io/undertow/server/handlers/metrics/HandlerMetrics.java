@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * The metrics recorded for a handler.
+ */
+public class HandlerMetrics implements HandlerMetricsMXBean {
+
+    private static final AtomicLongFieldUpdater<HandlerMetrics> requestsUpdater = AtomicLongFieldUpdater.newUpdater(HandlerMetrics.class, "requests");
+    private static final AtomicLongFieldUpdater<HandlerMetrics> activeUpdater = AtomicLongFieldUpdater.newUpdater(HandlerMetrics.class, "active");
+    private static final AtomicLongFieldUpdater<HandlerMetrics> bytesReceivedUpdater = AtomicLongFieldUpdater.newUpdater(HandlerMetrics.class, "bytesReceived");
+    private static final AtomicLongFieldUpdater<HandlerMetrics> bytesSentUpdater = AtomicLongFieldUpdater.newUpdater(HandlerMetrics.class, "bytesSent");
+
+    private final String name;
+
+    /**
+     * Responses counted by status class, 1xx to 5xx
+     */
+    private final AtomicLongArray statusClasses = new AtomicLongArray(5);
+
+    /**
+     * Latency in microseconds
+     */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    @SuppressWarnings("unused")
+    private volatile long requests;
+    @SuppressWarnings("unused")
+    private volatile long active;
+    @SuppressWarnings("unused")
+    private volatile long bytesReceived;
+    @SuppressWarnings("unused")
+    private volatile long bytesSent;
+
+    public HandlerMetrics(final String name) {
+        this.name = name;
+    }
+
+    void requestStarted() {
+        activeUpdater.incrementAndGet(this);
+    }
+
+    void requestCompleted(final int responseCode, final long received, final long sent, final long nanos) {
+        activeUpdater.decrementAndGet(this);
+        requestsUpdater.incrementAndGet(this);
+        final int statusClass = responseCode / 100 - 1;
+        if (statusClass >= 0 && statusClass < 5) {
+            statusClasses.incrementAndGet(statusClass);
+        }
+        if (received > 0) {
+            bytesReceivedUpdater.addAndGet(this, received);
+        }
+        if (sent > 0) {
+            bytesSentUpdater.addAndGet(this, sent);
+        }
+        latency.record(nanos / 1000);
+    }
+
+    /**
+     * @return The histogram of request latencies, in microseconds
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requests;
+    }
+
+    @Override
+    public long getActiveRequests() {
+        return active;
+    }
+
+    @Override
+    public long getInformationalResponses() {
+        return statusClasses.get(0);
+    }
+
+    @Override
+    public long getSuccessfulResponses() {
+        return statusClasses.get(1);
+    }
+
+    @Override
+    public long getRedirectionResponses() {
+        return statusClasses.get(2);
+    }
+
+    @Override
+    public long getClientErrorResponses() {
+        return statusClasses.get(3);
+    }
+
+    @Override
+    public long getServerErrorResponses() {
+        return statusClasses.get(4);
+    }
+
+    /**
+     * @param statusClass The status class, 1 for 1xx responses to 5 for 5xx responses
+     * @return The number of responses in the class
+     */
+    public long getResponses(final int statusClass) {
+        return statusClasses.get(statusClass - 1);
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public double getMeanLatencyMicros() {
+        return latency.getMean();
+    }
+
+    @Override
+    public long getMaxLatencyMicros() {
+        return latency.getMax();
+    }
+
+    @Override
+    public long getMedianLatencyMicros() {
+        return latency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long get90thPercentileLatencyMicros() {
+        return latency.getValueAtPercentile(90);
+    }
+
+    @Override
+    public long get99thPercentileLatencyMicros() {
+        return latency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long get999thPercentileLatencyMicros() {
+        return latency.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public void reset() {
+        requests = 0;
+        bytesReceived = 0;
+        bytesSent = 0;
+        for (int i = 0; i < 5; ++i) {
+            statusClasses.set(i, 0);
+        }
+        latency.reset();
+    }
+}
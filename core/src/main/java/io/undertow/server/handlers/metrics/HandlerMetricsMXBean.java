@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.metrics;
+
+/**
+ * Management interface for the metrics recorded by a {@link MetricsHandler}.
+ */
+public interface HandlerMetricsMXBean {
+
+    String getName();
+
+    /**
+     * @return The number of requests that have completed
+     */
+    long getRequestCount();
+
+    /**
+     * @return The number of requests that are currently being processed
+     */
+    long getActiveRequests();
+
+    long getInformationalResponses();
+
+    long getSuccessfulResponses();
+
+    long getRedirectionResponses();
+
+    long getClientErrorResponses();
+
+    long getServerErrorResponses();
+
+    /**
+     * @return The number of request body bytes received, as declared by the request Content-Length
+     */
+    long getBytesReceived();
+
+    /**
+     * @return The number of response body bytes sent, as declared by the response Content-Length
+     */
+    long getBytesSent();
+
+    double getMeanLatencyMicros();
+
+    long getMaxLatencyMicros();
+
+    long getMedianLatencyMicros();
+
+    long get90thPercentileLatencyMicros();
+
+    long get99thPercentileLatencyMicros();
+
+    long get999thPercentileLatencyMicros();
+
+    /**
+     * Resets all counters and the latency histogram
+     */
+    void reset();
+
+}
@@ -0,0 +1,167 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A lock free histogram of non negative values with a bounded relative error.
+ * <p/>
+ * Values are counted in log-linear buckets: every power of two range is split into eight equally sized buckets,
+ * so a value is reported with an error of at most 12.5%. Values below eight are counted exactly. Recording a
+ * value is an increment of a single bucket, an add to the running sum and, rarely, an update of the maximum,
+ * and never allocates.
+ * <p/>
+ * Reads are not atomic with respect to concurrent recording, so a snapshot taken under load may be slightly
+ * inconsistent.
+ */
+public final class LatencyHistogram {
+
+    private static final AtomicLongFieldUpdater<LatencyHistogram> sumUpdater = AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "sum");
+    private static final AtomicLongFieldUpdater<LatencyHistogram> maxUpdater = AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "max");
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values of 2^41 and above are all counted in the last bucket
+     */
+    private static final int MAX_MAGNITUDE = 40;
+    private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    @SuppressWarnings("unused")
+    private volatile long sum;
+
+    @SuppressWarnings("unused")
+    private volatile long max;
+
+    public void record(final long value) {
+        final long v = value < 0 ? 0 : value;
+        counts.incrementAndGet(index(v));
+        sumUpdater.addAndGet(this, v);
+        long current = max;
+        while (v > current) {
+            if (maxUpdater.compareAndSet(this, current, v)) {
+                break;
+            }
+            current = max;
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        final long count = getCount();
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Returns the value at the given percentile. The result is the highest value that falls into the same bucket
+     * as the percentile, and is never greater than the maximum recorded value.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The value at the percentile, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBound(i) - 1, max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the number of recorded values that are less than or equal to the given value. Only buckets that lie
+     * entirely at or below the value are counted, so the result may be an underestimate by up to one bucket.
+     *
+     * @param value The value
+     * @return The number of values at or below the value
+     */
+    public long getCountAtOrBelow(final long value) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS && upperBound(i) - 1 <= value; ++i) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts.set(i, 0);
+        }
+        sum = 0;
+        max = 0;
+    }
+
+    static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        final int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowerBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long subBucket = index & (SUB_BUCKETS - 1);
+        return (SUB_BUCKETS + subBucket) << (magnitude - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @return The exclusive upper bound of the bucket
+     */
+    static long upperBound(final int index) {
+        if (index == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return lowerBound(index + 1);
+    }
+}
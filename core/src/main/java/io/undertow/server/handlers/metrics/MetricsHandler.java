@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.metrics;
+
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.HttpHandlers;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+
+/**
+ * Handler that records request counts, response status classes, bytes transferred and latency for the handlers
+ * that follow it.
+ * <p/>
+ * Bytes are counted from the Content-Length of the request and response, so chunked bodies are not included.
+ * Latency is measured from the time this handler is invoked until the exchange completes.
+ */
+public class MetricsHandler implements HttpHandler {
+
+    private volatile HttpHandler next = ResponseCodeHandler.HANDLE_404;
+    private final HandlerMetrics metrics;
+
+    public MetricsHandler(final HandlerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Creates a handler that records into the metrics registered under the given name
+     */
+    public MetricsHandler(final MetricsRegistry registry, final String name) {
+        this(registry.getHandlerMetrics(name));
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+        final long start = System.nanoTime();
+        metrics.requestStarted();
+        exchange.addExchangeCompletionListener(new ExchangeCompletionListener() {
+            @Override
+            public void exchangeComplete(final HttpServerExchange exchange) {
+                metrics.requestCompleted(exchange.getResponseCode(), contentLength(exchange.getRequestHeaders()), contentLength(exchange.getResponseHeaders()), exchange.getCompletionTime() - start);
+            }
+        });
+        HttpHandlers.executeHandler(next, exchange, completionHandler);
+    }
+
+    public HttpHandler getNext() {
+        return next;
+    }
+
+    public void setNext(final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+    }
+
+    public HandlerMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static long contentLength(final HeaderMap headers) {
+        final String length = headers.getFirst(Headers.CONTENT_LENGTH);
+        if (length == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(length);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
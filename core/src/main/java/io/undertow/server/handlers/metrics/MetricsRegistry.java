@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import io.undertow.server.ConnectionStatisticsMXBean;
+import io.undertow.util.CopyOnWriteMap;
+
+/**
+ * A named collection of handler metrics and connection statistics, that can be exported as JMX MBeans or
+ * rendered in the Prometheus text format.
+ */
+public class MetricsRegistry {
+
+    /**
+     * The latency histogram bucket boundaries that are exported to Prometheus, in seconds
+     */
+    private static final double[] PROMETHEUS_BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private final CopyOnWriteMap<String, HandlerMetrics> handlers = new CopyOnWriteMap<String, HandlerMetrics>();
+    private final Map<String, ConnectionStatisticsMXBean> listeners = new CopyOnWriteMap<String, ConnectionStatisticsMXBean>();
+
+    /**
+     * Returns the metrics registered under the given name, creating them if they do not exist.
+     */
+    public HandlerMetrics getHandlerMetrics(final String name) {
+        HandlerMetrics metrics = handlers.get(name);
+        if (metrics == null) {
+            final HandlerMetrics existing = handlers.putIfAbsent(name, metrics = new HandlerMetrics(name));
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+        return metrics;
+    }
+
+    public Map<String, HandlerMetrics> getHandlerMetrics() {
+        return Collections.unmodifiableMap(handlers);
+    }
+
+    /**
+     * Adds the statistics of a listener, for example {@link io.undertow.server.HttpOpenListener#getStatistics()}
+     */
+    public void addConnectionStatistics(final String name, final ConnectionStatisticsMXBean statistics) {
+        listeners.put(name, statistics);
+    }
+
+    public void removeConnectionStatistics(final String name) {
+        listeners.remove(name);
+    }
+
+    public Map<String, ConnectionStatisticsMXBean> getConnectionStatistics() {
+        return Collections.unmodifiableMap(listeners);
+    }
+
+    /**
+     * Registers an MBean for every handler and listener that is currently in the registry.
+     *
+     * @param server The MBean server
+     * @param domain The domain of the object names
+     */
+    public void registerMBeans(final MBeanServer server, final String domain) throws JMException {
+        for (Map.Entry<String, HandlerMetrics> entry : handlers.entrySet()) {
+            server.registerMBean(entry.getValue(), handlerName(domain, entry.getKey()));
+        }
+        for (Map.Entry<String, ConnectionStatisticsMXBean> entry : listeners.entrySet()) {
+            server.registerMBean(entry.getValue(), listenerName(domain, entry.getKey()));
+        }
+    }
+
+    public void unregisterMBeans(final MBeanServer server, final String domain) throws JMException {
+        for (String name : handlers.keySet()) {
+            final ObjectName objectName = handlerName(domain, name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        }
+        for (String name : listeners.keySet()) {
+            final ObjectName objectName = listenerName(domain, name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        }
+    }
+
+    /**
+     * Renders a snapshot of all metrics in the Prometheus text exposition format.
+     */
+    public String toPrometheus() {
+        final StringBuilder builder = new StringBuilder();
+        final Map<String, HandlerMetrics> sortedHandlers = new TreeMap<String, HandlerMetrics>(handlers);
+        final Map<String, ConnectionStatisticsMXBean> sortedListeners = new TreeMap<String, ConnectionStatisticsMXBean>(listeners);
+
+        if (!sortedHandlers.isEmpty()) {
+            header(builder, "undertow_requests_total", "counter", "Requests completed by the handler");
+            for (HandlerMetrics metrics : sortedHandlers.values()) {
+                sample(builder, "undertow_requests_total", "handler", metrics.getName(), null, null, metrics.getRequestCount());
+            }
+            header(builder, "undertow_responses_total", "counter", "Responses sent by the handler by status class");
+            for (HandlerMetrics metrics : sortedHandlers.values()) {
+                for (int i = 0; i < STATUS_CLASSES.length; ++i) {
+                    sample(builder, "undertow_responses_total", "handler", metrics.getName(), "code", STATUS_CLASSES[i], metrics.getResponses(i + 1));
+                }
+            }
+            header(builder, "undertow_active_requests", "gauge", "Requests currently being processed by the handler");
+            for (HandlerMetrics metrics : sortedHandlers.values()) {
+                sample(builder, "undertow_active_requests", "handler", metrics.getName(), null, null, metrics.getActiveRequests());
+            }
+            header(builder, "undertow_received_bytes_total", "counter", "Request body bytes received by the handler");
+            for (HandlerMetrics metrics : sortedHandlers.values()) {
+                sample(builder, "undertow_received_bytes_total", "handler", metrics.getName(), null, null, metrics.getBytesReceived());
+            }
+            header(builder, "undertow_sent_bytes_total", "counter", "Response body bytes sent by the handler");
+            for (HandlerMetrics metrics : sortedHandlers.values()) {
+                sample(builder, "undertow_sent_bytes_total", "handler", metrics.getName(), null, null, metrics.getBytesSent());
+            }
+            header(builder, "undertow_request_duration_seconds", "histogram", "Request latency");
+            for (HandlerMetrics metrics : sortedHandlers.values()) {
+                final LatencyHistogram latency = metrics.getLatency();
+                final long count = latency.getCount();
+                for (double bucket : PROMETHEUS_BUCKETS) {
+                    sample(builder, "undertow_request_duration_seconds_bucket", "handler", metrics.getName(), "le", Double.toString(bucket), latency.getCountAtOrBelow((long) (bucket * 1000000)));
+                }
+                sample(builder, "undertow_request_duration_seconds_bucket", "handler", metrics.getName(), "le", "+Inf", count);
+                sample(builder, "undertow_request_duration_seconds_sum", "handler", metrics.getName(), null, null, latency.getSum() / 1000000.0);
+                sample(builder, "undertow_request_duration_seconds_count", "handler", metrics.getName(), null, null, count);
+            }
+        }
+        if (!sortedListeners.isEmpty()) {
+            header(builder, "undertow_connections_opened_total", "counter", "Connections opened by the listener");
+            for (Map.Entry<String, ConnectionStatisticsMXBean> entry : sortedListeners.entrySet()) {
+                sample(builder, "undertow_connections_opened_total", "listener", entry.getKey(), null, null, entry.getValue().getConnectionsOpened());
+            }
+            header(builder, "undertow_open_connections", "gauge", "Connections currently open on the listener");
+            for (Map.Entry<String, ConnectionStatisticsMXBean> entry : sortedListeners.entrySet()) {
+                sample(builder, "undertow_open_connections", "listener", entry.getKey(), null, null, entry.getValue().getOpenConnections());
+            }
+            header(builder, "undertow_max_open_connections", "gauge", "Highest number of connections open at the same time on the listener");
+            for (Map.Entry<String, ConnectionStatisticsMXBean> entry : sortedListeners.entrySet()) {
+                sample(builder, "undertow_max_open_connections", "listener", entry.getKey(), null, null, entry.getValue().getMaxOpenConnections());
+            }
+        }
+        return builder.toString();
+    }
+
+    private static ObjectName handlerName(final String domain, final String name) throws JMException {
+        return new ObjectName(domain + ":type=Handler,name=" + ObjectName.quote(name));
+    }
+
+    private static ObjectName listenerName(final String domain, final String name) throws JMException {
+        return new ObjectName(domain + ":type=Listener,name=" + ObjectName.quote(name));
+    }
+
+    private static void header(final StringBuilder builder, final String name, final String type, final String help) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(final StringBuilder builder, final String name, final String label, final String labelValue, final String label2, final String label2Value, final Object value) {
+        builder.append(name).append('{').append(label).append("=\"");
+        escape(builder, labelValue);
+        builder.append('"');
+        if (label2 != null) {
+            builder.append(',').append(label2).append("=\"");
+            escape(builder, label2Value);
+            builder.append('"');
+        }
+        builder.append("} ").append(value).append('\n');
+    }
+
+    private static void escape(final StringBuilder builder, final String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                builder.append('\\').append(c);
+            } else if (c == '\n') {
+                builder.append("\\n");
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+}
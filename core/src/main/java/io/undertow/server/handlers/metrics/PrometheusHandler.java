@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.metrics;
+
+import java.nio.charset.Charset;
+
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.HttpHandlers;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.StringWriteChannelListener;
+import org.xnio.IoUtils;
+import org.xnio.channels.StreamSinkChannel;
+
+/**
+ * Handler that renders a snapshot of a {@link MetricsRegistry} in the Prometheus text exposition format.
+ */
+public class PrometheusHandler implements HttpHandler {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+
+    public PrometheusHandler(final MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+        IoUtils.safeShutdownReads(exchange.getRequestChannel());
+        final byte[] body = registry.toPrometheus().getBytes(UTF_8);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, CONTENT_TYPE);
+        exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Integer.toString(body.length));
+        if (exchange.getRequestMethod().equals(Methods.HEAD)) {
+            completionHandler.handleComplete();
+            return;
+        }
+        final StreamSinkChannel response = exchange.getResponseChannelFactory().create();
+        new StringWriteChannelListener(new String(body, UTF_8), UTF_8) {
+            @Override
+            protected void writeDone(final StreamSinkChannel channel) {
+                HttpHandlers.flushAndCompleteRequest(channel, completionHandler);
+            }
+        }.setup(response);
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.security.SecureRandom;
+
+/**
+ * A {@link SessionIdGenerator} that gives each thread its own {@link SecureRandom}, so threads never contend
+ * on a shared generator.
+ * <p/>
+ * Random bytes are drawn in batches large enough for many session ID's, and are encoded straight into a per
+ * thread character buffer, so the only allocation per ID is the resulting string.
+ * <p/>
+ * If a route is set it is appended to each ID after a '.', which allows a front end load balancer to send
+ * requests to the node that owns the session without any lookup.
+ */
+public class BatchingSessionIdGenerator implements SessionIdGenerator {
+
+    private static final char[] SESSION_ID_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private static final int DEFAULT_LENGTH = 18;
+
+    /**
+     * The number of session ID's worth of random bytes that are generated at a time
+     */
+    private static final int BATCH_SIZE = 64;
+
+    private final ThreadLocal<GeneratorState> state = new ThreadLocal<GeneratorState>() {
+        @Override
+        protected GeneratorState initialValue() {
+            return new GeneratorState();
+        }
+    };
+
+    private volatile int length = DEFAULT_LENGTH;
+
+    private volatile String route;
+
+    @Override
+    public String createSessionId() {
+        final int length = this.length;
+        final String route = this.route;
+        final GeneratorState state = this.state.get();
+        final int offset = state.nextBytes(length);
+
+        final int encodedLength = ((length + 2) / 3) * 4;
+        final int routeLength = route == null ? 0 : route.length() + 1;
+        final char[] out = state.chars(encodedLength + routeLength);
+        encode(state.bytes, offset, length, out);
+        if (route != null) {
+            out[encodedLength] = '.';
+            route.getChars(0, route.length(), out, encodedLength + 1);
+        }
+        return new String(out, 0, encodedLength + routeLength);
+    }
+
+    /**
+     * @return The number of random bytes in each session ID
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public void setLength(final int length) {
+        this.length = length;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    /**
+     * Sets the route that is appended to the session ID's
+     *
+     * @param route The route of this node, or null if no route should be appended
+     */
+    public void setRoute(final String route) {
+        this.route = route;
+    }
+
+    /**
+     * Encodes the bytes using the URL and filename safe Base64 alphabet, without padding. A trailing group of
+     * less than three bytes is encoded as if it was padded with zeros.
+     */
+    private static void encode(final byte[] data, final int offset, final int length, final char[] out) {
+        final char[] alphabet = SESSION_ID_ALPHABET;
+        final int end = offset + length;
+        int index = 0;
+        for (int i = offset; i < end; i += 3) {
+            int val = (0xFF & data[i]) << 16;
+            if (i + 1 < end) {
+                val |= (0xFF & data[i + 1]) << 8;
+            }
+            if (i + 2 < end) {
+                val |= 0xFF & data[i + 2];
+            }
+            out[index++] = alphabet[(val >> 18) & 0x3F];
+            out[index++] = alphabet[(val >> 12) & 0x3F];
+            out[index++] = alphabet[(val >> 6) & 0x3F];
+            out[index++] = alphabet[val & 0x3F];
+        }
+    }
+
+    private static final class GeneratorState {
+
+        private final SecureRandom random = new SecureRandom();
+        private byte[] bytes = new byte[0];
+        private int position;
+        private char[] chars = new char[0];
+
+        /**
+         * Consumes the next length bytes, generating a new batch if required
+         *
+         * @return The offset of the bytes
+         */
+        int nextBytes(final int length) {
+            if (position + length > bytes.length) {
+                if (bytes.length < length * BATCH_SIZE) {
+                    bytes = new byte[length * BATCH_SIZE];
+                }
+                random.nextBytes(bytes);
+                position = 0;
+            }
+            final int offset = position;
+            position += length;
+            return offset;
+        }
+
+        char[] chars(final int length) {
+            if (chars.length < length) {
+                chars = new char[length];
+            }
+            return chars;
+        }
+    }
+}
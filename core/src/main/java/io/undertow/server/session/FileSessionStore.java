@@ -0,0 +1,277 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import io.undertow.UndertowMessages;
+import org.xnio.IoUtils;
+
+/**
+ * A store for sessions that have been passivated by the {@link InMemorySessionManager}.
+ * <p/>
+ * Sessions are serialized and appended to a single log file, an in memory index maps each session id to the
+ * position of its record. Records of sessions that are activated or expire are left in the log, once more than
+ * half the log is made up of dead records it is compacted by copying the live records to a second file, which
+ * then becomes the log. The store alternates between the given file and a sibling file with a {@code .compact}
+ * suffix.
+ * <p/>
+ * The contents of the store do not survive a restart, the log is truncated when the store is created.
+ */
+public class FileSessionStore implements Closeable {
+
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private final File file;
+    private final File compactFile;
+    private final ClassLoader classLoader;
+    private final Map<String, Record> index = new HashMap<String, Record>();
+    private File current;
+    private RandomAccessFile log;
+    private long liveBytes;
+    private long deadBytes;
+
+    /**
+     * @param file        The log file
+     * @param classLoader The class loader used to load the classes of session attributes
+     */
+    public FileSessionStore(final File file, final ClassLoader classLoader) throws IOException {
+        this.file = file;
+        this.compactFile = new File(file.getPath() + ".compact");
+        this.classLoader = classLoader;
+        this.current = file;
+        this.log = new RandomAccessFile(file, "rw");
+        this.log.setLength(0);
+    }
+
+    public FileSessionStore(final File file) throws IOException {
+        this(file, Thread.currentThread().getContextClassLoader());
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes a session to the store. If the session was already stored the old record is replaced.
+     */
+    synchronized void store(final SessionData data) throws IOException {
+        checkOpen();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeUTF(data.id);
+        out.writeLong(data.creationTime);
+        out.writeLong(data.lastAccessed);
+        out.writeInt(data.maxInactiveInterval);
+        out.writeInt(data.attributes.size());
+        for (Map.Entry<String, Object> entry : data.attributes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeObject(entry.getValue());
+        }
+        out.close();
+
+        final long position = log.length();
+        log.seek(position);
+        log.write(bytes.toByteArray());
+        final Record old = index.put(data.id, new Record(position, bytes.size(), data.lastAccessed, data.maxInactiveInterval));
+        liveBytes += bytes.size();
+        if (old != null) {
+            discard(old);
+        }
+    }
+
+    /**
+     * Removes a session from the store and returns it.
+     *
+     * @return The session, or null if it was not in the store
+     */
+    synchronized SessionData remove(final String sessionId) throws IOException {
+        checkOpen();
+        final Record record = index.remove(sessionId);
+        if (record == null) {
+            return null;
+        }
+        try {
+            return read(record);
+        } finally {
+            discard(record);
+        }
+    }
+
+    synchronized boolean contains(final String sessionId) {
+        return index.containsKey(sessionId);
+    }
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Drops all sessions that have expired
+     *
+     * @return The ids of the expired sessions
+     */
+    synchronized List<String> removeExpired(final long now) throws IOException {
+        checkOpen();
+        final List<String> expired = new ArrayList<String>();
+        final Iterator<Map.Entry<String, Record>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Record> entry = it.next();
+            final Record record = entry.getValue();
+            if (record.maxInactiveInterval > 0 && now - record.lastAccessed >= record.maxInactiveInterval * 1000L) {
+                it.remove();
+                expired.add(entry.getKey());
+                liveBytes -= record.length;
+                deadBytes += record.length;
+            }
+        }
+        compactIfRequired();
+        return expired;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        index.clear();
+        if (log != null) {
+            try {
+                log.close();
+            } finally {
+                log = null;
+                file.delete();
+                compactFile.delete();
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (log == null) {
+            throw UndertowMessages.MESSAGES.sessionStoreClosed(file);
+        }
+    }
+
+    private void discard(final Record record) throws IOException {
+        liveBytes -= record.length;
+        deadBytes += record.length;
+        compactIfRequired();
+    }
+
+    private void compactIfRequired() throws IOException {
+        if (deadBytes < MIN_COMPACTION_SIZE || deadBytes < liveBytes) {
+            return;
+        }
+        final File compacted = current == file ? compactFile : file;
+        final RandomAccessFile out = new RandomAccessFile(compacted, "rw");
+        final Map<Record, Long> positions = new HashMap<Record, Long>();
+        try {
+            out.setLength(0);
+            final byte[] buffer = new byte[8192];
+            for (Record record : index.values()) {
+                final long newPosition = out.getFilePointer();
+                log.seek(record.position);
+                int remaining = record.length;
+                while (remaining > 0) {
+                    final int read = Math.min(remaining, buffer.length);
+                    log.readFully(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+                positions.put(record, newPosition);
+            }
+        } catch (IOException e) {
+            IoUtils.safeClose(out);
+            throw e;
+        }
+        for (Map.Entry<Record, Long> entry : positions.entrySet()) {
+            entry.getKey().position = entry.getValue();
+        }
+        IoUtils.safeClose(log);
+        log = out;
+        current = compacted;
+        deadBytes = 0;
+    }
+
+    private SessionData read(final Record record) throws IOException {
+        final byte[] bytes = new byte[record.length];
+        log.seek(record.position);
+        log.readFully(bytes);
+        final ObjectInputStream in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(bytes), classLoader);
+        try {
+            final String id = in.readUTF();
+            final long creationTime = in.readLong();
+            final long lastAccessed = in.readLong();
+            final int maxInactiveInterval = in.readInt();
+            final int count = in.readInt();
+            final Map<String, Object> attributes = new HashMap<String, Object>(count);
+            for (int i = 0; i < count; ++i) {
+                final String name = in.readUTF();
+                attributes.put(name, in.readObject());
+            }
+            return new SessionData(id, creationTime, lastAccessed, maxInactiveInterval, attributes);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The state of a passivated session
+     */
+    static final class SessionData {
+        final String id;
+        final long creationTime;
+        final long lastAccessed;
+        final int maxInactiveInterval;
+        final Map<String, Object> attributes;
+
+        SessionData(final String id, final long creationTime, final long lastAccessed, final int maxInactiveInterval, final Map<String, Object> attributes) {
+            this.id = id;
+            this.creationTime = creationTime;
+            this.lastAccessed = lastAccessed;
+            this.maxInactiveInterval = maxInactiveInterval;
+            this.attributes = attributes;
+        }
+    }
+
+    private static final class Record {
+        long position;
+        final int length;
+        final long lastAccessed;
+        final int maxInactiveInterval;
+
+        private Record(final long position, final int length, final long lastAccessed, final int maxInactiveInterval) {
+            this.position = position;
+            this.length = length;
+            this.lastAccessed = lastAccessed;
+            this.maxInactiveInterval = maxInactiveInterval;
+        }
+    }
+}
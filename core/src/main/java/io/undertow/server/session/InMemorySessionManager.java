@@ -18,18 +18,27 @@
 
 package io.undertow.server.session;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import io.undertow.UndertowLogger;
 import io.undertow.UndertowMessages;
+import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.file.ConcurrentDirectDeque;
 import io.undertow.util.SecureHashMap;
 import org.xnio.FinishedIoFuture;
+import org.xnio.FutureResult;
 import org.xnio.IoFuture;
 import org.xnio.XnioExecutor;
 import org.xnio.XnioWorker;
@@ -37,12 +46,43 @@ import org.xnio.XnioWorker;
 /**
  * The default in memory session manager. This basically just stores sessions in an in memory hash map.
  * <p/>
- * TODO: implement session expiration
+ * Accessing a session only records the access time. Expiration is handled by a hashed timing wheel that is
+ * swept once a second on a worker thread, each slot holds the sessions that are due to expire in that second.
+ * When a slot is swept sessions that have been accessed since they were placed in it are moved to the slot
+ * for their new expiry time, so the cost of an access is a single volatile write. Sessions are also checked
+ * for expiry when they are retrieved, so an expired session is never handed out between sweeps.
+ * <p/>
+ * The number of sessions held in memory can be bounded with {@link #setMaxActiveSessions(int)}. Once there are
+ * more sessions than the maximum the least recently used ones are evicted on a worker thread. If a
+ * {@link FileSessionStore} has been set evicted sessions are passivated to it and activated again the next time
+ * they are requested, otherwise they are destroyed. Sessions that can not be serialized are destroyed. A session
+ * is in use from when a request creates or retrieves it until that exchange is complete. Sessions that are in use
+ * are not evicted, and attribute writes are synchronized with passivation so that a write is never lost.
+ * <p/>
+ * A session that is requested through {@link #getSession(HttpServerExchange, String)} is activated on a worker
+ * thread. A {@link Session} that is held on to outside of a request may have been passivated since, in which
+ * case it is activated by the thread that next uses it, which reads the passivation store. Such sessions should
+ * not be used from an IO thread.
  *
  * @author Stuart Douglas
  */
 public class InMemorySessionManager implements SessionManager {
 
+    private static final AtomicIntegerFieldUpdater<InMemorySessionManager> sweepScheduledUpdater = AtomicIntegerFieldUpdater.newUpdater(InMemorySessionManager.class, "sweepScheduled");
+    private static final AtomicIntegerFieldUpdater<InMemorySessionManager> evictionScheduledUpdater = AtomicIntegerFieldUpdater.newUpdater(InMemorySessionManager.class, "evictionScheduled");
+
+    private static final int TICK_MILLIS = 1000;
+
+    /**
+     * The number of slots in the wheel, must be a power of two
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * How often expired sessions are removed from the passivation store
+     */
+    private static final int STORE_PURGE_TICKS = 60;
+
     private volatile SessionIdGenerator sessionIdGenerator = new SecureRandomSessionIdGenerator();
 
     private final ConcurrentMap<String, InMemorySession> sessions = new SecureHashMap<String, InMemorySession>();
@@ -54,12 +94,46 @@ public class InMemorySessionManager implements SessionManager {
      */
     private volatile int defaultSessionTimeout = 30 * 60;
 
+    private final ExpirySlot[] wheel = new ExpirySlot[WHEEL_SIZE];
+
+    private final ConcurrentDirectDeque<InMemorySession> accessQueue = ConcurrentDirectDeque.newInstance();
+
+    private volatile int maxActiveSessions = -1;
+
+    private volatile FileSessionStore passivationStore;
+
+    private volatile XnioWorker worker;
+
+    @SuppressWarnings("unused")
+    private volatile int sweepScheduled;
+
+    @SuppressWarnings("unused")
+    private volatile int evictionScheduled;
+
+    /**
+     * The last tick that was swept, only accessed by the sweep task
+     */
+    private long lastTick;
+
+    /**
+     * The last tick the passivation store was purged, only accessed by the sweep task
+     */
+    private long lastStorePurge;
+
+    public InMemorySessionManager() {
+        for (int i = 0; i < WHEEL_SIZE; ++i) {
+            wheel[i] = new ExpirySlot();
+        }
+    }
+
     @Override
     public IoFuture<Session> createSession(final HttpServerExchange serverExchange) {
         final String sessionID = sessionIdGenerator.createSessionId();
-        final SessionImpl session = new SessionImpl(sessionID, serverExchange.getWriteThread(), serverExchange.getConnection().getWorker());
-        InMemorySession im = new InMemorySession(session, defaultSessionTimeout);
+        final SessionImpl session = new SessionImpl(sessionID);
+        InMemorySession im = new InMemorySession(session, createAttributes(), defaultSessionTimeout);
+        im.requestStarted(serverExchange);
         sessions.put(sessionID, im);
+        serverExchange.putAttachment(Session.ATTACHMENT_KEY, session);
         for (SessionListener listener : listeners) {
             listener.sessionCreated(session, serverExchange);
         }
@@ -70,7 +144,14 @@ public class InMemorySessionManager implements SessionManager {
             UndertowLogger.REQUEST_LOGGER.couldNotFindSessionCookieConfig();
         }
         im.lastAccessed = System.currentTimeMillis();
-        session.bumpTimeout();
+        addToWheel(im);
+        accessed(im);
+        final XnioWorker worker = serverExchange.getConnection().getWorker();
+        if (this.worker != worker) {
+            this.worker = worker;
+        }
+        scheduleSweep(serverExchange.getWriteThread(), worker);
+        evictIfRequired();
         return new FinishedIoFuture<Session>(session);
     }
 
@@ -78,8 +159,30 @@ public class InMemorySessionManager implements SessionManager {
     public IoFuture<Session> getSession(final HttpServerExchange serverExchange, final String sessionId) {
         final InMemorySession sess = sessions.get(sessionId);
         if (sess == null) {
+            final FileSessionStore store = passivationStore;
+            if (store == null || !store.contains(sessionId)) {
+                return new FinishedIoFuture<Session>(null);
+            }
+            final FutureResult<Session> result = new FutureResult<Session>();
+            serverExchange.getConnection().getWorker().execute(new Runnable() {
+                @Override
+                public void run() {
+                    final InMemorySession activated = activate(sessionId);
+                    if (activated == null) {
+                        result.setResult(null);
+                    } else {
+                        activated.requestStarted(serverExchange);
+                        result.setResult(activated.session);
+                    }
+                }
+            });
+            return result.getIoFuture();
+        } else if (sess.isExpired(System.currentTimeMillis())) {
+            expire(sess);
             return new FinishedIoFuture<Session>(null);
         } else {
+            accessed(sess);
+            sess.requestStarted(serverExchange);
             return new FinishedIoFuture<Session>(sess.session);
         }
     }
@@ -104,6 +207,48 @@ public class InMemorySessionManager implements SessionManager {
         defaultSessionTimeout = timeout;
     }
 
+    public SessionIdGenerator getSessionIdGenerator() {
+        return sessionIdGenerator;
+    }
+
+    public void setSessionIdGenerator(final SessionIdGenerator sessionIdGenerator) {
+        this.sessionIdGenerator = sessionIdGenerator;
+    }
+
+    public int getMaxActiveSessions() {
+        return maxActiveSessions;
+    }
+
+    /**
+     * Sets the maximum number of sessions that are held in memory, a value less than one means there is no limit.
+     *
+     * @param maxActiveSessions The maximum number of sessions
+     */
+    public void setMaxActiveSessions(final int maxActiveSessions) {
+        final int old = this.maxActiveSessions;
+        this.maxActiveSessions = maxActiveSessions;
+        if (maxActiveSessions > 0 && old <= 0) {
+            //accesses are not tracked without a limit, so the existing sessions are queued in no particular order
+            for (InMemorySession sess : sessions.values()) {
+                sess.access(accessQueue);
+            }
+        }
+        evictIfRequired();
+    }
+
+    public FileSessionStore getPassivationStore() {
+        return passivationStore;
+    }
+
+    /**
+     * Sets the store that evicted sessions are passivated to. The store is not closed by the session manager.
+     *
+     * @param passivationStore The store, or null if evicted sessions should be destroyed
+     */
+    public void setPassivationStore(final FileSessionStore passivationStore) {
+        this.passivationStore = passivationStore;
+    }
+
     @Override
     public void updateLastAccessedTime(final String sessionId) {
         final InMemorySession sess = sessions.get(sessionId);
@@ -113,44 +258,260 @@ public class InMemorySessionManager implements SessionManager {
     }
 
     /**
-     * session implementation for the in memory session manager
+     * Creates the attribute storage for a new session
      */
-    private class SessionImpl implements Session {
+    SessionAttributes createAttributes() {
+        return new HeapSessionAttributes();
+    }
 
-        private final String sessionId;
+    /**
+     * Moves a session to the back of the access queue. The queue is only used for eviction, so it is only
+     * maintained while there is a limit on the number of sessions.
+     */
+    private void accessed(final InMemorySession sess) {
+        if (maxActiveSessions > 0) {
+            sess.access(accessQueue);
+        }
+    }
 
-        final XnioExecutor executor;
-        final XnioWorker worker;
+    private void addToWheel(final InMemorySession sess) {
+        final long expiryTick = sess.expiryTick();
+        if (expiryTick >= 0) {
+            wheel[(int) (expiryTick & (WHEEL_SIZE - 1))].sessions.add(sess);
+        }
+    }
 
-        XnioExecutor.Key cancelKey;
+    /**
+     * Makes sure the sweep task is scheduled. The sweep stops once there are no sessions left, and is
+     * restarted by the next session that is created.
+     */
+    private void scheduleSweep(final XnioExecutor executor, final XnioWorker worker) {
+        if (sweepScheduledUpdater.compareAndSet(this, 0, 1)) {
+            executor.executeAfter(new Runnable() {
+                @Override
+                public void run() {
+                    worker.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                sweep(System.currentTimeMillis());
+                            } finally {
+                                sweepScheduled = 0;
+                                final FileSessionStore store = passivationStore;
+                                if (!sessions.isEmpty() || (store != null && store.size() > 0)) {
+                                    scheduleSweep(executor, worker);
+                                }
+                            }
+                        }
+                    });
+                }
+            }, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
 
-        final Runnable cancelTask = new Runnable() {
-            @Override
-            public void run() {
-                worker.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        invalidate(null);
+    private void sweep(final long now) {
+        final long currentTick = now / TICK_MILLIS;
+        long tick = Math.max(lastTick + 1, currentTick - WHEEL_SIZE + 1);
+        for (; tick <= currentTick; ++tick) {
+            final int slot = (int) (tick & (WHEEL_SIZE - 1));
+            final Iterator<InMemorySession> it = wheel[slot].sessions.iterator();
+            while (it.hasNext()) {
+                final InMemorySession sess = it.next();
+                if (sessions.get(sess.session.getId()) != sess) {
+                    //invalidated
+                    it.remove();
+                } else if (sess.isExpired(now)) {
+                    it.remove();
+                    expire(sess);
+                } else {
+                    final long expiryTick = sess.expiryTick();
+                    //a session that is due later in the current tick is checked again on the next one
+                    final int newSlot = (int) (Math.max(expiryTick, currentTick + 1) & (WHEEL_SIZE - 1));
+                    if (expiryTick < 0) {
+                        //the session no longer expires, it is added back if the timeout is changed
+                        it.remove();
+                    } else if (newSlot != slot) {
+                        it.remove();
+                        wheel[newSlot].sessions.add(sess);
                     }
-                });
+                    //otherwise the session is due in a later revolution of the wheel
+                }
             }
-        };
+        }
+        lastTick = currentTick;
+
+        final FileSessionStore store = passivationStore;
+        if (store != null && currentTick - lastStorePurge >= STORE_PURGE_TICKS) {
+            lastStorePurge = currentTick;
+            try {
+                for (String sessionId : store.removeExpired(now)) {
+                    final Session session = new SessionImpl(sessionId);
+                    for (SessionListener listener : listeners) {
+                        listener.sessionDestroyed(session, null, true);
+                    }
+                }
+            } catch (IOException e) {
+                UndertowLogger.ROOT_LOGGER.failedToPurgeSessionStore(store.getFile(), e);
+            }
+        }
+    }
 
-        private SessionImpl(final String sessionId, final XnioExecutor executor, final XnioWorker worker) {
-            this.sessionId = sessionId;
-            this.executor = executor;
-            this.worker = worker;
+    private void expire(final InMemorySession sess) {
+        if (sessions.remove(sess.session.getId(), sess)) {
+            for (SessionListener listener : listeners) {
+                listener.sessionDestroyed(sess.session, null, true);
+            }
+            removed(sess);
+        }
+    }
+
+    /**
+     * Releases the resources of a session that has been removed from the session map
+     */
+    private void removed(final InMemorySession sess) {
+        sess.clearAccess(accessQueue);
+        sess.attributes.destroy();
+    }
+
+    private void evictIfRequired() {
+        final int max = maxActiveSessions;
+        final XnioWorker worker = this.worker;
+        if (max > 0 && worker != null && sessions.size() > max && evictionScheduledUpdater.compareAndSet(this, 0, 1)) {
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        evict();
+                    } finally {
+                        evictionScheduled = 0;
+                    }
+                    //sessions created while the eviction was running
+                    evictIfRequired();
+                }
+            });
+        }
+    }
+
+    private void evict() {
+        final int max = maxActiveSessions;
+        //sessions that are in use are moved to the back of the queue, so each session is looked at once at most
+        int remaining = sessions.size();
+        while (max > 0 && sessions.size() > max && remaining-- > 0) {
+            final InMemorySession oldest = accessQueue.peekFirst();
+            if (oldest == null) {
+                break;
+            }
+            if (oldest.isInUse()) {
+                oldest.access(accessQueue);
+                continue;
+            }
+            oldest.clearAccess(accessQueue);
+            passivate(oldest);
         }
+    }
 
-        synchronized void bumpTimeout() {
-            if (cancelKey != null) {
-                if (!cancelKey.remove()) {
+    private void passivate(final InMemorySession sess) {
+        final String sessionId = sess.session.getId();
+        final FileSessionStore store = passivationStore;
+        //attribute writes hold the same lock, so the stored attributes are the final ones
+        synchronized (sess) {
+            if (sessions.get(sessionId) != sess) {
+                return;
+            }
+            if (sess.isInUse()) {
+                //a request started using the session after it was picked for eviction
+                accessed(sess);
+                return;
+            }
+            if (store != null) {
+                try {
+                    store.store(new FileSessionStore.SessionData(sessionId, sess.creationTime, sess.lastAccessed, sess.maxInactiveInterval, sess.attributes.toMap()));
+                    if (sessions.remove(sessionId, sess)) {
+                        removed(sess);
+                    } else {
+                        //invalidated concurrently
+                        store.remove(sessionId);
+                    }
                     return;
+                } catch (IOException e) {
+                    UndertowLogger.ROOT_LOGGER.failedToPassivateSession(sessionId, e);
                 }
             }
-            cancelKey = executor.executeAfter(cancelTask, getMaxInactiveInterval(), TimeUnit.SECONDS);
+            if (sessions.remove(sessionId, sess)) {
+                for (SessionListener listener : listeners) {
+                    listener.sessionDestroyed(sess.session, null, false);
+                }
+                removed(sess);
+            }
         }
+    }
 
+    /**
+     * Moves a session from the passivation store back into memory.
+     *
+     * @return The session, or null if it was not passivated or has expired
+     */
+    private InMemorySession activate(final String sessionId) {
+        final FileSessionStore store = passivationStore;
+        if (store == null) {
+            return null;
+        }
+        final FileSessionStore.SessionData data;
+        try {
+            data = store.remove(sessionId);
+        } catch (IOException e) {
+            UndertowLogger.ROOT_LOGGER.failedToActivateSession(sessionId, e);
+            return null;
+        }
+        if (data == null) {
+            //activated concurrently
+            return sessions.get(sessionId);
+        }
+        final InMemorySession sess = new InMemorySession(new SessionImpl(sessionId), createAttributes(), data);
+        if (sess.isExpired(System.currentTimeMillis())) {
+            for (SessionListener listener : listeners) {
+                listener.sessionDestroyed(sess.session, null, true);
+            }
+            sess.attributes.destroy();
+            return null;
+        }
+        final InMemorySession existing = sessions.putIfAbsent(sessionId, sess);
+        if (existing != null) {
+            sess.attributes.destroy();
+            return existing;
+        }
+        addToWheel(sess);
+        accessed(sess);
+        evictIfRequired();
+        return sess;
+    }
+
+    /**
+     * session implementation for the in memory session manager
+     */
+    private class SessionImpl implements Session {
+
+        private final String sessionId;
+
+        private SessionImpl(final String sessionId) {
+            this.sessionId = sessionId;
+        }
+
+
+        /**
+         * Returns the session, activating it if it has been passivated. Sessions that are in use by a request are
+         * not passivated, so this only reads the passivation store for sessions that are used outside a request.
+         */
+        private InMemorySession findSession() {
+            InMemorySession sess = sessions.get(sessionId);
+            if (sess == null) {
+                sess = activate(sessionId);
+                if (sess == null) {
+                    throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
+                }
+            }
+            return sess;
+        }
 
         @Override
         public String getId() {
@@ -159,73 +520,64 @@ public class InMemorySessionManager implements SessionManager {
 
         @Override
         public void requestDone(final HttpServerExchange serverExchange) {
-            //noop
+            //noop, the request is done with the session when the exchange that accessed it completes
         }
 
         @Override
         public long getCreationTime() {
-            final InMemorySession sess = sessions.get(sessionId);
-            if (sess == null) {
-                throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
-            }
+            final InMemorySession sess = findSession();
             return sess.creationTime;
         }
 
         @Override
         public long getLastAccessedTime() {
-            final InMemorySession sess = sessions.get(sessionId);
-            if (sess == null) {
-                throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
-            }
+            final InMemorySession sess = findSession();
             return sess.lastAccessed;
         }
 
         @Override
         public void setMaxInactiveInterval(final int interval) {
-            final InMemorySession sess = sessions.get(sessionId);
-            if (sess == null) {
-                throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
-            }
+            final InMemorySession sess = findSession();
             sess.maxInactiveInterval = interval;
-            bumpTimeout();
+            sess.lastAccessed = System.currentTimeMillis();
+            addToWheel(sess);
         }
 
         @Override
         public int getMaxInactiveInterval() {
-            final InMemorySession sess = sessions.get(sessionId);
-            if (sess == null) {
-                throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
-            }
+            final InMemorySession sess = findSession();
             return sess.maxInactiveInterval;
         }
 
         @Override
         public IoFuture<Object> getAttribute(final String name) {
-            final InMemorySession sess = sessions.get(sessionId);
-            if (sess == null) {
-                throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
-            }
-            bumpTimeout();
+            final InMemorySession sess = findSession();
+            sess.lastAccessed = System.currentTimeMillis();
             return new FinishedIoFuture<Object>(sess.attributes.get(name));
         }
 
         @Override
         public IoFuture<Set<String>> getAttributeNames() {
-            final InMemorySession sess = sessions.get(sessionId);
-            if (sess == null) {
-                throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
-            }
-            bumpTimeout();
-            return new FinishedIoFuture<Set<String>>(sess.attributes.keySet());
+            final InMemorySession sess = findSession();
+            sess.lastAccessed = System.currentTimeMillis();
+            return new FinishedIoFuture<Set<String>>(sess.attributes.getNames());
         }
 
         @Override
         public IoFuture<Object> setAttribute(final String name, final Object value) {
-            final InMemorySession sess = sessions.get(sessionId);
-            if (sess == null) {
-                throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
+            InMemorySession sess;
+            IoFuture<Object> existing;
+            for (;;) {
+                sess = findSession();
+                synchronized (sess) {
+                    //if the session was passivated while the lock was awaited the write goes to the activated copy
+                    if (sessions.get(sessionId) != sess) {
+                        continue;
+                    }
+                    existing = sess.attributes.put(name, value);
+                    break;
+                }
             }
-            final Object existing = sess.attributes.put(name, value);
             for (SessionListener listener : listeners) {
                 if (existing == null) {
                     listener.attributeAdded(sess.session, name, value);
@@ -233,26 +585,36 @@ public class InMemorySessionManager implements SessionManager {
                     listener.attributeUpdated(sess.session, name, value);
                 }
             }
-            bumpTimeout();
-            return new FinishedIoFuture<Object>(existing);
+            sess.lastAccessed = System.currentTimeMillis();
+            return existing == null ? new FinishedIoFuture<Object>(null) : existing;
         }
 
         @Override
         public IoFuture<Object> removeAttribute(final String name) {
-            final InMemorySession sess = sessions.get(sessionId);
-            if (sess == null) {
-                throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
+            InMemorySession sess;
+            IoFuture<Object> existing;
+            for (;;) {
+                sess = findSession();
+                synchronized (sess) {
+                    if (sessions.get(sessionId) != sess) {
+                        continue;
+                    }
+                    existing = sess.attributes.remove(name);
+                    break;
+                }
             }
-            final Object existing = sess.attributes.remove(name);
             for (SessionListener listener : listeners) {
                 listener.attributeRemoved(sess.session, name);
             }
-            bumpTimeout();
-            return new FinishedIoFuture<Object>(existing);
+            sess.lastAccessed = System.currentTimeMillis();
+            return existing == null ? new FinishedIoFuture<Object>(null) : existing;
         }
 
         @Override
         public IoFuture<Void> invalidate(final HttpServerExchange exchange) {
+            if (!sessions.containsKey(sessionId)) {
+                activate(sessionId);
+            }
             final InMemorySession sess = sessions.remove(sessionId);
             if (sess == null) {
                 throw UndertowMessages.MESSAGES.sessionAlreadyInvalidated();
@@ -260,6 +622,7 @@ public class InMemorySessionManager implements SessionManager {
             for (SessionListener listener : listeners) {
                 listener.sessionDestroyed(sess.session, exchange, false);
             }
+            removed(sess);
             if (exchange != null) {
                 final SessionCookieConfig config = exchange.getAttachment(SessionCookieConfig.ATTACHMENT_KEY);
                 if (config != null) {
@@ -278,6 +641,62 @@ public class InMemorySessionManager implements SessionManager {
 
     }
 
+    /**
+     * A slot in the timing wheel
+     */
+    private static final class ExpirySlot {
+        final Set<InMemorySession> sessions = Collections.newSetFromMap(new ConcurrentHashMap<InMemorySession, Boolean>());
+    }
+
+    /**
+     * Attribute storage that keeps the attributes in a hash map
+     */
+    private static final class HeapSessionAttributes implements SessionAttributes {
+
+        private final ConcurrentMap<String, Object> attributes = new SecureHashMap<String, Object>();
+
+        @Override
+        public Object get(final String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public IoFuture<Object> put(final String name, final Object value) {
+            return previous(attributes.put(name, value));
+        }
+
+        @Override
+        public IoFuture<Object> remove(final String name) {
+            return previous(attributes.remove(name));
+        }
+
+        private static IoFuture<Object> previous(final Object value) {
+            return value == null ? null : new FinishedIoFuture<Object>(value);
+        }
+
+        @Override
+        public Set<String> getNames() {
+            return attributes.keySet();
+        }
+
+        @Override
+        public Map<String, Object> toMap() {
+            return new HashMap<String, Object>(attributes);
+        }
+
+        @Override
+        public void requestStarted() {
+        }
+
+        @Override
+        public void requestDone() {
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
     /**
      * class that holds the real session data
      */
@@ -285,15 +704,101 @@ public class InMemorySessionManager implements SessionManager {
 
         final Session session;
 
-        InMemorySession(final Session session, int maxInactiveInterval) {
+        InMemorySession(final Session session, final SessionAttributes attributes, int maxInactiveInterval) {
             this.session = session;
+            this.attributes = attributes;
             creationTime = lastAccessed = System.currentTimeMillis();
             this.maxInactiveInterval = maxInactiveInterval;
         }
 
-        final ConcurrentMap<String, Object> attributes = new SecureHashMap<String, Object>();
+        InMemorySession(final Session session, final SessionAttributes attributes, final FileSessionStore.SessionData data) {
+            this.session = session;
+            this.attributes = attributes;
+            this.creationTime = data.creationTime;
+            this.lastAccessed = data.lastAccessed;
+            this.maxInactiveInterval = data.maxInactiveInterval;
+            for (Map.Entry<String, Object> entry : data.attributes.entrySet()) {
+                attributes.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        final SessionAttributes attributes;
         volatile long lastAccessed;
         final long creationTime;
         volatile int maxInactiveInterval;
+        private volatile int requests;
+        private Object accessToken;
+
+        private static final AtomicIntegerFieldUpdater<InMemorySession> requestsUpdater = AtomicIntegerFieldUpdater.newUpdater(InMemorySession.class, "requests");
+
+        /**
+         * Marks the session as in use until the exchange is complete
+         */
+        void requestStarted(final HttpServerExchange exchange) {
+            requestsUpdater.incrementAndGet(this);
+            attributes.requestStarted();
+            try {
+                exchange.addExchangeCompletionListener(new ExchangeCompletionListener() {
+                    @Override
+                    public void exchangeComplete(final HttpServerExchange exchange) {
+                        requestDone();
+                    }
+                });
+            } catch (IllegalStateException e) {
+                //the exchange is already complete
+                requestDone();
+            }
+        }
+
+        void requestDone() {
+            int old;
+            do {
+                old = requests;
+                if (old == 0) {
+                    break;
+                }
+            } while (!requestsUpdater.compareAndSet(this, old, old - 1));
+            attributes.requestDone();
+        }
+
+        /**
+         * @return <code>true</code> if a request is using the session
+         */
+        boolean isInUse() {
+            return requests > 0;
+        }
+
+        /**
+         * Moves the session to the back of the access queue
+         */
+        synchronized void access(final ConcurrentDirectDeque<InMemorySession> accessQueue) {
+            if (accessToken != null) {
+                accessQueue.removeToken(accessToken);
+            }
+            accessToken = accessQueue.offerLastAndReturnToken(this);
+        }
+
+        synchronized void clearAccess(final ConcurrentDirectDeque<InMemorySession> accessQueue) {
+            if (accessToken != null) {
+                accessQueue.removeToken(accessToken);
+                accessToken = null;
+            }
+        }
+
+        boolean isExpired(final long now) {
+            final int interval = maxInactiveInterval;
+            return interval > 0 && now - lastAccessed >= interval * 1000L;
+        }
+
+        /**
+         * @return The tick in which this session will expire if it is not accessed, or -1 if it never expires
+         */
+        long expiryTick() {
+            final int interval = maxInactiveInterval;
+            if (interval <= 0) {
+                return -1;
+            }
+            return (lastAccessed + interval * 1000L) / TICK_MILLIS;
+        }
     }
 }
@@ -0,0 +1,411 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import io.undertow.server.handlers.file.LimitedBufferSlicePool;
+import io.undertow.server.handlers.file.LimitedBufferSlicePool.PooledByteBuffer;
+import org.xnio.AbstractIoFuture;
+import org.xnio.BufferAllocator;
+import org.xnio.FinishedIoFuture;
+import org.xnio.IoFuture;
+
+/**
+ * An in memory session manager that keeps session attributes out of the java heap.
+ * <p/>
+ * The attributes of each session are serialized into a chain of fixed size slices of direct buffer regions, so the
+ * heap only holds a handful of small objects per session, and the position of each attribute, no matter how large
+ * the attributes are. Attributes are deserialized when they are read, one at a time. While a request is using a
+ * session the attributes it reads or writes are cached on the heap, so repeated reads return the same object. When
+ * the last request is done with the session the cached attributes are serialized again, which means changes made to
+ * an attribute value are kept as they would be by a heap based session.
+ * <p/>
+ * A request is done with a session when the exchange that created or retrieved it completes. All attribute values
+ * must be serializable.
+ */
+public class OffHeapSessionManager extends InMemorySessionManager {
+
+    private static final int DEFAULT_SLICE_SIZE = 256;
+    private static final int DEFAULT_REGION_SIZE = 1024 * 1024;
+    private static final PooledByteBuffer[] NO_SLICES = new PooledByteBuffer[0];
+
+    private final LimitedBufferSlicePool pool;
+    private final int sliceSize;
+    private final ClassLoader classLoader;
+
+    /**
+     * @param sliceSize     The size of each slice, this is the minimum amount of memory used by a session with attributes
+     * @param maxRegionSize The size of the direct buffer regions that slices are cut from
+     * @param maxRegions    The maximum number of regions, zero for unlimited
+     * @param classLoader   The class loader used to load the classes of attribute values
+     */
+    public OffHeapSessionManager(final int sliceSize, final int maxRegionSize, final int maxRegions, final ClassLoader classLoader) {
+        this.pool = new LimitedBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, sliceSize, maxRegionSize, maxRegions);
+        this.sliceSize = sliceSize;
+        this.classLoader = classLoader;
+    }
+
+    public OffHeapSessionManager() {
+        this(DEFAULT_SLICE_SIZE, DEFAULT_REGION_SIZE, 0, Thread.currentThread().getContextClassLoader());
+    }
+
+    @Override
+    SessionAttributes createAttributes() {
+        return new OffHeapSessionAttributes();
+    }
+
+    /**
+     * The serialized values of the attributes are packed one after the other into the slices. An index on the heap
+     * holds the position of each value, so a single attribute can be read or replaced without decoding the others.
+     * A value that changes size is moved to the end, and the values after its old position are moved down to fill
+     * the gap.
+     */
+    private final class OffHeapSessionAttributes implements SessionAttributes {
+
+        private PooledByteBuffer[] slices = NO_SLICES;
+        private int length;
+        private final Map<String, Extent> index = new HashMap<String, Extent>();
+        private int requests;
+        private boolean destroyed;
+
+        /**
+         * Attributes used by the requests that are using the session, only present while there are requests
+         */
+        private Map<String, Object> cache;
+
+        @Override
+        public synchronized Object get(final String name) {
+            if (destroyed) {
+                return null;
+            }
+            if (cache != null && cache.containsKey(name)) {
+                return cache.get(name);
+            }
+            final Extent extent = index.get(name);
+            if (extent == null) {
+                return null;
+            }
+            final Object value = deserialize(name, read(extent));
+            cacheValue(name, value);
+            return value;
+        }
+
+        @Override
+        public synchronized IoFuture<Object> put(final String name, final Object value) {
+            if (destroyed) {
+                return null;
+            }
+            final byte[] data = serialize(name, value);
+            final IoFuture<Object> previous = previous(name);
+            store(name, data);
+            cacheValue(name, value);
+            return previous;
+        }
+
+        @Override
+        public synchronized IoFuture<Object> remove(final String name) {
+            if (destroyed) {
+                return null;
+            }
+            final IoFuture<Object> previous = previous(name);
+            final Extent extent = index.remove(name);
+            if (extent != null) {
+                release(extent);
+                trim();
+            }
+            if (cache != null) {
+                cache.remove(name);
+            }
+            return previous;
+        }
+
+        @Override
+        public synchronized Set<String> getNames() {
+            return new HashSet<String>(index.keySet());
+        }
+
+        @Override
+        public synchronized Map<String, Object> toMap() {
+            final Map<String, Object> result = new HashMap<String, Object>();
+            for (Map.Entry<String, Extent> entry : index.entrySet()) {
+                if (cache != null && cache.containsKey(entry.getKey())) {
+                    result.put(entry.getKey(), cache.get(entry.getKey()));
+                } else {
+                    result.put(entry.getKey(), deserialize(entry.getKey(), read(entry.getValue())));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized void requestStarted() {
+            ++requests;
+        }
+
+        @Override
+        public synchronized void requestDone() {
+            if (requests > 0 && --requests == 0 && cache != null) {
+                final Map<String, Object> used = cache;
+                cache = null;
+                if (destroyed) {
+                    return;
+                }
+                for (Map.Entry<String, Object> entry : used.entrySet()) {
+                    if (index.containsKey(entry.getKey())) {
+                        try {
+                            store(entry.getKey(), serialize(entry.getKey(), entry.getValue()));
+                        } catch (IllegalArgumentException e) {
+                            UndertowLogger.REQUEST_LOGGER.failedToWriteBackSessionAttribute(entry.getKey(), e);
+                        } catch (IllegalStateException e) {
+                            UndertowLogger.REQUEST_LOGGER.failedToWriteBackSessionAttribute(entry.getKey(), e);
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public synchronized void destroy() {
+            destroyed = true;
+            cache = null;
+            for (PooledByteBuffer slice : slices) {
+                slice.free();
+            }
+            slices = NO_SLICES;
+            length = 0;
+            index.clear();
+        }
+
+        private void cacheValue(final String name, final Object value) {
+            if (requests > 0) {
+                if (cache == null) {
+                    cache = new HashMap<String, Object>();
+                }
+                cache.put(name, value);
+            }
+        }
+
+        /**
+         * Returns the current value of an attribute. If it is not cached its bytes are copied out, and it is only
+         * deserialized if the caller asks for it.
+         *
+         * @return The value, or null if the attribute does not exist
+         */
+        private IoFuture<Object> previous(final String name) {
+            if (cache != null && cache.containsKey(name)) {
+                return new FinishedIoFuture<Object>(cache.get(name));
+            }
+            final Extent extent = index.get(name);
+            if (extent == null) {
+                return null;
+            }
+            return new DeserializingIoFuture(name, read(extent));
+        }
+
+        /**
+         * Writes the serialized value of an attribute. A value of the same size overwrites the old one in place,
+         * otherwise it is added to the end.
+         */
+        private void store(final String name, final byte[] data) {
+            final Extent extent = index.get(name);
+            if (extent != null && extent.length == data.length) {
+                copyIn(extent.offset, data, 0, data.length);
+                return;
+            }
+            //allocate first, so the old value is kept if there is no room for the new one
+            ensureCapacity(length - (extent == null ? 0 : extent.length) + data.length);
+            if (extent != null) {
+                release(extent);
+            }
+            copyIn(length, data, 0, data.length);
+            index.put(name, new Extent(length, data.length));
+            length += data.length;
+            trim();
+        }
+
+        /**
+         * Removes a value from the packed data, moving the values after it down
+         */
+        private void release(final Extent extent) {
+            final int end = extent.offset + extent.length;
+            if (end < length) {
+                final byte[] tail = new byte[length - end];
+                copyOut(end, tail, 0, tail.length);
+                copyIn(extent.offset, tail, 0, tail.length);
+                for (Extent other : index.values()) {
+                    if (other.offset > extent.offset) {
+                        other.offset -= extent.length;
+                    }
+                }
+            }
+            length -= extent.length;
+        }
+
+        private void ensureCapacity(final int capacity) {
+            final int required = (capacity + sliceSize - 1) / sliceSize;
+            if (required <= slices.length) {
+                return;
+            }
+            final PooledByteBuffer[] newSlices = new PooledByteBuffer[required];
+            System.arraycopy(slices, 0, newSlices, 0, slices.length);
+            for (int i = slices.length; i < required; ++i) {
+                final PooledByteBuffer slice = pool.allocate();
+                if (slice == null) {
+                    for (int j = slices.length; j < i; ++j) {
+                        newSlices[j].free();
+                    }
+                    throw UndertowMessages.MESSAGES.sessionAttributeStorageExhausted();
+                }
+                newSlices[i] = slice;
+            }
+            slices = newSlices;
+        }
+
+        /**
+         * Frees the slices that are no longer in use
+         */
+        private void trim() {
+            final int required = (length + sliceSize - 1) / sliceSize;
+            if (required == slices.length) {
+                return;
+            }
+            for (int i = required; i < slices.length; ++i) {
+                slices[i].free();
+            }
+            final PooledByteBuffer[] newSlices = required == 0 ? NO_SLICES : new PooledByteBuffer[required];
+            System.arraycopy(slices, 0, newSlices, 0, required);
+            slices = newSlices;
+        }
+
+        private byte[] read(final Extent extent) {
+            final byte[] data = new byte[extent.length];
+            copyOut(extent.offset, data, 0, data.length);
+            return data;
+        }
+
+        private void copyOut(int offset, final byte[] dest, int pos, int count) {
+            while (count > 0) {
+                final ByteBuffer buffer = slices[offset / sliceSize].getResource();
+                buffer.clear();
+                buffer.position(offset % sliceSize);
+                final int chunk = Math.min(count, buffer.remaining());
+                buffer.get(dest, pos, chunk);
+                offset += chunk;
+                pos += chunk;
+                count -= chunk;
+            }
+        }
+
+        private void copyIn(int offset, final byte[] src, int pos, int count) {
+            while (count > 0) {
+                final ByteBuffer buffer = slices[offset / sliceSize].getResource();
+                buffer.clear();
+                buffer.position(offset % sliceSize);
+                final int chunk = Math.min(count, buffer.remaining());
+                buffer.put(src, pos, chunk);
+                offset += chunk;
+                pos += chunk;
+                count -= chunk;
+            }
+        }
+    }
+
+    /**
+     * The position of the serialized value of an attribute
+     */
+    private static final class Extent {
+        int offset;
+        final int length;
+
+        Extent(final int offset, final int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The previous value of an attribute, which is only deserialized when it is read. Most callers ignore the
+     * value returned by setAttribute and removeAttribute.
+     */
+    private final class DeserializingIoFuture extends AbstractIoFuture<Object> {
+
+        private final String name;
+        private byte[] data;
+        private Object value;
+
+        DeserializingIoFuture(final String name, final byte[] data) {
+            this.name = name;
+            this.data = data;
+            setResult(null);
+        }
+
+        @Override
+        public synchronized Object get() {
+            if (data != null) {
+                value = deserialize(name, data);
+                data = null;
+            }
+            return value;
+        }
+
+        @Override
+        public Object getInterruptibly() {
+            return get();
+        }
+    }
+
+    private byte[] serialize(final String name, final Object value) {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final ObjectOutputStream objectOut = new ObjectOutputStream(out);
+            objectOut.writeObject(value);
+            objectOut.close();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw UndertowMessages.MESSAGES.sessionAttributeNotSerializable(name, e);
+        }
+    }
+
+    private Object deserialize(final String name, final byte[] data) {
+        try {
+            final ObjectInputStream in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(data), classLoader);
+            try {
+                return in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw UndertowMessages.MESSAGES.sessionAttributeNotDeserializable(name, e);
+        } catch (ClassNotFoundException e) {
+            throw UndertowMessages.MESSAGES.sessionAttributeNotDeserializable(name, e);
+        }
+    }
+}
@@ -75,11 +75,11 @@ public class SessionAttachmentHandler implements HttpHandler {
         exchange.putAttachment(SessionCookieConfig.ATTACHMENT_KEY, new SessionCookieConfig(cookieName, path, domain, discardOnExit, secure));
         final String sessionId = findSessionId(exchange);
 
+        final SessionCompletionHandler handler = new SessionCompletionHandler(exchange, completionHandler, sessionManager, sessionId);
         if (sessionId == null) {
-            HttpHandlers.executeHandler(next, exchange, completionHandler);
+            HttpHandlers.executeHandler(next, exchange, handler);
         } else {
             final IoFuture<Session> session = sessionManager.getSession(exchange, sessionId);
-            final UpdateLastAccessTimeCompletionHandler handler = new UpdateLastAccessTimeCompletionHandler(completionHandler, sessionManager, sessionId);
             session.addNotifier(new IoFuture.Notifier<Session, Session>() {
                 @Override
                 public void notify(final IoFuture<? extends Session> ioFuture, final Session attachment) {
@@ -167,13 +167,19 @@ public class SessionAttachmentHandler implements HttpHandler {
         this.secure = secure;
     }
 
-    private static class UpdateLastAccessTimeCompletionHandler implements HttpCompletionHandler {
+    /**
+     * Completion handler that updates the last accessed time of the requested session, and tells the session
+     * that was used by the request that the request is done with it.
+     */
+    private static class SessionCompletionHandler implements HttpCompletionHandler {
 
+        private final HttpServerExchange exchange;
         private final HttpCompletionHandler completionHandler;
         private final SessionManager sessionManager;
         private final String sessionId;
 
-        private UpdateLastAccessTimeCompletionHandler(final HttpCompletionHandler completionHandler, final SessionManager sessionManager, final String sessionId) {
+        private SessionCompletionHandler(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler, final SessionManager sessionManager, final String sessionId) {
+            this.exchange = exchange;
             this.completionHandler = completionHandler;
             this.sessionManager = sessionManager;
             this.sessionId = sessionId;
@@ -181,8 +187,17 @@ public class SessionAttachmentHandler implements HttpHandler {
 
         @Override
         public void handleComplete() {
-            sessionManager.updateLastAccessedTime(sessionId);
-            completionHandler.handleComplete();
+            try {
+                if (sessionId != null) {
+                    sessionManager.updateLastAccessedTime(sessionId);
+                }
+                final Session session = exchange.getAttachment(Session.ATTACHMENT_KEY);
+                if (session != null) {
+                    session.requestDone(exchange);
+                }
+            } finally {
+                completionHandler.handleComplete();
+            }
         }
     }
 
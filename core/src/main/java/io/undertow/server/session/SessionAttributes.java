@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.xnio.IoFuture;
+
+/**
+ * The attribute storage of a session held by the {@link InMemorySessionManager}.
+ */
+interface SessionAttributes {
+
+    Object get(final String name);
+
+    /**
+     * @return The previous value, or null if the attribute did not exist. Storage that has to deserialize the
+     *         previous value may defer that until the future is read.
+     */
+    IoFuture<Object> put(final String name, final Object value);
+
+    /**
+     * @return The previous value, or null if the attribute did not exist
+     */
+    IoFuture<Object> remove(final String name);
+
+    Set<String> getNames();
+
+    /**
+     * @return A copy of all attributes
+     */
+    Map<String, Object> toMap();
+
+    /**
+     * Called when a request starts using the session
+     */
+    void requestStarted();
+
+    /**
+     * Called when a request is done with the session
+     */
+    void requestDone();
+
+    /**
+     * Called once the session has been removed from the session manager, the attributes are not used after this
+     * has been called.
+     */
+    void destroy();
+}
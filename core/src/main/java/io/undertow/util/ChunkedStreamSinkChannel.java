@@ -308,6 +308,8 @@ public class ChunkedStreamSinkChannel implements StreamSinkChannel {
                         }
                         return toWrite;
                     }
+                    //the chunk size has been written, so the buffer only has to hold the rest of the chunk
+                    buff.clear();
                 }
                 //we know we will fit at this point, so just stuff the remaining bytes in the buffer
                 buff.put(src);
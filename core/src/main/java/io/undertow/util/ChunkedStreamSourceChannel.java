@@ -40,7 +40,6 @@ import org.xnio.channels.StreamSourceChannel;
 
 import static org.xnio.Bits.allAreClear;
 import static org.xnio.Bits.allAreSet;
-import static org.xnio.Bits.anyAreClear;
 import static org.xnio.Bits.anyAreSet;
 import static org.xnio.Bits.longBitMask;
 
@@ -76,7 +75,8 @@ public class ChunkedStreamSourceChannel implements StreamSourceChannel {
     private static final long FLAG_READING_LENGTH = 1L << 59L;
     private static final long FLAG_READING_TILL_END_OF_LINE = 1L << 58L;
     private static final long FLAG_READING_NEWLINE = 1L << 57L;
-    private static final long MASK_COUNT = longBitMask(0, 56);
+    private static final long FLAG_READING_TRAILER = 1L << 56L;
+    private static final long MASK_COUNT = longBitMask(0, 55);
 
     private static final AtomicLongFieldUpdater<ChunkedStreamSourceChannel> stateUpdater = AtomicLongFieldUpdater.newUpdater(ChunkedStreamSourceChannel.class, "state");
 
@@ -103,12 +103,12 @@ public class ChunkedStreamSourceChannel implements StreamSourceChannel {
         if (anyAreSet(oldVal, FLAG_FINISHED)) {
             return -1;
         }
-        if (anyAreClear(oldVal, FLAG_CLOSED)) {
+        if (anyAreSet(oldVal, FLAG_CLOSED)) {
             throw new ClosedChannelException();
         }
         long newVal;
 
-        if (anyAreSet(oldVal, FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_NEWLINE | FLAG_FINISHED)) {
+        if (anyAreSet(oldVal, FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_NEWLINE | FLAG_READING_TRAILER | FLAG_FINISHED)) {
             //we are in the process of reading chunking overhead
             newVal = readRawData(oldVal);
         } else {
@@ -122,7 +122,7 @@ public class ChunkedStreamSourceChannel implements StreamSourceChannel {
         try {
             long pos = position;
             long remaining = count;
-            if (anyAreSet(newVal, FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_NEWLINE | FLAG_FINISHED)) {
+            if (anyAreSet(newVal, FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_NEWLINE | FLAG_READING_TRAILER | FLAG_FINISHED)) {
                 //we did not manage to read anything except chunking overhead
                 return 0;
             }
@@ -224,12 +224,12 @@ public class ChunkedStreamSourceChannel implements StreamSourceChannel {
         if (anyAreSet(oldVal, FLAG_FINISHED)) {
             return -1;
         }
-        if (anyAreClear(oldVal, FLAG_CLOSED)) {
+        if (anyAreSet(oldVal, FLAG_CLOSED)) {
             throw new ClosedChannelException();
         }
         long newVal;
 
-        if (anyAreSet(oldVal, FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_NEWLINE | FLAG_FINISHED)) {
+        if (anyAreSet(oldVal, FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_NEWLINE | FLAG_READING_TRAILER | FLAG_FINISHED)) {
             //we are in the process of reading chunking overhead
             newVal = readRawData(oldVal);
         } else {
@@ -241,73 +241,51 @@ public class ChunkedStreamSourceChannel implements StreamSourceChannel {
         }
         long chunkRemaining = newVal & MASK_COUNT;
         try {
-            long remaining = count;
-            if (anyAreSet(newVal, FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_NEWLINE | FLAG_FINISHED)) {
+            if (anyAreSet(newVal, FLAG_FINISHED)) {
+                return -1;
+            }
+            if (anyAreSet(newVal, FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_NEWLINE | FLAG_READING_TRAILER)) {
                 //we did not manage to read anything except chunking overhead
                 return 0;
             }
-            //now we may have some stuff in the raw buffer
-            //or the raw buffer may be exhausted, and we should read directly into the destination buffer
-            //from the delegate
-
-            int read = 0;
+            throughBuffer.clear();
             final Pooled<ByteBuffer> buffer = rawData;
-            if (buffer != null) {
+            if (buffer != null && buffer.getResource().hasRemaining()) {
+                //data that has already been read is handed back in the through buffer, so that the caller
+                //writes it to the target and knows to wait for the target if it can not be written
                 final ByteBuffer buf = buffer.getResource();
-                long chunkInBuffer = Math.min(buf.remaining(), chunkRemaining);
-                if (chunkInBuffer > count) {
-                    //it won't fit
-                    int orig = buf.limit();
-                    buf.limit((int) (buf.position() + count));
-                    int written = 0;
-                    long c = 0;
-                    do {
-                        c = target.write(buf);
-                        written += c;
-                    } while (buf.hasRemaining() && c > 0);
-                    buf.limit(orig);
-                    chunkRemaining -= written;
-                    updateRemainingAllowed(written);
-                    return written;
-                } else if (buf.hasRemaining()) {
-                    int orig = buf.limit();
-                    buf.limit((int) (buf.position() + chunkInBuffer));
-                    try {
-                        int written = 0;
-                        long c = 0;
-                        do {
-                            c = target.write(buf);
-                            written += c;
-                        } while (buf.hasRemaining() && c > 0);
-                        chunkRemaining -= written;
-                        if (buf.hasRemaining()) {
-                            return written;
-                        }
-                        read += written;
-                        remaining -= written;
-                    } finally {
-                        buf.limit(orig);
-                    }
+                final int copy = (int) Math.min(Math.min(buf.remaining(), chunkRemaining), Math.min(count, throughBuffer.remaining()));
+                final int orig = buf.limit();
+                buf.limit(buf.position() + copy);
+                throughBuffer.put(buf);
+                buf.limit(orig);
+                throughBuffer.flip();
+                chunkRemaining -= copy;
+                if (chunkRemaining == 0) {
+                    newVal |= FLAG_READING_NEWLINE;
                 }
+                updateRemainingAllowed(copy);
+                return copy;
             }
+            throughBuffer.flip();
             //there is still more to read
             //we attempt to just use the delegates transferTo method
-            if (chunkRemaining > 0) {
-                long c = 0;
-                remaining = Math.min(chunkRemaining, remaining);
-                do {
-                    c = delegate.transferTo(remaining, throughBuffer, target);
-                    if (c > 0) {
-                        read += c;
-                        chunkRemaining -= c;
-                        remaining -= c;
-                    }
-                } while (c > 0 && remaining > 0);
-                if (c == -1) {
-                    newVal |= FLAG_FINISHED;
+            int read = 0;
+            long remaining = Math.min(chunkRemaining, count);
+            long c;
+            do {
+                c = delegate.transferTo(remaining, throughBuffer, target);
+                if (c > 0) {
+                    read += c;
+                    chunkRemaining -= c;
+                    remaining -= c;
                 }
+                //data left in the through buffer must be written by the caller before we read any more
+            } while (c > 0 && remaining > 0 && !throughBuffer.hasRemaining());
+            if (c == -1 && read == 0) {
+                newVal |= FLAG_FINISHED;
+                return -1;
             }
-
             if (chunkRemaining == 0) {
                 newVal |= FLAG_READING_NEWLINE;
             }
@@ -353,7 +331,7 @@ public class ChunkedStreamSourceChannel implements StreamSourceChannel {
         }
         long newVal;
 
-        if (anyAreSet(oldVal, FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_NEWLINE | FLAG_FINISHED)) {
+        if (anyAreSet(oldVal, FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_NEWLINE | FLAG_READING_TRAILER | FLAG_FINISHED)) {
             //we are in the process of reading chunking overhead
             newVal = readRawData(oldVal);
         } else {
@@ -370,7 +348,7 @@ public class ChunkedStreamSourceChannel implements StreamSourceChannel {
             if (anyAreSet(newVal, FLAG_FINISHED)) {
                 return -1;
             }
-            if (anyAreSet(newVal, FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_NEWLINE)) {
+            if (anyAreSet(newVal, FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_NEWLINE | FLAG_READING_TRAILER)) {
                 //we did not manage to read anything except chunking overhead
                 return 0;
             }
@@ -474,7 +452,7 @@ public class ChunkedStreamSourceChannel implements StreamSourceChannel {
         ByteBuffer buf = buffer.getResource();
 
 
-        if (allAreClear(newVal, FLAG_READING_NEWLINE | FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE) && chunkRemaining == 0) {
+        if (allAreClear(newVal, FLAG_READING_NEWLINE | FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_TRAILER) && chunkRemaining == 0) {
             newVal |= FLAG_FINISHED;
             return newVal;
         }
@@ -542,8 +520,38 @@ public class ChunkedStreamSourceChannel implements StreamSourceChannel {
             }
         }
         //we have our chunk size, check to make sure it was not the last chunk
-        if (allAreClear(newVal, FLAG_READING_NEWLINE | FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE) && chunkRemaining == 0) {
-            newVal |= FLAG_FINISHED;
+        if (allAreClear(newVal, FLAG_READING_NEWLINE | FLAG_READING_LENGTH | FLAG_READING_TILL_END_OF_LINE | FLAG_READING_TRAILER) && chunkRemaining == 0) {
+            newVal |= FLAG_READING_TRAILER;
+        }
+        //the last chunk is followed by the trailer, which ends with an empty line. It is consumed so that
+        //whatever follows on the connection starts with the next message. While it is being read the count
+        //is 1 if the current line is not empty.
+        while (anyAreSet(newVal, FLAG_READING_TRAILER)) {
+            while (buf.hasRemaining()) {
+                byte b = buf.get();
+                if (b == '\n') {
+                    if (chunkRemaining == 0) {
+                        newVal = newVal & ~FLAG_READING_TRAILER | FLAG_FINISHED;
+                        break;
+                    }
+                    chunkRemaining = 0;
+                } else if (b != '\r') {
+                    chunkRemaining = 1;
+                }
+            }
+            if (anyAreSet(newVal, FLAG_READING_TRAILER)) {
+                buf.clear();
+                int c = delegate.read(buf);
+                buf.flip();
+                if (c == -1) {
+                    newVal |= FLAG_FINISHED;
+                    return newVal;
+                } else if (c == 0) {
+                    return (newVal & ~MASK_COUNT) | chunkRemaining;
+                }
+            }
+        }
+        if (anyAreSet(newVal, FLAG_FINISHED)) {
             //we may have read to far
             if (buf.hasRemaining()) {
                 delegate.unget(buffer);
@@ -557,7 +565,7 @@ public class ChunkedStreamSourceChannel implements StreamSourceChannel {
 
     public void suspendReads() {
         long val = enterSuspendResume();
-        if (anyAreSet(val, FLAG_CLOSED | FLAG_SUS_RES_SHUT)) {
+        if (anyAreSet(val, FLAG_CLOSED | FLAG_SUS_RES_SHUT | FLAG_FINISHED)) {
             return;
         }
         try {
@@ -569,7 +577,7 @@ public class ChunkedStreamSourceChannel implements StreamSourceChannel {
 
     public void resumeReads() {
         long val = enterSuspendResume();
-        if (anyAreSet(val, FLAG_CLOSED | FLAG_SUS_RES_SHUT)) {
+        if (anyAreSet(val, FLAG_CLOSED | FLAG_SUS_RES_SHUT | FLAG_FINISHED)) {
             return;
         }
         try {
@@ -589,7 +597,7 @@ public class ChunkedStreamSourceChannel implements StreamSourceChannel {
 
     public void wakeupReads() {
         long val = enterSuspendResume();
-        if (anyAreSet(val, FLAG_CLOSED | FLAG_SUS_RES_SHUT)) {
+        if (anyAreSet(val, FLAG_CLOSED | FLAG_SUS_RES_SHUT | FLAG_FINISHED)) {
             return;
         }
         try {
@@ -695,11 +703,15 @@ public class ChunkedStreamSourceChannel implements StreamSourceChannel {
         // else let exitSuspendResume/exitReads handle this
     }
 
+    /**
+     * Once the last chunk has been read the delegate no longer belongs to this channel, so suspending or resuming
+     * this channel must not affect it.
+     */
     private long enterSuspendResume() {
         long oldVal, newVal;
         do {
             oldVal = state;
-            if (anyAreSet(oldVal, FLAG_CLOSED | FLAG_SUS_RES_SHUT)) {
+            if (anyAreSet(oldVal, FLAG_CLOSED | FLAG_SUS_RES_SHUT | FLAG_FINISHED)) {
                 return oldVal;
             }
             newVal = oldVal | FLAG_SUS_RES_SHUT;
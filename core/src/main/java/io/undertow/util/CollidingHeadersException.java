@@ -0,0 +1,34 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+/**
+ * An exception indicating that a {@link HeaderMap} rejected a header because too many header names have hashes
+ * that collide. This is raised when a peer sends headers chosen to degrade lookups in the map, and the message
+ * that the headers belong to should be rejected.
+ */
+public class CollidingHeadersException extends IllegalStateException {
+
+    public CollidingHeadersException() {
+    }
+
+    public CollidingHeadersException(final String msg) {
+        super(msg);
+    }
+}
@@ -18,31 +18,27 @@
 
 package io.undertow.util;
 
-import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Locale;
-import java.util.TimeZone;
 
 /**
  * Utility for parsing and generating dates
+ * <p/>
+ * Dates are formatted and parsed by hand rather than with {@link java.text.SimpleDateFormat}, which is
+ * expensive to create and is not thread safe. The current date in RFC-1123 format is cached and is
+ * recomputed at most once a second, as it is needed for the {@code Date} header of every response.
  *
  * @author Stuart Douglas
  */
 public class DateUtils {
 
-    private static final Locale LOCALE_US = Locale.US;
+    private static final String[] DAYS = {"Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"};
 
-    private static final TimeZone GMT_ZONE = TimeZone.getTimeZone("GMT");
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
 
-    private static final String RFC1123_PATTERN = "EEE, dd MMM yyyy HH:mm:ss z";
-
-    private static final String RFC1036_PATTERN = "EEEEEEEEE, dd-MMM-yy HH:mm:ss z";
-
-    private static final String ASCITIME_PATTERN = "EEE MMM d HH:mm:ss yyyyy";
-
-    private static final String OLD_COOKIE_PATTERN = "EEE, dd-MMM-yyyy HH:mm:ss z";
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * MILLIS_PER_SECOND;
 
+    private static volatile CachedDate cachedDate = new CachedDate(System.currentTimeMillis());
 
     /**
      * Converts a date to a format suitable for use in a HTTP request
@@ -51,16 +47,38 @@ public class DateUtils {
      * @return The RFC-1123 formatted date
      */
     public static String toDateString(final Date date) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat(RFC1123_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        return dateFormat.format(date);
+        return format(date.getTime(), ' ');
+    }
+
+    /**
+     * Converts a time in milliseconds since the epoch to a format suitable for use in a HTTP request
+     *
+     * @param millis The time in milliseconds since the epoch
+     * @return The RFC-1123 formatted date
+     */
+    public static String toDateString(final long millis) {
+        return format(millis, ' ');
     }
 
 
     public static String toOldCookieDateString(final Date date) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat(OLD_COOKIE_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        return dateFormat.format(date);
+        return format(date.getTime(), '-');
+    }
+
+    /**
+     * Returns the current date in RFC-1123 format, suitable for use in the {@code Date} header. The value
+     * is cached, and is only recomputed if the second has changed since it was last computed.
+     *
+     * @return The current date
+     */
+    public static String getCurrentDateTime() {
+        final long now = System.currentTimeMillis();
+        CachedDate date = cachedDate;
+        if (now / MILLIS_PER_SECOND != date.second) {
+            //if two threads race here they both compute the same value, so it does not matter which one wins
+            cachedDate = date = new CachedDate(now);
+        }
+        return date.string;
     }
 
     /**
@@ -70,40 +88,251 @@ public class DateUtils {
      * @return The parsed date, or null if parsing failed
      */
     public static Date parseDate(final String date) {
-        ParsePosition pp = new ParsePosition(0);
-        SimpleDateFormat dateFormat = new SimpleDateFormat(RFC1123_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        Date val = dateFormat.parse(date, pp);
-        if (val != null && pp.getIndex() == date.length()) {
-            return val;
+        final long millis = parseDateMillis(date);
+        if (millis == -1) {
+            return null;
+        }
+        return new Date(millis);
+    }
+
+    /**
+     * Parses a HTTP date without allocating. RFC-1123 ({@code Sun, 06 Nov 1994 08:49:37 GMT}), RFC-1036
+     * ({@code Sunday, 06-Nov-94 08:49:37 GMT}), ANSI C asctime ({@code Sun Nov  6 08:49:37 1994}) and the old
+     * Netscape cookie format ({@code Sun, 06-Nov-1994 08:49:37 GMT}) are supported.
+     * <p/>
+     * The day name is not validated against the date. Two digit years from 70 to 99 are taken to be in the
+     * twentieth century, and all other two digit years in the twenty first.
+     *
+     * @param date The date to parse
+     * @return The number of milliseconds since the epoch, or -1 if the date could not be parsed
+     */
+    public static long parseDateMillis(final String date) {
+        final int length = date.length();
+        //skip the day name, and the comma if present
+        int pos = 0;
+        while (pos < length && isLetter(date.charAt(pos))) {
+            ++pos;
+        }
+        if (pos == 0 || pos == length) {
+            return -1;
+        }
+        final boolean asctime = date.charAt(pos) != ',';
+        if (!asctime) {
+            ++pos;
+        }
+        if (pos == length || date.charAt(pos) != ' ') {
+            return -1;
+        }
+        ++pos;
+
+        final int day;
+        final int month;
+        final int year;
+        final int time;
+        if (asctime) {
+            month = parseMonth(date, pos);
+            if (month < 0 || pos + 4 > length || date.charAt(pos + 3) != ' ') {
+                return -1;
+            }
+            pos += 4;
+            if (date.charAt(pos) == ' ') {
+                ++pos;
+            }
+            //pos now points to the day of month, followed by the time and the year
+            final int dayEnd = digitsEnd(date, pos, 2);
+            if (dayEnd == pos || dayEnd == length || date.charAt(dayEnd) != ' ') {
+                return -1;
+            }
+            day = parseNumber(date, pos, dayEnd);
+            pos = dayEnd + 1;
+            time = parseTime(date, pos);
+            pos += 8;
+            if (time < 0 || pos == length || date.charAt(pos) != ' ') {
+                return -1;
+            }
+            ++pos;
+            final int yearEnd = digitsEnd(date, pos, 4);
+            if (yearEnd - pos != 4 || yearEnd != length) {
+                return -1;
+            }
+            year = parseNumber(date, pos, yearEnd);
+        } else {
+            final int dayEnd = digitsEnd(date, pos, 2);
+            if (dayEnd == pos || dayEnd == length) {
+                return -1;
+            }
+            day = parseNumber(date, pos, dayEnd);
+            final char separator = date.charAt(dayEnd);
+            if (separator != ' ' && separator != '-') {
+                return -1;
+            }
+            pos = dayEnd + 1;
+            month = parseMonth(date, pos);
+            if (month < 0 || pos + 4 > length || date.charAt(pos + 3) != separator) {
+                return -1;
+            }
+            pos += 4;
+            final int yearEnd = digitsEnd(date, pos, 4);
+            if (yearEnd - pos == 2) {
+                final int shortYear = parseNumber(date, pos, yearEnd);
+                year = shortYear < 70 ? 2000 + shortYear : 1900 + shortYear;
+            } else if (yearEnd - pos == 4) {
+                year = parseNumber(date, pos, yearEnd);
+            } else {
+                return -1;
+            }
+            pos = yearEnd;
+            if (pos == length || date.charAt(pos) != ' ') {
+                return -1;
+            }
+            ++pos;
+            time = parseTime(date, pos);
+            pos += 8;
+            if (time < 0 || !date.regionMatches(pos, " GMT", 0, 4) || pos + 4 != length) {
+                return -1;
+            }
+        }
+        if (day < 1 || day > 31) {
+            return -1;
+        }
+        return daysFromCivil(year, month + 1, day) * MILLIS_PER_DAY + time * MILLIS_PER_SECOND;
+    }
+
+    private static boolean isLetter(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static int digitsEnd(final String date, final int start, final int max) {
+        final int end = Math.min(date.length(), start + max);
+        int pos = start;
+        while (pos < end) {
+            final char c = date.charAt(pos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            ++pos;
         }
+        return pos;
+    }
 
-        pp = new ParsePosition(0);
-        dateFormat = new SimpleDateFormat(RFC1036_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        val = dateFormat.parse(date, pp);
-        if (val != null && pp.getIndex() == date.length()) {
-            return val;
+    private static int parseNumber(final String date, final int start, final int end) {
+        int result = 0;
+        for (int i = start; i < end; ++i) {
+            result = result * 10 + date.charAt(i) - '0';
         }
+        return result;
+    }
 
-        pp = new ParsePosition(0);
-        dateFormat = new SimpleDateFormat(ASCITIME_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        val = dateFormat.parse(date, pp);
-        if (val != null && pp.getIndex() == date.length()) {
-            return val;
+    /**
+     * @return The month, from 0 to 11, or -1 if the month name is not valid
+     */
+    private static int parseMonth(final String date, final int pos) {
+        if (pos + 3 > date.length()) {
+            return -1;
         }
+        for (int i = 0; i < MONTHS.length; ++i) {
+            if (date.regionMatches(true, pos, MONTHS[i], 0, 3)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-        pp = new ParsePosition(0);
-        dateFormat = new SimpleDateFormat(OLD_COOKIE_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        val = dateFormat.parse(date, pp);
-        if (val != null && pp.getIndex() == date.length()) {
-            return val;
+    /**
+     * Parses a time in HH:mm:ss format.
+     *
+     * @return The number of seconds since midnight, or -1 if the time is not valid
+     */
+    private static int parseTime(final String date, final int pos) {
+        if (pos + 8 > date.length() || date.charAt(pos + 2) != ':' || date.charAt(pos + 5) != ':') {
+            return -1;
+        }
+        if (digitsEnd(date, pos, 2) != pos + 2 || digitsEnd(date, pos + 3, 2) != pos + 5 || digitsEnd(date, pos + 6, 2) != pos + 8) {
+            return -1;
+        }
+        final int hours = parseNumber(date, pos, pos + 2);
+        final int minutes = parseNumber(date, pos + 3, pos + 5);
+        final int seconds = parseNumber(date, pos + 6, pos + 8);
+        if (hours > 23 || minutes > 59 || seconds > 60) {
+            return -1;
+        }
+        return hours * 3600 + minutes * 60 + seconds;
+    }
+
+    /**
+     * Formats a date as {@code EEE, dd MMM yyyy HH:mm:ss GMT}, using the given separator between the day,
+     * month and year.
+     */
+    private static String format(final long millis, final char separator) {
+        long days = millis / MILLIS_PER_DAY;
+        long remainder = millis % MILLIS_PER_DAY;
+        if (remainder < 0) {
+            remainder += MILLIS_PER_DAY;
+            --days;
+        }
+        final int seconds = (int) (remainder / MILLIS_PER_SECOND);
+
+        //convert the number of days since the epoch to a year, month and day
+        final long z = days + 719468;
+        final long era = (z >= 0 ? z : z - 146096) / 146097;
+        final int dayOfEra = (int) (z - era * 146097);
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int mp = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        final int month = mp < 10 ? mp + 3 : mp - 9;
+        final int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+        //the epoch was a thursday
+        int dayOfWeek = (int) ((days + 4) % 7);
+        if (dayOfWeek < 0) {
+            dayOfWeek += 7;
         }
 
-        return null;
+        final char[] chars = new char[29];
+        DAYS[dayOfWeek].getChars(0, 3, chars, 0);
+        chars[3] = ',';
+        chars[4] = ' ';
+        twoDigits(chars, 5, day);
+        chars[7] = separator;
+        MONTHS[month - 1].getChars(0, 3, chars, 8);
+        chars[11] = separator;
+        twoDigits(chars, 12, year / 100 % 100);
+        twoDigits(chars, 14, year % 100);
+        chars[16] = ' ';
+        twoDigits(chars, 17, seconds / 3600);
+        chars[19] = ':';
+        twoDigits(chars, 20, seconds / 60 % 60);
+        chars[22] = ':';
+        twoDigits(chars, 23, seconds % 60);
+        chars[25] = ' ';
+        chars[26] = 'G';
+        chars[27] = 'M';
+        chars[28] = 'T';
+        return new String(chars);
     }
 
+    private static void twoDigits(final char[] chars, final int pos, final int value) {
+        chars[pos] = (char) ('0' + value / 10);
+        chars[pos + 1] = (char) ('0' + value % 10);
+    }
+
+    private static long daysFromCivil(final int year, final int month, final int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = (y >= 0 ? y : y - 399) / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static final class CachedDate {
+        private final long second;
+        private final String string;
+
+        private CachedDate(final long millis) {
+            this.second = millis / MILLIS_PER_SECOND;
+            this.string = format(millis, ' ');
+        }
+    }
 
 }
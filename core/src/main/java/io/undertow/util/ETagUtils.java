@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+/**
+ * Evaluates the conditional request headers that depend on the validators of a response.
+ */
+public final class ETagUtils {
+
+    private ETagUtils() {
+    }
+
+    /**
+     * Checks if a response can be answered with a 304, as the client already has the current representation.
+     * {@code If-Modified-Since} is only used if the request has no {@code If-None-Match} header.
+     *
+     * @param requestHeaders The request headers
+     * @param etag           The quoted entity tag of the representation, or <code>null</code> if it has none
+     * @param lastModified   The modification time of the representation, or -1 if it is not known
+     * @return <code>true</code> if the representation has not been modified
+     */
+    public static boolean isNotModified(final HeaderMap requestHeaders, final String etag, final long lastModified) {
+        final String ifNoneMatch = requestHeaders.getFirst(Headers.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            //If-Modified-Since is ignored if If-None-Match is present
+            return ifNoneMatch.trim().equals("*") || (etag != null && containsETag(ifNoneMatch, etag, true));
+        }
+        final String ifModifiedSince = requestHeaders.getFirst(Headers.IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null && lastModified != -1) {
+            final long date = DateUtils.parseDateMillis(ifModifiedSince);
+            //HTTP dates only have a resolution of a second
+            return date != -1 && lastModified / 1000 <= date / 1000;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a comma separated list of entity tags contains the given tag.
+     *
+     * @param list  The list, as sent in an {@code If-None-Match}, {@code If-Match} or {@code If-Range} header
+     * @param etag  The quoted entity tag
+     * @param weak  <code>true</code> if the weak comparison is used, so weak tags in the list match as well
+     * @return <code>true</code> if the list contains the tag
+     */
+    public static boolean containsETag(final String list, final String etag, final boolean weak) {
+        final int length = list.length();
+        int pos = 0;
+        while (pos < length) {
+            char c = list.charAt(pos);
+            if (c == ' ' || c == ',' || c == '\t') {
+                ++pos;
+                continue;
+            }
+            boolean weakTag = false;
+            if (c == 'W' && pos + 1 < length && list.charAt(pos + 1) == '/') {
+                weakTag = true;
+                pos += 2;
+            }
+            final int start = pos;
+            if (pos < length && list.charAt(pos) == '"') {
+                pos = list.indexOf('"', pos + 1);
+                pos = pos == -1 ? length : pos + 1;
+            } else {
+                while (pos < length && list.charAt(pos) != ',') {
+                    ++pos;
+                }
+            }
+            if ((weak || !weakTag) && pos - start == etag.length() && list.regionMatches(start, etag, 0, etag.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
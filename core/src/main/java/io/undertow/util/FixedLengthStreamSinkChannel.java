@@ -0,0 +1,347 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.xnio.Buffers;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
+import org.xnio.Option;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioWorker;
+import org.xnio.channels.FixedLengthOverflowException;
+import org.xnio.channels.FixedLengthUnderflowException;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+
+import static org.xnio.Bits.allAreSet;
+import static org.xnio.Bits.anyAreSet;
+
+/**
+ * Channel that writes a fixed number of bytes to the delegate.
+ * <p/>
+ * This replaces the XNIO channel of the same name, which does not decrement its remaining count correctly
+ * once a write only partially completes. Writes are not allowed to happen concurrently, so the remaining count
+ * is only ever modified by the writing thread.
+ * <p/>
+ * The finish listener is invoked once the channel has been shut down with all bytes written.
+ */
+public class FixedLengthStreamSinkChannel implements StreamSinkChannel {
+
+    private final StreamSinkChannel delegate;
+    private final ChannelListener.SimpleSetter<FixedLengthStreamSinkChannel> closeSetter = new ChannelListener.SimpleSetter<FixedLengthStreamSinkChannel>();
+    private final ChannelListener.SimpleSetter<FixedLengthStreamSinkChannel> writeSetter = new ChannelListener.SimpleSetter<FixedLengthStreamSinkChannel>();
+    private final ChannelListener<? super FixedLengthStreamSinkChannel> finishListener;
+    private final int config;
+
+    private volatile long remaining;
+
+    @SuppressWarnings("unused")
+    private volatile int state;
+
+    private static final AtomicIntegerFieldUpdater<FixedLengthStreamSinkChannel> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(FixedLengthStreamSinkChannel.class, "state");
+
+    private static final int CONF_FLAG_CONFIGURABLE = 1 << 0;
+    private static final int CONF_FLAG_PASS_CLOSE = 1 << 1;
+
+    /**
+     * Flag that is set when {@link #shutdownWrites()} or {@link #close()} is called
+     */
+    private static final int FLAG_CLOSE_REQ = 1 << 0;
+    /**
+     * Flag that is set once the close listener has been invoked
+     */
+    private static final int FLAG_CLOSE_DONE = 1 << 1;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param delegate       the channel to wrap
+     * @param contentLength  the number of bytes to write
+     * @param configurable   {@code true} to allow configuration of the delegate channel, {@code false} otherwise
+     * @param passClose      {@code true} to close the underlying channel when this channel is closed, {@code false} otherwise
+     * @param finishListener the listener to call once the channel has been shut down with all bytes written
+     * @param closeListener  the initial close listener
+     */
+    public FixedLengthStreamSinkChannel(final StreamSinkChannel delegate, final long contentLength, final boolean configurable, final boolean passClose, final ChannelListener<? super FixedLengthStreamSinkChannel> finishListener, final ChannelListener<? super FixedLengthStreamSinkChannel> closeListener) {
+        if (contentLength < 0) {
+            throw new IllegalArgumentException("contentLength");
+        }
+        this.delegate = delegate;
+        this.remaining = contentLength;
+        this.finishListener = finishListener;
+        config = (configurable ? CONF_FLAG_CONFIGURABLE : 0) | (passClose ? CONF_FLAG_PASS_CLOSE : 0);
+        closeSetter.set(closeListener);
+        delegate.getWriteSetter().set(ChannelListeners.delegatingChannelListener(this, writeSetter));
+    }
+
+    /**
+     * @return The number of bytes that still have to be written
+     */
+    public long getRemaining() {
+        return remaining;
+    }
+
+    @Override
+    public XnioWorker getWorker() {
+        return delegate.getWorker();
+    }
+
+    @Override
+    public XnioExecutor getWriteThread() {
+        return delegate.getWriteThread();
+    }
+
+    @Override
+    public ChannelListener.Setter<? extends StreamSinkChannel> getWriteSetter() {
+        return writeSetter;
+    }
+
+    @Override
+    public ChannelListener.Setter<? extends StreamSinkChannel> getCloseSetter() {
+        return closeSetter;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        if (!src.hasRemaining()) {
+            return 0;
+        }
+        final long remaining = checkWrite();
+        final int limit = src.limit();
+        if (src.remaining() > remaining) {
+            src.limit(src.position() + (int) remaining);
+        }
+        try {
+            final int res = delegate.write(src);
+            this.remaining = remaining - res;
+            return res;
+        } finally {
+            src.limit(limit);
+        }
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        final long total = Buffers.remaining(srcs, offset, length);
+        if (total == 0) {
+            return 0;
+        }
+        final long remaining = checkWrite();
+        if (total <= remaining) {
+            final long res = delegate.write(srcs, offset, length);
+            this.remaining = remaining - res;
+            return res;
+        }
+        //the buffers would overflow the channel, so they are written one at a time up to the limit
+        long written = 0;
+        for (int i = offset; i < offset + length; ++i) {
+            final ByteBuffer src = srcs[i];
+            if (!src.hasRemaining()) {
+                continue;
+            }
+            final int expected = (int) Math.min(src.remaining(), this.remaining);
+            if (expected == 0) {
+                break;
+            }
+            final int res = write(src);
+            written += res;
+            if (res < expected) {
+                break;
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        final long remaining = checkWrite();
+        final long res = delegate.transferFrom(src, position, Math.min(count, remaining));
+        this.remaining = remaining - res;
+        return res;
+    }
+
+    @Override
+    public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+        if (count == 0) {
+            throughBuffer.clear().limit(0);
+            return 0;
+        }
+        final long remaining = checkWrite();
+        final long res = delegate.transferFrom(source, Math.min(count, remaining), throughBuffer);
+        if (res > 0) {
+            this.remaining = remaining - res;
+        }
+        return res;
+    }
+
+    private long checkWrite() throws IOException {
+        if (anyAreSet(state, FLAG_CLOSE_REQ)) {
+            throw new ClosedChannelException();
+        }
+        final long remaining = this.remaining;
+        if (remaining == 0) {
+            throw new FixedLengthOverflowException();
+        }
+        return remaining;
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        return delegate.flush();
+    }
+
+    @Override
+    public void suspendWrites() {
+        if (anyAreSet(state, FLAG_CLOSE_DONE)) {
+            return;
+        }
+        delegate.suspendWrites();
+    }
+
+    @Override
+    public void resumeWrites() {
+        if (anyAreSet(state, FLAG_CLOSE_DONE)) {
+            return;
+        }
+        delegate.resumeWrites();
+    }
+
+    @Override
+    public boolean isWriteResumed() {
+        return !anyAreSet(state, FLAG_CLOSE_DONE) && delegate.isWriteResumed();
+    }
+
+    @Override
+    public void wakeupWrites() {
+        if (anyAreSet(state, FLAG_CLOSE_DONE)) {
+            return;
+        }
+        delegate.wakeupWrites();
+    }
+
+    @Override
+    public void shutdownWrites() throws IOException {
+        if (!enterClose(FLAG_CLOSE_REQ)) {
+            return;
+        }
+        checkUnderflow();
+        if (allAreSet(config, CONF_FLAG_PASS_CLOSE)) {
+            delegate.shutdownWrites();
+        }
+        exitClose();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!enterClose(FLAG_CLOSE_REQ)) {
+            return;
+        }
+        checkUnderflow();
+        if (allAreSet(config, CONF_FLAG_PASS_CLOSE)) {
+            delegate.close();
+        }
+        exitClose();
+    }
+
+    /**
+     * Sets the given flag
+     *
+     * @return <code>true</code> if the flag was not already set
+     */
+    private boolean enterClose(final int flag) {
+        int oldVal, newVal;
+        do {
+            oldVal = state;
+            if (allAreSet(oldVal, flag)) {
+                return false;
+            }
+            newVal = oldVal | flag;
+        } while (!stateUpdater.compareAndSet(this, oldVal, newVal));
+        return true;
+    }
+
+    private void checkUnderflow() throws IOException {
+        final long remaining = this.remaining;
+        if (remaining > 0) {
+            if (allAreSet(config, CONF_FLAG_PASS_CLOSE)) {
+                IoUtils.safeClose(delegate);
+            }
+            throw new FixedLengthUnderflowException(remaining + " bytes remaining");
+        }
+    }
+
+    private void exitClose() {
+        if (enterClose(FLAG_CLOSE_DONE)) {
+            ChannelListeners.invokeChannelListener(this, finishListener);
+            ChannelListeners.invokeChannelListener(this, closeSetter.get());
+        }
+    }
+
+    @Override
+    public void awaitWritable() throws IOException {
+        if (anyAreSet(state, FLAG_CLOSE_REQ)) {
+            throw new ClosedChannelException();
+        }
+        delegate.awaitWritable();
+    }
+
+    @Override
+    public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
+        if (anyAreSet(state, FLAG_CLOSE_REQ)) {
+            throw new ClosedChannelException();
+        }
+        delegate.awaitWritable(time, timeUnit);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !anyAreSet(state, FLAG_CLOSE_REQ);
+    }
+
+    @Override
+    public boolean supportsOption(final Option<?> option) {
+        return allAreSet(config, CONF_FLAG_CONFIGURABLE) && delegate.supportsOption(option);
+    }
+
+    @Override
+    public <T> T getOption(final Option<T> option) throws IOException {
+        return allAreSet(config, CONF_FLAG_CONFIGURABLE) ? delegate.getOption(option) : null;
+    }
+
+    @Override
+    public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException, IOException {
+        return allAreSet(config, CONF_FLAG_CONFIGURABLE) ? delegate.setOption(option, value) : null;
+    }
+}
@@ -19,103 +19,283 @@
 package io.undertow.util;
 
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Deque;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Locale;
-import java.util.Map;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import io.undertow.UndertowMessages;
 
 /**
- * This implementation sucks and is incomplete.  It's just here to illustrate.
+ * A map of HTTP headers.
+ * <p/>
+ * Headers are stored in an open addressed table keyed by {@link HttpString}. Entries are kept in parallel
+ * arrays in insertion order, and the hash table only holds indexes into these arrays, so adding a header
+ * does not allocate. A header with a single value stores the value directly; a {@link Deque} is only
+ * created when a header has more than one value, or when {@link #get(HttpString)} is called.
+ * <p/>
+ * Values can also be added as a range of bytes using {@link #addLazy(HttpString, byte[], int, int)}, in
+ * which case they are only converted to a {@code String} the first time they are read.
+ * <p/>
+ * This class is not thread safe.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class HeaderMap implements Iterable<HttpString> {
 
-    private final Map<HttpString, ArrayDeque<String>> values = new SecureHashMap<HttpString, ArrayDeque<String>>();
+    private static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * The longest probe sequence an insert may take before the hash table is grown
+     */
+    private static final int MAX_PROBE_LENGTH = 16;
+
+    /**
+     * The largest the hash table may grow to, as a multiple of the number of entries. If the probe sequences
+     * are still too long at this size the header names must have colliding hashes, and they are rejected.
+     */
+    private static final int MAX_TABLE_FACTOR = 32;
+
+    /**
+     * The header names, in insertion order. A removed header leaves a {@code null} hole, which is
+     * compacted out the next time the arrays are resized.
+     */
+    private HttpString[] names;
+
+    /**
+     * The hash codes of the header names
+     */
+    private int[] hashes;
+
+    /**
+     * The header values. This is either a {@code String} for a single value, an {@code ArrayDeque<String>}
+     * for multiple values, or {@code null} if the value is a lazy value that has not been decoded yet.
+     */
+    private Object[] values;
+
+    /**
+     * Lazy values that have not been decoded yet. These arrays are only allocated if
+     * {@link #addLazy(HttpString, byte[], int, int)} is used.
+     */
+    private byte[][] lazyBytes;
+    private int[] lazyOffsets;
+    private int[] lazyLengths;
+
+    /**
+     * The hash table. Each slot holds an index into the entry arrays plus one, or zero if the
+     * slot is empty. Slots that point to removed entries are skipped over when probing.
+     */
+    private int[] table;
+
+    /**
+     * The number of used entries, including removed entries
+     */
+    private int entries;
+
+    /**
+     * The number of headers in the map
+     */
+    private int size;
+
+    private final int initialCapacity;
+
+    public HeaderMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a header map that can hold the given number of headers before it needs to resize.
+     *
+     * @param initialCapacity The initial capacity
+     */
+    public HeaderMap(final int initialCapacity) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        this.initialCapacity = capacity;
+    }
 
     public Iterator<HttpString> iterator() {
-        return values.keySet().iterator();
+        return new HeaderNameIterator();
     }
 
+    @SuppressWarnings("unchecked")
     public String getFirst(HttpString headerName) {
-        final Deque<String> deque = values.get(headerName);
-        return deque == null ? null : deque.peekFirst();
+        final int index = find(headerName);
+        if (index < 0) {
+            return null;
+        }
+        final Object value = valueAt(index);
+        if (value instanceof String) {
+            return (String) value;
+        }
+        return ((Deque<String>) value).peekFirst();
     }
 
+    @SuppressWarnings("unchecked")
     public String getLast(HttpString headerName) {
-        final Deque<String> deque = values.get(headerName);
-        return deque == null ? null : deque.peekLast();
+        final int index = find(headerName);
+        if (index < 0) {
+            return null;
+        }
+        final Object value = valueAt(index);
+        if (value instanceof String) {
+            return (String) value;
+        }
+        return ((Deque<String>) value).peekLast();
     }
 
     public Deque<String> get(HttpString headerName) {
-        return values.get(headerName);
+        final int index = find(headerName);
+        if (index < 0) {
+            return null;
+        }
+        return dequeAt(index);
     }
 
     public void add(HttpString headerName, String headerValue) {
-        final ArrayDeque<String> value = values.get(headerName);
-        if (value == null) {
-            values.put(headerName, newHeaderValue(headerValue));
+        final int index = find(headerName);
+        if (index < 0) {
+            insert(headerName, headerValue);
         } else {
-            value.add(headerValue);
+            addTo(index, headerValue);
         }
     }
 
-    private ArrayDeque<String> newHeaderValue(final String value) {
-        final ArrayDeque<String> deque = new ArrayDeque<String>();
-        deque.add(value);
-        return deque;
-    }
-
-    private ArrayDeque<String> newHeaderValue(final Collection<String> values) {
-        final ArrayDeque<String> deque = new ArrayDeque<String>();
-        deque.addAll(values);
-        return deque;
+    /**
+     * Adds a header value that has not been converted to a {@code String} yet. The value is the latin-1
+     * bytes in the given range of the array, and is only converted the first time the header is read.
+     * <p/>
+     * This is used by the request parser, so that headers a handler never looks at are never turned into
+     * strings. The caller must not modify the given range of the array after this method has been called.
+     *
+     * @param headerName The header name
+     * @param bytes      The array containing the value
+     * @param offset     The offset of the value in the array
+     * @param length     The length of the value
+     */
+    public void addLazy(HttpString headerName, byte[] bytes, int offset, int length) {
+        final int index = find(headerName);
+        if (index >= 0) {
+            //repeated headers are rare, so we just decode these straight away
+            addTo(index, decode(bytes, offset, length));
+            return;
+        }
+        final int newIndex = insert(headerName, null);
+        if (lazyBytes == null) {
+            final int capacity = names.length;
+            lazyBytes = new byte[capacity][];
+            lazyOffsets = new int[capacity];
+            lazyLengths = new int[capacity];
+        }
+        lazyBytes[newIndex] = bytes;
+        lazyOffsets[newIndex] = offset;
+        lazyLengths[newIndex] = length;
     }
 
     public void addAll(HttpString headerName, Collection<String> headerValues) {
-        final ArrayDeque<String> value = values.get(headerName);
-        if (value == null) {
-            values.put(headerName, newHeaderValue(headerValues));
+        final int index = find(headerName);
+        if (index < 0) {
+            insert(headerName, new ArrayDeque<String>(headerValues));
         } else {
-            value.addAll(headerValues);
+            dequeAt(index).addAll(headerValues);
         }
     }
 
+    @SuppressWarnings("unchecked")
     public void addAll(HeaderMap other) {
-        for (Map.Entry<HttpString, ArrayDeque<String>> entry : other.values.entrySet()) {
-            final HttpString key = entry.getKey();
-            final ArrayDeque<String> value = entry.getValue();
-            final ArrayDeque<String> target = values.get(key);
-            if (target == null) {
-                values.put(key, newHeaderValue(value));
-            } else {
-                target.addAll(value);
+        for (int i = 0; i < other.entries; ++i) {
+            final HttpString name = other.names[i];
+            if (name != null) {
+                final Object value = other.valueAt(i);
+                if (value instanceof String) {
+                    add(name, (String) value);
+                } else {
+                    addAll(name, (Deque<String>) value);
+                }
             }
         }
     }
 
+    /**
+     * Adds the values of the header the cursor of another map points to. Values the other map has not decoded yet
+     * are added without being decoded, so copying headers from one message to another does not turn them into
+     * strings.
+     *
+     * @param other  The map to copy from
+     * @param cursor A cursor obtained from {@link #fastIterate()} on the other map
+     */
+    @SuppressWarnings("unchecked")
+    public void addFrom(final HeaderMap other, final int cursor) {
+        final HttpString name = other.names[cursor];
+        if (other.values[cursor] == null && other.lazyBytes != null && other.lazyBytes[cursor] != null) {
+            addLazy(name, other.lazyBytes[cursor], other.lazyOffsets[cursor], other.lazyLengths[cursor]);
+            return;
+        }
+        final Object value = other.valueAt(cursor);
+        if (value instanceof String) {
+            add(name, (String) value);
+        } else {
+            addAll(name, (Deque<String>) value);
+        }
+    }
+
     public void clear() {
-        values.clear();
+        if (names != null) {
+            Arrays.fill(names, 0, entries, null);
+            Arrays.fill(values, 0, entries, null);
+            if (lazyBytes != null) {
+                Arrays.fill(lazyBytes, 0, entries, null);
+            }
+            Arrays.fill(table, 0);
+        }
+        entries = 0;
+        size = 0;
     }
 
-    public Collection<HttpString> getHeaderNames() {
-        return new HashSet<HttpString>(values.keySet());
+    /**
+     * @return A copy of the header names, in insertion order
+     */
+    public Set<HttpString> getHeaderNames() {
+        final Set<HttpString> names = new LinkedHashSet<HttpString>(size * 2);
+        for (int i = 0; i < entries; ++i) {
+            if (this.names[i] != null) {
+                names.add(this.names[i]);
+            }
+        }
+        return names;
     }
 
     public void put(HttpString headerName, String headerValue) {
-        final ArrayDeque<String> value = newHeaderValue(headerValue);
-        values.put(headerName, value);
+        final int index = find(headerName);
+        if (index < 0) {
+            insert(headerName, headerValue);
+        } else {
+            setValue(index, headerValue);
+        }
     }
 
     public void putAll(HttpString headerName, Collection<String> headerValues) {
-        final ArrayDeque<String> deque = newHeaderValue(headerValues);
-        values.put(headerName, deque);
+        final int index = find(headerName);
+        if (index < 0) {
+            insert(headerName, new ArrayDeque<String>(headerValues));
+        } else {
+            setValue(index, new ArrayDeque<String>(headerValues));
+        }
     }
 
     public Collection<String> remove(HttpString headerName) {
-        return values.remove(headerName);
+        final int index = find(headerName);
+        if (index < 0) {
+            return null;
+        }
+        final Deque<String> result = dequeAt(index);
+        removeEntry(index);
+        return result;
     }
 
     /**
@@ -126,8 +306,74 @@ public final class HeaderMap implements Iterable<HttpString> {
     }
 
     public boolean contains(HttpString headerName) {
-        final ArrayDeque<String> value = values.get(headerName);
-        return value != null && ! value.isEmpty();
+        final int index = find(headerName);
+        if (index < 0) {
+            return false;
+        }
+        final Object value = values[index];
+        return !(value instanceof Deque) || !((Deque<?>) value).isEmpty();
+    }
+
+    /**
+     * @return The number of headers in this map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Starts an iteration over the headers that does not allocate an iterator. The returned cursor
+     * is passed to {@link #fiNext(int)}, {@link #fiName(int)} and {@link #fiValue(int)}, and is
+     * invalidated by any modification of the map.
+     *
+     * @return A cursor pointing to the first header, or -1 if the map is empty
+     */
+    public int fastIterate() {
+        return fiAdvance(0);
+    }
+
+    /**
+     * @param cursor The current cursor
+     * @return A cursor pointing to the next header, or -1 if there are no more headers
+     */
+    public int fiNext(final int cursor) {
+        return fiAdvance(cursor + 1);
+    }
+
+    /**
+     * @param cursor The current cursor
+     * @return The name of the header the cursor points to
+     */
+    public HttpString fiName(final int cursor) {
+        return names[cursor];
+    }
+
+    /**
+     * Returns the value of the header the cursor points to if it has exactly one value that has not been
+     * turned into a {@link Deque}, which is the case for almost all headers. Otherwise {@code null} is
+     * returned, and the values should be read using {@link #get(HttpString)}.
+     *
+     * @param cursor The current cursor
+     * @return The single value, or {@code null}
+     */
+    public String fiValue(final int cursor) {
+        final Object value = valueAt(cursor);
+        if (value instanceof String) {
+            return (String) value;
+        }
+        return null;
+    }
+
+    private int fiAdvance(int index) {
+        final HttpString[] names = this.names;
+        final int entries = this.entries;
+        while (index < entries) {
+            if (names[index] != null) {
+                return index;
+            }
+            ++index;
+        }
+        return -1;
     }
 
     @Override
@@ -142,8 +388,250 @@ public final class HeaderMap implements Iterable<HttpString> {
 
     @Override
     public String toString() {
-        return "HeaderMap{" +
-                "values=" + values +
-                '}';
+        final StringBuilder builder = new StringBuilder("HeaderMap{values={");
+        boolean first = true;
+        for (int i = 0; i < entries; ++i) {
+            if (names[i] != null) {
+                if (!first) {
+                    builder.append(", ");
+                }
+                first = false;
+                builder.append(names[i]).append('=').append(dequeAt(i));
+            }
+        }
+        return builder.append("}}").toString();
+    }
+
+    /**
+     * Finds the entry for the given header.
+     *
+     * @param headerName The header name
+     * @return The index of the entry, or -1 if the header is not present
+     */
+    private int find(final HttpString headerName) {
+        final int[] table = this.table;
+        if (table == null || size == 0) {
+            return -1;
+        }
+        final int hash = headerName.hashCode();
+        final int mask = table.length - 1;
+        int slot = hash & mask;
+        int value;
+        while ((value = table[slot]) != 0) {
+            final int index = value - 1;
+            final HttpString name = names[index];
+            if (name == headerName || (name != null && hashes[index] == hash && name.equals(headerName))) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int insert(final HttpString headerName, final Object value) {
+        if (names == null) {
+            allocate(initialCapacity);
+        } else if (entries == names.length) {
+            //if at least a quarter of the entries have been removed we just compact
+            resize(size <= (names.length * 3) >> 2 ? names.length : names.length << 1);
+        }
+        final int index = entries++;
+        final int hash = headerName.hashCode();
+        names[index] = headerName;
+        hashes[index] = hash;
+        values[index] = value;
+        if (!insertIntoTable(index, hash)) {
+            try {
+                rebuildTable(table.length << 1);
+            } catch (CollidingHeadersException e) {
+                names[index] = null;
+                values[index] = null;
+                --entries;
+                throw e;
+            }
+        }
+        ++size;
+        return index;
+    }
+
+    /**
+     * @return {@code false} if the probe sequence was too long, in which case the entry has not been inserted
+     */
+    private boolean insertIntoTable(final int index, final int hash) {
+        final int[] table = this.table;
+        final int mask = table.length - 1;
+        int slot = hash & mask;
+        int probes = 0;
+        while (table[slot] != 0) {
+            if (++probes > MAX_PROBE_LENGTH) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+        return true;
+    }
+
+    /**
+     * Rebuilds the hash table with at least the given length, growing it further until no entry needs more than
+     * {@link #MAX_PROBE_LENGTH} probes. This stops header names whose hashes collide in their low bits from
+     * making every lookup a linear scan.
+     *
+     * @throws CollidingHeadersException if the table would have to grow beyond {@link #MAX_TABLE_FACTOR} times the
+     *                                   number of entries, as the hashes of the names must collide completely
+     */
+    private void rebuildTable(int length) {
+        final int[] oldTable = table;
+        for (; ; ) {
+            if (length > names.length * MAX_TABLE_FACTOR) {
+                table = oldTable;
+                throw UndertowMessages.MESSAGES.tooManyCollidingHeaders();
+            }
+            table = new int[length];
+            boolean inserted = true;
+            for (int i = 0; i < entries && inserted; ++i) {
+                if (names[i] != null) {
+                    inserted = insertIntoTable(i, hashes[i]);
+                }
+            }
+            if (inserted) {
+                return;
+            }
+            length <<= 1;
+        }
+    }
+
+    private void allocate(final int capacity) {
+        names = new HttpString[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+        table = new int[capacity << 1];
+    }
+
+    private void resize(final int capacity) {
+        final HttpString[] oldNames = names;
+        final int[] oldHashes = hashes;
+        final Object[] oldValues = values;
+        final byte[][] oldLazyBytes = lazyBytes;
+        final int[] oldLazyOffsets = lazyOffsets;
+        final int[] oldLazyLengths = lazyLengths;
+        final int oldEntries = entries;
+        allocate(capacity);
+        if (oldLazyBytes != null) {
+            lazyBytes = new byte[capacity][];
+            lazyOffsets = new int[capacity];
+            lazyLengths = new int[capacity];
+        }
+        int index = 0;
+        for (int i = 0; i < oldEntries; ++i) {
+            if (oldNames[i] != null) {
+                names[index] = oldNames[i];
+                hashes[index] = oldHashes[i];
+                values[index] = oldValues[i];
+                if (oldLazyBytes != null) {
+                    lazyBytes[index] = oldLazyBytes[i];
+                    lazyOffsets[index] = oldLazyOffsets[i];
+                    lazyLengths[index] = oldLazyLengths[i];
+                }
+                ++index;
+            }
+        }
+        entries = index;
+        rebuildTable(table.length);
+    }
+
+    private void removeEntry(final int index) {
+        //the table slot still points to this entry, find() skips over it and resize() drops it
+        names[index] = null;
+        values[index] = null;
+        if (lazyBytes != null) {
+            lazyBytes[index] = null;
+        }
+        --size;
+        if (size == 0) {
+            clear();
+        }
+    }
+
+    /**
+     * Returns the value of an entry, decoding it if it is a lazy value.
+     *
+     * @return Either a String or a Deque
+     */
+    private Object valueAt(final int index) {
+        Object value = values[index];
+        if (value == null) {
+            value = values[index] = decode(lazyBytes[index], lazyOffsets[index], lazyLengths[index]);
+            lazyBytes[index] = null;
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Deque<String> dequeAt(final int index) {
+        final Object value = valueAt(index);
+        if (value instanceof String) {
+            final ArrayDeque<String> deque = new ArrayDeque<String>(2);
+            deque.add((String) value);
+            values[index] = deque;
+            return deque;
+        }
+        return (Deque<String>) value;
+    }
+
+    private void addTo(final int index, final String headerValue) {
+        dequeAt(index).add(headerValue);
+    }
+
+    private void setValue(final int index, final Object value) {
+        values[index] = value;
+        if (lazyBytes != null) {
+            lazyBytes[index] = null;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String decode(final byte[] bytes, final int offset, final int length) {
+        return new String(bytes, 0, offset, length);
+    }
+
+    private class HeaderNameIterator implements Iterator<HttpString> {
+
+        private int next = advance(0);
+        private int current = -1;
+
+        private int advance(int index) {
+            while (index < entries && names[index] == null) {
+                ++index;
+            }
+            return index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < entries;
+        }
+
+        @Override
+        public HttpString next() {
+            if (next >= entries) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = advance(next + 1);
+            return names[current];
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0 || names[current] == null) {
+                throw new IllegalStateException();
+            }
+            removeEntry(current);
+            current = -1;
+            if (size == 0) {
+                next = 0;
+            }
+        }
     }
 }
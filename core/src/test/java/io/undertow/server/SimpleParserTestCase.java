@@ -19,9 +19,11 @@
 package io.undertow.server;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import io.undertow.server.HttpParser;
 import io.undertow.server.ParseState;
+import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
 import io.undertow.util.Protocols;
@@ -133,6 +135,38 @@ public class SimpleParserTestCase {
         }
     }
 
+    @Test
+    public void testLargeAndRepeatedHeaders() {
+        final StringBuilder request = new StringBuilder("GET /somepath HTTP/1.1\r\n");
+        final StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 200; ++i) {
+            longValue.append("abcdefghij");
+        }
+        request.append("Cookie: a=b\r\n");
+        request.append("LongHeader: ").append(longValue).append("\r\n");
+        request.append("Cookie: c=d\r\n");
+        for (int i = 0; i < 30; ++i) {
+            request.append("Header").append(i).append(": value").append(i).append("\r\n");
+        }
+        request.append("Latin: caf\u00e9\r\n");
+        request.append("\r\n");
+        byte[] in = request.toString().getBytes(Charset.forName("ISO-8859-1"));
+
+        final ParseState context = new ParseState();
+        HttpServerExchange result = new HttpServerExchange(null, null, null, null, null);
+        HttpParser.INSTANCE.handle(ByteBuffer.wrap(in), in.length, context, result);
+        Assert.assertTrue(context.isComplete());
+
+        Assert.assertEquals(longValue.toString(), result.getRequestHeaders().getFirst(new HttpString("LongHeader")));
+        Assert.assertEquals("a=b", result.getRequestHeaders().getFirst(Headers.COOKIE));
+        Assert.assertEquals("c=d", result.getRequestHeaders().getLast(Headers.COOKIE));
+        for (int i = 0; i < 30; ++i) {
+            Assert.assertEquals("value" + i, result.getRequestHeaders().getFirst(new HttpString("Header" + i)));
+        }
+        Assert.assertEquals("caf\u00e9", result.getRequestHeaders().getFirst(new HttpString("Latin")));
+        Assert.assertEquals(33, result.getRequestHeaders().getHeaderNames().size());
+    }
+
     private void runTest(final byte[] in) {
         final ParseState context = new ParseState();
         HttpServerExchange result = new HttpServerExchange(null, null, null, null, null);
@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTestCase {
+
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(500500, histogram.getSum());
+        Assert.assertEquals(1000, histogram.getMax());
+        Assert.assertEquals(500.5, histogram.getMean(), 0.001);
+        assertWithinBucket(500, histogram.getValueAtPercentile(50));
+        assertWithinBucket(990, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(100, histogram.getCountAtOrBelow(100), 8);
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        for (long value : new long[]{0, 1, 7, 8, 9, 15, 16, 1000, 123456789, Long.MAX_VALUE >> 24}) {
+            final int index = LatencyHistogram.index(value);
+            Assert.assertTrue(value + " " + index, LatencyHistogram.lowerBound(index) <= value);
+            Assert.assertTrue(value + " " + index, LatencyHistogram.upperBound(index) > value);
+        }
+    }
+
+    private static void assertWithinBucket(final long expected, final long actual) {
+        // buckets have 3 sub bucket bits, so a value is reported within 12.5% of its true value
+        Assert.assertEquals(expected, actual, expected / 8.0 + 1);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchingSessionIdGeneratorTestCase {
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    @Test
+    public void testIdsAreUniqueAndWellFormed() {
+        final BatchingSessionIdGenerator generator = new BatchingSessionIdGenerator();
+        final Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 10000; ++i) {
+            final String id = generator.createSessionId();
+            Assert.assertEquals(24, id.length());
+            for (int j = 0; j < id.length(); ++j) {
+                Assert.assertTrue(id, ALPHABET.indexOf(id.charAt(j)) >= 0);
+            }
+            Assert.assertTrue(ids.add(id));
+        }
+    }
+
+    @Test
+    public void testLengthAndRoute() {
+        final BatchingSessionIdGenerator generator = new BatchingSessionIdGenerator();
+        generator.setLength(16);
+        generator.setRoute("node1");
+        final String id = generator.createSessionId();
+        Assert.assertEquals(24 + ".node1".length(), id.length());
+        Assert.assertTrue(id, id.endsWith(".node1"));
+        Assert.assertEquals(-1, id.substring(0, 24).indexOf('.'));
+
+        generator.setRoute(null);
+        generator.setLength(30);
+        Assert.assertEquals(40, generator.createSessionId().length());
+    }
+
+    @Test
+    public void testConcurrentGeneration() throws InterruptedException {
+        final BatchingSessionIdGenerator generator = new BatchingSessionIdGenerator();
+        final ConcurrentMap<String, Boolean> ids = new ConcurrentHashMap<String, Boolean>();
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 5000; ++j) {
+                        ids.put(generator.createSessionId(), Boolean.TRUE);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(threads.length * 5000, ids.size());
+    }
+
+}
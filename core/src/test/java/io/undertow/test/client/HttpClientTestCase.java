@@ -0,0 +1,188 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+import io.undertow.client.HttpClient;
+import io.undertow.client.HttpClientRequest;
+import io.undertow.client.HttpClientResponse;
+import io.undertow.server.handlers.blocking.BlockingHandler;
+import io.undertow.server.handlers.blocking.BlockingHttpHandler;
+import io.undertow.server.handlers.blocking.BlockingHttpServerExchange;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.util.Methods;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.IoFuture;
+import org.xnio.OptionMap;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+import org.xnio.channels.Channels;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+
+@RunWith(DefaultServer.class)
+public class HttpClientTestCase {
+
+    private static final String MESSAGE = "My HTTP Request!";
+
+    private static XnioWorker worker;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        worker = Xnio.getInstance("nio", HttpClientTestCase.class.getClassLoader()).createWorker(OptionMap.EMPTY);
+        final BlockingHandler blockingHandler = new BlockingHandler();
+        DefaultServer.setRootHandler(blockingHandler);
+        blockingHandler.setRootHandler(new BlockingHttpHandler() {
+            @Override
+            public void handleRequest(final BlockingHttpServerExchange exchange) {
+                try {
+                    final String message;
+                    if (exchange.getExchange().getRequestMethod().equals(Methods.POST)) {
+                        message = read(exchange.getInputStream());
+                    } else {
+                        message = exchange.getExchange().getRequestPath().endsWith("large") ? generateMessage(1000) : MESSAGE;
+                    }
+                    exchange.getOutputStream().write(message.getBytes("UTF-8"));
+                    exchange.getOutputStream().close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        worker.shutdown();
+    }
+
+    @Test
+    public void testGetReusesConnection() throws IOException {
+        final HttpClient client = HttpClient.create(worker, OptionMap.EMPTY);
+        try {
+            final HttpClientRequest first = client.sendRequest(Methods.GET_STRING, DefaultServer.getDefaultServerAddress() + "/path", OptionMap.EMPTY).get();
+            final HttpClientResponse firstResponse = first.getResponse().get();
+            Assert.assertEquals(200, firstResponse.getResponseCode());
+            Assert.assertEquals(MESSAGE, readBody(firstResponse));
+
+            final HttpClientRequest second = client.sendRequest(Methods.GET_STRING, DefaultServer.getDefaultServerAddress() + "/large", OptionMap.EMPTY).get();
+            final HttpClientResponse secondResponse = second.getResponse().get();
+            Assert.assertEquals(200, secondResponse.getResponseCode());
+            Assert.assertEquals(generateMessage(1000), readBody(secondResponse));
+            Assert.assertSame(first.getConnection(), second.getConnection());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testPostWithFixedLengthBody() throws IOException {
+        final HttpClient client = HttpClient.create(worker, OptionMap.EMPTY);
+        try {
+            for (int i = 1; i < 100; i *= 10) {
+                final String message = generateMessage(i);
+                final byte[] bytes = message.getBytes("UTF-8");
+                final HttpClientRequest request = client.sendRequest(Methods.POST_STRING, DefaultServer.getDefaultServerAddress() + "/path", OptionMap.EMPTY).get();
+                final StreamSinkChannel channel = request.writeRequestBody(bytes.length);
+                Channels.writeBlocking(channel, ByteBuffer.wrap(bytes));
+                channel.shutdownWrites();
+                Channels.flushBlocking(channel);
+                final HttpClientResponse response = request.getResponse().get();
+                Assert.assertEquals(200, response.getResponseCode());
+                Assert.assertEquals(message, readBody(response));
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testPostWithChunkedBody() throws IOException {
+        final HttpClient client = HttpClient.create(worker, OptionMap.EMPTY);
+        try {
+            final HttpClientRequest request = client.sendRequest(Methods.POST_STRING, DefaultServer.getDefaultServerAddress() + "/path", OptionMap.EMPTY).get();
+            final StreamSinkChannel channel = request.writeRequestBody(-1);
+            for (int i = 0; i < 10; ++i) {
+                Channels.writeBlocking(channel, ByteBuffer.wrap(MESSAGE.getBytes("UTF-8")));
+            }
+            channel.shutdownWrites();
+            Channels.flushBlocking(channel);
+            final HttpClientResponse response = request.getResponse().get();
+            Assert.assertEquals(200, response.getResponseCode());
+            Assert.assertEquals(generateMessage(10), readBody(response));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testUnknownHost() throws IOException {
+        final HttpClient client = HttpClient.create(worker, OptionMap.EMPTY);
+        try {
+            final IoFuture<HttpClientRequest> request = client.sendRequest(Methods.GET_STRING, "http://undertow.invalid/path", OptionMap.EMPTY);
+            Assert.assertEquals(IoFuture.Status.FAILED, request.await());
+            Assert.assertTrue(request.getException() instanceof UnknownHostException);
+        } finally {
+            client.close();
+        }
+    }
+
+    private static String readBody(final HttpClientResponse response) throws IOException {
+        final StreamSourceChannel channel = response.readReplyBody();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ByteBuffer buffer = ByteBuffer.allocate(1024);
+        try {
+            while (Channels.readBlocking(channel, buffer) != -1) {
+                buffer.flip();
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.clear();
+            }
+        } finally {
+            channel.close();
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    private static String read(final InputStream stream) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int res;
+        while ((res = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, res);
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    private static String generateMessage(final int repetitions) {
+        final StringBuilder builder = new StringBuilder(repetitions * MESSAGE.length());
+        for (int i = 0; i < repetitions; ++i) {
+            builder.append(MESSAGE);
+        }
+        return builder.toString();
+    }
+}
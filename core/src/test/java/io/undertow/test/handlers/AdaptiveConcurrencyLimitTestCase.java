@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.handlers.AdaptiveConcurrencyLimit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that the adaptive limit converges on the concurrency a simulated handler can sustain. The handler
+ * has a fixed latency up to its capacity, after which requests queue and latency grows with the number of
+ * requests in flight.
+ */
+public class AdaptiveConcurrencyLimitTestCase {
+
+    private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private long now = System.nanoTime();
+
+    @Test
+    public void testLimitIsLoweredWhenLatencyRises() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 1, 1000);
+        run(limit, 500, 80, TimeUnit.MILLISECONDS.toNanos(10));
+        final int before = limit.getLimit();
+        Assert.assertTrue("Limit was " + before, before >= 80);
+        //a downstream service slows down, so the handler can sustain far fewer requests
+        run(limit, 50, 10, TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertTrue("Limit was " + limit.getLimit() + " before " + before, limit.getLimit() <= before / 2);
+    }
+
+    @Test
+    public void testLimitIsRaisedWhileLatencyIsStable() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 1000);
+        run(limit, 500, 50, TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertTrue("Limit was " + limit.getLimit(), limit.getLimit() >= 50 && limit.getLimit() <= 150);
+    }
+
+    @Test
+    public void testLimitFollowsChangeInCapacity() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 1000);
+        run(limit, 500, 100, TimeUnit.MILLISECONDS.toNanos(5));
+        final int before = limit.getLimit();
+        Assert.assertTrue("Limit was " + before, before >= 100);
+        //a deploy makes each request twice as expensive
+        run(limit, 1000, 50, TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertTrue("Limit was " + limit.getLimit() + " before " + before, limit.getLimit() < before && limit.getLimit() <= 150);
+    }
+
+    @Test
+    public void testLimitIsNotRaisedWhenUnused() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 1, 1000);
+        for (int i = 0; i < 500; ++i) {
+            for (int j = 0; j < AdaptiveConcurrencyLimit.DEFAULT_MIN_WINDOW_SAMPLES; ++j) {
+                now += WINDOW / AdaptiveConcurrencyLimit.DEFAULT_MIN_WINDOW_SAMPLES;
+                limit.addSample(now - TimeUnit.MILLISECONDS.toNanos(10), now, 2);
+            }
+        }
+        Assert.assertEquals(20, limit.getLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimits() {
+        new AdaptiveConcurrencyLimit(10, 20, 30);
+    }
+
+    /**
+     * Runs a saturated handler with the given capacity for a number of windows.
+     */
+    private void run(final AdaptiveConcurrencyLimit limit, final int windows, final int capacity, final long latency) {
+        for (int i = 0; i < windows; ++i) {
+            final int inFlight = limit.getLimit();
+            final long requestLatency = inFlight <= capacity ? latency : latency * inFlight / capacity;
+            for (int j = 0; j < AdaptiveConcurrencyLimit.DEFAULT_MIN_WINDOW_SAMPLES; ++j) {
+                now += WINDOW / AdaptiveConcurrencyLimit.DEFAULT_MIN_WINDOW_SAMPLES;
+                limit.addSample(now - requestLatency, now, inFlight);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.test.utils.DefaultServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(DefaultServer.class)
+public class ExchangeCompletionListenerTestCase {
+
+    @Test
+    public void testCompletionListenerAndTimestamps() throws IOException {
+        final AtomicReference<HttpServerExchange> completed = new AtomicReference<HttpServerExchange>();
+        final AtomicInteger responseCode = new AtomicInteger();
+        final AtomicInteger invocations = new AtomicInteger();
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+                exchange.addExchangeCompletionListener(new ExchangeCompletionListener() {
+                    @Override
+                    public void exchangeComplete(final HttpServerExchange exchange) {
+                        invocations.incrementAndGet();
+                        responseCode.set(exchange.getResponseCode());
+                        completed.set(exchange);
+                    }
+                });
+                exchange.setResponseCode(204);
+                completionHandler.handleComplete();
+                completionHandler.handleComplete();
+            }
+        });
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/path"));
+            Assert.assertEquals(204, result.getStatusLine().getStatusCode());
+
+            Assert.assertEquals(1, invocations.get());
+            Assert.assertEquals(204, responseCode.get());
+            final HttpServerExchange exchange = completed.get();
+            Assert.assertTrue(exchange.getRequestStartTime() != 0);
+            Assert.assertTrue(exchange.getHeadersParsedTime() - exchange.getRequestStartTime() >= 0);
+            Assert.assertTrue(exchange.getHandlerStartTime() - exchange.getHeadersParsedTime() >= 0);
+            Assert.assertTrue(exchange.getCompletionTime() - exchange.getHandlerStartTime() >= 0);
+            Assert.assertTrue(exchange.getResponseCommitTime() - exchange.getHandlerStartTime() >= 0);
+            try {
+                exchange.addExchangeCompletionListener(new ExchangeCompletionListener() {
+                    @Override
+                    public void exchangeComplete(final HttpServerExchange exchange) {
+                    }
+                });
+                Assert.fail("Expected IllegalStateException");
+            } catch (IllegalStateException expected) {
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.client.HttpClient;
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.LoadBalancer;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.ProxyHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.HttpString;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+
+@RunWith(DefaultServer.class)
+public class LoadBalancingProxyTestCase {
+
+    private static final HttpString BACKEND_HEADER = new HttpString("X-Backend");
+
+    private static volatile boolean backend1Healthy = true;
+    private static volatile boolean backend1Hangs;
+
+    private static XnioWorker worker;
+    private static HttpClient proxyClient;
+    private static LoadBalancer loadBalancer;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        worker = Xnio.getInstance("nio", LoadBalancingProxyTestCase.class.getClassLoader()).createWorker(OptionMap.EMPTY);
+        proxyClient = HttpClient.create(worker, OptionMap.EMPTY);
+        loadBalancer = new LoadBalancer(proxyClient)
+                .addBackend(URI.create(DefaultServer.getDefaultServerAddress() + "/backend0/"), "node0")
+                .addBackend(URI.create(DefaultServer.getDefaultServerAddress() + "/backend1/"), "node1")
+                .setStrategy(LoadBalancer.Strategy.POWER_OF_TWO_CHOICES)
+                .setUnhealthyThreshold(1)
+                .setHealthCheck("/health", 50, TimeUnit.MILLISECONDS)
+                .setHealthCheckTimeout(200, TimeUnit.MILLISECONDS);
+
+        final PathHandler root = new PathHandler();
+        root.addPath("/backend0", new BackendHandler(0));
+        root.addPath("/backend1", new BackendHandler(1));
+        root.setDefaultHandler(new ProxyHandler(loadBalancer));
+        DefaultServer.setRootHandler(root);
+    }
+
+    @AfterClass
+    public static void shutdown() throws IOException {
+        loadBalancer.setHealthCheck(null, 0, TimeUnit.MILLISECONDS);
+        proxyClient.close();
+        worker.shutdown();
+    }
+
+    @Test
+    public void testRequestsAreBalanced() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            final Set<String> backends = new HashSet<String>();
+            for (int i = 0; i < 50; ++i) {
+                backends.add(get(client, null));
+            }
+            Assert.assertEquals(2, backends.size());
+            for (LoadBalancer.Backend backend : loadBalancer.getBackends()) {
+                Assert.assertEquals(0, backend.getOutstanding());
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testStickySessions() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            for (int i = 0; i < 10; ++i) {
+                Assert.assertEquals("backend1", get(client, "JSESSIONID=aB3-_x.node1"));
+                Assert.assertEquals("backend0", get(client, "other=a.node1; JSESSIONID=\"aB3-_x.node0\""));
+                Assert.assertEquals("backend1", get(client, "XJSESSIONID=a.node0;JSESSIONID=aB3-_x.node1 ; other=b"));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedHealthCheck() throws Exception {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            //starts the health checks
+            get(client, null);
+            final LoadBalancer.Backend backend1 = loadBalancer.getBackends().get(1);
+            backend1Healthy = false;
+            waitForAvailability(backend1, false);
+            for (int i = 0; i < 10; ++i) {
+                Assert.assertEquals("backend0", get(client, null));
+                //the session fails over
+                Assert.assertEquals("backend0", get(client, "JSESSIONID=aB3-_x.node1"));
+            }
+            backend1Healthy = true;
+            waitForAvailability(backend1, true);
+            Assert.assertEquals("backend1", get(client, "JSESSIONID=aB3-_x.node1"));
+        } finally {
+            backend1Healthy = true;
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testHealthCheckTimeout() throws Exception {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            //starts the health checks
+            get(client, null);
+            final LoadBalancer.Backend backend1 = loadBalancer.getBackends().get(1);
+            backend1Hangs = true;
+            waitForAvailability(backend1, false);
+            Assert.assertEquals("backend0", get(client, "JSESSIONID=aB3-_x.node1"));
+            //the checks that timed out must not stop the backend from being checked again
+            backend1Hangs = false;
+            waitForAvailability(backend1, true);
+            Assert.assertEquals("backend1", get(client, "JSESSIONID=aB3-_x.node1"));
+        } finally {
+            backend1Hangs = false;
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static void waitForAvailability(final LoadBalancer.Backend backend, final boolean available) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        while (backend.isAvailable() != available) {
+            if (System.currentTimeMillis() > end) {
+                Assert.fail("Backend availability did not change to " + available);
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static String get(final DefaultHttpClient client, final String cookie) throws IOException {
+        final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path");
+        if (cookie != null) {
+            get.addHeader("Cookie", cookie);
+        }
+        final HttpResponse result = client.execute(get);
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        HttpClientUtils.readResponse(result);
+        return result.getFirstHeader(BACKEND_HEADER.toString()).getValue();
+    }
+
+    private static final class BackendHandler implements HttpHandler {
+
+        private final int index;
+
+        private BackendHandler(final int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+            if (exchange.getRequestURI().endsWith("/health")) {
+                if (index == 1 && backend1Hangs) {
+                    //the response is never sent, the connection is closed by the health check timeout
+                    return;
+                }
+                exchange.setResponseCode(index != 1 || backend1Healthy ? 200 : 500);
+            } else {
+                exchange.getResponseHeaders().put(BACKEND_HEADER, "backend" + index);
+            }
+            completionHandler.handleComplete();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers;
+
+import java.io.IOException;
+
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.NameVirtualHostHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that requests are dispatched on the Host header
+ */
+@RunWith(DefaultServer.class)
+public class NameVirtualHostTestCase {
+
+    public static final String MATCHED = "matched";
+
+    @Test
+    public void testHostMatching() throws IOException {
+        DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            final NameVirtualHostHandler handler = new NameVirtualHostHandler();
+            handler.addHost("example.com", new HostHandler("example.com"));
+            handler.addHost("example.com:8080", new HostHandler("example.com:8080"));
+            handler.addHost("*.example.com", new HostHandler("*.example.com"));
+            handler.addHost("*.api.example.com", new HostHandler("*.api.example.com"));
+            handler.addHost("Other.ORG", new HostHandler("Other.ORG"));
+            DefaultServer.setRootHandler(handler);
+
+            runHostTest(client, "example.com", "example.com");
+            runHostTest(client, "EXAMPLE.com", "example.com");
+            runHostTest(client, "example.com:7777", "example.com");
+            runHostTest(client, "example.com.", "example.com");
+            runHostTest(client, "example.com:8080", "example.com:8080");
+            runHostTest(client, "www.example.com", "*.example.com");
+            runHostTest(client, "a.b.Example.com:7777", "*.example.com");
+            runHostTest(client, "v1.api.example.com", "*.api.example.com");
+            runHostTest(client, "api.example.com", "*.example.com");
+            runHostTest(client, "other.org", "Other.ORG");
+            //repeated lookups are served from the cache
+            runHostTest(client, "www.example.com", "*.example.com");
+
+            runNotFoundTest(client, "example.org");
+            runNotFoundTest(client, "notexample.com");
+
+            handler.addHost("*", new HostHandler("*"));
+            runHostTest(client, "example.org", "*");
+            runHostTest(client, "www.example.com", "*.example.com");
+
+            handler.removeHost("*.example.com");
+            runHostTest(client, "www.example.com", "*");
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private void runHostTest(DefaultHttpClient client, String host, String expectedMatch) throws IOException {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path");
+        get.addHeader(Headers.HOST_STRING, host);
+        HttpResponse result = client.execute(get);
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        Assert.assertEquals(expectedMatch, result.getFirstHeader(MATCHED).getValue());
+        HttpClientUtils.readResponse(result);
+    }
+
+    private void runNotFoundTest(DefaultHttpClient client, String host) throws IOException {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path");
+        get.addHeader(Headers.HOST_STRING, host);
+        HttpResponse result = client.execute(get);
+        Assert.assertEquals(404, result.getStatusLine().getStatusCode());
+        HttpClientUtils.readResponse(result);
+    }
+
+    private static class HostHandler implements HttpHandler {
+
+        private final String matched;
+
+        private HostHandler(String matched) {
+            this.matched = matched;
+        }
+
+        @Override
+        public void handleRequest(HttpServerExchange exchange, HttpCompletionHandler completionHandler) {
+            exchange.getResponseHeaders().add(new HttpString(MATCHED), matched);
+            completionHandler.handleComplete();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+import io.undertow.client.HttpClient;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.ProxyHandler;
+import io.undertow.server.handlers.blocking.BlockingHandler;
+import io.undertow.server.handlers.blocking.BlockingHttpHandler;
+import io.undertow.server.handlers.blocking.BlockingHttpServerExchange;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+
+@RunWith(DefaultServer.class)
+public class ProxyHandlerTestCase {
+
+    private static final String MESSAGE = "My HTTP Request!";
+
+    private static XnioWorker worker;
+    private static HttpClient proxyClient;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        worker = Xnio.getInstance("nio", ProxyHandlerTestCase.class.getClassLoader()).createWorker(OptionMap.EMPTY);
+        proxyClient = HttpClient.create(worker, OptionMap.EMPTY);
+
+        final BlockingHandler backend = new BlockingHandler();
+        backend.setRootHandler(new BlockingHttpHandler() {
+            @Override
+            public void handleRequest(final BlockingHttpServerExchange exchange) {
+                try {
+                    final String message;
+                    if (exchange.getExchange().getRequestMethod().equals(Methods.POST)) {
+                        message = read(exchange.getInputStream());
+                    } else {
+                        final int repetitions = Integer.parseInt(exchange.getExchange().getQueryParameters().get("repetitions").getFirst());
+                        message = generateMessage(repetitions);
+                    }
+                    exchange.getExchange().getResponseHeaders().put(new HttpString("X-Backend-Path"), exchange.getExchange().getRequestURI());
+                    exchange.getExchange().getResponseHeaders().put(new HttpString("X-Removed-Seen"), Boolean.toString(exchange.getExchange().getRequestHeaders().contains(new HttpString("X-Removed"))));
+                    exchange.getOutputStream().write(message.getBytes("UTF-8"));
+                    exchange.getOutputStream().close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        final PathHandler root = new PathHandler();
+        root.addPath("/backend", backend);
+        root.setDefaultHandler(new ProxyHandler(proxyClient, URI.create(DefaultServer.getDefaultServerAddress() + "/backend/")));
+        DefaultServer.setRootHandler(root);
+    }
+
+    @AfterClass
+    public static void shutdown() throws IOException {
+        proxyClient.close();
+        worker.shutdown();
+    }
+
+    @Test
+    public void testProxiedGet() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            for (int repetitions : new int[]{1, 10000, 1}) {
+                final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path?repetitions=" + repetitions);
+                get.addHeader("X-Removed", "true");
+                get.addHeader("Connection", "X-Removed");
+                final HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("/backend/path", result.getFirstHeader("X-Backend-Path").getValue());
+                Assert.assertEquals("false", result.getFirstHeader("X-Removed-Seen").getValue());
+                Assert.assertEquals(generateMessage(repetitions), HttpClientUtils.readResponse(result));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testProxiedPost() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            for (int repetitions : new int[]{1, 10000}) {
+                final HttpPost post = new HttpPost(DefaultServer.getDefaultServerAddress() + "/path");
+                final String message = generateMessage(repetitions);
+                post.setEntity(new StringEntity(message));
+                final HttpResponse result = client.execute(post);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals(message, HttpClientUtils.readResponse(result));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static String read(final InputStream stream) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int res;
+        while ((res = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, res);
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    private static String generateMessage(final int repetitions) {
+        final StringBuilder builder = new StringBuilder(repetitions * MESSAGE.length());
+        for (int i = 0; i < repetitions; ++i) {
+            builder.append(MESSAGE);
+        }
+        return builder.toString();
+    }
+}
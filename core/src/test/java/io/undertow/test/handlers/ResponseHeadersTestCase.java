@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers;
+
+import java.io.IOException;
+
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.util.DateUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+
+/**
+ * Tests that response headers are written correctly both when the whole header block fits in a
+ * single buffer, and when it has to be written out in several parts, and that a {@code Date} header
+ * is added to every response if {@link UndertowOptions#ALWAYS_SET_DATE} is set. Well known headers must be written with the same name whichever way the
+ * header block is written.
+ */
+@RunWith(DefaultServer.class)
+public class ResponseHeadersTestCase {
+
+    private static final String LARGE_VALUE;
+
+    static {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 6000; ++i) {
+            builder.append((char) ('a' + i % 26));
+        }
+        LARGE_VALUE = builder.toString();
+    }
+
+    @BeforeClass
+    public static void setup() {
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+                if (exchange.getRelativePath().equals("/large")) {
+                    exchange.getResponseHeaders().add(new HttpString("Large"), LARGE_VALUE);
+                    exchange.getResponseHeaders().add(new HttpString("Large"), LARGE_VALUE);
+                } else if (exchange.getRelativePath().equals("/unknown")) {
+                    exchange.setResponseCode(299);
+                }
+                exchange.getResponseHeaders().put(new HttpString("cache-control"), "no-cache");
+                exchange.getResponseHeaders().put(new HttpString("X-Custom"), "custom");
+                exchange.getResponseHeaders().add(new HttpString("X-Multi"), "one");
+                exchange.getResponseHeaders().add(new HttpString("X-Multi"), "two");
+                completionHandler.handleComplete();
+            }
+        });
+    }
+
+    @Test
+    public void testHeadersFitInBuffer() throws IOException {
+        final HttpResponse result = runRequest("/path", 200, true);
+        Assert.assertEquals(0, result.getHeaders("Large").length);
+        Assert.assertEquals(1, result.getHeaders(Headers.DATE_STRING).length);
+        Assert.assertNotNull(DateUtils.parseDate(result.getFirstHeader(Headers.DATE_STRING).getValue()));
+    }
+
+    @Test
+    public void testHeadersLargerThanBuffer() throws IOException {
+        final HttpResponse result = runRequest("/large", 200, true);
+        final Header[] large = result.getHeaders("Large");
+        Assert.assertEquals(2, large.length);
+        Assert.assertEquals(LARGE_VALUE, large[0].getValue());
+        Assert.assertEquals(LARGE_VALUE, large[1].getValue());
+        Assert.assertEquals(1, result.getHeaders(Headers.DATE_STRING).length);
+    }
+
+    @Test
+    public void testUnknownStatusCode() throws IOException {
+        runRequest("/unknown", 299, false);
+    }
+
+    @Test
+    public void testDateIsNotSetByDefault() throws IOException {
+        final HttpResponse result = runRequest("/path", 200, false);
+        Assert.assertEquals(0, result.getHeaders(Headers.DATE_STRING).length);
+    }
+
+    private HttpResponse runRequest(final String path, final int expectedCode, final boolean alwaysSetDate) throws IOException {
+        DefaultHttpClient client = new DefaultHttpClient();
+        final OptionMap existing = DefaultServer.getUndertowOptions();
+        try {
+            if (alwaysSetDate) {
+                DefaultServer.setUndertowOptions(OptionMap.create(UndertowOptions.ALWAYS_SET_DATE, true));
+            }
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + path);
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(expectedCode, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("no-cache", result.getFirstHeader(Headers.CACHE_CONTROL_STRING).getValue());
+            Assert.assertEquals(Headers.CACHE_CONTROL_STRING, result.getFirstHeader(Headers.CACHE_CONTROL_STRING).getName());
+            Assert.assertEquals("custom", result.getFirstHeader("X-Custom").getValue());
+            final Header[] multi = result.getHeaders("X-Multi");
+            Assert.assertEquals(2, multi.length);
+            Assert.assertEquals("one", multi[0].getValue());
+            Assert.assertEquals("two", multi[1].getValue());
+            return result;
+        } finally {
+            DefaultServer.setUndertowOptions(existing);
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers.accesslog;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.server.handlers.accesslog.AccessLogFormat;
+import io.undertow.server.handlers.accesslog.AccessLogHandler;
+import io.undertow.server.handlers.accesslog.AccessLogWriter;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(DefaultServer.class)
+public class AccessLogTestCase {
+
+    @Test
+    public void testAccessLog() throws IOException {
+        final File directory = createDirectory();
+        final AccessLogWriter writer = new AccessLogWriter(directory, "access_log.");
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            final AccessLogHandler handler = new AccessLogHandler(writer, "%m %U%q %s \"%{X-Test}i\" %H");
+            handler.setNext(ResponseCodeHandler.HANDLE_200);
+            DefaultServer.setRootHandler(handler);
+
+            final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path/file?a=b");
+            get.addHeader("X-Test", "some value");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+
+            result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/other"));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+            writer.close();
+        }
+        final List<String> lines = readLog(directory);
+        Assert.assertEquals(2, lines.size());
+        Assert.assertEquals("GET /path/file?a=b 200 \"some value\" HTTP/1.1", lines.get(0));
+        Assert.assertEquals("GET /other 200 \"-\" HTTP/1.1", lines.get(1));
+    }
+
+    @Test
+    public void testWriterOverflow() throws Exception {
+        final File directory = createDirectory();
+        //a tiny ring and entry size, so entries overflow to the heap
+        final AccessLogWriter writer = new AccessLogWriter(directory, "access_log.", 4, 16);
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            final int thread = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 2000; ++j) {
+                        writer.write(thread + "-" + j + (j % 10 == 0 ? " a longer entry \u00e9\u4e2d" : ""));
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writer.close();
+        final Set<String> lines = new HashSet<String>(readLog(directory));
+        Assert.assertEquals(threads.length * 2000, lines.size());
+        Assert.assertTrue(lines.contains("3-1990 a longer entry \u00e9\u4e2d"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPattern() {
+        AccessLogFormat.compile("%m %Z");
+    }
+
+    private static File createDirectory() throws IOException {
+        final File directory = File.createTempFile("accesslog", "");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdir());
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    private static List<String> readLog(final File directory) throws IOException {
+        final File[] files = directory.listFiles();
+        Assert.assertEquals(1, files.length);
+        files[0].deleteOnExit();
+        Assert.assertTrue(files[0].getName().startsWith("access_log."));
+        final List<String> lines = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(files[0]), "UTF-8"));
+        try {
+            String line = reader.readLine();
+            while (line != null) {
+                lines.add(line);
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers.cache;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import io.undertow.server.handlers.blocking.BlockingHandler;
+import io.undertow.server.handlers.blocking.BlockingHttpHandler;
+import io.undertow.server.handlers.blocking.BlockingHttpServerExchange;
+import io.undertow.server.handlers.cache.ResponseCacheHandler;
+import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.server.handlers.encoding.GzipEncodingHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(DefaultServer.class)
+public class ResponseCacheHandlerTestCase {
+
+    private static final String MESSAGE = "cached response";
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Sun, 06 Nov 1994 08:49:37 GMT";
+    private static final String LARGE_MESSAGE;
+
+    private static final AtomicInteger invocations = new AtomicInteger();
+
+    static {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; ++i) {
+            builder.append("{\"id\":").append(i).append('}');
+        }
+        LARGE_MESSAGE = builder.toString();
+    }
+
+    @BeforeClass
+    public static void setup() {
+        final BlockingHandler blockingHandler = new BlockingHandler();
+        blockingHandler.setRootHandler(new BlockingHttpHandler() {
+            @Override
+            public void handleRequest(final BlockingHttpServerExchange exchange) {
+                invocations.incrementAndGet();
+                try {
+                    final String path = exchange.getExchange().getRelativePath();
+                    final HeaderMap responseHeaders = exchange.getExchange().getResponseHeaders();
+                    String message = MESSAGE;
+                    if (path.startsWith("/nostore")) {
+                        responseHeaders.put(Headers.CACHE_CONTROL, "public, no-store");
+                    } else if (path.startsWith("/expiring")) {
+                        responseHeaders.put(Headers.CACHE_CONTROL, "max-age=1");
+                    } else if (path.startsWith("/vary")) {
+                        responseHeaders.put(Headers.CACHE_CONTROL, "max-age=60");
+                        responseHeaders.put(Headers.VARY, Headers.USER_AGENT_STRING);
+                    } else if (path.startsWith("/validated")) {
+                        responseHeaders.put(Headers.CACHE_CONTROL, "max-age=60");
+                        responseHeaders.put(Headers.ETAG, ETAG);
+                        responseHeaders.put(Headers.LAST_MODIFIED, LAST_MODIFIED);
+                        //the length is known up front, so the body is written straight into the cache entry
+                        responseHeaders.put(Headers.CONTENT_LENGTH, Integer.toString(MESSAGE.length()));
+                    } else if (path.startsWith("/large")) {
+                        responseHeaders.put(Headers.CACHE_CONTROL, "max-age=60");
+                        responseHeaders.put(Headers.CONTENT_TYPE, "application/json");
+                        message = LARGE_MESSAGE;
+                    } else {
+                        responseHeaders.put(Headers.CACHE_CONTROL, "public, max-age=60");
+                        responseHeaders.put(Headers.CONTENT_TYPE, "text/plain");
+                    }
+                    exchange.getOutputStream().write(message.getBytes());
+                    exchange.getOutputStream().close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        final EncodingHandler encodingHandler = new EncodingHandler();
+        encodingHandler.setIdentityHandler(blockingHandler);
+        encodingHandler.addEncodingHandler(GzipEncodingHandler.NAME, new GzipEncodingHandler(blockingHandler), 50);
+        //small slices, so large responses are spread over several of them
+        final ResponseCacheHandler cacheHandler = new ResponseCacheHandler(1024, 100);
+        cacheHandler.setNext(encodingHandler);
+        DefaultServer.setRootHandler(cacheHandler);
+    }
+
+    @Test
+    public void testResponseIsCached() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            final int start = invocations.get();
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/cached"));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(result));
+            Assert.assertNull(result.getFirstHeader(Headers.AGE_STRING));
+            for (int i = 0; i < 5; ++i) {
+                result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/cached"));
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(result));
+                Assert.assertEquals("text/plain", result.getFirstHeader(Headers.CONTENT_TYPE_STRING).getValue());
+                Assert.assertEquals(Integer.toString(MESSAGE.length()), result.getFirstHeader(Headers.CONTENT_LENGTH_STRING).getValue());
+                Assert.assertNotNull(result.getFirstHeader(Headers.AGE_STRING));
+            }
+            result = client.execute(new HttpHead(DefaultServer.getDefaultServerAddress() + "/cached"));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(Integer.toString(MESSAGE.length()), result.getFirstHeader(Headers.CONTENT_LENGTH_STRING).getValue());
+            Assert.assertEquals(1, invocations.get() - start);
+
+            //a different query string is a different resource
+            result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/cached?a=b"));
+            Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(result));
+            Assert.assertEquals(2, invocations.get() - start);
+
+            //no-cache requests go to the handler
+            final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/cached");
+            get.addHeader(Headers.CACHE_CONTROL_STRING, "no-cache");
+            result = client.execute(get);
+            Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(result));
+            Assert.assertEquals(3, invocations.get() - start);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testResponsesThatAreNotCached() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            final int start = invocations.get();
+            for (int i = 0; i < 3; ++i) {
+                Assert.assertEquals(MESSAGE, get(client, "/nostore", null));
+            }
+            Assert.assertEquals(3, invocations.get() - start);
+            //the response varies on a header that is not part of the key
+            for (int i = 0; i < 3; ++i) {
+                Assert.assertEquals(MESSAGE, get(client, "/vary", null));
+            }
+            Assert.assertEquals(6, invocations.get() - start);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testEntryExpires() throws Exception {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            final int start = invocations.get();
+            Assert.assertEquals(MESSAGE, get(client, "/expiring", null));
+            Assert.assertEquals(MESSAGE, get(client, "/expiring", null));
+            Assert.assertEquals(1, invocations.get() - start);
+            Thread.sleep(1100);
+            Assert.assertEquals(MESSAGE, get(client, "/expiring", null));
+            Assert.assertEquals(2, invocations.get() - start);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testVariantsAreCachedSeparately() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            final int start = invocations.get();
+            for (int i = 0; i < 3; ++i) {
+                HttpResponse result = client.execute(request("/large", "gzip"));
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+                final GZIPInputStream stream = new GZIPInputStream(result.getEntity().getContent());
+                try {
+                    Assert.assertEquals(LARGE_MESSAGE, HttpClientUtils.readResponse(stream));
+                } finally {
+                    stream.close();
+                }
+
+                Assert.assertEquals(LARGE_MESSAGE, get(client, "/large", null));
+            }
+            Assert.assertEquals(2, invocations.get() - start);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testHostIsPartOfKey() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            final int start = invocations.get();
+            for (int i = 0; i < 3; ++i) {
+                final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/hosts");
+                get.addHeader(Headers.HOST_STRING, i == 0 ? "one.example" : "ONE.example");
+                Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(client.execute(get)));
+            }
+            Assert.assertEquals(1, invocations.get() - start);
+            final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/hosts");
+            get.addHeader(Headers.HOST_STRING, "two.example");
+            Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(client.execute(get)));
+            Assert.assertEquals(2, invocations.get() - start);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testConditionalRequestsAreAnsweredFromCache() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            final int start = invocations.get();
+            Assert.assertEquals(MESSAGE, get(client, "/validated", null));
+            Assert.assertEquals(MESSAGE, get(client, "/validated", null));
+            Assert.assertEquals(1, invocations.get() - start);
+
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/validated");
+            get.addHeader(Headers.IF_NONE_MATCH_STRING, "\"v0\", " + ETAG);
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(304, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(ETAG, result.getFirstHeader(Headers.ETAG_STRING).getValue());
+
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/validated");
+            get.addHeader(Headers.IF_NONE_MATCH_STRING, "\"v0\"");
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/validated");
+            get.addHeader(Headers.IF_MODIFIED_SINCE_STRING, LAST_MODIFIED);
+            result = client.execute(get);
+            Assert.assertEquals(304, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(1, invocations.get() - start);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static HttpUriRequest request(final String path, final String acceptEncoding) {
+        final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + path);
+        if (acceptEncoding != null) {
+            get.addHeader(Headers.ACCEPT_ENCODING_STRING, acceptEncoding);
+        }
+        return get;
+    }
+
+    private static String get(final DefaultHttpClient client, final String path, final String acceptEncoding) throws IOException {
+        final HttpResponse result = client.execute(request(path, acceptEncoding));
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+        return HttpClientUtils.readResponse(result);
+    }
+}
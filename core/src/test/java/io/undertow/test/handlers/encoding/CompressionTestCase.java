@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers.encoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import io.undertow.server.handlers.blocking.BlockingHandler;
+import io.undertow.server.handlers.blocking.BlockingHttpHandler;
+import io.undertow.server.handlers.blocking.BlockingHttpServerExchange;
+import io.undertow.server.handlers.encoding.DeflateEncodingHandler;
+import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.server.handlers.encoding.GzipEncodingHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.util.Headers;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests the gzip and deflate content codings
+ */
+@RunWith(DefaultServer.class)
+public class CompressionTestCase {
+
+    private static final String SMALL_MESSAGE = "hello";
+    private static final String LARGE_MESSAGE;
+
+    static {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 20000; ++i) {
+            builder.append("{\"id\":").append(i).append(",\"name\":\"item").append(i % 97).append("\"}");
+        }
+        LARGE_MESSAGE = builder.toString();
+    }
+
+    @BeforeClass
+    public static void setup() {
+        final BlockingHandler blockingHandler = new BlockingHandler();
+        blockingHandler.setRootHandler(new BlockingHttpHandler() {
+            @Override
+            public void handleRequest(final BlockingHttpServerExchange exchange) {
+                try {
+                    final String path = exchange.getExchange().getRelativePath();
+                    final byte[] message;
+                    if (path.equals("/small")) {
+                        message = SMALL_MESSAGE.getBytes();
+                        exchange.getExchange().getResponseHeaders().put(Headers.CONTENT_LENGTH, Integer.toString(message.length));
+                    } else if (path.equals("/image")) {
+                        message = LARGE_MESSAGE.getBytes();
+                        exchange.getExchange().getResponseHeaders().put(Headers.CONTENT_TYPE, "image/png");
+                    } else {
+                        message = LARGE_MESSAGE.getBytes();
+                        exchange.getExchange().getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json; charset=UTF-8");
+                        if (path.equals("/fixed")) {
+                            exchange.getExchange().getResponseHeaders().put(Headers.CONTENT_LENGTH, Integer.toString(message.length));
+                        }
+                    }
+                    exchange.getOutputStream().write(message);
+                    exchange.getOutputStream().close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        final EncodingHandler encodingHandler = new EncodingHandler();
+        encodingHandler.setIdentityHandler(blockingHandler);
+        encodingHandler.addEncodingHandler(GzipEncodingHandler.NAME, new GzipEncodingHandler(blockingHandler), 50);
+        encodingHandler.addEncodingHandler(DeflateEncodingHandler.NAME, new DeflateEncodingHandler(blockingHandler), 10);
+        DefaultServer.setRootHandler(encodingHandler);
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            HttpResponse result = runRequest(client, "/path", "gzip");
+            Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+            Assert.assertEquals(LARGE_MESSAGE, new String(readBytes(new GZIPInputStream(result.getEntity().getContent()))));
+
+            //the content length is removed as the compressed length is not known in advance
+            result = runRequest(client, "/fixed", "gzip");
+            Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+            Assert.assertNull(result.getFirstHeader(Headers.CONTENT_LENGTH_STRING));
+            Assert.assertEquals(LARGE_MESSAGE, new String(readBytes(new GZIPInputStream(result.getEntity().getContent()))));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testDeflate() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            final HttpResponse result = runRequest(client, "/path", "deflate");
+            Assert.assertEquals("deflate", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+            Assert.assertEquals(LARGE_MESSAGE, new String(readBytes(new InflaterInputStream(result.getEntity().getContent()))));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testResponsesThatAreNotCompressed() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            HttpResponse result = runRequest(client, "/small", "gzip");
+            Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+            Assert.assertEquals(SMALL_MESSAGE, new String(readBytes(result.getEntity().getContent())));
+
+            result = runRequest(client, "/image", "gzip");
+            Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+            Assert.assertEquals(LARGE_MESSAGE, new String(readBytes(result.getEntity().getContent())));
+
+            result = runRequest(client, "/path", null);
+            Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+            Assert.assertEquals(LARGE_MESSAGE, new String(readBytes(result.getEntity().getContent())));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static HttpResponse runRequest(final DefaultHttpClient client, final String path, final String acceptEncoding) throws IOException {
+        final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + path);
+        if (acceptEncoding != null) {
+            get.setHeader(Headers.ACCEPT_ENCODING_STRING, acceptEncoding);
+        }
+        final HttpResponse result = client.execute(get);
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        return result;
+    }
+
+    private static byte[] readBytes(final InputStream stream) throws IOException {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] data = new byte[1024];
+            int read;
+            while ((read = stream.read(data)) != -1) {
+                out.write(data, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+}
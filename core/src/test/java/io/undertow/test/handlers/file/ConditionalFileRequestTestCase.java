@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.test.handlers.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import io.undertow.server.handlers.CanonicalPathHandler;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.file.CachingFileCache;
+import io.undertow.server.handlers.file.DirectFileCache;
+import io.undertow.server.handlers.file.FileCache;
+import io.undertow.server.handlers.file.FileHandler;
+import io.undertow.server.handlers.file.InLineFileCache;
+import io.undertow.server.handlers.file.MappedFileCache;
+import io.undertow.server.handlers.file.PermanentFileCache;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.DateUtils;
+import io.undertow.util.Headers;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests the validators, conditional requests and byte ranges of all file cache implementations
+ */
+@RunWith(DefaultServer.class)
+public class ConditionalFileRequestTestCase {
+
+    private static final String CONTENTS;
+
+    private static File directory;
+
+    static {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 3000; ++i) {
+            builder.append((char) ('a' + i % 26));
+        }
+        CONTENTS = builder.toString();
+    }
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        directory = File.createTempFile("undertow", "conditional");
+        directory.delete();
+        directory.mkdir();
+        //a .txt file would also be served as a gzipped variant by the caching file cache
+        final FileOutputStream out = new FileOutputStream(new File(directory, "file.dat"));
+        try {
+            out.write(CONTENTS.getBytes());
+        } finally {
+            out.close();
+        }
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testCachingFileCache() throws IOException {
+        //the slice size is smaller than the file, so ranges span several cached buffers
+        runTest(new CachingFileCache(1024, 100));
+    }
+
+    @Test
+    public void testDirectFileCache() throws IOException {
+        runTest(DirectFileCache.INSTANCE);
+    }
+
+    @Test
+    public void testInLineFileCache() throws IOException {
+        runTest(InLineFileCache.INSTANCE);
+    }
+
+    @Test
+    public void testPermanentFileCache() throws IOException {
+        runTest(new PermanentFileCache());
+    }
+
+    @Test
+    public void testMappedFileCache() throws IOException {
+        runTest(new MappedFileCache());
+    }
+
+    private void runTest(final FileCache cache) throws IOException {
+        final FileHandler handler = new FileHandler(directory);
+        handler.setFileCache(cache);
+        final PathHandler path = new PathHandler();
+        path.addPath("/path", handler);
+        final CanonicalPathHandler root = new CanonicalPathHandler();
+        root.setNext(path);
+        DefaultServer.setRootHandler(root);
+
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            //repeat, so the cached path of the caching file caches is used
+            for (int i = 0; i < 10; ++i) {
+                HttpResponse result = execute(client, new HttpGet(uri()), 200);
+                final String etag = result.getFirstHeader(Headers.ETAG_STRING).getValue();
+                final String lastModified = result.getFirstHeader(Headers.LAST_MODIFIED_STRING).getValue();
+                Assert.assertEquals("bytes", result.getFirstHeader(Headers.ACCEPT_RANGES_STRING).getValue());
+                Assert.assertEquals(CONTENTS, HttpClientUtils.readResponse(result));
+
+                result = execute(client, new HttpHead(uri()), 200);
+                Assert.assertEquals(Integer.toString(CONTENTS.length()), result.getFirstHeader(Headers.CONTENT_LENGTH_STRING).getValue());
+                Assert.assertEquals(etag, result.getFirstHeader(Headers.ETAG_STRING).getValue());
+
+                result = execute(client, request(Headers.IF_NONE_MATCH_STRING, "\"other\", " + etag), 304);
+                Assert.assertEquals(etag, result.getFirstHeader(Headers.ETAG_STRING).getValue());
+                Assert.assertNull(result.getEntity());
+                execute(client, request(Headers.IF_NONE_MATCH_STRING, "W/" + etag), 304);
+                execute(client, request(Headers.IF_NONE_MATCH_STRING, "*"), 304);
+                HttpClientUtils.readResponse(execute(client, request(Headers.IF_NONE_MATCH_STRING, "\"other\""), 200));
+
+                execute(client, request(Headers.IF_MODIFIED_SINCE_STRING, lastModified), 304);
+                final long earlier = DateUtils.parseDateMillis(lastModified) - 10000;
+                HttpClientUtils.readResponse(execute(client, request(Headers.IF_MODIFIED_SINCE_STRING, DateUtils.toDateString(earlier)), 200));
+
+                result = execute(client, request(Headers.RANGE_STRING, "bytes=1000-2099"), 206);
+                Assert.assertEquals("bytes 1000-2099/" + CONTENTS.length(), result.getFirstHeader(Headers.CONTENT_RANGE_STRING).getValue());
+                Assert.assertEquals(CONTENTS.substring(1000, 2100), HttpClientUtils.readResponse(result));
+
+                result = execute(client, request(Headers.RANGE_STRING, "bytes=-100"), 206);
+                Assert.assertEquals(CONTENTS.substring(CONTENTS.length() - 100), HttpClientUtils.readResponse(result));
+
+                result = execute(client, request(Headers.RANGE_STRING, "bytes=2990-"), 206);
+                Assert.assertEquals(CONTENTS.substring(2990), HttpClientUtils.readResponse(result));
+
+                result = execute(client, request(Headers.RANGE_STRING, "bytes=5000-6000"), 416);
+                Assert.assertEquals("bytes */" + CONTENTS.length(), result.getFirstHeader(Headers.CONTENT_RANGE_STRING).getValue());
+                HttpClientUtils.readResponse(result);
+
+                //multiple ranges and a stale If-Range are answered with the whole file
+                Assert.assertEquals(CONTENTS, HttpClientUtils.readResponse(execute(client, request(Headers.RANGE_STRING, "bytes=0-1,5-6"), 200)));
+                final HttpGet get = request(Headers.RANGE_STRING, "bytes=0-9");
+                get.setHeader(Headers.IF_RANGE_STRING, "\"other\"");
+                Assert.assertEquals(CONTENTS, HttpClientUtils.readResponse(execute(client, get, 200)));
+                get.setHeader(Headers.IF_RANGE_STRING, etag);
+                Assert.assertEquals(CONTENTS.substring(0, 10), HttpClientUtils.readResponse(execute(client, get, 206)));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static String uri() {
+        return DefaultServer.getDefaultServerAddress() + "/path/file.dat";
+    }
+
+    private static HttpGet request(final String header, final String value) {
+        final HttpGet get = new HttpGet(uri());
+        get.setHeader(header, value);
+        return get;
+    }
+
+    private static HttpResponse execute(final DefaultHttpClient client, final HttpRequestBase request, final int expectedCode) throws IOException {
+        final HttpResponse result = client.execute(request);
+        Assert.assertEquals(expectedCode, result.getStatusLine().getStatusCode());
+        return result;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.test.handlers.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import io.undertow.server.handlers.CanonicalPathHandler;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.file.CachingFileCache;
+import io.undertow.server.handlers.file.FileCache;
+import io.undertow.server.handlers.file.FileChangeWatcher;
+import io.undertow.server.handlers.file.FileHandler;
+import io.undertow.server.handlers.file.PermanentFileCache;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that file caches notice when a file they have cached changes
+ */
+@RunWith(DefaultServer.class)
+public class FileCacheInvalidationTestCase {
+
+    private File directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = File.createTempFile("undertow", "invalidation");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @After
+    public void cleanup() {
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testCachingFileCacheNoticesChanges() throws IOException {
+        final CachingFileCache cache = new CachingFileCache(1024, 100);
+        cache.setCheckInterval(0);
+        runChangeTest(cache);
+    }
+
+    @Test
+    public void testPermanentFileCacheNoticesChanges() throws IOException {
+        final PermanentFileCache cache = new PermanentFileCache();
+        cache.setCheckInterval(0);
+        runChangeTest(cache);
+    }
+
+    @Test
+    public void testWatcherInvalidatesChangedFiles() throws Exception {
+        Assume.assumeTrue(FileChangeWatcher.isSupported());
+        final CachingFileCache cache = new CachingFileCache(1024, 100);
+        //only the watcher can notice the change
+        cache.setCheckInterval(-1);
+        final FileChangeWatcher watcher = new FileChangeWatcher(directory, cache);
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            setRootHandler(cache);
+            write("file.txt", "version one");
+            for (int i = 0; i < 20; ++i) {
+                Assert.assertEquals("version one", get(client, "/path/file.txt"));
+            }
+            write("file.txt", "version two, which is longer");
+            String result = null;
+            for (int i = 0; i < 100; ++i) {
+                result = get(client, "/path/file.txt");
+                if (!result.equals("version one")) {
+                    break;
+                }
+                Thread.sleep(100);
+            }
+            Assert.assertEquals("version two, which is longer", result);
+        } finally {
+            watcher.close();
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private void runChangeTest(final FileCache cache) throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            setRootHandler(cache);
+            write("file.txt", "version one");
+            write("other.txt", "unchanged");
+            //enough requests for the file to be loaded into the cache
+            for (int i = 0; i < 20; ++i) {
+                Assert.assertEquals("version one", get(client, "/path/file.txt"));
+                Assert.assertEquals("unchanged", get(client, "/path/other.txt"));
+            }
+            write("file.txt", "version two, which is longer");
+            for (int i = 0; i < 20; ++i) {
+                Assert.assertEquals("version two, which is longer", get(client, "/path/file.txt"));
+                Assert.assertEquals("unchanged", get(client, "/path/other.txt"));
+            }
+            new File(directory, "file.txt").delete();
+            final HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/path/file.txt"));
+            Assert.assertEquals(404, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private void setRootHandler(final FileCache cache) {
+        final FileHandler handler = new FileHandler(directory);
+        handler.setFileCache(cache);
+        final PathHandler path = new PathHandler();
+        path.addPath("/path", handler);
+        final CanonicalPathHandler root = new CanonicalPathHandler();
+        root.setNext(path);
+        DefaultServer.setRootHandler(root);
+    }
+
+    private static String get(final DefaultHttpClient client, final String path) throws IOException {
+        final HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + path));
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        return HttpClientUtils.readResponse(result);
+    }
+
+    private void write(final String name, final String contents) throws IOException {
+        final FileOutputStream out = new FileOutputStream(new File(directory, name));
+        try {
+            out.write(contents.getBytes());
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.test.handlers.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import io.undertow.server.handlers.CanonicalPathHandler;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.file.FileHandler;
+import io.undertow.server.handlers.file.MappedFileCache;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.Headers;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(DefaultServer.class)
+public class MappedFileCacheTestCase {
+
+    private static final int FILE_COUNT = 5;
+    private static final int MAX_FILE_SIZE = 10000;
+
+    private static File directory;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        directory = File.createTempFile("undertow", "mapped");
+        directory.delete();
+        directory.mkdir();
+        for (int i = 0; i < FILE_COUNT; ++i) {
+            write("file" + i + ".txt", contents(i, 100 * (i + 1)));
+        }
+        write("large.txt", contents(FILE_COUNT, MAX_FILE_SIZE + 1));
+
+        final FileHandler handler = new FileHandler(directory);
+        //fewer mappings than files, so mappings are evicted and re-created
+        handler.setFileCache(new MappedFileCache(MAX_FILE_SIZE, 2));
+        final PathHandler path = new PathHandler();
+        path.addPath("/path", handler);
+        final CanonicalPathHandler root = new CanonicalPathHandler();
+        root.setNext(path);
+        DefaultServer.setRootHandler(root);
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testMappedFilesAreServed() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            for (int j = 0; j < 10; ++j) {
+                for (int i = 0; i < FILE_COUNT; ++i) {
+                    final HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/path/file" + i + ".txt"));
+                    Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                    Assert.assertEquals(contents(i, 100 * (i + 1)), HttpClientUtils.readResponse(result));
+                }
+            }
+            final HttpResponse result = client.execute(new HttpHead(DefaultServer.getDefaultServerAddress() + "/path/file1.txt"));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("200", result.getFirstHeader(Headers.CONTENT_LENGTH_STRING).getValue());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testLargeAndMissingFiles() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/path/large.txt"));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(contents(FILE_COUNT, MAX_FILE_SIZE + 1), HttpClientUtils.readResponse(result));
+
+            result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/path/missing.txt"));
+            Assert.assertEquals(404, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static String contents(final int seed, final int length) {
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            builder.append((char) ('a' + (seed + i) % 26));
+        }
+        return builder.toString();
+    }
+
+    private static void write(final String name, final String contents) throws IOException {
+        final FileOutputStream out = new FileOutputStream(new File(directory, name));
+        try {
+            out.write(contents.getBytes());
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.undertow.test.handlers.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import io.undertow.server.handlers.CanonicalPathHandler;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.file.CachingFileCache;
+import io.undertow.server.handlers.file.FileHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.util.Headers;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that the caching file cache serves precompressed siblings and gzipped variants
+ */
+@RunWith(DefaultServer.class)
+public class PrecompressedFileTestCase {
+
+    private static final String SCRIPT;
+    private static final String STYLE = "body { color: black; }";
+    private static final String STYLE_GZ = "precompressed gzip";
+    private static final String STYLE_BR = "precompressed brotli";
+
+    private static File directory;
+
+    static {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; ++i) {
+            builder.append("var item").append(i).append(" = document.getElementById('item").append(i % 31).append("');\n");
+        }
+        SCRIPT = builder.toString();
+    }
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        directory = File.createTempFile("undertow", "precompressed");
+        directory.delete();
+        directory.mkdir();
+        write("script.js", SCRIPT);
+        write("style.css", STYLE);
+        write("style.css.gz", STYLE_GZ);
+        write("style.css.br", STYLE_BR);
+        write("image.png", SCRIPT);
+        write("late.js", SCRIPT);
+
+        final PathHandler path = new PathHandler();
+        path.addPath("/path", new FileHandler(directory));
+        //too small to hold the gzipped script
+        final FileHandler small = new FileHandler(directory);
+        small.setFileCache(new CachingFileCache(1024, 4));
+        path.addPath("/small", small);
+        final CanonicalPathHandler root = new CanonicalPathHandler();
+        root.setNext(path);
+        DefaultServer.setRootHandler(root);
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testFileIsCompressedOnce() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            //enough requests for the cache to allocate and then serve the cached variant
+            for (int i = 0; i < 20; ++i) {
+                final HttpResponse result = runRequest(client, new HttpGet(DefaultServer.getDefaultServerAddress() + "/path/script.js"), "gzip, deflate");
+                Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+                Assert.assertEquals(Headers.ACCEPT_ENCODING_STRING, result.getFirstHeader(Headers.VARY_STRING).getValue());
+                final byte[] compressed = readBytes(result.getEntity().getContent());
+                Assert.assertEquals(compressed.length, Integer.parseInt(result.getFirstHeader(Headers.CONTENT_LENGTH_STRING).getValue()));
+                Assert.assertTrue(compressed.length < SCRIPT.length() / 4);
+                Assert.assertEquals(SCRIPT, new String(readBytes(new GZIPInputStream(new ByteArrayInputStream(compressed)))));
+            }
+
+            final HttpResponse result = runRequest(client, new HttpHead(DefaultServer.getDefaultServerAddress() + "/path/script.js"), "gzip");
+            Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+            final int length = Integer.parseInt(result.getFirstHeader(Headers.CONTENT_LENGTH_STRING).getValue());
+            Assert.assertTrue(length > 0 && length < SCRIPT.length() / 4);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testPrecompressedSiblingIsServed() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            final String uri = DefaultServer.getDefaultServerAddress() + "/path/style.css";
+            for (int i = 0; i < 10; ++i) {
+                HttpResponse result = runRequest(client, new HttpGet(uri), "gzip, br");
+                Assert.assertEquals("br", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+                Assert.assertEquals(STYLE_BR, new String(readBytes(result.getEntity().getContent())));
+
+                result = runRequest(client, new HttpGet(uri), "gzip;q=1.0, br;q=0.5");
+                Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+                Assert.assertEquals(STYLE_GZ, new String(readBytes(result.getEntity().getContent())));
+
+                result = runRequest(client, new HttpGet(uri), "*, br;q=0");
+                Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+                Assert.assertEquals(STYLE_GZ, new String(readBytes(result.getEntity().getContent())));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testSiblingIsFoundAfterGzippedVariantIsCached() throws Exception {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            final String uri = DefaultServer.getDefaultServerAddress() + "/path/late.js";
+            for (int i = 0; i < 10; ++i) {
+                final HttpResponse result = runRequest(client, new HttpGet(uri), "br, gzip");
+                Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+                readBytes(result.getEntity().getContent());
+            }
+            write("late.js.br", STYLE_BR);
+            //missing siblings are remembered for the check interval
+            Thread.sleep(1500);
+            final HttpResponse result = runRequest(client, new HttpGet(uri), "br, gzip");
+            Assert.assertEquals("br", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+            Assert.assertEquals(STYLE_BR, new String(readBytes(result.getEntity().getContent())));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testIdentityIsServed() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            for (int i = 0; i < 10; ++i) {
+                HttpResponse result = runRequest(client, new HttpGet(DefaultServer.getDefaultServerAddress() + "/path/script.js"), null);
+                Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+                Assert.assertEquals(SCRIPT, new String(readBytes(result.getEntity().getContent())));
+
+                result = runRequest(client, new HttpGet(DefaultServer.getDefaultServerAddress() + "/path/style.css"), "gzip;q=0");
+                Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+                Assert.assertEquals(STYLE, new String(readBytes(result.getEntity().getContent())));
+
+                //there is no brotli encoder, so without a sibling the identity bytes are served
+                result = runRequest(client, new HttpGet(DefaultServer.getDefaultServerAddress() + "/path/script.js"), "br");
+                Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+                Assert.assertEquals(SCRIPT, new String(readBytes(result.getEntity().getContent())));
+
+                result = runRequest(client, new HttpGet(DefaultServer.getDefaultServerAddress() + "/path/image.png"), "gzip");
+                Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+                Assert.assertNull(result.getFirstHeader(Headers.VARY_STRING));
+                Assert.assertEquals(SCRIPT, new String(readBytes(result.getEntity().getContent())));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testIdentityIsServedIfVariantCanNotBeCached() throws IOException {
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            for (int i = 0; i < 10; ++i) {
+                final HttpResponse result = runRequest(client, new HttpGet(DefaultServer.getDefaultServerAddress() + "/small/script.js"), "gzip");
+                Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+                Assert.assertEquals(SCRIPT, new String(readBytes(result.getEntity().getContent())));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static HttpResponse runRequest(final DefaultHttpClient client, final HttpRequestBase request, final String acceptEncoding) throws IOException {
+        if (acceptEncoding != null) {
+            request.setHeader(Headers.ACCEPT_ENCODING_STRING, acceptEncoding);
+        }
+        final HttpResponse result = client.execute(request);
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        return result;
+    }
+
+    private static void write(final String name, final String contents) throws IOException {
+        final FileOutputStream out = new FileOutputStream(new File(directory, name));
+        try {
+            out.write(contents.getBytes());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] readBytes(final InputStream stream) throws IOException {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] data = new byte[1024];
+            int read;
+            while ((read = stream.read(data)) != -1) {
+                out.write(data, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+}
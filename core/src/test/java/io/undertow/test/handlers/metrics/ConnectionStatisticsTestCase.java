@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers.metrics;
+
+import io.undertow.server.ConnectionStatistics;
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that connections are counted as closed after they have served requests.
+ */
+@RunWith(DefaultServer.class)
+public class ConnectionStatisticsTestCase {
+
+    private static final int CONNECTIONS = 5;
+
+    @Test
+    public void testKeepAliveConnectionsAreClosed() throws Exception {
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+                completionHandler.handleComplete();
+            }
+        });
+        final ConnectionStatistics statistics = DefaultServer.getConnectionStatistics();
+        //connections left over from other tests are closed asynchronously
+        waitForOpenConnections(statistics, 0);
+        final long closed = statistics.getConnectionsClosed();
+
+        final DefaultHttpClient[] clients = new DefaultHttpClient[CONNECTIONS];
+        try {
+            for (int i = 0; i < CONNECTIONS; ++i) {
+                clients[i] = new DefaultHttpClient();
+                for (int j = 0; j < 3; ++j) {
+                    HttpResponse result = clients[i].execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/path"));
+                    Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                    HttpClientUtils.readResponse(result);
+                }
+            }
+            Assert.assertEquals(CONNECTIONS, statistics.getOpenConnections());
+        } finally {
+            for (DefaultHttpClient client : clients) {
+                if (client != null) {
+                    client.getConnectionManager().shutdown();
+                }
+            }
+        }
+        waitForOpenConnections(statistics, 0);
+        Assert.assertEquals(closed + CONNECTIONS, statistics.getConnectionsClosed());
+    }
+
+    /**
+     * The server sees the close of a connection after the client has shut it down
+     */
+    private static void waitForOpenConnections(final ConnectionStatistics statistics, final long expected) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        while (statistics.getOpenConnections() != expected) {
+            if (System.currentTimeMillis() > end) {
+                Assert.fail("Expected " + expected + " open connections but there were " + statistics.getOpenConnections());
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers.metrics;
+
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.metrics.HandlerMetrics;
+import io.undertow.server.handlers.metrics.MetricsHandler;
+import io.undertow.server.handlers.metrics.MetricsRegistry;
+import io.undertow.server.handlers.metrics.PrometheusHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(DefaultServer.class)
+public class MetricsHandlerTestCase {
+
+    @Test
+    public void testMetrics() throws Exception {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final MetricsHandler handler = new MetricsHandler(registry, "app \"main\"");
+        handler.setNext(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+                exchange.setResponseCode(exchange.getRelativePath().equals("/missing") ? 404 : 200);
+                completionHandler.handleComplete();
+            }
+        });
+        final PathHandler root = new PathHandler();
+        root.setDefaultHandler(handler);
+        root.addPath("/metrics", new PrometheusHandler(registry));
+        DefaultServer.setRootHandler(root);
+        final DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            for (int i = 0; i < 3; ++i) {
+                HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/path"));
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                HttpClientUtils.readResponse(result);
+            }
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/missing"));
+            Assert.assertEquals(404, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+
+            final HandlerMetrics metrics = handler.getMetrics();
+            waitForCompletion(metrics);
+            Assert.assertEquals(4, metrics.getRequestCount());
+            Assert.assertEquals(3, metrics.getSuccessfulResponses());
+            Assert.assertEquals(1, metrics.getClientErrorResponses());
+            Assert.assertEquals(0, metrics.getServerErrorResponses());
+            Assert.assertEquals(4, metrics.getLatency().getCount());
+
+            result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/metrics"));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertTrue(result.getFirstHeader("Content-Type").getValue().startsWith("text/plain; version=0.0.4"));
+            final String response = HttpClientUtils.readResponse(result);
+            Assert.assertTrue(response, response.contains("# TYPE undertow_requests_total counter\n"));
+            Assert.assertTrue(response, response.contains("undertow_requests_total{handler=\"app \\\"main\\\"\"} 4\n"));
+            Assert.assertTrue(response, response.contains("undertow_responses_total{handler=\"app \\\"main\\\"\",code=\"2xx\"} 3\n"));
+            Assert.assertTrue(response, response.contains("undertow_responses_total{handler=\"app \\\"main\\\"\",code=\"4xx\"} 1\n"));
+            Assert.assertTrue(response, response.contains("undertow_request_duration_seconds_bucket{handler=\"app \\\"main\\\"\",le=\"+Inf\"} 4\n"));
+            Assert.assertTrue(response, response.contains("undertow_request_duration_seconds_count{handler=\"app \\\"main\\\"\"} 4\n"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    /**
+     * Completion listeners run once the response has been flushed, which can be after the client has read it
+     */
+    private static void waitForCompletion(final HandlerMetrics metrics) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        while (metrics.getActiveRequests() != 0) {
+            if (System.currentTimeMillis() > end) {
+                Assert.fail("Requests did not complete");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers.path;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.PathTemplateHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that the path template handler works as expected
+ */
+@RunWith(DefaultServer.class)
+public class PathTemplateTestCase {
+
+    public static final String MATCHED = "matched";
+    public static final String PARAMETERS = "parameters";
+
+    private static PathTemplateHandler handler;
+
+    @BeforeClass
+    public static void setup() {
+        handler = new PathTemplateHandler();
+        handler.add("/users", new TemplateHandler("/users"));
+        handler.add("/users/{id}", new TemplateHandler("/users/{id}"));
+        handler.add("/users/me", new TemplateHandler("/users/me"));
+        handler.add("/users/{id}/orders/{orderId}", new TemplateHandler("/users/{id}/orders/{orderId}"));
+        handler.add("/users/me/orders/latest", new TemplateHandler("/users/me/orders/latest"));
+        handler.add(Methods.GET, "items/{item}", new TemplateHandler("GET /items/{item}"));
+        handler.add(Methods.DELETE, "/items/{item}", new TemplateHandler("DELETE /items/{item}"));
+        DefaultServer.setRootHandler(handler);
+    }
+
+    @Test
+    public void testTemplateMatching() throws IOException {
+        DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            runTemplateTest(client, new HttpGet(DefaultServer.getDefaultServerAddress() + "/users"), "/users", "{}");
+            runTemplateTest(client, new HttpGet(DefaultServer.getDefaultServerAddress() + "/users/12"), "/users/{id}", "{id=12}");
+            runTemplateTest(client, new HttpGet(DefaultServer.getDefaultServerAddress() + "/users/me"), "/users/me", "{}");
+            runTemplateTest(client, new HttpGet(DefaultServer.getDefaultServerAddress() + "/users/12/orders/7?a=b"), "/users/{id}/orders/{orderId}", "{id=12, orderId=7}");
+            runTemplateTest(client, new HttpGet(DefaultServer.getDefaultServerAddress() + "/users/me/orders/latest"), "/users/me/orders/latest", "{}");
+            //the literal segment leads to a dead end, so the parameter is tried
+            runTemplateTest(client, new HttpGet(DefaultServer.getDefaultServerAddress() + "/users/me/orders/3"), "/users/{id}/orders/{orderId}", "{id=me, orderId=3}");
+
+            runNotFoundTest(client, "/users/12/orders");
+            runNotFoundTest(client, "/users/12/");
+            runNotFoundTest(client, "/users//orders/7");
+            runNotFoundTest(client, "/");
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testMethodDispatch() throws IOException {
+        DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            runTemplateTest(client, new HttpGet(DefaultServer.getDefaultServerAddress() + "/items/a"), "GET /items/{item}", "{item=a}");
+            runTemplateTest(client, new HttpDelete(DefaultServer.getDefaultServerAddress() + "/items/a"), "DELETE /items/{item}", "{item=a}");
+
+            final HttpResponse result = client.execute(new HttpPost(DefaultServer.getDefaultServerAddress() + "/items/a"));
+            Assert.assertEquals(405, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("GET, DELETE", result.getFirstHeader(Headers.ALLOW_STRING).getValue());
+            HttpClientUtils.readResponse(result);
+
+            handler.remove(Methods.DELETE, "/items/{item}");
+            runNotAllowedTest(client, new HttpDelete(DefaultServer.getDefaultServerAddress() + "/items/a"));
+            handler.add(Methods.DELETE, "/items/{item}", new TemplateHandler("DELETE /items/{item}"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTemplate() {
+        new PathTemplateHandler().add("/users/{id", new TemplateHandler("/users/{id"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateParameterName() {
+        new PathTemplateHandler().add("/users/{id}/orders/{id}", new TemplateHandler("/users/{id}/orders/{id}"));
+    }
+
+    private void runTemplateTest(DefaultHttpClient client, HttpUriRequest request, String expectedMatch, String expectedParameters) throws IOException {
+        HttpResponse result = client.execute(request);
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        Assert.assertEquals(expectedMatch, result.getFirstHeader(MATCHED).getValue());
+        Assert.assertEquals(expectedParameters, result.getFirstHeader(PARAMETERS).getValue());
+        HttpClientUtils.readResponse(result);
+    }
+
+    private void runNotFoundTest(DefaultHttpClient client, String path) throws IOException {
+        HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + path));
+        Assert.assertEquals(404, result.getStatusLine().getStatusCode());
+        HttpClientUtils.readResponse(result);
+    }
+
+    private void runNotAllowedTest(DefaultHttpClient client, HttpUriRequest request) throws IOException {
+        HttpResponse result = client.execute(request);
+        Assert.assertEquals(405, result.getStatusLine().getStatusCode());
+        Assert.assertEquals("GET", result.getFirstHeader(Headers.ALLOW_STRING).getValue());
+        HttpClientUtils.readResponse(result);
+    }
+
+    private static class TemplateHandler implements HttpHandler {
+
+        private final String matched;
+
+        private TemplateHandler(String matched) {
+            this.matched = matched;
+        }
+
+        @Override
+        public void handleRequest(HttpServerExchange exchange, HttpCompletionHandler completionHandler) {
+            final Map<String, String> parameters = new TreeMap<String, String>(exchange.getAttachment(PathTemplateHandler.PATH_PARAMETERS));
+            exchange.getResponseHeaders().add(new HttpString(MATCHED), matched);
+            exchange.getResponseHeaders().add(new HttpString(PARAMETERS), parameters.toString());
+            completionHandler.handleComplete();
+        }
+    }
+}
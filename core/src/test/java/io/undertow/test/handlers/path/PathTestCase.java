@@ -91,6 +91,40 @@ public class PathTestCase {
         }
     }
 
+    @Test
+    public void testMultiSegmentPathHandling() throws IOException {
+        DefaultHttpClient client = new DefaultHttpClient();
+        try {
+            final PathHandler handler = new PathHandler();
+            handler.addPath("/api", new RemainingPathHandler("/api"));
+            handler.addPath("/api/v1/users", new RemainingPathHandler("/api/v1/users"));
+            handler.addPath("/api/v1/users/admin", new RemainingPathHandler("/api/v1/users/admin"));
+            handler.addPath("/static/images", new RemainingPathHandler("/static/images"));
+
+            DefaultServer.setRootHandler(handler);
+
+            runPathTest(client, "/api", "/api", "");
+            runPathTest(client, "/api/v1", "/api", "/v1");
+            runPathTest(client, "/api/v1/users", "/api/v1/users", "");
+            runPathTest(client, "/api/v1/users/1", "/api/v1/users", "/1");
+            runPathTest(client, "/api/v1/usersx", "/api", "/v1/usersx");
+            runPathTest(client, "/api/v1/users/admin/", "/api/v1/users/admin", "/");
+            runPathTest(client, "/static/images/a.png", "/static/images", "/a.png");
+
+            //there is no handler for the intermediate segment
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/static/a.png");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(404, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+
+            handler.removePath("/api/v1/users");
+            runPathTest(client, "/api/v1/users/1", "/api", "/v1/users/1");
+            runPathTest(client, "/api/v1/users/admin", "/api/v1/users/admin", "");
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
     private void runPathTest(DefaultHttpClient client, String path, String expectedMatch, String expectedRemaining) throws IOException {
         runPathTest(client, path, expectedMatch, expectedRemaining, Collections.<String, String>emptyMap());
     }
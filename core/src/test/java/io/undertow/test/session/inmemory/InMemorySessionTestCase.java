@@ -18,7 +18,10 @@
 
 package io.undertow.test.session.inmemory;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import io.undertow.server.HttpCompletionHandler;
 import io.undertow.server.HttpHandler;
@@ -26,9 +29,11 @@ import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.CookieHandler;
 import io.undertow.server.handlers.HttpHandlers;
 import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.server.session.FileSessionStore;
 import io.undertow.server.session.InMemorySessionManager;
 import io.undertow.server.session.Session;
 import io.undertow.server.session.SessionAttachmentHandler;
+import io.undertow.server.session.SessionListener;
 import io.undertow.server.session.SessionManager;
 import io.undertow.test.utils.DefaultServer;
 import io.undertow.test.utils.HttpClientUtils;
@@ -108,4 +113,218 @@ public class InMemorySessionTestCase {
         }
     }
 
+    @Test
+    public void testSessionExpiry() throws IOException, InterruptedException {
+        DefaultHttpClient client = new DefaultHttpClient();
+        client.setCookieStore(new BasicCookieStore());
+        final CookieHandler cookieHandler = new CookieHandler();
+        final CountDownLatch expired = new CountDownLatch(1);
+        try {
+            final InMemorySessionManager sessionManager = new InMemorySessionManager();
+            sessionManager.registerSessionListener(new SessionListener() {
+                @Override
+                public void sessionCreated(final Session session, final HttpServerExchange exchange) {
+                }
+
+                @Override
+                public void sessionDestroyed(final Session session, final HttpServerExchange exchange, final boolean wasExpired) {
+                    if (wasExpired && exchange == null) {
+                        expired.countDown();
+                    }
+                }
+
+                @Override
+                public void attributeAdded(final Session session, final String name, final Object value) {
+                }
+
+                @Override
+                public void attributeUpdated(final Session session, final String name, final Object newValue) {
+                }
+
+                @Override
+                public void attributeRemoved(final Session session, final String name) {
+                }
+            });
+            final SessionAttachmentHandler handler = new SessionAttachmentHandler(sessionManager);
+            handler.setNext(new HttpHandler() {
+                @Override
+                public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+                    try {
+                        Session session = exchange.getAttachment(Session.ATTACHMENT_KEY);
+                        if (session == null) {
+                            final SessionManager manager = exchange.getAttachment(SessionManager.ATTACHMENT_KEY);
+                            session = manager.createSession(exchange).get();
+                            session.setMaxInactiveInterval(1);
+                            session.setAttribute(COUNT, 0);
+                        }
+                        Integer count = (Integer) session.getAttribute(COUNT).get();
+                        exchange.getResponseHeaders().add(new HttpString(COUNT), count.toString());
+                        session.setAttribute(COUNT, ++count);
+                        HttpHandlers.executeHandler(ResponseCodeHandler.HANDLE_200, exchange, completionHandler);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            cookieHandler.setNext(handler);
+            DefaultServer.setRootHandler(cookieHandler);
+
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/notamatchingpath");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("0", result.getHeaders(COUNT)[0].getValue());
+
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("1", result.getHeaders(COUNT)[0].getValue());
+
+            //the session is expired by the sweep without any further requests
+            Assert.assertTrue(expired.await(10, TimeUnit.SECONDS));
+
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("0", result.getHeaders(COUNT)[0].getValue());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testSessionPassivation() throws IOException, InterruptedException {
+        DefaultHttpClient client1 = new DefaultHttpClient();
+        client1.setCookieStore(new BasicCookieStore());
+        DefaultHttpClient client2 = new DefaultHttpClient();
+        client2.setCookieStore(new BasicCookieStore());
+        final File file = File.createTempFile("sessions", ".log");
+        final FileSessionStore store = new FileSessionStore(file);
+        final CookieHandler cookieHandler = new CookieHandler();
+        try {
+            final InMemorySessionManager sessionManager = new InMemorySessionManager();
+            sessionManager.setMaxActiveSessions(1);
+            sessionManager.setPassivationStore(store);
+            final SessionAttachmentHandler handler = new SessionAttachmentHandler(sessionManager);
+            handler.setNext(new HttpHandler() {
+                @Override
+                public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+                    try {
+                        Session session = exchange.getAttachment(Session.ATTACHMENT_KEY);
+                        if (session == null) {
+                            final SessionManager manager = exchange.getAttachment(SessionManager.ATTACHMENT_KEY);
+                            session = manager.createSession(exchange).get();
+                            session.setAttribute(COUNT, 0);
+                        }
+                        Integer count = (Integer) session.getAttribute(COUNT).get();
+                        exchange.getResponseHeaders().add(new HttpString(COUNT), count.toString());
+                        session.setAttribute(COUNT, ++count);
+                        HttpHandlers.executeHandler(ResponseCodeHandler.HANDLE_200, exchange, completionHandler);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            cookieHandler.setNext(handler);
+            DefaultServer.setRootHandler(cookieHandler);
+
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/notamatchingpath");
+            HttpResponse result = client1.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("0", result.getHeaders(COUNT)[0].getValue());
+
+            //creating a second session passivates the first one
+            result = client2.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("0", result.getHeaders(COUNT)[0].getValue());
+            waitForPassivation(file, 0);
+            final long length = file.length();
+
+            //the first session is activated again, and the second one is passivated
+            result = client1.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("1", result.getHeaders(COUNT)[0].getValue());
+            waitForPassivation(file, length);
+
+            result = client2.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("1", result.getHeaders(COUNT)[0].getValue());
+        } finally {
+            client1.getConnectionManager().shutdown();
+            client2.getConnectionManager().shutdown();
+            store.close();
+        }
+    }
+
+    @Test
+    public void testSessionRetrievedTwiceIsPassivated() throws IOException, InterruptedException {
+        DefaultHttpClient client1 = new DefaultHttpClient();
+        client1.setCookieStore(new BasicCookieStore());
+        DefaultHttpClient client2 = new DefaultHttpClient();
+        client2.setCookieStore(new BasicCookieStore());
+        final File file = File.createTempFile("sessions", ".log");
+        final FileSessionStore store = new FileSessionStore(file);
+        final CookieHandler cookieHandler = new CookieHandler();
+        try {
+            final InMemorySessionManager sessionManager = new InMemorySessionManager();
+            sessionManager.setMaxActiveSessions(1);
+            sessionManager.setPassivationStore(store);
+            final SessionAttachmentHandler handler = new SessionAttachmentHandler(sessionManager);
+            handler.setNext(new HttpHandler() {
+                @Override
+                public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+                    try {
+                        final SessionManager manager = exchange.getAttachment(SessionManager.ATTACHMENT_KEY);
+                        Session session = exchange.getAttachment(Session.ATTACHMENT_KEY);
+                        if (session == null) {
+                            session = manager.createSession(exchange).get();
+                            session.setAttribute(COUNT, 0);
+                        } else {
+                            //a second lookup by the same exchange
+                            session = manager.getSession(exchange, session.getId()).get();
+                        }
+                        Integer count = (Integer) session.getAttribute(COUNT).get();
+                        exchange.getResponseHeaders().add(new HttpString(COUNT), count.toString());
+                        session.setAttribute(COUNT, ++count);
+                        HttpHandlers.executeHandler(ResponseCodeHandler.HANDLE_200, exchange, completionHandler);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            cookieHandler.setNext(handler);
+            DefaultServer.setRootHandler(cookieHandler);
+
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/notamatchingpath");
+            HttpResponse result = client1.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            result = client1.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("1", result.getHeaders(COUNT)[0].getValue());
+
+            //the first session is no longer in use, so creating a second session passivates it
+            result = client2.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            waitForPassivation(file, 0);
+        } finally {
+            client1.getConnectionManager().shutdown();
+            client2.getConnectionManager().shutdown();
+            store.close();
+        }
+    }
+
+    private static void waitForPassivation(final File file, final long length) throws InterruptedException {
+        for (int i = 0; i < 100 && file.length() <= length; ++i) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(file.length() > length);
+    }
+
 }
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.session.offheap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.undertow.server.HttpCompletionHandler;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.CookieHandler;
+import io.undertow.server.handlers.HttpHandlers;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.server.session.OffHeapSessionManager;
+import io.undertow.server.session.Session;
+import io.undertow.server.session.SessionAttachmentHandler;
+import io.undertow.server.session.SessionManager;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.HttpString;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that sessions with off heap attributes keep their state, including changes made to attribute values
+ * without setting them again, and return the previous value when an attribute is replaced.
+ */
+@RunWith(DefaultServer.class)
+public class OffHeapSessionTestCase {
+
+    public static final String COUNT = "count";
+    public static final String VISITS = "visits";
+    public static final String NAME = "name";
+
+    @Test
+    public void testOffHeapSession() throws IOException {
+        DefaultHttpClient client = new DefaultHttpClient();
+        client.setCookieStore(new BasicCookieStore());
+        final CookieHandler cookieHandler = new CookieHandler();
+        try {
+            final SessionAttachmentHandler handler = new SessionAttachmentHandler(new OffHeapSessionManager(16, 1024, 0, getClass().getClassLoader()));
+            handler.setNext(new HttpHandler() {
+                @Override
+                public void handleRequest(final HttpServerExchange exchange, final HttpCompletionHandler completionHandler) {
+                    try {
+                        Session session = exchange.getAttachment(Session.ATTACHMENT_KEY);
+                        if (session == null) {
+                            final SessionManager manager = exchange.getAttachment(SessionManager.ATTACHMENT_KEY);
+                            session = manager.createSession(exchange).get();
+                            session.setAttribute(COUNT, 0);
+                            session.setAttribute(VISITS, new ArrayList<String>());
+                            session.setAttribute(NAME, "first");
+                        } else {
+                            //not read by this request, so the previous value is deserialized when it is asked for
+                            Assert.assertEquals("first", session.setAttribute(NAME, "second").get());
+                            Assert.assertEquals("second", session.setAttribute(NAME, "first").get());
+                        }
+                        Integer count = (Integer) session.getAttribute(COUNT).get();
+                        session.setAttribute(COUNT, ++count);
+                        //modified in place, the change is written back when the request is done
+                        @SuppressWarnings("unchecked")
+                        final List<String> visits = (List<String>) session.getAttribute(VISITS).get();
+                        visits.add(exchange.getRelativePath());
+                        Assert.assertSame(visits, session.getAttribute(VISITS).get());
+                        exchange.getResponseHeaders().add(new HttpString(COUNT), count.toString());
+                        exchange.getResponseHeaders().add(new HttpString(VISITS), visits.toString());
+                        HttpHandlers.executeHandler(ResponseCodeHandler.HANDLE_200, exchange, completionHandler);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            cookieHandler.setNext(handler);
+            DefaultServer.setRootHandler(cookieHandler);
+
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/a"));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("1", result.getHeaders(COUNT)[0].getValue());
+            Assert.assertEquals("[/a]", result.getHeaders(VISITS)[0].getValue());
+
+            result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/b"));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("2", result.getHeaders(COUNT)[0].getValue());
+            Assert.assertEquals("[/a, /b]", result.getHeaders(VISITS)[0].getValue());
+
+            result = client.execute(new HttpGet(DefaultServer.getDefaultServerAddress() + "/c"));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("3", result.getHeaders(COUNT)[0].getValue());
+            Assert.assertEquals("[/a, /b, /c]", result.getHeaders(VISITS)[0].getValue());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+}
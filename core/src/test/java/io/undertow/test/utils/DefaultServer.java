@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.InetSocketAddress;
 
+import io.undertow.server.ConnectionStatistics;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpOpenListener;
 import io.undertow.server.HttpTransferEncodingHandler;
@@ -146,6 +147,10 @@ public class DefaultServer extends BlockJUnit4ClassRunner {
         openListener.setUndertowOptions(options);
     }
 
+    public static ConnectionStatistics getConnectionStatistics() {
+        return openListener.getStatistics();
+    }
+
     public static class Parameterized extends org.junit.runners.Parameterized {
 
         public Parameterized(Class<?> klass) throws Throwable {
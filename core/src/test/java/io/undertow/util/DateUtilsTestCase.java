@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DateUtilsTestCase {
+
+    private static final long MAX_DATE = 4102444800000L; //2100-01-01
+
+    @Test
+    public void testFormatMatchesSimpleDateFormat() {
+        final SimpleDateFormat rfc1123 = createFormat("EEE, dd MMM yyyy HH:mm:ss z");
+        final SimpleDateFormat oldCookie = createFormat("EEE, dd-MMM-yyyy HH:mm:ss z");
+        final Random random = new Random(1);
+        for (int i = 0; i < 10000; ++i) {
+            final Date date = new Date((long) (random.nextDouble() * MAX_DATE));
+            Assert.assertEquals(rfc1123.format(date), DateUtils.toDateString(date));
+            Assert.assertEquals(oldCookie.format(date), DateUtils.toOldCookieDateString(date));
+        }
+        Assert.assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", DateUtils.toDateString(new Date(0)));
+        Assert.assertEquals("Tue, 29 Feb 2000 23:59:59 GMT", DateUtils.toDateString(new Date(951868799000L)));
+    }
+
+    @Test
+    public void testParseDate() {
+        final long expected = 784111777000L;
+        Assert.assertEquals(expected, DateUtils.parseDateMillis("Sun, 06 Nov 1994 08:49:37 GMT"));
+        Assert.assertEquals(expected, DateUtils.parseDateMillis("Sunday, 06-Nov-94 08:49:37 GMT"));
+        Assert.assertEquals(expected, DateUtils.parseDateMillis("Sun Nov  6 08:49:37 1994"));
+        Assert.assertEquals(expected, DateUtils.parseDateMillis("Sun, 06-Nov-1994 08:49:37 GMT"));
+        Assert.assertEquals(expected, DateUtils.parseDate("Sun, 06 Nov 1994 08:49:37 GMT").getTime());
+        Assert.assertEquals(1100335777000L, DateUtils.parseDateMillis("Sat Nov 13 08:49:37 2004"));
+        Assert.assertEquals(1099730977000L, DateUtils.parseDateMillis("Saturday, 06-Nov-04 08:49:37 GMT"));
+    }
+
+    @Test
+    public void testParseFormattedDates() {
+        final Random random = new Random(2);
+        for (int i = 0; i < 10000; ++i) {
+            final long millis = (long) (random.nextDouble() * MAX_DATE) / 1000 * 1000;
+            Assert.assertEquals(millis, DateUtils.parseDateMillis(DateUtils.toDateString(new Date(millis))));
+            Assert.assertEquals(millis, DateUtils.parseDateMillis(DateUtils.toOldCookieDateString(new Date(millis))));
+        }
+    }
+
+    @Test
+    public void testParseInvalidDates() {
+        Assert.assertNull(DateUtils.parseDate(""));
+        Assert.assertNull(DateUtils.parseDate("garbage"));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06 Nov 1994 08:49:37"));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06 Nov 1994 08:49:37 GMT "));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06 Foo 1994 08:49:37 GMT"));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06 Nov 1994 25:49:37 GMT"));
+        Assert.assertNull(DateUtils.parseDate("Sun, 32 Nov 1994 08:49:37 GMT"));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06 Nov 199 08:49:37 GMT"));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06 Nov 1994 08:4:37 GMT"));
+        Assert.assertNull(DateUtils.parseDate("Sun Nov  6 08:49:37 94"));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06-Nov 1994 08:49:37 GMT"));
+    }
+
+    @Test
+    public void testCurrentDateTime() {
+        final long before = System.currentTimeMillis() / 1000 * 1000;
+        final String date = DateUtils.getCurrentDateTime();
+        final long after = System.currentTimeMillis();
+        final long parsed = DateUtils.parseDateMillis(date);
+        Assert.assertTrue(parsed >= before && parsed <= after);
+    }
+
+    private static SimpleDateFormat createFormat(final String pattern) {
+        final SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xnio.ChannelListener;
+import org.xnio.channels.FixedLengthOverflowException;
+import org.xnio.channels.FixedLengthUnderflowException;
+import org.xnio.channels.StreamSinkChannel;
+
+public class FixedLengthStreamSinkChannelTestCase {
+
+    @Test
+    public void testPartialWrites() throws IOException {
+        final AtomicInteger finished = new AtomicInteger();
+        final FixedLengthStreamSinkChannel channel = new FixedLengthStreamSinkChannel(partialWriteChannel(1000), 5000, false, false, new ChannelListener<FixedLengthStreamSinkChannel>() {
+            @Override
+            public void handleEvent(final FixedLengthStreamSinkChannel channel) {
+                finished.incrementAndGet();
+            }
+        }, null);
+        final ByteBuffer buffer = ByteBuffer.allocate(5000);
+        long expected = 5000;
+        while (buffer.hasRemaining()) {
+            expected -= channel.write(buffer);
+            Assert.assertEquals(expected, channel.getRemaining());
+        }
+        Assert.assertEquals(0, channel.getRemaining());
+        channel.shutdownWrites();
+        channel.shutdownWrites();
+        Assert.assertEquals(1, finished.get());
+    }
+
+    @Test
+    public void testWriteIsLimitedToLength() throws IOException {
+        final FixedLengthStreamSinkChannel channel = new FixedLengthStreamSinkChannel(partialWriteChannel(1000), 1500, false, false, null, null);
+        final ByteBuffer[] buffers = {ByteBuffer.allocate(800), ByteBuffer.allocate(800)};
+        Assert.assertEquals(1500, channel.write(buffers));
+        Assert.assertEquals(100, buffers[1].remaining());
+        Assert.assertEquals(0, channel.getRemaining());
+        try {
+            channel.write(buffers[1]);
+            Assert.fail();
+        } catch (FixedLengthOverflowException expected) {
+        }
+    }
+
+    @Test(expected = FixedLengthUnderflowException.class)
+    public void testUnderflow() throws IOException {
+        final FixedLengthStreamSinkChannel channel = new FixedLengthStreamSinkChannel(partialWriteChannel(1000), 1500, false, false, null, null);
+        channel.write(ByteBuffer.allocate(1000));
+        channel.shutdownWrites();
+    }
+
+    /**
+     * @return A channel that writes at most the given number of bytes from each buffer
+     */
+    private static StreamSinkChannel partialWriteChannel(final int maxWrite) {
+        final ChannelListener.SimpleSetter<StreamSinkChannel> writeSetter = new ChannelListener.SimpleSetter<StreamSinkChannel>();
+        return (StreamSinkChannel) Proxy.newProxyInstance(FixedLengthStreamSinkChannelTestCase.class.getClassLoader(), new Class[]{StreamSinkChannel.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                if (method.getName().equals("write")) {
+                    final ByteBuffer buffer = args[0] instanceof ByteBuffer ? (ByteBuffer) args[0] : firstRemaining((ByteBuffer[]) args[0]);
+                    final int res = Math.min(buffer.remaining(), maxWrite);
+                    buffer.position(buffer.position() + res);
+                    return method.getReturnType() == int.class ? (Object) res : (Object) (long) res;
+                } else if (method.getName().equals("getWriteSetter")) {
+                    return writeSetter;
+                } else if (method.getReturnType() == boolean.class) {
+                    return true;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static ByteBuffer firstRemaining(final ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return buffer;
+            }
+        }
+        return buffers[0];
+    }
+}
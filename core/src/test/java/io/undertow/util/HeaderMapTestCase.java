@@ -0,0 +1,217 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeaderMapTestCase {
+
+    private static final byte[] DATA = "text/htmlgzipa=bc=d".getBytes();
+
+    @Test
+    public void testLazyValues() {
+        final HeaderMap map = new HeaderMap();
+        map.addLazy(Headers.CONTENT_TYPE, DATA, 0, 9);
+        map.addLazy(Headers.ACCEPT_ENCODING, DATA, 9, 4);
+        Assert.assertEquals("text/html", map.getFirst(Headers.CONTENT_TYPE));
+        Assert.assertEquals("text/html", map.getFirst(new HttpString("content-type")));
+        Assert.assertTrue(map.contains(Headers.ACCEPT_ENCODING));
+        Assert.assertEquals("gzip", map.getFirst(Headers.ACCEPT_ENCODING));
+        Assert.assertNull(map.getFirst(Headers.COOKIE));
+        Assert.assertFalse(map.contains(Headers.COOKIE));
+    }
+
+    @Test
+    public void testLazyValuesKeepOrder() {
+        final HeaderMap map = new HeaderMap();
+        map.addLazy(Headers.COOKIE, DATA, 13, 3);
+        map.add(Headers.COOKIE, "e=f");
+        map.addLazy(Headers.COOKIE, DATA, 16, 3);
+        final Deque<String> values = map.get(Headers.COOKIE);
+        Assert.assertEquals(3, values.size());
+        final List<String> list = new ArrayList<String>(values);
+        Assert.assertEquals("a=b", list.get(0));
+        Assert.assertEquals("e=f", list.get(1));
+        Assert.assertEquals("c=d", list.get(2));
+    }
+
+    @Test
+    public void testLazyValuesWithPutAndRemove() {
+        final HeaderMap map = new HeaderMap();
+        map.addLazy(Headers.CONTENT_TYPE, DATA, 0, 9);
+        map.addLazy(Headers.ACCEPT_ENCODING, DATA, 9, 4);
+        map.put(Headers.CONTENT_TYPE, "text/plain");
+        Assert.assertEquals(1, map.get(Headers.CONTENT_TYPE).size());
+        Assert.assertEquals("text/plain", map.getFirst(Headers.CONTENT_TYPE));
+
+        final Collection<String> removed = map.remove(Headers.ACCEPT_ENCODING);
+        Assert.assertEquals(1, removed.size());
+        Assert.assertEquals("gzip", removed.iterator().next());
+        Assert.assertNull(map.getFirst(Headers.ACCEPT_ENCODING));
+    }
+
+    @Test
+    public void testLazyValuesIterationAndClear() {
+        final HeaderMap map = new HeaderMap();
+        for (int i = 0; i < 40; ++i) {
+            map.addLazy(new HttpString("Header" + i), DATA, 0, 4);
+        }
+        int count = 0;
+        for (HttpString name : map) {
+            Assert.assertEquals("text", map.getFirst(name));
+            ++count;
+        }
+        Assert.assertEquals(40, count);
+        Assert.assertEquals(40, map.getHeaderNames().size());
+
+        map.addLazy(Headers.COOKIE, DATA, 13, 3);
+        map.clear();
+        Assert.assertNull(map.getFirst(Headers.COOKIE));
+        Assert.assertFalse(map.iterator().hasNext());
+    }
+
+    @Test
+    public void testHeaderNamesIsACopy() {
+        final HeaderMap map = new HeaderMap();
+        map.add(Headers.CONTENT_TYPE, "text/html");
+        map.add(Headers.COOKIE, "a=b");
+        map.add(Headers.COOKIE, "c=d");
+        final Set<HttpString> names = map.getHeaderNames();
+        Assert.assertEquals(2, names.size());
+        Assert.assertTrue(names.contains(new HttpString("content-type")));
+        Assert.assertFalse(names.contains(Headers.ACCEPT));
+        Assert.assertEquals(new HashSet<HttpString>(Arrays.asList(Headers.CONTENT_TYPE, Headers.COOKIE)), names);
+
+        //the map can be changed while the names are iterated
+        for (final HttpString name : names) {
+            map.remove(name);
+            map.add(Headers.ACCEPT, "*/*");
+        }
+        Assert.assertEquals(2, names.size());
+        Assert.assertEquals(Arrays.asList(Headers.ACCEPT), new ArrayList<HttpString>(map.getHeaderNames()));
+    }
+
+    @Test
+    public void testSingleAndMultipleValues() {
+        final HeaderMap map = new HeaderMap();
+        map.add(Headers.CONTENT_TYPE, "text/html");
+        Assert.assertEquals("text/html", map.getFirst(Headers.CONTENT_TYPE));
+        Assert.assertEquals("text/html", map.getLast(Headers.CONTENT_TYPE));
+        map.add(Headers.CONTENT_TYPE, "text/plain");
+        Assert.assertEquals("text/html", map.getFirst(Headers.CONTENT_TYPE));
+        Assert.assertEquals("text/plain", map.getLast(Headers.CONTENT_TYPE));
+        Assert.assertEquals(2, map.get(Headers.CONTENT_TYPE).size());
+        Assert.assertEquals(1, map.size());
+
+        //the deque returned by get() is backed by the map
+        map.get(Headers.CONTENT_TYPE).add("text/xml");
+        Assert.assertEquals("text/xml", map.getLast(Headers.CONTENT_TYPE));
+
+        map.put(Headers.CONTENT_TYPE, "application/json");
+        Assert.assertEquals(1, map.get(Headers.CONTENT_TYPE).size());
+
+        map.putAll(Headers.COOKIE, Arrays.asList("a=b", "c=d"));
+        Assert.assertEquals("c=d", map.getLast(Headers.COOKIE));
+        map.addAll(Headers.COOKIE, Arrays.asList("e=f"));
+        Assert.assertEquals(3, map.get(Headers.COOKIE).size());
+
+        map.addAll(Headers.ACCEPT, Collections.<String>emptyList());
+        Assert.assertFalse(map.contains(Headers.ACCEPT));
+        Assert.assertNull(map.getFirst(Headers.ACCEPT));
+    }
+
+    @Test
+    public void testInsertionOrderAndRemoval() {
+        final HeaderMap map = new HeaderMap();
+        final List<HttpString> expected = new ArrayList<HttpString>();
+        for (int i = 0; i < 100; ++i) {
+            final HttpString name = new HttpString("Header" + i);
+            map.put(name, "value" + i);
+            expected.add(name);
+        }
+        Assert.assertEquals(100, map.size());
+        for (int i = 0; i < 100; i += 2) {
+            Assert.assertEquals(Collections.singletonList("value" + i), new ArrayList<String>(map.remove(new HttpString("header" + i))));
+            expected.remove(new HttpString("Header" + i));
+        }
+        Assert.assertNull(map.remove(new HttpString("Header0")));
+        Assert.assertEquals(50, map.size());
+        Assert.assertEquals(expected, new ArrayList<HttpString>(map.getHeaderNames()));
+
+        //adding more headers re-uses the space left by the removed ones
+        for (int i = 100; i < 200; ++i) {
+            map.put(new HttpString("Header" + i), "value" + i);
+        }
+        for (int i = 0; i < 200; ++i) {
+            final String value = map.getFirst(new HttpString("Header" + i));
+            if (i < 100 && i % 2 == 0) {
+                Assert.assertNull(value);
+            } else {
+                Assert.assertEquals("value" + i, value);
+            }
+        }
+
+        final Iterator<HttpString> it = map.iterator();
+        while (it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        Assert.assertEquals(0, map.size());
+        Assert.assertFalse(map.iterator().hasNext());
+        Assert.assertNull(map.getFirst(new HttpString("Header1")));
+    }
+
+    @Test
+    public void testAddAllWithLazyValues() {
+        final HeaderMap source = new HeaderMap();
+        source.addLazy(Headers.COOKIE, DATA, 13, 3);
+        final HeaderMap target = new HeaderMap();
+        target.addLazy(Headers.COOKIE, DATA, 16, 3);
+        target.addAll(source);
+        final List<String> list = new ArrayList<String>(target.get(Headers.COOKIE));
+        Assert.assertEquals(2, list.size());
+        Assert.assertEquals("c=d", list.get(0));
+        Assert.assertEquals("a=b", list.get(1));
+    }
+
+    @Test
+    public void testAddFrom() {
+        final HeaderMap source = new HeaderMap();
+        source.addLazy(Headers.COOKIE, DATA, 13, 3);
+        source.add(Headers.CONTENT_TYPE, "text/plain");
+        final HeaderMap target = new HeaderMap();
+        for (int i = source.fastIterate(); i != -1; i = source.fiNext(i)) {
+            target.addFrom(source, i);
+        }
+        Assert.assertEquals(2, target.size());
+        Assert.assertEquals("a=b", target.getFirst(Headers.COOKIE));
+        Assert.assertEquals("text/plain", target.getFirst(Headers.CONTENT_TYPE));
+    }
+}